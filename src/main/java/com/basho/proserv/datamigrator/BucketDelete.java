@@ -12,6 +12,7 @@ import com.basho.proserv.datamigrator.io.KeyJournal;
 import com.basho.proserv.datamigrator.riak.AbstractClientDataDeleter;
 import com.basho.proserv.datamigrator.riak.ClientDataDeleter;
 import com.basho.proserv.datamigrator.riak.Connection;
+import com.basho.proserv.datamigrator.riak.KeySourceFactory;
 import com.basho.proserv.datamigrator.riak.ThreadedClientDataDeleter;
 
 public class BucketDelete {
@@ -19,6 +20,7 @@ public class BucketDelete {
 	public final Summary summary = new Summary();
 	private final Connection connection;
 	private final boolean verboseOutput;
+	private KeySourceFactory keySourceFactory = new KeySourceFactory();
 	
 	private long timerStart = System.currentTimeMillis();
 	private long previousCount = 0;
@@ -28,6 +30,13 @@ public class BucketDelete {
 		this.verboseOutput = verboseOutput;
 	}
 	
+	/**
+	 * Replaces listKeys as the way bucket keys are enumerated
+	 */
+	public void setKeySourceFactory(KeySourceFactory keySourceFactory) {
+		this.keySourceFactory = keySourceFactory;
+	}
+	
 	public long deleteBuckets(Set<String> bucketNames) {
 		if (bucketNames == null || bucketNames.size() == 0) {
 			throw new IllegalArgumentException("bucketNames must not be null and must not be sized 0");
@@ -105,12 +114,18 @@ public class BucketDelete {
 	public long dumpBucketKeys(String bucketName, File filePath) throws IOException {
 		KeyJournal keyJournal = new KeyJournal(filePath, KeyJournal.Mode.WRITE);
 		long keyCount = 0;
-		Iterable<String> keys = this.connection.riakClient.listKeys(bucketName);
-		for (String keyString : keys) {
-			keyJournal.write(bucketName, keyString);
-			++keyCount;
+		try {
+			Iterable<Key> keys = this.keySourceFactory.createKeySource(this.connection, bucketName);
+			for (Key key : keys) {
+				keyJournal.write(key.bucket(), key.key());
+				++keyCount;
+			}
+		} catch (IllegalStateException e) {
+			// key sources report listing failures part way through this way
+			throw new IOException("Error listing keys for bucket " + bucketName, e);
+		} finally {
+			keyJournal.close();
 		}
-		keyJournal.close();
 		return keyCount;
 	}
 	
@@ -120,7 +135,7 @@ public class BucketDelete {
 			long total = end-timerStart;
 			int recsSec = (int)((objectCount-this.previousCount)/(total/1000.0));
 			int perc = (int)((double)objectCount/(double)keyCount * 100);
-			String msg = String.format("\r%d%% completed. Deleted %d @ %d obj/sec          ", perc, objectCount, recsSec);
+			String msg = String.format("\r%d%% completed. Deleted %d @ %d obj/sec%s          ", perc, objectCount, recsSec, this.connection.limiterStatus());
 			System.out.print(msg);
 			System.out.flush();
 			
@@ -2,37 +2,116 @@ package com.basho.proserv.datamigrator;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.basho.proserv.datamigrator.io.ConcurrentKeyJournal;
+import com.basho.proserv.datamigrator.io.JournaledKeySource;
+import com.basho.proserv.datamigrator.io.Key;
 import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.KeyJournalSorter;
+import com.basho.proserv.datamigrator.io.MappedKeyJournal;
 import com.basho.proserv.datamigrator.io.RiakObjectBucket;
-import com.basho.proserv.datamigrator.riak.AbstractClientDataReader;
+import com.basho.proserv.datamigrator.io.RiakObjectWriter;
+import com.basho.proserv.datamigrator.io.UnwrittenKeyFinder;
+import com.basho.proserv.datamigrator.pipeline.PipelineExecutor;
 import com.basho.proserv.datamigrator.riak.ClientReaderFactory;
 import com.basho.proserv.datamigrator.riak.Connection;
+import com.basho.proserv.datamigrator.riak.FetchResult;
+import com.basho.proserv.datamigrator.riak.IFetchListener;
+import com.basho.proserv.datamigrator.riak.KeySourceFactory;
 import com.basho.proserv.datamigrator.riak.RiakBucketProperties;
 import com.basho.proserv.datamigrator.riak.ThreadedClientDataReader;
+import com.basho.proserv.datamigrator.riak.ThreadedClientKeyReader;
+import com.basho.proserv.datamigrator.util.NamedThreadFactory;
 import com.basho.riak.client.IRiakObject;
 import com.basho.riak.client.bucket.BucketProperties;
 
 // BucketDumper will only work with clients returning protobuffer objects, ie PBClient
 public class BucketDumper {
 	private final Logger log = LoggerFactory.getLogger(BucketDumper.class);
+	// dumped key journal bytes per partition when diffing for resume
+	private final static long RESUME_PARTITION_BYTES = 16 * 1024 * 1024;
+	// a key journal reader thread per this many fetch workers, up to MAX_KEY_READERS
+	private final static int KEY_READER_WORKERS = 32;
+	private final static int MAX_KEY_READERS = 4;
+	// how often progress is printed while the fetch workers run
+	private final static long STATUS_INTERVAL = 1000;
 	public final Summary summary = new Summary();
 	private final Connection connection;
 	private final Connection httpConnection;
 	private final File dataRoot;
 	private final boolean verboseStatusOutput;
 	private final int riakWorkerCount;
-	private int errorCount = 0;
+	private final int bucketParallelism;
+	private final boolean continuous;
+	private final boolean streamKeys;
+	private KeySourceFactory keySourceFactory = new KeySourceFactory();
+	private boolean sortKeys = false;
+	private final AtomicInteger errorCount = new AtomicInteger(0);
 	
 	private long timerStart = System.currentTimeMillis();
 	private long previousCount = 0;
 	
+	// parallel dump progress, summed across buckets
+	private final AtomicLong parallelKeyCount = new AtomicLong(0);
+	private final AtomicLong parallelObjectCount = new AtomicLong(0);
+	private final AtomicInteger activeBuckets = new AtomicInteger(0);
+	
 	public BucketDumper(Connection connection, Connection httpConnection, File dataRoot, 
 			boolean verboseStatusOutput, int riakWorkerCount) {
+		this(connection, httpConnection, dataRoot, verboseStatusOutput, riakWorkerCount, 1);
+	}
+	
+	/**
+	 * With bucketParallelism > 1, dumpBuckets/dumpAllBuckets dump that many
+	 * buckets at once.  riakWorkerCount is then a global budget split evenly
+	 * between the concurrent buckets rather than a per-bucket count.
+	 */
+	public BucketDumper(Connection connection, Connection httpConnection, File dataRoot, 
+			boolean verboseStatusOutput, int riakWorkerCount, int bucketParallelism) {
+		this(connection, httpConnection, dataRoot, verboseStatusOutput, riakWorkerCount, 
+				bucketParallelism, false);
+	}
+	
+	/**
+	 * With continuous set, dumpBuckets/dumpAllBuckets feed every bucket's keys
+	 * through one long-lived fetch pipeline instead of building and draining
+	 * a pipeline per bucket.  This takes precedence over bucketParallelism.
+	 */
+	public BucketDumper(Connection connection, Connection httpConnection, File dataRoot, 
+			boolean verboseStatusOutput, int riakWorkerCount, int bucketParallelism,
+			boolean continuous) {
+		this(connection, httpConnection, dataRoot, verboseStatusOutput, riakWorkerCount, 
+				bucketParallelism, continuous, false);
+	}
+	
+	/**
+	 * With streamKeys set, sequential and continuous dumps feed keys from
+	 * listKeys to the fetch workers as they arrive, writing bucketkeys.keys
+	 * alongside, rather than listing the whole bucket before fetching starts.
+	 * Parallel dumps still list first, as they schedule buckets by key count.
+	 */
+	public BucketDumper(Connection connection, Connection httpConnection, File dataRoot, 
+			boolean verboseStatusOutput, int riakWorkerCount, int bucketParallelism,
+			boolean continuous, boolean streamKeys) {
 		if (connection == null) {
 			throw new IllegalArgumentException("connection cannot be null");
 		}
@@ -45,6 +124,25 @@ public class BucketDumper {
 		this.dataRoot = dataRoot;
 		this.verboseStatusOutput = verboseStatusOutput;
 		this.riakWorkerCount = riakWorkerCount;
+		this.bucketParallelism = Math.max(1, bucketParallelism);
+		this.continuous = continuous;
+		this.streamKeys = streamKeys;
+	}
+	
+	/**
+	 * Replaces listKeys as the way bucket keys are enumerated
+	 */
+	public void setKeySourceFactory(KeySourceFactory keySourceFactory) {
+		this.keySourceFactory = keySourceFactory;
+	}
+	
+	/**
+	 * With sortKeys set, listed keys are sorted into bucketkeys.keys as a
+	 * SORTED journal, front coded so that keys sharing long prefixes take a
+	 * fraction of the space.  Keys streamed with streamKeys are not sorted.
+	 */
+	public void setSortKeys(boolean sortKeys) {
+		this.sortKeys = sortKeys;
 	}
 	
 	public long dumpBucketSettings(Set<String> bucketNames) {
@@ -73,7 +171,7 @@ public class BucketDumper {
 				buckets = this.connection.riakClient.listBuckets();
 			} catch (IOException e) {
 				log.error("Riak error listing buckets.", e);
-				++this.errorCount;
+				this.errorCount.incrementAndGet();
 				return 0;
 			}
 		} else {
@@ -89,6 +187,12 @@ public class BucketDumper {
 			log.error("Not connected to Riak");
 			return 0;
 		}
+		if (this.continuous && !keysOnly) {
+			return dumpBucketsContinuous(bucketNames, resume);
+		}
+		if (this.bucketParallelism > 1 && bucketNames.size() > 1) {
+			return dumpBucketsParallel(bucketNames, resume, keysOnly);
+		}
 		int objectCount = 0;
 		for (String bucketName : bucketNames) {
 			objectCount += dumpBucket(bucketName, resume, keysOnly);
@@ -96,14 +200,201 @@ public class BucketDumper {
 		return objectCount;
 	}
 	
-	// resume is unimplemented
+	/**
+	 * Lists keys for every bucket, then dumps bucketParallelism buckets at a
+	 * time, but no more than riakWorkerCount, largest key count first, so the
+	 * biggest buckets are not left running alone at the end.  All fetch
+	 * workers come from one PipelineExecutor sized to riakWorkerCount, and
+	 * all share this dumper's connection pool.
+	 */
+	public long dumpBucketsParallel(Set<String> bucketNames, final boolean resume, final boolean keysOnly) {
+		if (!this.connection.connected()) {
+			log.error("Not connected to Riak");
+			return 0;
+		}
+		
+		int bucketParallelism = Utilities.bucketParallelism(this.bucketParallelism, this.riakWorkerCount);
+		final int workersPerBucket = Math.max(1, this.riakWorkerCount / bucketParallelism);
+		final PipelineExecutor executor = new PipelineExecutor(
+				bucketParallelism * (workersPerBucket + keyReaderCount(workersPerBucket)));
+		NamedThreadFactory threadFactory = new NamedThreadFactory();
+		threadFactory.setNextThreadName("BucketDumperThread");
+		ExecutorService bucketExecutor = Executors.newFixedThreadPool(bucketParallelism, threadFactory);
+		
+		this.parallelKeyCount.set(0);
+		this.parallelObjectCount.set(0);
+		this.timerStart = System.currentTimeMillis();
+		this.previousCount = 0;
+		
+		long objectCount = 0;
+		try {
+			// Key listing first, so the dump phase can be ordered by size
+			final List<BucketKeyCount> listed = Collections.synchronizedList(new ArrayList<BucketKeyCount>());
+			List<Future<?>> listings = new ArrayList<Future<?>>();
+			for (final String bucketName : bucketNames) {
+				listings.add(bucketExecutor.submit(new Runnable() {
+					@Override
+					public void run() {
+						long start = System.currentTimeMillis();
+						long keyCount = resume && !keysOnly ? findUndumpedKeys(bucketName) : listBucketKeys(bucketName);
+						if (keyCount < 0) {
+							return;
+						}
+						if (keysOnly) {
+							String bucketNameKeys = String.format("%s keys", bucketName);
+							summary.addStatistic(bucketNameKeys, keyCount, System.currentTimeMillis()-start);
+							parallelObjectCount.addAndGet(keyCount);
+						} else {
+							listed.add(new BucketKeyCount(bucketName, keyCount));
+							parallelKeyCount.addAndGet(keyCount);
+						}
+					}
+				}));
+			}
+			waitFor(listings);
+			
+			if (keysOnly) {
+				return this.parallelObjectCount.get();
+			}
+			
+			List<BucketKeyCount> schedule = new ArrayList<BucketKeyCount>(listed);
+			Collections.sort(schedule, BucketKeyCount.LARGEST_FIRST);
+			
+			List<Future<Long>> dumps = new ArrayList<Future<Long>>();
+			for (final BucketKeyCount bucket : schedule) {
+				dumps.add(bucketExecutor.submit(new Callable<Long>() {
+					@Override
+					public Long call() {
+						activeBuckets.incrementAndGet();
+						try {
+							return dumpBucketObjects(bucket.bucketName, bucket.keyCount, 
+									System.currentTimeMillis(), workersPerBucket, executor, true, resume);
+						} finally {
+							activeBuckets.decrementAndGet();
+						}
+					}
+				}));
+			}
+			for (Future<Long> dump : dumps) {
+				try {
+					objectCount += dump.get();
+				} catch (ExecutionException e) {
+					log.error("Bucket dump failed", e.getCause());
+					this.errorCount.incrementAndGet();
+				}
+			}
+		} catch (InterruptedException e) {
+			log.error("Interrupted waiting for bucket dumps");
+			Thread.currentThread().interrupt();
+		} finally {
+			bucketExecutor.shutdownNow();
+			executor.shutdown();
+		}
+		
+		if (this.verboseStatusOutput) {
+			this.printParallelStatus(true);
+		}
+		
+		return objectCount;
+	}
+	
+	/**
+	 * Dumps every bucket through a single fetch pipeline.  The pipeline's
+	 * source thread lists each bucket's keys in turn and feeds them in back
+	 * to back, so there is no per-bucket thread setup and no waiting for one
+	 * bucket to drain before the next starts.  Fetched objects are routed to
+	 * their bucket's RiakObjectBucket and dumped key journal, which are
+	 * closed, and the bucket's Summary statistic recorded, as soon as its
+	 * last key has come back.
+	 */
+	public long dumpBucketsContinuous(Set<String> bucketNames, boolean resume) {
+		if (!this.connection.connected()) {
+			log.error("Not connected to Riak");
+			return 0;
+		}
+		
+		BucketProgressTracker tracker = new BucketProgressTracker();
+		Map<String, BucketOutput> outputs = new HashMap<String, BucketOutput>();
+		this.timerStart = System.currentTimeMillis();
+		this.previousCount = 0;
+		
+		long objectCount = 0;
+		try {
+			ThreadedClientKeyReader reader = new ThreadedClientKeyReader(connection,
+					new ClientReaderFactory(),
+					new ContinuousKeySource(bucketNames, tracker, resume),
+					this.riakWorkerCount);
+			
+			FetchResult result = null;
+			while ((result = reader.readKey()) != null) {
+				String bucketName = result.key().bucket();
+				BucketOutput output = outputs.get(bucketName);
+				if (output == null) {
+					output = new BucketOutput(bucketName, resume);
+					outputs.put(bucketName, output);
+				}
+				for (IRiakObject riakObject : result.objects()) {
+					output.dumpBucket.writeRiakObject(riakObject);
+					++objectCount;
+				}
+				tracker.completed(bucketName, result.objects().length);
+				objectCount -= this.finishBuckets(tracker, outputs, resume);
+				
+				if (this.verboseStatusOutput) {
+					this.printContinuousStatus(objectCount, tracker, false);
+				}
+			}
+			objectCount -= this.finishBuckets(tracker, outputs, resume);
+		} catch (IOException e) {
+			log.error("Riak error dumping objects", e);
+			this.errorCount.incrementAndGet();
+			for (String bucketName : tracker.unfinishedBuckets()) {
+				this.summary.addStatistic(bucketName, -1l, 0l);
+			}
+		} finally {
+			for (BucketOutput output : outputs.values()) {
+				objectCount -= output.close();
+			}
+		}
+		
+		if (this.verboseStatusOutput) {
+			this.printContinuousStatus(objectCount, tracker, true);
+		}
+		
+		return objectCount;
+	}
+	
+	// Returns how many objects of the finished buckets were lost with chunks
+	// that could not be written
+	private long finishBuckets(BucketProgressTracker tracker, Map<String, BucketOutput> outputs,
+			boolean resume) {
+		long lost = 0;
+		BucketProgressTracker.BucketProgress progress = null;
+		while ((progress = tracker.pollFinished()) != null) {
+			BucketOutput output = outputs.remove(progress.bucketName);
+			if (output == null) {
+				// no key came back, still leave an empty dump behind
+				output = new BucketOutput(progress.bucketName, resume);
+			}
+			long bucketLost = output.close();
+			lost += bucketLost;
+			this.summary.addStatistic(progress.bucketName, progress.objectCount() - bucketLost, progress.elapsed());
+		}
+		return lost;
+	}
+	
+	/**
+	 * With resume set, only the keys in bucketkeys.keys that are missing from
+	 * dumpedkeys.keys are fetched.  They go to new chunk files alongside the
+	 * existing ones and are appended to dumpedkeys.keys, so a dump can be
+	 * resumed any number of times.  The bucket is only listed again if
+	 * bucketkeys.keys does not exist, which is the case until a listing has
+	 * completed.  Ignored for key dumps.
+	 */
 	public long dumpBucket(String bucketName, boolean resume, boolean keysOnly) {
 		if (bucketName == null || bucketName.isEmpty()) {
 			throw new IllegalArgumentException("bucketName cannot be null or empty");
 		}
-		if (resume) {
-			throw new UnsupportedOperationException("Resume is currently unsupported");
-		}
 
 		long start = System.currentTimeMillis();
 		
@@ -116,21 +407,23 @@ public class BucketDumper {
 			System.out.println("\nDumping bucket " + bucketName);
 		}
 		
-		long objectCount = 0;
 		this.previousCount = 0;
-
-		RiakObjectBucket dumpBucket = this.createBucket(bucketName);
-
-		File keyPath = new File(dumpBucket.getFileRoot().getAbsoluteFile() + "/bucketkeys.keys");
-		File dumpedKeyPath = new File(dumpBucket.getFileRoot().getAbsoluteFile() + "/dumpedkeys.keys"); 
 		
-		long keyCount = 0;
+		if (resume && !keysOnly) {
+			long keyCount = this.findUndumpedKeys(bucketName);
+			if (keyCount < 0) {
+				return 0;
+			}
+			return this.dumpBucketObjects(bucketName, keyCount, start, this.riakWorkerCount, 
+					PipelineExecutor.getDefault(), false, true);
+		}
 		
-		try {
-			keyCount = this.dumpBucketKeys(bucketName, keyPath);
-		} catch (IOException e){
-			log.error("Error listing keys for bucket " + bucketName, e);
-			this.summary.addStatistic(bucketName, -2l, 0l);
+		if (this.streamKeys && !keysOnly) {
+			return this.dumpBucketStreaming(bucketName, start);
+		}
+
+		long keyCount = this.listBucketKeys(bucketName);
+		if (keyCount < 0) {
 			return 0;
 		}
 		
@@ -140,47 +433,228 @@ public class BucketDumper {
 			return keyCount;
 		}
 		
+		return this.dumpBucketObjects(bucketName, keyCount, start, this.riakWorkerCount, 
+				PipelineExecutor.getDefault(), false, false);
+	}
+	
+	// Writes bucketkeys.keys, returning the key count or -1 if listing failed.
+	// Keys are listed to a temporary name that is only renamed to
+	// bucketkeys.keys once the listing is complete, so a resume never takes
+	// a listing that failed part way for the whole bucket.
+	private long listBucketKeys(String bucketName) {
+		File keyPath = new File(this.createBucketPath(bucketName) + "/bucketkeys.keys");
+		File listingPath = RiakObjectWriter.tempFile(keyPath);
+		keyPath.getParentFile().mkdirs();
+		// a listing left from an earlier dump would not match this one
+		keyPath.delete();
+		try {
+			long keyCount = this.dumpBucketKeys(bucketName, listingPath);
+			if (this.sortKeys) {
+				this.sortBucketKeys(listingPath);
+			}
+			if (!listingPath.renameTo(keyPath)) {
+				throw new IOException("Could not rename " + listingPath.getAbsolutePath() + " to " + keyPath.getName());
+			}
+			return keyCount;
+		} catch (IOException e){
+			log.error("Error listing keys for bucket " + bucketName, e);
+			this.summary.addStatistic(bucketName, -2l, 0l);
+			listingPath.delete();
+			return -1;
+		}
+	}
+	
+	// Rewrites a listing as a SORTED journal
+	private void sortBucketKeys(File keyPath) throws IOException {
+		File sortedPath = new File(keyPath.getParentFile(), "bucketkeys.sorting");
+		KeyJournalSorter sorter = new KeyJournalSorter(new File(keyPath.getParentFile(), "sort.tmp"));
+		KeyJournal keys = new KeyJournal(keyPath, KeyJournal.Mode.READ);
+		try {
+			sorter.sort(keys, sortedPath, KeyJournal.Format.SORTED);
+		} finally {
+			keys.close();
+			sorter.getWorkDir().delete();
+		}
+		if (!keyPath.delete() || !sortedPath.renameTo(keyPath)) {
+			throw new IOException("Could not replace " + keyPath.getAbsolutePath() + " with its sorted keys");
+		}
+	}
+	
+	// Writes resumekeys.keys, the listed keys not in dumpedkeys.keys, returning
+	// their count or -1 if listing or diffing failed
+	private long findUndumpedKeys(String bucketName) {
+		String bucketPath = this.createBucketPath(bucketName);
+		File keyPath = new File(bucketPath + "/bucketkeys.keys");
+		File dumpedKeyPath = new File(bucketPath + "/dumpedkeys.keys");
+		File resumeKeyPath = new File(bucketPath + "/resumekeys.keys");
+		File workDir = new File(bucketPath + "/resume.tmp");
+		
+		if (!keyPath.exists() && this.listBucketKeys(bucketName) < 0) {
+			return -1;
+		}
+		
+		// bounds the dumped keys held in memory to one partition's worth
+		int partitions = (int)Math.min(UnwrittenKeyFinder.MAX_PARTITIONS, 
+				dumpedKeyPath.length() / RESUME_PARTITION_BYTES + 1);
 		KeyJournal bucketKeys = new KeyJournal(keyPath, KeyJournal.Mode.READ);
-				
+		KeyJournal dumpedKeys = dumpedKeyPath.exists() ? 
+				new KeyJournal(dumpedKeyPath, KeyJournal.Mode.READ) : null;
+		KeyJournal resumeKeys = new KeyJournal(resumeKeyPath, KeyJournal.Mode.WRITE);
+		long keyCount = 0;
+		try {
+			Iterable<Key> reference = dumpedKeys == null ? Collections.<Key>emptyList() : dumpedKeys;
+			for (Key key : new UnwrittenKeyFinder(reference, bucketKeys, workDir, partitions)) {
+				resumeKeys.write(key.bucket(), key.key());
+				++keyCount;
+			}
+		} catch (IOException e) {
+			log.error("Error finding undumped keys for bucket " + bucketName, e);
+			this.summary.addStatistic(bucketName, -2l, 0l);
+			return -1;
+		} catch (IllegalStateException e) {
+			log.error("Error finding undumped keys for bucket " + bucketName, e);
+			this.summary.addStatistic(bucketName, -2l, 0l);
+			return -1;
+		} finally {
+			bucketKeys.close();
+			if (dumpedKeys != null) {
+				dumpedKeys.close();
+			}
+			resumeKeys.close();
+			workDir.delete();
+		}
+		if (this.verboseStatusOutput) {
+			System.out.println(String.format("Resuming bucket %s with %d undumped keys", bucketName, keyCount));
+		}
+		return keyCount;
+	}
+	
+	// Streams listed keys into the fetch workers, journalling them to bucketkeys.keys
+	private long dumpBucketStreaming(String bucketName, long start) {
+		File keyPath = new File(this.createBucketPath(bucketName) + "/bucketkeys.keys");
+		keyPath.getParentFile().mkdirs();
+		
+		JournaledKeySource keySource = this.streamBucketKeys(bucketName, keyPath);
+		if (keySource == null) {
+			return 0;
+		}
+		try {
+			return this.dumpBucketObjects(bucketName, Collections.<Iterable<Key>>singletonList(keySource),
+					-1, start, this.riakWorkerCount, PipelineExecutor.getDefault(), false, false);
+		} finally {
+			// normally closed by the key source once listing completes
+			keySource.close();
+		}
+	}
+	
+	// Starts listing a bucket's keys, returning null and recording the error if listing failed
+	private JournaledKeySource streamBucketKeys(String bucketName, File keyPath) {
+		try {
+			Iterable<Key> keys = this.keySourceFactory.createKeySource(this.connection, bucketName);
+			return new JournaledKeySource(keys, keyPath);
+		} catch (IOException e) {
+			log.error("Error listing keys for bucket " + bucketName, e);
+			this.summary.addStatistic(bucketName, -2l, 0l);
+			return null;
+		}
+	}
+	
+	// Dumps the keys in bucketkeys.keys, or resumekeys.keys when resuming, split between
+	// several key reader threads when there are enough workers to need them
+	private long dumpBucketObjects(String bucketName, long keyCount, long start, 
+			int workerCount, PipelineExecutor executor, boolean parallel, boolean resume) {
+		File keyPath = new File(this.createBucketPath(bucketName) + 
+				(resume ? "/resumekeys.keys" : "/bucketkeys.keys"));
+		List<MappedKeyJournal> bucketKeys = null;
+		try {
+			MappedKeyJournal journal = new MappedKeyJournal(keyPath);
+			try {
+				bucketKeys = journal.split(keyReaderCount(workerCount));
+			} finally {
+				journal.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not open " + keyPath.getAbsolutePath(), e);
+		}
+		try {
+			return this.dumpBucketObjects(bucketName, bucketKeys, keyCount, start, workerCount, 
+					executor, parallel, resume);
+		} finally {
+			for (MappedKeyJournal split : bucketKeys) {
+				split.close();
+			}
+		}
+	}
+	
+	static int keyReaderCount(int workerCount) {
+		return Math.max(1, Math.min(MAX_KEY_READERS, workerCount / KEY_READER_WORKERS));
+	}
+	
+	// keyCount is only used for progress output, and is -1 while keys are still being listed.
+	// The fetch workers write each object to the bucket's chunks themselves, while this
+	// thread only waits for them and prints progress.
+	private long dumpBucketObjects(String bucketName, List<? extends Iterable<Key>> bucketKeys, long keyCount, 
+			long start, int workerCount, PipelineExecutor executor, final boolean parallel, boolean resume) {
+		final AtomicLong dumpedCount = new AtomicLong(0);
+		
+		final RiakObjectBucket dumpBucket = this.createBucket(bucketName, resume);
+
+		File dumpedKeyPath = new File(dumpBucket.getFileRoot().getAbsoluteFile() + "/dumpedkeys.keys"); 
+		
 //		this.saveBucketSettings(bucketName, dumpBucket.getFileRoot());
 		
-		KeyJournal keyJournal = new KeyJournal(
+		// journalled by the chunk writers as each chunk is committed
+		ConcurrentKeyJournal keyJournal = new ConcurrentKeyJournal(new KeyJournal(
 				dumpedKeyPath, 
-				KeyJournal.Mode.WRITE);
+				resume ? KeyJournal.Mode.APPEND : KeyJournal.Mode.WRITE));
+		dumpBucket.setKeyJournal(keyJournal);
 		
+		long objectCount = 0;
 		try {
 			// self closing
-			AbstractClientDataReader reader = new ThreadedClientDataReader(connection,
+			ThreadedClientDataReader reader = new ThreadedClientDataReader(connection,
 					new ClientReaderFactory(), 
 					bucketKeys,
-					this.riakWorkerCount);
+					workerCount,
+					executor,
+					new IFetchListener() {
+						@Override
+						public void fetched(IRiakObject riakObject) throws IOException {
+							dumpBucket.writeRiakObject(riakObject);
+							dumpedCount.incrementAndGet();
+							if (parallel) {
+								parallelObjectCount.incrementAndGet();
+							}
+						}
+					});
 			
-			IRiakObject riakObject = null;
-			while((riakObject = reader.readObject()) != null) {
-				dumpBucket.writeRiakObject(riakObject);
-				keyJournal.write(riakObject);
-				
-				++objectCount;
-
+			while (!reader.awaitCompletion(STATUS_INTERVAL)) {
 				if (this.verboseStatusOutput) {
-					this.printStatus(keyCount, objectCount, false);
-				}	
+					if (parallel) {
+						this.printParallelStatus(false);
+					} else {
+						this.printStatus(keyCount, dumpedCount.get(), false);
+					}
+				}
 			}
 		} catch (IOException e) {
 			log.error("Riak error dumping objects for bucket: " + bucketName, e);
 			this.summary.addStatistic(bucketName, -1l, 0l);
 			e.printStackTrace();
-			++errorCount;
+			this.errorCount.incrementAndGet();
 		} finally {
-			keyJournal.close();
-			dumpBucket.close();
+			long lost = this.closeBucket(bucketName, dumpBucket, keyJournal);
+			objectCount = dumpedCount.get() - lost;
+			if (parallel) {
+				this.parallelObjectCount.addAndGet(-lost);
+			}
 		}
 		
 		long stop = System.currentTimeMillis();
 		
 		this.summary.addStatistic(bucketName, objectCount, stop-start);
 		
-		if (this.verboseStatusOutput) {
+		if (this.verboseStatusOutput && !parallel) {
 			this.printStatus(keyCount, objectCount, true);
 		}
 		
@@ -188,19 +662,41 @@ public class BucketDumper {
 	}
 	
 	
+	// Closes a bucket's dump, returning how many of the objects written to it
+	// were lost with chunks that could not be written, each counted as an error
+	private long closeBucket(String bucketName, RiakObjectBucket dumpBucket, ConcurrentKeyJournal keyJournal) {
+		try {
+			dumpBucket.close();
+		} finally {
+			keyJournal.close();
+		}
+		long lost = dumpBucket.lostCount();
+		if (lost > 0) {
+			log.error(String.format("Could not write %d objects of bucket %s", lost, bucketName));
+			this.errorCount.addAndGet((int)lost);
+		}
+		return lost;
+	}
+	
 	public int errorCount() {
-		return errorCount;
+		return errorCount.get();
 	}
 	
 	public long dumpBucketKeys(String bucketName, File filePath) throws IOException {
 		KeyJournal keyJournal = new KeyJournal(filePath, KeyJournal.Mode.WRITE);
 		long keyCount = 0;
-		Iterable<String> keys = this.connection.riakClient.listKeys(bucketName);
-		for (String keyString : keys) {
-			keyJournal.write(bucketName, keyString);
-			++keyCount;
+		try {
+			Iterable<Key> keys = this.keySourceFactory.createKeySource(this.connection, bucketName);
+			for (Key key : keys) {
+				keyJournal.write(key.bucket(), key.key());
+				++keyCount;
+			}
+		} catch (IllegalStateException e) {
+			// key sources report listing failures part way through this way
+			throw new IOException("Error listing keys for bucket " + bucketName, e);
+		} finally {
+			keyJournal.close();
 		}
-		keyJournal.close();
 		return keyCount;
 	}
 	
@@ -226,8 +722,13 @@ public class BucketDumper {
 		if (end-timerStart >= 1000 || force) {
 			long total = end-timerStart;
 			int recsSec = (int)((objectCount-this.previousCount)/(total/1000.0));
-			int perc = (int)((double)objectCount/(double)keyCount * 100);
-			String msg = String.format("\r%d%% completed. Read %d @ %d obj/sec          ", perc, objectCount, recsSec);
+			String msg = null;
+			if (keyCount < 0) {
+				msg = String.format("\rRead %d @ %d obj/sec, listing keys%s          ", objectCount, recsSec, this.connection.limiterStatus());
+			} else {
+				int perc = (int)((double)objectCount/(double)keyCount * 100);
+				msg = String.format("\r%d%% completed. Read %d @ %d obj/sec%s          ", perc, objectCount, recsSec, this.connection.limiterStatus());
+			}
 			System.out.print(msg);
 			System.out.flush();
 			
@@ -236,14 +737,218 @@ public class BucketDumper {
 		}
 	}
 	
+	private synchronized void printParallelStatus(boolean force) {
+		long end = System.currentTimeMillis();
+		if (end-timerStart >= 1000 || force) {
+			long objectCount = this.parallelObjectCount.get();
+			long keyCount = this.parallelKeyCount.get();
+			long total = end-timerStart;
+			int recsSec = (int)((objectCount-this.previousCount)/(total/1000.0));
+			int perc = keyCount == 0 ? 100 : (int)((double)objectCount/(double)keyCount * 100);
+			String msg = String.format("\r%d%% completed. Read %d @ %d obj/sec, %d buckets active%s          ", 
+					perc, objectCount, recsSec, this.activeBuckets.get(), this.connection.limiterStatus());
+			System.out.print(msg);
+			System.out.flush();
+			
+			this.previousCount = objectCount;
+			timerStart = System.currentTimeMillis();
+		}
+	}
+	
+	private void printContinuousStatus(long objectCount, BucketProgressTracker tracker, boolean force) {
+		long end = System.currentTimeMillis();
+		if (end-timerStart >= 1000 || force) {
+			long total = end-timerStart;
+			int recsSec = (int)((objectCount-this.previousCount)/(total/1000.0));
+			String msg = String.format("\rRead %d @ %d obj/sec, %d of %d buckets completed%s          ", 
+					objectCount, recsSec, tracker.finishedCount(), tracker.startedCount(), this.connection.limiterStatus());
+			System.out.print(msg);
+			System.out.flush();
+			
+			this.previousCount = objectCount;
+			timerStart = System.currentTimeMillis();
+		}
+	}
+	
+	private static void waitFor(List<Future<?>> futures) throws InterruptedException {
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				// listing errors are recorded in the summary by the task itself
+			}
+		}
+	}
+	
+	private static class BucketKeyCount {
+		public static final Comparator<BucketKeyCount> LARGEST_FIRST = new Comparator<BucketKeyCount>() {
+			@Override
+			public int compare(BucketKeyCount a, BucketKeyCount b) {
+				return a.keyCount < b.keyCount ? 1 : (a.keyCount == b.keyCount ? 0 : -1);
+			}
+		};
+		
+		public final String bucketName;
+		public final long keyCount;
+		
+		public BucketKeyCount(String bucketName, long keyCount) {
+			this.bucketName = bucketName;
+			this.keyCount = keyCount;
+		}
+	}
+	
+	// Open dump files for one bucket in a continuous dump
+	private class BucketOutput {
+		public final RiakObjectBucket dumpBucket;
+		public final ConcurrentKeyJournal keyJournal;
+		private final String bucketName;
+		
+		public BucketOutput(String bucketName, boolean resume) {
+			this.bucketName = bucketName;
+			this.dumpBucket = createBucket(bucketName, resume);
+			this.keyJournal = new ConcurrentKeyJournal(new KeyJournal(
+					new File(this.dumpBucket.getFileRoot().getAbsoluteFile() + "/dumpedkeys.keys"),
+					resume ? KeyJournal.Mode.APPEND : KeyJournal.Mode.WRITE));
+			this.dumpBucket.setKeyJournal(this.keyJournal);
+		}
+		
+		// returns how many objects were lost with chunks that could not be written
+		public long close() {
+			return closeBucket(this.bucketName, this.dumpBucket, this.keyJournal);
+		}
+	}
+	
+	/**
+	 * Lists each bucket's keys as the previous bucket's keys run out and
+	 * yields them back to back, reporting progress to the tracker.  Runs on
+	 * the fetch pipeline's source thread.
+	 */
+	private class ContinuousKeySource implements Iterable<Key> {
+		private final Set<String> bucketNames;
+		private final BucketProgressTracker tracker;
+		private final boolean resume;
+		
+		public ContinuousKeySource(Set<String> bucketNames, BucketProgressTracker tracker, boolean resume) {
+			this.bucketNames = bucketNames;
+			this.tracker = tracker;
+			this.resume = resume;
+		}
+		
+		@Override
+		public Iterator<Key> iterator() {
+			return new ContinuousKeyIterator(this.bucketNames.iterator(), this.tracker, this.resume);
+		}
+	}
+	
+	private class ContinuousKeyIterator implements Iterator<Key> {
+		private final Iterator<String> bucketNames;
+		private final BucketProgressTracker tracker;
+		private final boolean resume;
+		private String bucketName = null;
+		private KeyJournal bucketKeys = null;
+		private JournaledKeySource streamedKeys = null;
+		private Iterator<Key> keys = null;
+		private Key nextKey = null;
+		
+		public ContinuousKeyIterator(Iterator<String> bucketNames, BucketProgressTracker tracker,
+				boolean resume) {
+			this.bucketNames = bucketNames;
+			this.tracker = tracker;
+			this.resume = resume;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if (this.nextKey == null) {
+				this.advance();
+			}
+			return this.nextKey != null;
+		}
+		
+		@Override
+		public Key next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Key key = this.nextKey;
+			this.nextKey = null;
+			return key;
+		}
+		
+		private void advance() {
+			while (true) {
+				if (this.keys != null && this.keys.hasNext()) {
+					Key key = this.keys.next();
+					if (key.errorKey()) {
+						continue;
+					}
+					this.tracker.issued(this.bucketName);
+					this.nextKey = key;
+					return;
+				}
+				if (this.keys != null) {
+					if (this.bucketKeys != null) {
+						this.bucketKeys.close();
+						this.bucketKeys = null;
+					}
+					if (this.streamedKeys != null) {
+						this.streamedKeys.close();
+						this.streamedKeys = null;
+					}
+					this.keys = null;
+					this.tracker.sourceFinished(this.bucketName);
+				}
+				if (!this.bucketNames.hasNext()) {
+					return;
+				}
+				
+				this.bucketName = this.bucketNames.next();
+				long start = System.currentTimeMillis();
+				File keyPath = new File(createBucketPath(this.bucketName) + "/bucketkeys.keys");
+				if (this.resume) {
+					if (findUndumpedKeys(this.bucketName) < 0) {
+						continue;
+					}
+					this.bucketKeys = new KeyJournal(new File(createBucketPath(this.bucketName) + 
+							"/resumekeys.keys"), KeyJournal.Mode.READ);
+					this.keys = this.bucketKeys.iterator();
+				} else if (streamKeys) {
+					keyPath.getParentFile().mkdirs();
+					this.streamedKeys = streamBucketKeys(this.bucketName, keyPath);
+					if (this.streamedKeys == null) {
+						continue;
+					}
+					this.keys = this.streamedKeys.iterator();
+				} else {
+					if (listBucketKeys(this.bucketName) < 0) {
+						continue;
+					}
+					this.bucketKeys = new KeyJournal(keyPath, KeyJournal.Mode.READ);
+					this.keys = this.bucketKeys.iterator();
+				}
+				this.tracker.started(this.bucketName, start);
+			}
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
 	private String createBucketPath(String bucketName) {
 		String encodedBucketName = Utilities.urlEncode(bucketName);
 		return this.dataRoot.getAbsolutePath() + "/" + encodedBucketName;
 	}
 	
-	private RiakObjectBucket createBucket(String bucketName) {
+	// Resumed dumps name their chunks apart from the ones already on disk
+	private RiakObjectBucket createBucket(String bucketName, boolean resume) {
 		String bucketRootPath = this.createBucketPath(bucketName);
 		File bucketRoot = new File(bucketRootPath);
-		return new RiakObjectBucket(bucketRoot, RiakObjectBucket.BucketMode.WRITE, false);
+		RiakObjectBucket bucket = new RiakObjectBucket(bucketRoot, RiakObjectBucket.BucketMode.WRITE, false);
+		if (resume) {
+			bucket.setFilePrefix(String.format("resume%d-", System.currentTimeMillis()));
+		}
+		return bucket;
 	}
 }
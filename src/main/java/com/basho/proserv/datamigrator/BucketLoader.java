@@ -2,20 +2,41 @@ package com.basho.proserv.datamigrator;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.basho.proserv.datamigrator.io.BucketChunkSource;
 import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyHashSet;
 import com.basho.proserv.datamigrator.io.KeyJournal;
 import com.basho.proserv.datamigrator.io.RiakObjectBucket;
-import com.basho.proserv.datamigrator.riak.AbstractClientDataWriter;
+import com.basho.proserv.datamigrator.io.SelectiveChunkSource;
+import com.basho.proserv.datamigrator.pipeline.PipelineExecutor;
 import com.basho.proserv.datamigrator.riak.ClientWriterFactory;
 import com.basho.proserv.datamigrator.riak.Connection;
+import com.basho.proserv.datamigrator.riak.IStoreListener;
 import com.basho.proserv.datamigrator.riak.RiakBucketProperties;
 import com.basho.proserv.datamigrator.riak.ThreadedClientDataWriter;
+import com.basho.proserv.datamigrator.util.NamedThreadFactory;
 import com.basho.riak.client.IRiakObject;
 import com.basho.riak.client.bucket.BucketProperties;
 
@@ -23,6 +44,8 @@ import com.basho.riak.client.bucket.BucketProperties;
 // BucketLoader will only work with clients returning protobuffer objects, ie PBClient
 public class BucketLoader {
 	private final Logger log = LoggerFactory.getLogger(BucketLoader.class);
+	// how often progress is printed while the store workers run
+	private final static long STATUS_INTERVAL = 1000;
 	public final Summary summary = new Summary();
 	private final Connection connection;
 	private final Connection httpConnection;
@@ -30,14 +53,45 @@ public class BucketLoader {
 	private final boolean verboseStatusOutput;
 	private final int riakWorkerCount;
 	private final boolean resetVClock;
-	private int errorCount = 0;
+	private final int bucketParallelism;
+	private final boolean continuous;
+	private final AtomicInteger errorCount = new AtomicInteger(0);
 	
 	private long timerStart = System.currentTimeMillis();
 	private long previousCount = 0;
 	
+	// parallel load progress, summed across buckets
+	private final AtomicLong parallelKeyCount = new AtomicLong(0);
+	private final AtomicLong parallelObjectCount = new AtomicLong(0);
+	private final AtomicInteger activeBuckets = new AtomicInteger(0);
 	
 	public BucketLoader(Connection connection, Connection httpConnection, File dataRoot, 
 			boolean verboseStatusOutput, int riakWorkerCount, boolean resetVClock) {
+		this(connection, httpConnection, dataRoot, verboseStatusOutput, riakWorkerCount, resetVClock, 1);
+	}
+	
+	/**
+	 * With bucketParallelism > 1, LoadBuckets/LoadAllBuckets load that many
+	 * bucket directories at once.  riakWorkerCount is then a global budget, and
+	 * each bucket is capped at its share of it so one huge bucket cannot
+	 * take every worker.
+	 */
+	public BucketLoader(Connection connection, Connection httpConnection, File dataRoot, 
+			boolean verboseStatusOutput, int riakWorkerCount, boolean resetVClock,
+			int bucketParallelism) {
+		this(connection, httpConnection, dataRoot, verboseStatusOutput, riakWorkerCount, resetVClock,
+				bucketParallelism, false);
+	}
+	
+	/**
+	 * With continuous set, LoadBuckets/LoadAllBuckets feed every bucket's
+	 * objects through one long-lived store pipeline instead of building and
+	 * draining a pipeline per bucket.  This takes precedence over
+	 * bucketParallelism.
+	 */
+	public BucketLoader(Connection connection, Connection httpConnection, File dataRoot, 
+			boolean verboseStatusOutput, int riakWorkerCount, boolean resetVClock,
+			int bucketParallelism, boolean continuous) {
 		if (connection == null) {
 			throw new IllegalArgumentException("connection cannot be null");
 		}
@@ -51,6 +105,8 @@ public class BucketLoader {
 		this.verboseStatusOutput = verboseStatusOutput;
 		this.riakWorkerCount = riakWorkerCount;
 		this.resetVClock = resetVClock;
+		this.bucketParallelism = Math.max(1, bucketParallelism);
+		this.continuous = continuous;
 	}
 	
 	public long loadBucketSettings(Set<String> bucketNames) {
@@ -75,25 +131,185 @@ public class BucketLoader {
 	}
 	
 	public long LoadAllBuckets() {
+		return LoadAllBuckets(false);
+	}
+	
+	public long LoadAllBuckets(boolean resume) {
 		long objectCount = 0;
 		
 		Set<String> bucketNames = getBucketNames();
 		
-		objectCount = LoadBuckets(bucketNames);
+		objectCount = LoadBuckets(bucketNames, resume);
 		
 		return objectCount;
 	}
 	
 	public long LoadBuckets(Set<String> buckets) {
+		return LoadBuckets(buckets, false);
+	}
+	
+	/**
+	 * With resume set, chunks marked loaded by an earlier load are skipped
+	 * without being read, as are the keys already in the loaded key journal
+	 * of a chunk that was only partly loaded.
+	 */
+	public long LoadBuckets(Set<String> buckets, boolean resume) {
+		if (this.continuous) {
+			return LoadBucketsContinuous(buckets, resume);
+		}
+		if (this.bucketParallelism > 1 && buckets.size() > 1) {
+			return LoadBucketsParallel(buckets, resume);
+		}
 		long objectCount = 0;
 		for (String bucket : buckets) {
-			objectCount += LoadBucket(bucket);
+			objectCount += LoadBucket(bucket, resume);
+		}
+		return objectCount;
+	}
+	
+	/**
+	 * Loads bucketParallelism bucket directories at a time, but no more than
+	 * riakWorkerCount, largest dump first.  Every bucket's store workers come
+	 * from one PipelineExecutor sized to riakWorkerCount and share this
+	 * loader's connection pool.
+	 */
+	public long LoadBucketsParallel(Set<String> buckets, final boolean resume) {
+		int bucketParallelism = Utilities.bucketParallelism(this.bucketParallelism, this.riakWorkerCount);
+		final int workersPerBucket = Math.max(1, this.riakWorkerCount / bucketParallelism);
+		final PipelineExecutor executor = 
+				new PipelineExecutor(bucketParallelism * (workersPerBucket + 1));
+		NamedThreadFactory threadFactory = new NamedThreadFactory();
+		threadFactory.setNextThreadName("BucketLoaderThread");
+		ExecutorService bucketExecutor = Executors.newFixedThreadPool(bucketParallelism, threadFactory);
+		
+		List<BucketSize> schedule = new ArrayList<BucketSize>();
+		for (String bucketName : buckets) {
+			schedule.add(new BucketSize(bucketName, this.dataFileBytes(bucketName)));
+		}
+		Collections.sort(schedule, BucketSize.LARGEST_FIRST);
+		
+		this.parallelKeyCount.set(0);
+		this.parallelObjectCount.set(0);
+		this.timerStart = System.currentTimeMillis();
+		this.previousCount = 0;
+		
+		long objectCount = 0;
+		try {
+			List<Future<Long>> loads = new ArrayList<Future<Long>>();
+			for (final BucketSize bucket : schedule) {
+				loads.add(bucketExecutor.submit(new Callable<Long>() {
+					@Override
+					public Long call() {
+						activeBuckets.incrementAndGet();
+						try {
+							return loadBucket(bucket.bucketName, workersPerBucket, executor, true, resume);
+						} finally {
+							activeBuckets.decrementAndGet();
+						}
+					}
+				}));
+			}
+			for (Future<Long> load : loads) {
+				try {
+					objectCount += load.get();
+				} catch (ExecutionException e) {
+					log.error("Bucket load failed", e.getCause());
+					this.errorCount.incrementAndGet();
+				}
+			}
+		} catch (InterruptedException e) {
+			log.error("Interrupted waiting for bucket loads");
+			Thread.currentThread().interrupt();
+		} finally {
+			bucketExecutor.shutdownNow();
+			executor.shutdown();
 		}
+		
+		if (this.verboseStatusOutput) {
+			this.printParallelStatus(true);
+		}
+		
 		return objectCount;
 	}
 	
+	/**
+	 * Loads every bucket through a single store pipeline.  The pipeline's
+	 * source thread reads each bucket's dump in turn and feeds the objects in
+	 * back to back.  The store workers route stored keys to their bucket's
+	 * loaded key journal; the journal is closed, and the bucket's Summary
+	 * statistic recorded, within a status interval of its last object being
+	 * stored.
+	 */
+	public long LoadBucketsContinuous(Set<String> buckets, boolean resume) {
+		final BucketProgressTracker tracker = new BucketProgressTracker();
+		// filled in by the source thread as each bucket is opened
+		final Map<String, BucketChunkSource> sources = new ConcurrentHashMap<String, BucketChunkSource>();
+		this.timerStart = System.currentTimeMillis();
+		this.previousCount = 0;
+		
+		final AtomicLong storedCount = new AtomicLong(0);
+		try {
+			ThreadedClientDataWriter writer = 
+					new ThreadedClientDataWriter(connection, new ClientWriterFactory(), 
+							new ContinuousObjectSource(buckets, tracker, sources, resume), this.riakWorkerCount,
+							PipelineExecutor.getDefault(), new IStoreListener() {
+								@Override
+								public void stored(IRiakObject riakObject) throws IOException {
+									String bucketName = riakObject.getBucket();
+									sources.get(bucketName).stored(riakObject);
+									storedCount.incrementAndGet();
+									tracker.completed(bucketName, 1);
+								}
+							});
+			
+			while (!writer.awaitCompletion(STATUS_INTERVAL)) {
+				this.finishBuckets(tracker, sources);
+				if (this.verboseStatusOutput) {
+					this.printContinuousStatus(storedCount.get(), tracker, false);
+				}
+			}
+			this.finishBuckets(tracker, sources);
+		} catch (IOException e) {
+			log.error("Riak error storing values", e);
+			this.errorCount.incrementAndGet();
+			for (String bucketName : tracker.unfinishedBuckets()) {
+				this.summary.addStatistic(bucketName, -1l, 0l);
+			}
+		} finally {
+			for (BucketChunkSource source : sources.values()) {
+				this.closeSource(source);
+			}
+		}
+		
+		if (this.verboseStatusOutput) {
+			this.printContinuousStatus(storedCount.get(), tracker, true);
+		}
+		
+		return storedCount.get();
+	}
+	
+	private void finishBuckets(BucketProgressTracker tracker, Map<String, BucketChunkSource> sources) {
+		BucketProgressTracker.BucketProgress progress = null;
+		while ((progress = tracker.pollFinished()) != null) {
+			BucketChunkSource source = sources.remove(progress.bucketName);
+			if (source != null) {
+				this.closeSource(source);
+			}
+			this.summary.addStatistic(progress.bucketName, progress.objectCount(), progress.elapsed());
+		}
+	}
+	
+	// counts the damaged blocks and records the source's readers met
+	private void closeSource(BucketChunkSource source) {
+		source.close();
+		this.errorCount.addAndGet((int)source.readErrors());
+	}
+	
 	public long LoadBucket(String bucketName) {
-		long start = System.currentTimeMillis();
+		return LoadBucket(bucketName, false);
+	}
+	
+	public long LoadBucket(String bucketName, boolean resume) {
 		if (bucketName == null || bucketName.isEmpty()) {
 			throw new IllegalArgumentException("bucketName cannot be null or empty");
 		}
@@ -102,10 +318,17 @@ public class BucketLoader {
 			System.out.println("\nLoading bucket " + bucketName);
 		}
 		
-		long objectCount = 0;
 		this.previousCount = 0;
+		return loadBucket(bucketName, this.riakWorkerCount, PipelineExecutor.getDefault(), false, resume);
+	}
+	
+	private long loadBucket(String bucketName, int workerCount, PipelineExecutor executor, 
+			final boolean parallel, boolean resume) {
+		long start = System.currentTimeMillis();
+		long objectCount = 0;
 		
-		RiakObjectBucket dumpBucket = this.createBucket(bucketName);
+		File bucketRoot = new File(this.createBucketPath(bucketName, true));
+		final BucketChunkSource dumpBucket = new BucketChunkSource(bucketRoot, this.resetVClock, resume);
 		if (!dumpBucket.dataFilesExist()) {
 			this.summary.addStatistic(bucketName, -1l, 0l);
 			if (this.verboseStatusOutput) {
@@ -114,47 +337,143 @@ public class BucketLoader {
 			return 0;
 		}
 //		this.restoreBucketSettings(bucketName, dumpBucket.getFileRoot());
-		File keyPath = new File(dumpBucket.getFileRoot().getAbsoluteFile() + "/bucketkeys.keys");
+		File keyPath = new File(bucketRoot, "bucketkeys.keys");
 		long keyCount = this.scanKeysForBucketSize(keyPath);
+		if (parallel) {
+			this.parallelKeyCount.addAndGet(keyCount);
+		}
 		
-		AbstractClientDataWriter writer = 
+		// the store workers journal what they store themselves
+		final AtomicLong storedCount = new AtomicLong(0);
+		ThreadedClientDataWriter writer = 
 				new ThreadedClientDataWriter(connection, new ClientWriterFactory(), dumpBucket,
-						this.riakWorkerCount);
+						workerCount, executor, new IStoreListener() {
+							@Override
+							public void stored(IRiakObject riakObject) throws IOException {
+								dumpBucket.stored(riakObject);
+								storedCount.incrementAndGet();
+								if (parallel) {
+									parallelObjectCount.incrementAndGet();
+								}
+							}
+						});
 
-		KeyJournal keyJournal = new KeyJournal(
-				KeyJournal.createKeyPathFromPath(new File(this.createBucketPath(bucketName, true) + "/keys" ), true), 
-					KeyJournal.Mode.WRITE);
-		
 		try {
-			IRiakObject riakObject = null;
-			while ((riakObject = writer.writeObject()) != null) {
+			while (!writer.awaitCompletion(STATUS_INTERVAL)) {
 				if (this.verboseStatusOutput) {
-					this.printStatus(keyCount, objectCount, false);
+					if (parallel) {
+						this.printParallelStatus(false);
+					} else {
+						this.printStatus(keyCount, storedCount.get(), false);
+					}
 				}
-				
-				keyJournal.write(riakObject);
-//				dumpBucket.writeLoadedKey(riakObject);
-				++objectCount;
 			}
 		} catch (IOException e) {
 			log.error("Riak error storing value to " + bucketName, e);
-			++errorCount;
+			this.errorCount.incrementAndGet();
 		} finally {
-			keyJournal.close();
-			dumpBucket.close();
+			this.closeSource(dumpBucket);
+		}
+		objectCount = storedCount.get();
+		if (resume && this.verboseStatusOutput && dumpBucket.skippedChunks() + dumpBucket.skippedObjects() > 0) {
+			System.out.println(String.format("\nSkipped %d loaded chunks and %d loaded objects in bucket %s", 
+					dumpBucket.skippedChunks(), dumpBucket.skippedObjects(), bucketName));
 		}
 	
 		long stop = System.currentTimeMillis();
 		summary.addStatistic(bucketName, objectCount, stop - start);
 		
-		if (this.verboseStatusOutput) {
+		if (this.verboseStatusOutput && !parallel) {
 			this.printStatus(keyCount, objectCount, true);
 		}
 		return objectCount;
 	}
 	
+	/**
+	 * Loads only the objects of the keys in keyJournal, from the dumps of
+	 * their buckets.  Chunks with an index have only the blocks holding those
+	 * keys read; the load is not journalled, so it cannot be resumed.
+	 */
+	public long loadKeys(File keyJournal) {
+		if (keyJournal == null || !keyJournal.exists()) {
+			throw new IllegalArgumentException("keyJournal must exist");
+		}
+		Map<String, KeyHashSet> bucketKeys = new LinkedHashMap<String, KeyHashSet>();
+		KeyJournal journal = new KeyJournal(keyJournal, KeyJournal.Mode.READ);
+		try {
+			for (Key key : journal) {
+				if (key.errorKey()) {
+					continue;
+				}
+				KeyHashSet keys = bucketKeys.get(key.bucket());
+				if (keys == null) {
+					keys = new KeyHashSet();
+					bucketKeys.put(key.bucket(), keys);
+				}
+				keys.add(key);
+			}
+		} finally {
+			journal.close();
+		}
+		
+		long objectCount = 0;
+		for (Map.Entry<String, KeyHashSet> entry : bucketKeys.entrySet()) {
+			objectCount += this.loadKeys(entry.getKey(), entry.getValue());
+		}
+		return objectCount;
+	}
+	
+	private long loadKeys(String bucketName, KeyHashSet keys) {
+		long start = System.currentTimeMillis();
+		File bucketRoot = new File(this.createBucketPath(bucketName, true));
+		if (BucketChunkSource.chunkFiles(bucketRoot).isEmpty()) {
+			this.summary.addStatistic(bucketName, -1l, 0l);
+			if (this.verboseStatusOutput) {
+				System.out.println(String.format("No data files found for bucket %s", bucketName));
+			}
+			return 0;
+		}
+		if (this.verboseStatusOutput) {
+			System.out.println(String.format("\nLoading %d keys of bucket %s", keys.size(), bucketName));
+		}
+		
+		this.previousCount = 0;
+		SelectiveChunkSource source = new SelectiveChunkSource(bucketRoot, keys, this.resetVClock);
+		final AtomicLong storedCount = new AtomicLong(0);
+		ThreadedClientDataWriter writer = 
+				new ThreadedClientDataWriter(connection, new ClientWriterFactory(), source,
+						this.riakWorkerCount, PipelineExecutor.getDefault(), new IStoreListener() {
+							@Override
+							public void stored(IRiakObject riakObject) throws IOException {
+								storedCount.incrementAndGet();
+							}
+						});
+		try {
+			while (!writer.awaitCompletion(STATUS_INTERVAL)) {
+				if (this.verboseStatusOutput) {
+					this.printStatus(keys.size(), storedCount.get(), false);
+				}
+			}
+		} catch (IOException e) {
+			log.error("Riak error storing value to " + bucketName, e);
+			this.errorCount.incrementAndGet();
+		} finally {
+			source.close();
+		}
+		this.errorCount.addAndGet((int)source.readErrors());
+		long objectCount = storedCount.get();
+		summary.addStatistic(bucketName, objectCount, System.currentTimeMillis() - start);
+		
+		if (this.verboseStatusOutput) {
+			this.printStatus(keys.size(), objectCount, true);
+			System.out.println(String.format("\nRead %d blocks, skipped %d blocks and read %d unindexed chunks of bucket %s",
+					source.blocksRead(), source.blocksSkipped(), source.chunksRead(), bucketName));
+		}
+		return objectCount;
+	}
+	
 	public int errorCount() {
-		return errorCount;
+		return errorCount.get();
 	}
 	
 	public void close() {
@@ -170,13 +489,24 @@ public class BucketLoader {
 	}
 	
 	private long scanKeysForBucketSize(File path) {
-		long count = 0;
-		KeyJournal keyJournal = new KeyJournal(path, KeyJournal.Mode.READ);
-		for (@SuppressWarnings("unused") Key key : keyJournal) {
-			++count;
+		try {
+			return KeyJournal.countKeys(path);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not count keys in " + path.getAbsolutePath(), e);
 		}
-		keyJournal.close();
-		return count;
+	}
+	
+	// Size of a bucket's dump on disk, used to schedule the largest buckets first
+	private long dataFileBytes(String bucketName) {
+		File bucketRoot = new File(this.createBucketPath(bucketName, true));
+		String[] dataFiles = bucketRoot.list(RiakObjectBucket.dataFileFilter);
+		long bytes = 0;
+		if (dataFiles != null) {
+			for (String dataFile : dataFiles) {
+				bytes += new File(bucketRoot, dataFile).length();
+			}
+		}
+		return bytes;
 	}
 	
 	private void restoreBucketSettings(String bucketName, File path) {
@@ -203,7 +533,7 @@ public class BucketLoader {
 			long total = end-timerStart;
 			int recsSec = (int)((objectCount-this.previousCount)/(total/1000.0));
 			int perc = (int)((float)objectCount/(float)keyCount * 100);
-			String msg = String.format("\r%d%% completed. Wrote %d @ %d obj/sec          ", perc, objectCount, recsSec);
+			String msg = String.format("\r%d%% completed. Wrote %d @ %d obj/sec%s          ", perc, objectCount, recsSec, this.connection.limiterStatus());
 			System.out.print(msg);
 			System.out.flush();
 			
@@ -212,11 +542,153 @@ public class BucketLoader {
 		}
 	}
 	
-	private RiakObjectBucket createBucket(String bucketName) {
-		String fullPathname = this.createBucketPath(bucketName, true);
-		File fullPath = new File(fullPathname);
+	private synchronized void printParallelStatus(boolean force) {
+		long end = System.currentTimeMillis();
+		if (end-timerStart >= 1000 || force) {
+			long objectCount = this.parallelObjectCount.get();
+			long keyCount = this.parallelKeyCount.get();
+			long total = end-timerStart;
+			int recsSec = (int)((objectCount-this.previousCount)/(total/1000.0));
+			int perc = keyCount == 0 ? 100 : (int)((float)objectCount/(float)keyCount * 100);
+			String msg = String.format("\r%d%% completed. Wrote %d @ %d obj/sec, %d buckets active%s          ", 
+					perc, objectCount, recsSec, this.activeBuckets.get(), this.connection.limiterStatus());
+			System.out.print(msg);
+			System.out.flush();
+			
+			this.previousCount = objectCount;
+			timerStart = System.currentTimeMillis();
+		}
+	}
+	
+	private void printContinuousStatus(long objectCount, BucketProgressTracker tracker, boolean force) {
+		long end = System.currentTimeMillis();
+		if (end-timerStart >= 1000 || force) {
+			long total = end-timerStart;
+			int recsSec = (int)((objectCount-this.previousCount)/(total/1000.0));
+			String msg = String.format("\rWrote %d @ %d obj/sec, %d of %d buckets completed%s          ", 
+					objectCount, recsSec, tracker.finishedCount(), tracker.startedCount(), this.connection.limiterStatus());
+			System.out.print(msg);
+			System.out.flush();
+			
+			this.previousCount = objectCount;
+			timerStart = System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * Opens each bucket's dump as the previous one runs out and yields the
+	 * objects back to back, reporting progress to the tracker.  Runs on the
+	 * store pipeline's source thread.
+	 */
+	private class ContinuousObjectSource implements Iterable<IRiakObject> {
+		private final Set<String> bucketNames;
+		private final BucketProgressTracker tracker;
+		private final Map<String, BucketChunkSource> sources;
+		private final boolean resume;
+		
+		public ContinuousObjectSource(Set<String> bucketNames, BucketProgressTracker tracker,
+				Map<String, BucketChunkSource> sources, boolean resume) {
+			this.bucketNames = bucketNames;
+			this.tracker = tracker;
+			this.sources = sources;
+			this.resume = resume;
+		}
+		
+		@Override
+		public Iterator<IRiakObject> iterator() {
+			return new ContinuousObjectIterator(this.bucketNames.iterator(), this.tracker, 
+					this.sources, this.resume);
+		}
+	}
+	
+	private class ContinuousObjectIterator implements Iterator<IRiakObject> {
+		private final Iterator<String> bucketNames;
+		private final BucketProgressTracker tracker;
+		private final Map<String, BucketChunkSource> sources;
+		private final boolean resume;
+		private String bucketName = null;
+		private Iterator<IRiakObject> objects = null;
+		private IRiakObject nextObject = null;
+		
+		public ContinuousObjectIterator(Iterator<String> bucketNames, BucketProgressTracker tracker,
+				Map<String, BucketChunkSource> sources, boolean resume) {
+			this.bucketNames = bucketNames;
+			this.tracker = tracker;
+			this.sources = sources;
+			this.resume = resume;
+		}
 		
-		return new RiakObjectBucket(fullPath, RiakObjectBucket.BucketMode.READ, this.resetVClock);
+		@Override
+		public boolean hasNext() {
+			if (this.nextObject == null) {
+				this.advance();
+			}
+			return this.nextObject != null;
+		}
+		
+		@Override
+		public IRiakObject next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			IRiakObject riakObject = this.nextObject;
+			this.nextObject = null;
+			return riakObject;
+		}
+		
+		private void advance() {
+			while (true) {
+				if (this.objects != null) {
+					if (this.objects.hasNext()) {
+						this.tracker.issued(this.bucketName);
+						this.nextObject = this.objects.next();
+						return;
+					}
+					this.objects = null;
+					this.tracker.sourceFinished(this.bucketName);
+				}
+				if (!this.bucketNames.hasNext()) {
+					return;
+				}
+				
+				String bucketName = this.bucketNames.next();
+				BucketChunkSource dumpBucket = new BucketChunkSource(
+						new File(createBucketPath(bucketName, true)), resetVClock, this.resume);
+				if (!dumpBucket.dataFilesExist()) {
+					summary.addStatistic(bucketName, -1l, 0l);
+					if (verboseStatusOutput) {
+						System.out.println(String.format("No data files found for bucket %s", bucketName));
+					}
+					continue;
+				}
+				this.sources.put(bucketName, dumpBucket);
+				this.tracker.started(bucketName, System.currentTimeMillis());
+				this.bucketName = bucketName;
+				this.objects = dumpBucket.iterator();
+			}
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	private static class BucketSize {
+		public static final Comparator<BucketSize> LARGEST_FIRST = new Comparator<BucketSize>() {
+			@Override
+			public int compare(BucketSize a, BucketSize b) {
+				return a.bytes < b.bytes ? 1 : (a.bytes == b.bytes ? 0 : -1);
+			}
+		};
+		
+		public final String bucketName;
+		public final long bytes;
+		
+		public BucketSize(String bucketName, long bytes) {
+			this.bucketName = bucketName;
+			this.bytes = bytes;
+		}
 	}
 	
 	Set<String> getBucketNames() {
@@ -0,0 +1,99 @@
+package com.basho.proserv.datamigrator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks buckets flowing back to back through one shared pipeline.  The
+ * source thread reports each bucket it starts, each item it issues and when
+ * it has moved past the bucket; the consumer reports each completed item.
+ * A bucket is finished once the source is done with it and every issued
+ * item has completed, and finished buckets are handed out by pollFinished().
+ */
+class BucketProgressTracker {
+	private final Map<String, BucketProgress> buckets = new HashMap<String, BucketProgress>();
+	private final ArrayDeque<BucketProgress> finished = new ArrayDeque<BucketProgress>();
+	private int startedCount = 0;
+	private int finishedCount = 0;
+	
+	public synchronized void started(String bucketName, long startTime) {
+		this.buckets.put(bucketName, new BucketProgress(bucketName, startTime));
+		++this.startedCount;
+	}
+	
+	public synchronized void issued(String bucketName) {
+		++this.progress(bucketName).issued;
+	}
+	
+	public synchronized void sourceFinished(String bucketName) {
+		BucketProgress progress = this.progress(bucketName);
+		progress.sourceDone = true;
+		this.finishIfComplete(progress);
+	}
+	
+	public synchronized void completed(String bucketName, long objectCount) {
+		BucketProgress progress = this.progress(bucketName);
+		++progress.completed;
+		progress.objectCount += objectCount;
+		this.finishIfComplete(progress);
+	}
+	
+	public synchronized BucketProgress pollFinished() {
+		return this.finished.poll();
+	}
+	
+	public synchronized List<String> unfinishedBuckets() {
+		return new ArrayList<String>(this.buckets.keySet());
+	}
+	
+	public synchronized int startedCount() {
+		return this.startedCount;
+	}
+	
+	public synchronized int finishedCount() {
+		return this.finishedCount;
+	}
+	
+	private BucketProgress progress(String bucketName) {
+		BucketProgress progress = this.buckets.get(bucketName);
+		if (progress == null) {
+			throw new IllegalStateException("Bucket " + bucketName + " was not started");
+		}
+		return progress;
+	}
+	
+	private void finishIfComplete(BucketProgress progress) {
+		if (progress.sourceDone && progress.completed == progress.issued) {
+			progress.stopTime = System.currentTimeMillis();
+			this.buckets.remove(progress.bucketName);
+			this.finished.add(progress);
+			++this.finishedCount;
+		}
+	}
+	
+	public static class BucketProgress {
+		public final String bucketName;
+		public final long startTime;
+		private long stopTime = 0;
+		private long issued = 0;
+		private long completed = 0;
+		private long objectCount = 0;
+		private boolean sourceDone = false;
+		
+		private BucketProgress(String bucketName, long startTime) {
+			this.bucketName = bucketName;
+			this.startTime = startTime;
+		}
+		
+		public long objectCount() {
+			return this.objectCount;
+		}
+		
+		public long elapsed() {
+			return this.stopTime - this.startTime;
+		}
+	}
+}
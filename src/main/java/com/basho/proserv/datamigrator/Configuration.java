@@ -5,6 +5,11 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
+import com.basho.proserv.datamigrator.io.BucketChunkSource;
+import com.basho.proserv.datamigrator.io.ChunkCodec;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.SyncPolicy;
+
 public class Configuration {
 	private static int RIAK_WORKER_MULTIPLIER = 2;
 	private static int RIAK_CLUSTER_CONNECTION_MULTIPLIER = 4;
@@ -16,7 +21,8 @@ public class Configuration {
 								   ALL_KEYS, 
 								   BUCKET_KEYS, 
 								   BUCKET_PROPERTIES,
-								   DELETE_BUCKETS};
+								   DELETE_BUCKETS,
+								   KEYS};
 
 	
 	
@@ -37,6 +43,26 @@ public class Configuration {
 	
 	private int riakWorkerCount = Runtime.getRuntime().availableProcessors() * RIAK_WORKER_MULTIPLIER;
 	private int maxRiakConnections = riakWorkerCount * RIAK_CLUSTER_CONNECTION_MULTIPLIER;
+	private int bucketParallelism = 1;
+	private boolean continuous = false;
+	private boolean streamKeys = false;
+	private boolean sortKeys = false;
+	private int indexKeyRanges = 0;
+	private int pipelinedInFlight = 0;
+	private long targetLatency = 0;
+	private long maxObjectsPerSecond = 0;
+	private long maxBytesPerSecond = 0;
+	private File rateSchedule = null;
+	private File loadKeys = null;
+	private KeyJournal.Format journalFormat = KeyJournal.Format.BINARY;
+	private KeyJournal.Compression journalCompression = KeyJournal.Compression.NONE;
+	private SyncPolicy syncPolicy = SyncPolicy.NONE;
+	private ChunkCodec chunkCodec = ChunkCodec.getDefault();
+	private ChunkCodec.Format chunkFormat = ChunkCodec.getDefaultFormat();
+	private int compressThreads = Runtime.getRuntime().availableProcessors();
+	private int chunkReaders = BucketChunkSource.DEFAULT_READERS;
+	private int chunkStreams = 1;
+	private long readBudget = BucketChunkSource.DEFAULT_READ_BUDGET;
 	
 	public void setMode(Mode mode) {
 		this.mode = mode;
@@ -128,4 +154,141 @@ public class Configuration {
 	public int getMaxRiakConnections() {
 		return this.maxRiakConnections;
 	}
+	
+	public void setBucketParallelism(int bucketParallelism) {
+		this.bucketParallelism = bucketParallelism;
+	}
+	public int getBucketParallelism() {
+		return this.bucketParallelism;
+	}
+	
+	public void setContinuous(boolean continuous) {
+		this.continuous = continuous;
+	}
+	public boolean getContinuous() {
+		return this.continuous;
+	}
+	
+	public void setStreamKeys(boolean streamKeys) {
+		this.streamKeys = streamKeys;
+	}
+	public boolean getStreamKeys() {
+		return this.streamKeys;
+	}
+	
+	public void setSortKeys(boolean sortKeys) {
+		this.sortKeys = sortKeys;
+	}
+	public boolean getSortKeys() {
+		return this.sortKeys;
+	}
+	
+	public void setIndexKeyRanges(int indexKeyRanges) {
+		this.indexKeyRanges = indexKeyRanges;
+	}
+	public int getIndexKeyRanges() {
+		return this.indexKeyRanges;
+	}
+	
+	public void setPipelinedInFlight(int pipelinedInFlight) {
+		this.pipelinedInFlight = pipelinedInFlight;
+	}
+	public int getPipelinedInFlight() {
+		return this.pipelinedInFlight;
+	}
+	
+	public void setTargetLatency(long targetLatency) {
+		this.targetLatency = targetLatency;
+	}
+	public long getTargetLatency() {
+		return this.targetLatency;
+	}
+	
+	public void setMaxObjectsPerSecond(long maxObjectsPerSecond) {
+		this.maxObjectsPerSecond = maxObjectsPerSecond;
+	}
+	public long getMaxObjectsPerSecond() {
+		return this.maxObjectsPerSecond;
+	}
+	
+	public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+		this.maxBytesPerSecond = maxBytesPerSecond;
+	}
+	public long getMaxBytesPerSecond() {
+		return this.maxBytesPerSecond;
+	}
+	
+	public void setRateSchedule(File rateSchedule) {
+		this.rateSchedule = rateSchedule;
+	}
+	public File getRateSchedule() {
+		return this.rateSchedule;
+	}
+	
+	public void setLoadKeys(File loadKeys) {
+		this.loadKeys = loadKeys;
+	}
+	public File getLoadKeys() {
+		return this.loadKeys;
+	}
+	
+	public void setJournalFormat(KeyJournal.Format journalFormat, KeyJournal.Compression journalCompression) {
+		this.journalFormat = journalFormat;
+		this.journalCompression = journalCompression;
+	}
+	public KeyJournal.Format getJournalFormat() {
+		return this.journalFormat;
+	}
+	public KeyJournal.Compression getJournalCompression() {
+		return this.journalCompression;
+	}
+	
+	public void setSyncPolicy(SyncPolicy syncPolicy) {
+		this.syncPolicy = syncPolicy;
+	}
+	public SyncPolicy getSyncPolicy() {
+		return this.syncPolicy;
+	}
+	
+	public void setChunkCodec(ChunkCodec chunkCodec) {
+		this.chunkCodec = chunkCodec;
+	}
+	public ChunkCodec getChunkCodec() {
+		return this.chunkCodec;
+	}
+	
+	public void setChunkFormat(ChunkCodec.Format chunkFormat) {
+		this.chunkFormat = chunkFormat;
+	}
+	public ChunkCodec.Format getChunkFormat() {
+		return this.chunkFormat;
+	}
+	
+	public void setCompressThreads(int compressThreads) {
+		this.compressThreads = compressThreads;
+	}
+	public int getCompressThreads() {
+		return this.compressThreads;
+	}
+	
+	public void setChunkReaders(int chunkReaders) {
+		this.chunkReaders = chunkReaders;
+	}
+	public int getChunkReaders() {
+		return this.chunkReaders;
+	}
+	
+	public void setChunkStreams(int chunkStreams) {
+		this.chunkStreams = chunkStreams;
+	}
+	public int getChunkStreams() {
+		return this.chunkStreams;
+	}
+	
+	public void setReadBudget(long readBudget) {
+		this.readBudget = readBudget;
+	}
+	public long getReadBudget() {
+		return this.readBudget;
+	}
 }
@@ -0,0 +1,211 @@
+package com.basho.proserv.datamigrator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basho.proserv.datamigrator.io.BucketChunkSource;
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.KeyJournalDiff;
+import com.basho.proserv.datamigrator.io.KeyJournalSorter;
+
+/**
+ * Checks a dump directory's key journals against each other without
+ * talking to Riak: the listed keys (bucketkeys.keys) against the dumped
+ * keys (dumpedkeys.keys), and the dumped keys against the loaded keys of
+ * every chunk (N.loadedkeys).  Keys that were not dumped or not loaded are
+ * written to undumped.keys and unloaded.keys in the bucket directory.
+ *
+ * The journals are diffed with an external sort, so any key count is
+ * audited in bounded memory.
+ */
+public class KeyAudit {
+	private final Logger log = LoggerFactory.getLogger(KeyAudit.class);
+
+	private final File dataRoot;
+	private final long sortMemoryBytes;
+	private int mismatchedBuckets = 0;
+
+	public KeyAudit(File dataRoot) {
+		this(dataRoot, KeyJournalSorter.DEFAULT_MEMORY_BYTES);
+	}
+
+	public KeyAudit(File dataRoot, long sortMemoryBytes) {
+		if (dataRoot == null) {
+			throw new IllegalArgumentException("dataRoot cannot be null");
+		}
+		this.dataRoot = dataRoot;
+		this.sortMemoryBytes = sortMemoryBytes;
+	}
+
+	public int mismatchedBuckets() {
+		return this.mismatchedBuckets;
+	}
+
+	public int auditAllBuckets() {
+		Set<String> bucketNames = new HashSet<String>();
+		String[] names = this.dataRoot.list();
+		if (names != null) {
+			for (String name : names) {
+				if (new File(this.dataRoot, name).isDirectory()) {
+					bucketNames.add(Utilities.urlDecode(name));
+				}
+			}
+		}
+		return this.auditBuckets(bucketNames);
+	}
+
+	/**
+	 * @return the number of buckets whose journals did not match
+	 */
+	public int auditBuckets(Set<String> bucketNames) {
+		System.out.println(String.format("%15s%12s%12s%12s%12s%12s%12s", "Bucket", "Listed",
+				"Dumped", "Undumped", "Dump Dups", "Loaded", "Unloaded"));
+		for (String bucketName : bucketNames) {
+			this.auditBucket(bucketName);
+		}
+		return this.mismatchedBuckets;
+	}
+
+	/**
+	 * @return true if every listed key was dumped once and every dumped key loaded
+	 */
+	public boolean auditBucket(String bucketName) {
+		File bucketRoot = new File(this.dataRoot, Utilities.urlEncode(bucketName));
+		File listedKeys = new File(bucketRoot, "bucketkeys.keys");
+		File dumpedKeys = new File(bucketRoot, "dumpedkeys.keys");
+		List<File> loadedKeys = new ArrayList<File>();
+		for (File chunkFile : BucketChunkSource.chunkFiles(bucketRoot)) {
+			File journal = KeyJournal.createKeyPathFromPath(chunkFile, true);
+			if (journal.exists()) {
+				loadedKeys.add(journal);
+			}
+		}
+
+		File workDir = new File(bucketRoot, "audit.tmp");
+		KeyJournalDiff diff = new KeyJournalDiff(new KeyJournalSorter(workDir, this.sortMemoryBytes));
+		KeyJournalDiff.Result dumpResult = null;
+		KeyJournalDiff.Result loadResult = null;
+		try {
+			if (listedKeys.exists() && dumpedKeys.exists()) {
+				dumpResult = this.diff(diff, journals(listedKeys), journals(dumpedKeys),
+						new File(bucketRoot, "undumped.keys"));
+			}
+			if (dumpedKeys.exists() && !loadedKeys.isEmpty()) {
+				loadResult = this.diff(diff, journals(dumpedKeys), journals(loadedKeys),
+						new File(bucketRoot, "unloaded.keys"));
+			}
+		} catch (IOException e) {
+			log.error("Could not audit key journals of bucket " + bucketName, e);
+			System.out.println(String.format("%15s%12s", bucketName, "ERROR"));
+			++this.mismatchedBuckets;
+			return false;
+		} catch (IllegalArgumentException e) {
+			log.error("Could not audit key journals of bucket " + bucketName, e);
+			System.out.println(String.format("%15s%12s", bucketName, "ERROR"));
+			++this.mismatchedBuckets;
+			return false;
+		} finally {
+			workDir.delete();
+		}
+
+		System.out.println(String.format("%15s%12s%12s%12s%12s%12s%12s", bucketName,
+				dumpResult == null ? "-" : Long.toString(dumpResult.referenceCount()),
+				dumpResult == null ? "-" : Long.toString(dumpResult.compareCount()),
+				dumpResult == null ? "-" : Long.toString(dumpResult.count(KeyJournalDiff.Difference.MISSING)),
+				dumpResult == null ? "-" : Long.toString(dumpResult.count(KeyJournalDiff.Difference.DUPLICATE_COMPARE)),
+				loadResult == null ? "-" : Long.toString(loadResult.compareCount()),
+				loadResult == null ? "-" : Long.toString(loadResult.count(KeyJournalDiff.Difference.MISSING))));
+
+		boolean matched = (dumpResult == null || dumpResult.matched()) &&
+				(loadResult == null || loadResult.matched());
+		if (!matched) {
+			++this.mismatchedBuckets;
+		}
+		return matched;
+	}
+
+	// Writes the reference keys missing from compare to missingPath
+	private KeyJournalDiff.Result diff(KeyJournalDiff diff, Iterable<Key> reference, Iterable<Key> compare,
+			File missingPath) throws IOException {
+		final KeyJournal missing = new KeyJournal(missingPath, KeyJournal.Mode.WRITE);
+		try {
+			return diff.diff(reference, compare, new KeyJournalDiff.Listener() {
+				@Override
+				public void difference(KeyJournalDiff.Difference difference, Key key) throws IOException {
+					if (difference == KeyJournalDiff.Difference.MISSING) {
+						missing.write(key.bucket(), key.key());
+					}
+				}
+			});
+		} finally {
+			missing.close();
+		}
+	}
+
+	private static Iterable<Key> journals(File journal) {
+		List<File> journals = new ArrayList<File>();
+		journals.add(journal);
+		return journals(journals);
+	}
+
+	// The keys of several journals one after another, each closed once read
+	private static Iterable<Key> journals(final List<File> journals) {
+		return new Iterable<Key>() {
+			@Override
+			public Iterator<Key> iterator() {
+				return new Iterator<Key>() {
+					private final Iterator<File> files = journals.iterator();
+					private KeyJournal journal = null;
+					private Key nextKey = null;
+
+					@Override
+					public boolean hasNext() {
+						while (this.nextKey == null) {
+							if (this.journal == null) {
+								if (!this.files.hasNext()) {
+									return false;
+								}
+								this.journal = new KeyJournal(this.files.next(), KeyJournal.Mode.READ);
+							}
+							try {
+								this.nextKey = this.journal.read();
+							} catch (IOException e) {
+								throw new IllegalArgumentException("Could not read key journal", e);
+							}
+							if (this.nextKey == null) {
+								this.journal.close();
+								this.journal = null;
+							}
+						}
+						return true;
+					}
+
+					@Override
+					public Key next() {
+						if (!this.hasNext()) {
+							throw new NoSuchElementException();
+						}
+						Key key = this.nextKey;
+						this.nextKey = null;
+						return key;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+}
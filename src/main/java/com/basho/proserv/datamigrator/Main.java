@@ -1,6 +1,7 @@
 package com.basho.proserv.datamigrator;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 
 import org.apache.commons.cli.CommandLine;
@@ -10,7 +11,17 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import com.basho.proserv.datamigrator.io.BlockCompressor;
+import com.basho.proserv.datamigrator.io.BucketChunkSource;
+import com.basho.proserv.datamigrator.io.ChunkCodec;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.RiakObjectBucket;
+import com.basho.proserv.datamigrator.io.SyncPolicy;
+import com.basho.proserv.datamigrator.pipeline.ConcurrencyLimiter;
 import com.basho.proserv.datamigrator.riak.Connection;
+import com.basho.proserv.datamigrator.riak.KeySourceFactory;
+import com.basho.proserv.datamigrator.riak.RateSchedule;
+import com.basho.proserv.datamigrator.riak.ThroughputThrottle;
 
 public class Main {
 
@@ -39,14 +50,17 @@ public class Main {
 		if (cmd.hasOption("delete")) {
 			++cmdCount;
 		}
+		if (cmd.hasOption("audit")) {
+			++cmdCount;
+		}
 		
 		
 		if (cmdCount == 0) {
-			System.out.println("You must specify l, d, k, or delete");
+			System.out.println("You must specify l, d, k, delete or audit");
 			System.exit(1);
 		}
 		if (cmdCount > 1) {
-			System.out.println("Load (l), Dump (d), Keys (k) and Delete (delete) are exclusive options.");
+			System.out.println("Load (l), Dump (d), Keys (k), Delete (delete) and Audit (audit) are exclusive options.");
 			System.exit(1);
 		}
 		
@@ -70,11 +84,22 @@ public class Main {
 		}
 		
 		Configuration config = handleCommandLine(cmd);
+		KeyJournal.setDefaultFormat(config.getJournalFormat(), config.getJournalCompression());
+		SyncPolicy.setDefault(config.getSyncPolicy());
+		ChunkCodec.setDefault(config.getChunkCodec());
+		ChunkCodec.setDefaultFormat(config.getChunkFormat());
+		BlockCompressor.setDefault(new BlockCompressor(config.getCompressThreads()));
+		BucketChunkSource.setDefaultReaders(config.getChunkReaders(), config.getReadBudget());
+		RiakObjectBucket.setDefaultChunkStreams(config.getChunkStreams());
 		
 		if (cmd.hasOption("delete")) {
 			runDelete(config);
 		}
 		
+		if (cmd.hasOption("audit")) {
+			runAudit(config);
+		}
+		
 		if (cmd.hasOption("l") || (cmd.hasOption("l") && cmd.hasOption("t"))) {
 			runLoader(config);
 		}
@@ -101,10 +126,9 @@ public class Main {
 			System.exit(1);
 		}
 		
-		// Not available
-//		if (cmd.hasOption("R")) {
-//			config.setResume(true);
-//		}
+		if (cmd.hasOption("R")) {
+			config.setResume(true);
+		}
 		
 		// Host
 		if (cmd.hasOption("h")) {
@@ -120,7 +144,7 @@ public class Main {
 				System.exit(1);
 			}
 		}
-		if (config.getHosts().size() == 0) {
+		if (config.getHosts().size() == 0 && !cmd.hasOption("audit")) {
 			System.out.println("No hosts specified");;
 			System.exit(1);
 		}
@@ -174,7 +198,27 @@ public class Main {
 			config.setOperation(Configuration.Operation.BUCKET_PROPERTIES);
 		}
 		
-		if (config.getBucketNames().size() == 0 && !cmd.hasOption("a")) {
+		// Selected keys
+		if (cmd.hasOption("loadkeys")) {
+			File loadKeys = new File(cmd.getOptionValue("loadkeys"));
+			if (!loadKeys.isFile()) {
+				System.out.println("Key journal of keys to load does not exist");
+				System.exit(1);
+			}
+			if (!cmd.hasOption("l")) {
+				System.out.println("loadkeys can only be used when loading");
+				System.exit(1);
+			}
+			if (cmd.hasOption("a") || cmd.hasOption("b") || cmd.hasOption("f") || cmd.hasOption("k") ||
+					cmd.hasOption("delete")) {
+				System.out.println("loadkeys cannot be combined with -a, -b, -f, -k or --delete");
+				System.exit(1);
+			}
+			config.setLoadKeys(loadKeys);
+			config.setOperation(Configuration.Operation.KEYS);
+		}
+		
+		if (config.getBucketNames().size() == 0 && !cmd.hasOption("a") && config.getLoadKeys() == null) {
 			System.out.println("No buckets specified to load");
 			System.exit(1);
 		}
@@ -223,6 +267,181 @@ public class Main {
 				System.exit(1);
 			}
 		}
+		
+		if (cmd.hasOption("parallelbuckets")) {
+			try {
+				config.setBucketParallelism(Integer.parseInt(cmd.getOptionValue("parallelbuckets")));
+			} catch (Exception e) {
+				System.out.println("Invalid value specified for parallelbuckets");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("continuous")) {
+			config.setContinuous(true);
+		}
+		
+		if (cmd.hasOption("streamkeys")) {
+			config.setStreamKeys(true);
+		}
+		
+		if (cmd.hasOption("sortkeys")) {
+			config.setSortKeys(true);
+		}
+		
+		if (cmd.hasOption("pipelined")) {
+			try {
+				config.setPipelinedInFlight(Integer.parseInt(cmd.getOptionValue("pipelined")));
+			} catch (Exception e) {
+				System.out.println("Invalid value specified for pipelined");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("targetlatency")) {
+			try {
+				config.setTargetLatency(Long.parseLong(cmd.getOptionValue("targetlatency")));
+			} catch (Exception e) {
+				System.out.println("Invalid value specified for targetlatency");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("maxobjects")) {
+			try {
+				config.setMaxObjectsPerSecond(RateSchedule.parseRate(cmd.getOptionValue("maxobjects")));
+			} catch (Exception e) {
+				System.out.println("Invalid value specified for maxobjects");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("maxbytes")) {
+			try {
+				config.setMaxBytesPerSecond(RateSchedule.parseRate(cmd.getOptionValue("maxbytes")));
+			} catch (Exception e) {
+				System.out.println("Invalid value specified for maxbytes");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("rateschedule")) {
+			File schedule = new File(cmd.getOptionValue("rateschedule"));
+			if (!schedule.isFile()) {
+				System.out.println("Rate schedule file does not exist");
+				System.exit(1);
+			}
+			config.setRateSchedule(schedule);
+		}
+		
+		if (cmd.hasOption("journalformat")) {
+			String format = cmd.getOptionValue("journalformat");
+			if (format.equalsIgnoreCase("text")) {
+				config.setJournalFormat(KeyJournal.Format.TEXT, KeyJournal.Compression.NONE);
+			} else if (format.equalsIgnoreCase("binary")) {
+				config.setJournalFormat(KeyJournal.Format.BINARY, KeyJournal.Compression.NONE);
+			} else if (format.equalsIgnoreCase("deflate")) {
+				config.setJournalFormat(KeyJournal.Format.BINARY, KeyJournal.Compression.DEFLATE);
+			} else {
+				System.out.println("journalformat must be one of text, binary or deflate");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("codec")) {
+			try {
+				config.setChunkCodec(ChunkCodec.parse(cmd.getOptionValue("codec")));
+			} catch (IllegalArgumentException e) {
+				System.out.println("codec must be one of none, gzip[:level], lz4, snappy or zstd[:level]");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("chunkformat")) {
+			String format = cmd.getOptionValue("chunkformat");
+			if (format.equalsIgnoreCase("framed")) {
+				config.setChunkFormat(ChunkCodec.Format.FRAMED);
+			} else if (format.equalsIgnoreCase("plain")) {
+				config.setChunkFormat(ChunkCodec.Format.PLAIN);
+			} else {
+				System.out.println("chunkformat must be one of framed or plain");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("compressthreads")) {
+			try {
+				config.setCompressThreads(Integer.parseInt(cmd.getOptionValue("compressthreads")));
+			} catch (NumberFormatException e) {
+				System.out.println("compressthreads must be an integer");
+				System.exit(1);
+			}
+			if (config.getCompressThreads() < 1) {
+				System.out.println("compressthreads must be greater than 0");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("chunkreaders")) {
+			try {
+				config.setChunkReaders(Integer.parseInt(cmd.getOptionValue("chunkreaders")));
+			} catch (NumberFormatException e) {
+				System.out.println("chunkreaders must be an integer");
+				System.exit(1);
+			}
+			if (config.getChunkReaders() < 1) {
+				System.out.println("chunkreaders must be greater than 0");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("chunkstreams")) {
+			try {
+				config.setChunkStreams(Integer.parseInt(cmd.getOptionValue("chunkstreams")));
+			} catch (NumberFormatException e) {
+				System.out.println("chunkstreams must be an integer");
+				System.exit(1);
+			}
+			if (config.getChunkStreams() < 1) {
+				System.out.println("chunkstreams must be greater than 0");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("readbudget")) {
+			try {
+				config.setReadBudget(Long.parseLong(cmd.getOptionValue("readbudget")) * 1024 * 1024);
+			} catch (NumberFormatException e) {
+				System.out.println("readbudget must be an integer");
+				System.exit(1);
+			}
+			if (config.getReadBudget() < 1) {
+				System.out.println("readbudget must be greater than 0");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("sync")) {
+			try {
+				config.setSyncPolicy(SyncPolicy.parse(cmd.getOptionValue("sync")));
+			} catch (IllegalArgumentException e) {
+				System.out.println("sync must be one of none, chunk or group[:records[:millis]]");
+				System.exit(1);
+			}
+		}
+		
+		if (cmd.hasOption("indexkeys")) {
+			try {
+				config.setIndexKeyRanges(Integer.parseInt(cmd.getOptionValue("indexkeys")));
+			} catch (Exception e) {
+				System.out.println("Invalid value specified for indexkeys");
+				System.exit(1);
+			}
+			if (config.getIndexKeyRanges() < 1) {
+				System.out.println("indexkeys must be at least 1");
+				System.exit(1);
+			}
+		}
 		return config;
 	}
 
@@ -240,8 +459,12 @@ public class Main {
 			System.out.println(String.format("Could not connect to Riak on PB port %d", config.getPort()));
 			System.exit(-1);
 		}
+		connectPipelined(connection, config);
+		limitConcurrency(connection, config);
+		throttle(connection, config);
 		
 		BucketDelete deleter = new BucketDelete(connection, config.getVerboseStatus());
+		deleter.setKeySourceFactory(new KeySourceFactory(config.getIndexKeyRanges()));
 		
 //		long start = System.currentTimeMillis();
 		long deleteCount = 0;
@@ -258,6 +481,21 @@ public class Main {
 		printSummary(deleter.summary, "Load Summary:");
 	}
 	
+	public static void runAudit(Configuration config) {
+		KeyAudit audit = new KeyAudit(config.getFilePath());
+		
+		int mismatched = 0;
+		if (config.getOperation() == Configuration.Operation.BUCKETS) {
+			mismatched = audit.auditBuckets(config.getBucketNames());
+		} else {
+			mismatched = audit.auditAllBuckets();
+		}
+		if (mismatched > 0) {
+			System.out.println(String.format("\n%d buckets have undumped, unloaded or duplicate keys", mismatched));
+			System.exit(1);
+		}
+	}
+	
 	public static void runLoader(Configuration config) {
 		Connection connection = new Connection(config.getMaxRiakConnections());
 		Connection httpConnection = new Connection();
@@ -275,22 +513,28 @@ public class Main {
 			System.out.println(String.format("Could not connect to Riak on PB port %d", config.getPort()));
 			System.exit(-1);
 		}
+		connectPipelined(connection, config);
+		limitConcurrency(connection, config);
+		throttle(connection, config);
 		if (!httpConnection.testConnection()) {
 			System.out.println(String.format("Could not connect to Riak on HTTP port %d", config.getHttpPort()));
 			System.exit(-1);
 		}
 		
 		BucketLoader loader = new BucketLoader(connection, httpConnection, config.getFilePath(), 
-				config.getVerboseStatus(), config.getRiakWorkerCount(), config.getResetVClock());
+				config.getVerboseStatus(), config.getRiakWorkerCount(), config.getResetVClock(),
+				config.getBucketParallelism(), config.getContinuous());
 		
 //		long start = System.currentTimeMillis();
 		long loadCount = 0;
-		if (config.getOperation() == Configuration.Operation.BUCKETS) {
-			loadCount = loader.LoadBuckets(config.getBucketNames());
+		if (config.getOperation() == Configuration.Operation.KEYS) {
+			loadCount = loader.loadKeys(config.getLoadKeys());
+		} else if (config.getOperation() == Configuration.Operation.BUCKETS) {
+			loadCount = loader.LoadBuckets(config.getBucketNames(), config.getResume());
 		} else if (config.getOperation() == Configuration.Operation.BUCKET_PROPERTIES) {
 			loadCount = loader.loadBucketSettings(config.getBucketNames());
 		} else {
-			loadCount = loader.LoadAllBuckets();
+			loadCount = loader.LoadAllBuckets(config.getResume());
 		}
 //		long stop = System.currentTimeMillis();
 		
@@ -320,13 +564,19 @@ public class Main {
 			System.out.println(String.format("Could not connect to Riak on PB port %d", config.getPort()));
 			System.exit(-1);
 		}
+		connectPipelined(connection, config);
+		limitConcurrency(connection, config);
+		throttle(connection, config);
 		if (!httpConnection.testConnection()) {
 			System.out.println(String.format("Could not connect to Riak on HTTP port %d", config.getHttpPort()));
 			System.exit(-1);
 		}
 		
 		BucketDumper dumper = new BucketDumper(connection, httpConnection, config.getFilePath(), 
-				config.getVerboseStatus(), config.getRiakWorkerCount());
+				config.getVerboseStatus(), config.getRiakWorkerCount(), config.getBucketParallelism(),
+				config.getContinuous(), config.getStreamKeys());
+		dumper.setKeySourceFactory(new KeySourceFactory(config.getIndexKeyRanges()));
+		dumper.setSortKeys(config.getSortKeys());
 		
 		
 		boolean keysOnly = (config.getOperation() == Configuration.Operation.ALL_KEYS ||
@@ -352,6 +602,45 @@ public class Main {
 		printSummary(dumper.summary, "Dump Summary:");
 	}
 	
+	// Opens enough pipelined sockets for at least riakWorkerCount requests in flight
+	private static void connectPipelined(Connection connection, Configuration config) {
+		if (config.getPipelinedInFlight() < 1) {
+			return;
+		}
+		int sockets = (config.getRiakWorkerCount() + config.getPipelinedInFlight() - 1) / config.getPipelinedInFlight();
+		int socketsPerHost = Math.max(1, (sockets + config.getHosts().size() - 1) / config.getHosts().size());
+		if (!connection.connectPipelinedPB(config.getHosts(), config.getPort(), socketsPerHost, 
+				config.getPipelinedInFlight())) {
+			System.out.println(String.format("Could not open pipelined connections to Riak on PB port %d", config.getPort()));
+			System.exit(-1);
+		}
+	}
+	
+	// Lets the worker count float between 1 and riakWorkerCount
+	private static void limitConcurrency(Connection connection, Configuration config) {
+		if (config.getTargetLatency() < 1) {
+			return;
+		}
+		connection.concurrencyLimiter = new ConcurrencyLimiter(1, config.getRiakWorkerCount(), 
+				config.getTargetLatency());
+	}
+	
+	private static void throttle(Connection connection, Configuration config) {
+		if (config.getRateSchedule() != null) {
+			try {
+				connection.throttle = new ThroughputThrottle(config.getMaxObjectsPerSecond(), 
+						config.getMaxBytesPerSecond(), config.getRateSchedule());
+			} catch (IOException e) {
+				System.out.println(String.format("Could not read rate schedule %s: %s", 
+						config.getRateSchedule().getAbsolutePath(), e.getMessage()));
+				System.exit(1);
+			}
+		} else if (config.getMaxObjectsPerSecond() > 0 || config.getMaxBytesPerSecond() > 0) {
+			connection.throttle = new ThroughputThrottle(config.getMaxObjectsPerSecond(), 
+					config.getMaxBytesPerSecond());
+		}
+	}
+	
 	public static void printHelp(String arg) {
 		Options options = createOptions();
 		HelpFormatter formatter = new HelpFormatter();
@@ -427,6 +716,26 @@ public class Main {
 		options.addOption("riakworkercount", true, "Specify Riak Worker Count");
 		options.addOption("maxriakconnections", true, "Specify the max number of connections maintained in the Riak Connection Pool");
 		options.addOption("delete", false, "Delete specified buckets");
+		options.addOption("audit", false, "Compare the listed, dumped and loaded key journals of dumped buckets, without connecting to Riak");
+		options.addOption("parallelbuckets", true, "Specify the number of buckets to dump or load at once. The Riak Worker Count is shared between them");
+		options.addOption("continuous", false, "Dump or load all buckets through a single long-lived pipeline. Best for many small buckets");
+		options.addOption("sortkeys", false, "Sort listed keys into bucketkeys.keys as a compact front coded sorted journal");
+		options.addOption("streamkeys", false, "Start fetching objects while keys are still being listed instead of after listing completes");
+		options.addOption("indexkeys", true, "List keys with $bucket/$key secondary index queries instead of listKeys, split into this many parallel ranges");
+		options.addOption("pipelined", true, "Fetch, store and delete over a few pipelined PB sockets with up to this many requests in flight on each");
+		options.addOption("targetlatency", true, "Adjust the number of active Riak workers, up to the Riak Worker Count, to keep request latency near this many milliseconds");
+		options.addOption("maxobjects", true, "Cap the objects fetched, stored or deleted per second across all workers");
+		options.addOption("maxbytes", true, "Cap the object value bytes fetched or stored per second across all workers. Accepts K, M and G suffixes");
+		options.addOption("journalformat", true, "Format of new key journals: binary (the default), deflate for compressed binary, or text for bucket,key lines");
+		options.addOption("codec", true, "Compression of new chunk files: gzip[:level] (the default, level 6), lz4, snappy, zstd[:level] or none");
+		options.addOption("chunkformat", true, "Format of new chunk files: framed (the default), with a checksum per block so damaged blocks are skipped, or plain");
+		options.addOption("compressthreads", true, "Threads shared by all chunk files to compress their blocks, defaults to one per processor; 1 compresses each chunk on its writer thread");
+		options.addOption("chunkreaders", true, "Number of chunk files of a bucket to read at once when loading, defaults to the processors up to 4");
+		options.addOption("chunkstreams", true, "Number of chunk files of a bucket to write at once when dumping, defaults to 1");
+		options.addOption("readbudget", true, "Megabytes of objects read from chunk files that may wait to be stored, per bucket, defaults to 64");
+		options.addOption("sync", true, "When journals and chunk files are forced to disk: none (the default), chunk, or group[:records[:millis]]");
+		options.addOption("loadkeys", true, "Load only the keys in this key journal, reading just the blocks of indexed chunk files that hold them");
+		options.addOption("rateschedule", true, "File of time of day windows overriding maxobjects and maxbytes, re-read when it changes");
 		return options;
 	}
 	
@@ -5,13 +5,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+// Buckets may be dumped or loaded concurrently, so every accessor is synchronized
 public class Summary {
 	// keeping bucket names separate to preserve order
 	private final List<String> bucketNames = new ArrayList<String>();
 	private final Map<String, Long> countStatistic = new HashMap<String, Long>();
 	private final Map<String, Long> timeStatistic = new HashMap<String, Long>();
 	
-	public void addStatistic(String bucket, Long objectCount, Long time) {
+	public synchronized void addStatistic(String bucket, Long objectCount, Long time) {
 		if (bucket == null || bucket.isEmpty()) {
 			throw new IllegalArgumentException("bucketName cannot be null");
 		}
@@ -26,7 +27,7 @@ public class Summary {
 		this.timeStatistic.put(bucket, time);
 	}
 	
-	public Long[] getBucketStatistic(String bucketName) {
+	public synchronized Long[] getBucketStatistic(String bucketName) {
 		Long[] result = new Long[2];
 		
 		Long count = this.countStatistic.get(bucketName);
@@ -38,7 +39,7 @@ public class Summary {
 		return result;
 	}
 	
-	public Long getTotalCount() {
+	public synchronized Long getTotalCount() {
 		Long acc = 0l;
 		for (String key : this.bucketNames) {
 			acc += this.countStatistic.get(key);
@@ -46,7 +47,7 @@ public class Summary {
 		return acc;
 	}
 	
-	public Long getTotalTime() {
+	public synchronized Long getTotalTime() {
 		Long acc = 0l;
 		for (String key : this.bucketNames) {
 			acc += this.timeStatistic.get(key);
@@ -54,11 +55,11 @@ public class Summary {
 		return acc;
 	}
 	
-	public List<String> bucketNames() {
-		return this.bucketNames;
+	public synchronized List<String> bucketNames() {
+		return new ArrayList<String>(this.bucketNames);
 	}
 	
-	public Map<String, Long[]> getStatistics() {
+	public synchronized Map<String, Long[]> getStatistics() {
 		Map<String, Long[]> stats = new HashMap<String, Long[]>();
 		for (String bucketName : this.bucketNames) {
 			stats.put(bucketName, this.getBucketStatistic(bucketName));
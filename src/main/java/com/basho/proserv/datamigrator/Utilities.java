@@ -50,4 +50,12 @@ public class Utilities {
 			return input;
 		}
 	}
+	
+	/**
+	 * Buckets to work on at once, no more than there are Riak workers so
+	 * that each bucket gets at least one of them
+	 */
+	public static int bucketParallelism(int bucketParallelism, int riakWorkerCount) {
+		return Math.max(1, Math.min(bucketParallelism, riakWorkerCount));
+	}
 }
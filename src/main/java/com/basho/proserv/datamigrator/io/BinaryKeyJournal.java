@@ -0,0 +1,455 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * The binary KeyJournal format.
+ *
+ *   header   magic (4) version (1) compression (1) reserved (2)
+ *   block*   record count (4) raw length (4) stored length (4) stored bytes
+ *   footer   -1 (4) key count (8) end magic (4)
+ *
+ * A block holds up to BLOCK_SIZE raw bytes of records, compressed as a
+ * whole; a stored length equal to the raw length means the block did not
+ * compress and is stored as is.  A record is a varint of the UTF-8 key
+ * length shifted left one, with the low bit set when a varint length and
+ * UTF-8 bucket name come next, then the key.  The bucket is written on the
+ * first record of every block and wherever it changes, so blocks decode
+ * independently.  All integers are big endian.
+ *
+ * The footer lets the key count be read without decoding the journal.  A
+ * journal cut short by a crash has no footer; reading stops at the last
+ * complete block, and appending truncates back to it.
+ *
+ * A sorted journal (version 2) holds keys in Key order, in blocks of up to
+ * SORTED_BLOCK_SIZE raw bytes, front coded: a
+ * record is a varint of the length of the key's unshared suffix shifted
+ * left one, with the same bucket bit, then the bucket if any, a varint of
+ * the UTF-8 bytes shared with the previous key of the block (0 on a bucket
+ * change) and the suffix.  After the last block comes a sparse index of the
+ * first key of every block,
+ *
+ *   index    -2 (4) entry count (4) length (4) entries, index offset (8)
+ *   entry    block offset (8) varint bucket length, bucket, varint key length, key
+ *
+ * then the footer, so a key can be found by binary searching the index and
+ * decoding one block.  Sorted journals cannot be appended to.
+ */
+class BinaryKeyJournal {
+	static final byte[] MAGIC = { (byte)0x89, 'K', 'J', 'N' };
+	static final byte[] END_MAGIC = { 'K', 'E', 'N', 'D' };
+	static final int VERSION = 1;
+	static final int SORTED_VERSION = 2;
+	static final int HEADER_SIZE = 8;
+	static final int BLOCK_HEADER_SIZE = 12;
+	static final int FOOTER_SIZE = 16;
+	static final int INDEX_MARKER = -2;
+	static final int BLOCK_SIZE = 64 * 1024;
+	// small enough that a lookup decodes a few hundred keys
+	static final int SORTED_BLOCK_SIZE = 4 * 1024;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final int COMPRESSION_NONE = 0;
+	static final int COMPRESSION_DEFLATE = 1;
+
+	private BinaryKeyJournal() {
+	}
+
+	static boolean isBinary(File path) throws IOException {
+		return format(path) != KeyJournal.Format.TEXT;
+	}
+
+	/**
+	 * The format of an existing journal, TEXT unless it starts with MAGIC
+	 */
+	static KeyJournal.Format format(File path) throws IOException {
+		if (!path.exists() || path.length() < HEADER_SIZE) {
+			return KeyJournal.Format.TEXT;
+		}
+		InputStream in = new FileInputStream(path);
+		try {
+			byte[] header = new byte[HEADER_SIZE];
+			if (!readFully(in, header) || !startsWithMagic(header)) {
+				return KeyJournal.Format.TEXT;
+			}
+			checkHeader(header);
+			return header[4] == SORTED_VERSION ? KeyJournal.Format.SORTED : KeyJournal.Format.BINARY;
+		} finally {
+			in.close();
+		}
+	}
+
+	static boolean startsWithMagic(byte[] bytes) {
+		for (int i = 0; i < MAGIC.length; ++i) {
+			if (bytes[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static int compressionId(KeyJournal.Compression compression) {
+		return compression == KeyJournal.Compression.DEFLATE ? COMPRESSION_DEFLATE : COMPRESSION_NONE;
+	}
+
+	static KeyJournal.Compression compression(int compressionId) throws IOException {
+		if (compressionId == COMPRESSION_NONE) {
+			return KeyJournal.Compression.NONE;
+		} else if (compressionId == COMPRESSION_DEFLATE) {
+			return KeyJournal.Compression.DEFLATE;
+		}
+		throw new IOException("Unknown key journal compression " + compressionId);
+	}
+
+	/**
+	 * The key count from the footer, or by walking the block headers of a
+	 * journal without one
+	 */
+	static long countKeys(File path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			long length = file.length();
+			if (length >= HEADER_SIZE + FOOTER_SIZE) {
+				file.seek(length - FOOTER_SIZE);
+				int marker = file.readInt();
+				long count = file.readLong();
+				byte[] magic = new byte[END_MAGIC.length];
+				file.readFully(magic);
+				if (marker == -1 && count >= 0 && Arrays.equals(magic, END_MAGIC)) {
+					return count;
+				}
+			}
+			return scan(file)[1];
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Walks the block headers from the start of file, returning the offset
+	 * just past the last complete block and the keys up to there
+	 */
+	static long[] scan(RandomAccessFile file) throws IOException {
+		long length = file.length();
+		readHeader(file);
+		long offset = HEADER_SIZE;
+		long count = 0;
+		while (offset + BLOCK_HEADER_SIZE <= length) {
+			file.seek(offset);
+			int recordCount = file.readInt();
+			if (recordCount < 0) {
+				break;
+			}
+			file.readInt();
+			int storedLength = file.readInt();
+			long next = offset + BLOCK_HEADER_SIZE + storedLength;
+			if (storedLength < 0 || next > length) {
+				break;
+			}
+			count += recordCount;
+			offset = next;
+		}
+		return new long[] { offset, count };
+	}
+
+	static int readHeader(RandomAccessFile file) throws IOException {
+		file.seek(0);
+		byte[] header = new byte[HEADER_SIZE];
+		file.readFully(header);
+		return checkHeader(header);
+	}
+
+	// Returns the compression id
+	static int checkHeader(byte[] header) throws IOException {
+		if (!startsWithMagic(header)) {
+			throw new IOException("Not a binary key journal");
+		}
+		if (header[4] != VERSION && header[4] != SORTED_VERSION) {
+			throw new IOException("Unsupported key journal version " + header[4]);
+		}
+		compression(header[5]);
+		return header[5];
+	}
+
+	static boolean readFully(InputStream in, byte[] buffer) throws IOException {
+		return readFully(in, buffer, buffer.length);
+	}
+
+	// false if the stream ended first
+	static boolean readFully(InputStream in, byte[] buffer, int length) throws IOException {
+		int read = 0;
+		while (read < length) {
+			int count = in.read(buffer, read, length - read);
+			if (count < 0) {
+				return false;
+			}
+			read += count;
+		}
+		return true;
+	}
+
+	static class Writer {
+		private final FileOutputStream out;
+		private final Deflater deflater;
+		private final boolean sorted;
+		private final int blockSize;
+		private byte[] block = new byte[BLOCK_SIZE + 1024];
+		private byte[] compressed = null;
+		private int blockLength = 0;
+		private int blockRecords = 0;
+		private String blockBucket = null;
+		private long keyCount = 0;
+		// sorted journals only: the previous key, the file offset and the index
+		private Key previousKey = null;
+		private byte[] previousKeyBytes = null;
+		private long offset = HEADER_SIZE;
+		private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+		private int indexEntries = 0;
+
+		public Writer(File path, KeyJournal.Compression compression) throws IOException {
+			this(path, compression, false);
+		}
+
+		/**
+		 * With sorted set, writes a front coded sorted journal, and write()
+		 * throws IllegalArgumentException for a key out of Key order
+		 */
+		public Writer(File path, KeyJournal.Compression compression, boolean sorted) throws IOException {
+			this.out = new FileOutputStream(path);
+			this.deflater = createDeflater(compressionId(compression));
+			this.sorted = sorted;
+			this.blockSize = sorted ? SORTED_BLOCK_SIZE : BLOCK_SIZE;
+			byte[] header = new byte[HEADER_SIZE];
+			System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+			header[4] = (byte)(sorted ? SORTED_VERSION : VERSION);
+			header[5] = (byte)compressionId(compression);
+			this.out.write(header);
+		}
+
+		/**
+		 * Reopens an existing journal, keeping its compression and dropping
+		 * its footer or any block cut short by a crash
+		 */
+		public Writer(File path) throws IOException {
+			RandomAccessFile file = new RandomAccessFile(path, "rw");
+			int compressionId;
+			try {
+				compressionId = readHeader(file);
+				file.seek(4);
+				if (file.read() == SORTED_VERSION) {
+					throw new IOException("Sorted key journals cannot be appended to");
+				}
+				long[] end = scan(file);
+				file.setLength(end[0]);
+				this.keyCount = end[1];
+			} finally {
+				file.close();
+			}
+			this.out = new FileOutputStream(path, true);
+			this.deflater = createDeflater(compressionId);
+			this.sorted = false;
+			this.blockSize = BLOCK_SIZE;
+		}
+
+		private static Deflater createDeflater(int compressionId) {
+			return compressionId == COMPRESSION_DEFLATE ? new Deflater(Deflater.BEST_SPEED) : null;
+		}
+
+		public void write(String bucket, String key) throws IOException {
+			byte[] keyBytes = key.getBytes(UTF8);
+			boolean writeBucket = this.blockRecords == 0 || !bucket.equals(this.blockBucket);
+			byte[] bucketBytes = writeBucket ? bucket.getBytes(UTF8) : null;
+			int shared = 0;
+			if (this.sorted) {
+				Key current = new Key(bucket, key);
+				if (this.previousKey != null && this.previousKey.compareTo(current) > 0) {
+					throw new IllegalArgumentException("Key " + bucket + "," + key + " is out of order");
+				}
+				if (this.blockRecords == 0) {
+					this.indexEntry(bucketBytes, keyBytes);
+				}
+				if (!writeBucket) {
+					shared = sharedPrefix(this.previousKeyBytes, keyBytes);
+				}
+				this.previousKey = current;
+				this.previousKeyBytes = keyBytes;
+			}
+			int suffixLength = keyBytes.length - shared;
+			int needed = 20 + suffixLength + (writeBucket ? 5 + bucketBytes.length : 0);
+			if (this.blockLength + needed > this.block.length) {
+				byte[] grown = new byte[Math.max(this.block.length * 2, this.blockLength + needed)];
+				System.arraycopy(this.block, 0, grown, 0, this.blockLength);
+				this.block = grown;
+			}
+			this.putVarint(((long)suffixLength << 1) | (writeBucket ? 1 : 0));
+			if (writeBucket) {
+				this.putVarint(bucketBytes.length);
+				System.arraycopy(bucketBytes, 0, this.block, this.blockLength, bucketBytes.length);
+				this.blockLength += bucketBytes.length;
+				this.blockBucket = bucket;
+			}
+			if (this.sorted) {
+				this.putVarint(shared);
+			}
+			System.arraycopy(keyBytes, shared, this.block, this.blockLength, suffixLength);
+			this.blockLength += suffixLength;
+			++this.blockRecords;
+			++this.keyCount;
+			if (this.blockLength >= this.blockSize) {
+				this.writeBlock();
+			}
+		}
+
+		public long keyCount() {
+			return this.keyCount;
+		}
+
+		/**
+		 * Ends the current block so everything written so far is readable
+		 */
+		public void flush() throws IOException {
+			this.writeBlock();
+			this.out.flush();
+		}
+
+		/**
+		 * Flushes and forces everything written so far to disk
+		 */
+		public void sync() throws IOException {
+			this.flush();
+			this.out.getFD().sync();
+		}
+
+		public void close() throws IOException {
+			this.close(false);
+		}
+
+		/**
+		 * Writes the index of a sorted journal and the footer and closes,
+		 * forcing the journal to disk first if sync is set
+		 */
+		public void close(boolean sync) throws IOException {
+			try {
+				this.writeBlock();
+				if (this.sorted) {
+					this.writeIndex();
+				}
+				byte[] footer = new byte[FOOTER_SIZE];
+				putInt(footer, 0, -1);
+				putLong(footer, 4, this.keyCount);
+				System.arraycopy(END_MAGIC, 0, footer, 12, END_MAGIC.length);
+				this.out.write(footer);
+				if (sync) {
+					this.out.getFD().sync();
+				}
+			} finally {
+				this.out.close();
+				if (this.deflater != null) {
+					this.deflater.end();
+				}
+			}
+		}
+
+		private void writeBlock() throws IOException {
+			if (this.blockRecords == 0) {
+				return;
+			}
+			byte[] stored = this.block;
+			int storedLength = this.blockLength;
+			if (this.deflater != null) {
+				if (this.compressed == null || this.compressed.length < this.blockLength) {
+					this.compressed = new byte[this.blockLength];
+				}
+				this.deflater.reset();
+				this.deflater.setInput(this.block, 0, this.blockLength);
+				this.deflater.finish();
+				int length = this.deflater.deflate(this.compressed, 0, this.blockLength - 1);
+				if (this.deflater.finished()) {
+					stored = this.compressed;
+					storedLength = length;
+				}
+			}
+			byte[] header = new byte[BLOCK_HEADER_SIZE];
+			putInt(header, 0, this.blockRecords);
+			putInt(header, 4, this.blockLength);
+			putInt(header, 8, storedLength);
+			this.out.write(header);
+			this.out.write(stored, 0, storedLength);
+			this.offset += BLOCK_HEADER_SIZE + storedLength;
+			this.blockLength = 0;
+			this.blockRecords = 0;
+			this.blockBucket = null;
+		}
+
+		// Records the first key of the block starting at offset
+		private void indexEntry(byte[] bucketBytes, byte[] keyBytes) {
+			byte[] entry = new byte[8];
+			putLong(entry, 0, this.offset);
+			this.index.write(entry, 0, entry.length);
+			writeVarint(this.index, bucketBytes.length);
+			this.index.write(bucketBytes, 0, bucketBytes.length);
+			writeVarint(this.index, keyBytes.length);
+			this.index.write(keyBytes, 0, keyBytes.length);
+			++this.indexEntries;
+		}
+
+		private void writeIndex() throws IOException {
+			long indexOffset = this.offset;
+			byte[] header = new byte[BLOCK_HEADER_SIZE];
+			putInt(header, 0, INDEX_MARKER);
+			putInt(header, 4, this.indexEntries);
+			putInt(header, 8, this.index.size());
+			this.out.write(header);
+			this.index.writeTo(this.out);
+			byte[] trailer = new byte[8];
+			putLong(trailer, 0, indexOffset);
+			this.out.write(trailer);
+		}
+
+		private void putVarint(long value) {
+			while ((value & ~0x7FL) != 0) {
+				this.block[this.blockLength++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			this.block[this.blockLength++] = (byte)value;
+		}
+	}
+
+	static int sharedPrefix(byte[] a, byte[] b) {
+		int length = Math.min(a.length, b.length);
+		int i = 0;
+		while (i < length && a[i] == b[i]) {
+			++i;
+		}
+		return i;
+	}
+
+	static void writeVarint(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int)value);
+	}
+
+	static void putInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte)(value >>> 24);
+		buffer[offset + 1] = (byte)(value >>> 16);
+		buffer[offset + 2] = (byte)(value >>> 8);
+		buffer[offset + 3] = (byte)value;
+	}
+
+	static void putLong(byte[] buffer, int offset, long value) {
+		putInt(buffer, offset, (int)(value >>> 32));
+		putInt(buffer, offset + 4, (int)value);
+	}
+}
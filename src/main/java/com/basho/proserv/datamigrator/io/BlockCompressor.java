@@ -0,0 +1,280 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Checksum;
+
+/**
+ * Compresses chunk files on a pool of threads shared by every chunk writer
+ * in the process, as pigz does.  A chunk's records are cut into blocks of
+ * about BLOCK_SIZE, each compressed on its own into a complete gzip member
+ * or codec frame, and written out in order.  Concatenated gzip members are
+ * a valid gzip file, and the other codecs read concatenated frames, so
+ * readers see one stream.  Each block starts with an empty dictionary,
+ * which costs about a percent of the compression ratio.
+ *
+ * Blocks end where the writer ends them, between records, and where each
+ * was written is kept, so a chunk's index can point at the blocks holding
+ * each key.  In a FRAMED chunk each block is wrapped in a BlockFrame, its
+ * checksum computed on the compressing thread.  A compressor of one thread
+ * compresses blocks on the writing thread.
+ */
+public class BlockCompressor {
+	public static final int BLOCK_SIZE = 256 * 1024;
+	// blocks a chunk may have queued or compressing, per pool thread
+	private static final int BLOCKS_IN_FLIGHT_PER_THREAD = 2;
+
+	private static BlockCompressor defaultCompressor = null;
+	// one per compressing thread
+	private static final ThreadLocal<Checksum> checksums = new ThreadLocal<Checksum>() {
+		@Override
+		protected Checksum initialValue() {
+			return BlockFrame.newChecksum();
+		}
+	};
+
+	private final int threads;
+	private final ExecutorService executor;
+
+	public BlockCompressor(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be greater than 0");
+		}
+		this.threads = threads;
+		if (threads == 1) {
+			this.executor = null;
+		} else {
+			this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "BlockCompressor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	/**
+	 * The process-wide compressor, with a thread per processor unless set
+	 */
+	public static synchronized BlockCompressor getDefault() {
+		if (defaultCompressor == null) {
+			defaultCompressor = new BlockCompressor(Runtime.getRuntime().availableProcessors());
+		}
+		return defaultCompressor;
+	}
+
+	public static synchronized void setDefault(BlockCompressor compressor) {
+		defaultCompressor = compressor;
+	}
+
+	public int threads() {
+		return this.threads;
+	}
+
+	/**
+	 * Starts a chunk of codec and format on out, returning the stream to
+	 * write its records to.  Closing the returned stream closes out.
+	 */
+	BlockOutputStream openBlocks(ChunkCodec codec, ChunkCodec.Format format, OutputStream out) throws IOException {
+		return new BlockOutputStream(codec, format == ChunkCodec.Format.FRAMED, out,
+				codec.writeHeader(out, format));
+	}
+
+	public void shutdown() {
+		if (this.executor != null) {
+			this.executor.shutdown();
+		}
+	}
+
+	/**
+	 * Compresses blocks as they are ended, growing a block to hold whatever
+	 * is written to it until then
+	 */
+	class BlockOutputStream extends OutputStream {
+		private final ChunkCodec codec;
+		private final boolean framed;
+		private final OutputStream out;
+		private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+		private final int maxPending = threads * BLOCKS_IN_FLIGHT_PER_THREAD;
+		// offset and length of each block written, with its frame if framed
+		private final List<long[]> written = new ArrayList<long[]>();
+		private long position;
+		private int submitted = 0;
+		private byte[] block = new byte[BLOCK_SIZE];
+		private int blockLength = 0;
+		private boolean closed = false;
+
+		BlockOutputStream(ChunkCodec codec, boolean framed, OutputStream out, long position) {
+			this.codec = codec;
+			this.framed = framed;
+			this.out = out;
+			this.position = position;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.checkOpen();
+			if (this.blockLength == this.block.length) {
+				this.grow();
+			}
+			this.block[this.blockLength++] = (byte)b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.checkOpen();
+			while (len > 0) {
+				if (this.blockLength == this.block.length) {
+					this.grow();
+				}
+				int count = Math.min(len, this.block.length - this.blockLength);
+				System.arraycopy(b, off, this.block, this.blockLength, count);
+				this.blockLength += count;
+				off += count;
+				len -= count;
+			}
+		}
+
+		/**
+		 * Writes out the blocks already compressed.  The current block is
+		 * kept until it is ended or the stream is closed.
+		 */
+		@Override
+		public void flush() throws IOException {
+			this.checkOpen();
+			while (!this.pending.isEmpty() && this.pending.getFirst().isDone()) {
+				this.writeBlock(this.pending.removeFirst());
+			}
+			this.out.flush();
+		}
+
+		/**
+		 * Compresses what has been written since the last block ended as a
+		 * block of its own
+		 */
+		void endBlock() throws IOException {
+			if (this.blockLength > 0) {
+				this.submitBlock();
+			}
+		}
+
+		// bytes written to the current block
+		int blockLength() {
+			return this.blockLength;
+		}
+
+		// the number of the current block
+		int blockNumber() {
+			return this.submitted;
+		}
+
+		/**
+		 * The offset and compressed length of each block, once closed
+		 */
+		List<long[]> writtenBlocks() {
+			return this.written;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (this.closed) {
+				return;
+			}
+			try {
+				if (this.blockLength > 0) {
+					this.submitBlock();
+				}
+				while (!this.pending.isEmpty()) {
+					this.writeBlock(this.pending.removeFirst());
+				}
+				if (this.framed) {
+					this.out.write(BlockFrame.endFrame());
+				}
+			} finally {
+				this.closed = true;
+				for (Future<byte[]> future : this.pending) {
+					future.cancel(false);
+				}
+				this.pending.clear();
+				this.block = null;
+				this.out.close();
+			}
+		}
+
+		private void checkOpen() throws IOException {
+			if (this.closed) {
+				throw new IOException("Stream closed");
+			}
+		}
+
+		private void grow() {
+			byte[] grown = new byte[this.block.length * 2];
+			System.arraycopy(this.block, 0, grown, 0, this.blockLength);
+			this.block = grown;
+		}
+
+		private void submitBlock() throws IOException {
+			this.checkOpen();
+			final byte[] data = this.block;
+			final int length = this.blockLength;
+			Callable<byte[]> compress = new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2);
+					if (framed) {
+						compressed.write(new byte[BlockFrame.HEADER_SIZE]);
+					}
+					OutputStream stream = codec.compress(compressed);
+					stream.write(data, 0, length);
+					stream.close();
+					byte[] block = compressed.toByteArray();
+					if (framed) {
+						BlockFrame.seal(block, length, checksums.get());
+					}
+					return block;
+				}
+			};
+			if (executor == null) {
+				FutureTask<byte[]> task = new FutureTask<byte[]>(compress);
+				task.run();
+				this.pending.add(task);
+			} else {
+				this.pending.add(executor.submit(compress));
+			}
+			++this.submitted;
+			this.block = new byte[BLOCK_SIZE];
+			this.blockLength = 0;
+			while (this.pending.size() > this.maxPending ||
+					(!this.pending.isEmpty() && this.pending.getFirst().isDone())) {
+				this.writeBlock(this.pending.removeFirst());
+			}
+		}
+
+		private void writeBlock(Future<byte[]> future) throws IOException {
+			try {
+				byte[] compressed = future.get();
+				this.out.write(compressed);
+				this.written.add(new long[] { this.position, compressed.length });
+				this.position += compressed.length;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted compressing a block");
+			} catch (ExecutionException e) {
+				throw new IOException("Could not compress a block", e.getCause());
+			}
+		}
+	}
+}
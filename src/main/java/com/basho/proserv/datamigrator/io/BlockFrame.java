@@ -0,0 +1,105 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.util.zip.Checksum;
+
+import org.xerial.snappy.PureJavaCrc32C;
+
+/**
+ * The frame around each compressed block of a framed chunk (version 2).
+ *
+ *   frame    sync (8) stored length (4) raw length (4) block crc (4) header crc (4) stored bytes
+ *   end      a frame with stored and raw lengths of 0
+ *
+ * The block crc is the CRC32C of the stored bytes and the header crc that
+ * of the two lengths and the block crc, so a damaged header is caught
+ * before its lengths are trusted.  Every frame starts with the same sync
+ * marker, so a reader that finds a frame damaged can scan forward to the
+ * next marker whose header checks out and carry on from there.  Blocks end
+ * between records, so the records after a skipped block decode as usual.
+ * The end frame tells a complete chunk from one cut short.  All integers
+ * are big endian.
+ *
+ * CRC32C is computed with java.util.zip.CRC32C where the JVM has it (Java
+ * 9 and later), which the JIT compiles to the processor's CRC instructions,
+ * and in Java otherwise.
+ */
+final class BlockFrame {
+	static final byte[] SYNC = { (byte)0xD3, 'R', 'D', 'B', (byte)0x1A, (byte)0x8C, (byte)0x5E, (byte)0xF1 };
+	static final int HEADER_SIZE = 24;
+	// offsets within the header
+	static final int STORED_LENGTH = 8;
+	static final int RAW_LENGTH = 12;
+	static final int BLOCK_CRC = 16;
+	static final int HEADER_CRC = 20;
+
+	private static final Class<?> HARDWARE_CRC32C = hardwareCrc32c();
+
+	private BlockFrame() {
+	}
+
+	private static Class<?> hardwareCrc32c() {
+		try {
+			return Class.forName("java.util.zip.CRC32C");
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+	static Checksum newChecksum() {
+		if (HARDWARE_CRC32C != null) {
+			try {
+				return (Checksum)HARDWARE_CRC32C.getConstructor().newInstance();
+			} catch (Exception e) {
+				// fall through to the Java implementation
+			}
+		}
+		return new PureJavaCrc32C();
+	}
+
+	/**
+	 * Fills in the header of frame, whose stored bytes follow HEADER_SIZE
+	 * bytes left for it
+	 */
+	static void seal(byte[] frame, int rawLength, Checksum crc) {
+		System.arraycopy(SYNC, 0, frame, 0, SYNC.length);
+		putInt(frame, STORED_LENGTH, frame.length - HEADER_SIZE);
+		putInt(frame, RAW_LENGTH, rawLength);
+		crc.reset();
+		crc.update(frame, HEADER_SIZE, frame.length - HEADER_SIZE);
+		putInt(frame, BLOCK_CRC, (int)crc.getValue());
+		putInt(frame, HEADER_CRC, headerCrc(frame, crc));
+	}
+
+	static byte[] endFrame() {
+		byte[] frame = new byte[HEADER_SIZE];
+		seal(frame, 0, newChecksum());
+		return frame;
+	}
+
+	static int headerCrc(byte[] header, Checksum crc) {
+		crc.reset();
+		crc.update(header, STORED_LENGTH, HEADER_CRC - STORED_LENGTH);
+		return (int)crc.getValue();
+	}
+
+	static boolean isSync(byte[] buffer, int offset) {
+		for (int i = 0; i < SYNC.length; ++i) {
+			if (buffer[offset + i] != SYNC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static void putInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte)(value >>> 24);
+		buffer[offset + 1] = (byte)(value >>> 16);
+		buffer[offset + 2] = (byte)(value >>> 8);
+		buffer[offset + 3] = (byte)value;
+	}
+
+	static int getInt(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16) |
+				((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+	}
+}
@@ -0,0 +1,54 @@
+package com.basho.proserv.datamigrator.io;
+
+/**
+ * Bloom filter over 128 bit key hashes.  The probe positions are derived
+ * from the two halves of the hash (h1 + i * h2), so no extra hashing is
+ * done per probe.  With 10 bits per key and 7 probes about 1% of absent
+ * keys pass.
+ */
+public class BloomFilter {
+	private static final long MAX_BITS = 64L * Integer.MAX_VALUE;
+
+	private final long[] bits;
+	private final long bitCount;
+	private final int probeCount;
+
+	public BloomFilter(long expectedKeys, int bitsPerKey) {
+		if (expectedKeys < 1) {
+			throw new IllegalArgumentException("expectedKeys must be greater than 0");
+		}
+		if (bitsPerKey < 1) {
+			throw new IllegalArgumentException("bitsPerKey must be greater than 0");
+		}
+		long bitCount = Math.min(MAX_BITS, Math.max(64, expectedKeys * bitsPerKey));
+		this.bits = new long[(int)((bitCount + 63) / 64)];
+		this.bitCount = this.bits.length * 64L;
+		// ln 2 * bits per key minimises false positives
+		this.probeCount = Math.max(1, (int)Math.round(bitsPerKey * 0.693));
+	}
+
+	public void add(long h1, long h2) {
+		for (int i = 0; i < this.probeCount; ++i) {
+			long bit = index(h1 + i * h2);
+			this.bits[(int)(bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	public boolean mightContain(long h1, long h2) {
+		for (int i = 0; i < this.probeCount; ++i) {
+			long bit = index(h1 + i * h2);
+			if ((this.bits[(int)(bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public long memoryBytes() {
+		return this.bits.length * 8L;
+	}
+
+	private long index(long hash) {
+		return (hash & Long.MAX_VALUE) % this.bitCount;
+	}
+}
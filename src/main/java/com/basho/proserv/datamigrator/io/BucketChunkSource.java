@@ -0,0 +1,547 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basho.riak.client.IRiakObject;
+
+/**
+ * Reads a bucket's dump chunk by chunk for loading, and records what has been
+ * loaded.  Callers report every stored object with stored(), which writes its
+ * key to the chunk's N.loadedkeys journal; once every object read from a
+ * chunk has been stored, an empty N.loaded marker is written next to N.data.
+ * A chunk whose reader met damaged blocks or records is counted in
+ * readErrors() and not marked, so a resumed load reads it again.
+ *
+ * With resume, chunks with a marker are skipped without being opened, and
+ * objects whose key is already in a partly loaded chunk's journal are skipped,
+ * holding no more than one chunk's keys in memory.  Without resume, markers
+ * left by earlier loads are removed first.
+ *
+ * The iterator runs on the store pipeline's source thread while stored() is
+ * called by the store workers.  Both synchronize on the source only to track
+ * which chunk each object came from; keys are written to the chunk journals
+ * through ConcurrentKeyJournal buffers, and objects read, outside the lock.
+ * Only a single iteration is supported.
+ *
+ * With more than one reader, chunks are opened, decompressed and decoded by
+ * that many threads at once, and the iterator returns their objects in
+ * whatever order they are read.  Objects read but not yet taken by the
+ * iterator are held within a byte budget, so readers wait rather than run
+ * ahead of the store workers.
+ */
+public class BucketChunkSource implements Iterable<IRiakObject> {
+	private final Logger log = LoggerFactory.getLogger(BucketChunkSource.class);
+	public static final String LOADED_MARKER_EXTENSION = ".loaded";
+	public static final int DEFAULT_READERS = Math.min(4, Runtime.getRuntime().availableProcessors());
+	public static final long DEFAULT_READ_BUDGET = 64L * 1024 * 1024;
+	// roughly what a decoded object costs beyond its key and value
+	private static final int OBJECT_OVERHEAD_BYTES = 256;
+
+	private static volatile int defaultReaders = DEFAULT_READERS;
+	private static volatile long defaultReadBudget = DEFAULT_READ_BUDGET;
+
+	private final File bucketRoot;
+	private final boolean resetVClock;
+	private final boolean resume;
+	private final Map<IRiakObject, Chunk> inFlight = new IdentityHashMap<IRiakObject, Chunk>();
+	private final List<Chunk> openChunks = new ArrayList<Chunk>();
+	private int readers = defaultReaders;
+	private long readBudget = defaultReadBudget;
+	private ExecutorService readerExecutor = null;
+	private boolean iterated = false;
+	private long skippedChunks = 0;
+	private long skippedObjects = 0;
+	private long readErrors = 0;
+
+	public BucketChunkSource(File bucketRoot, boolean resetVClock, boolean resume) {
+		if (bucketRoot == null) {
+			throw new IllegalArgumentException("bucketRoot cannot be null");
+		}
+		this.bucketRoot = bucketRoot;
+		this.resetVClock = resetVClock;
+		this.resume = resume;
+	}
+
+	/**
+	 * The bucket's chunk files in name order
+	 */
+	public static List<File> chunkFiles(File bucketRoot) {
+		List<File> files = new ArrayList<File>();
+		String[] names = bucketRoot.list(RiakObjectBucket.dataFileFilter);
+		if (names != null) {
+			Arrays.sort(names);
+			for (String name : names) {
+				File file = new File(bucketRoot, name);
+				if (file.isFile()) {
+					files.add(file);
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Sets how many chunks sources read at once, and the bytes of read
+	 * objects they may hold, unless set on the source
+	 */
+	public static void setDefaultReaders(int readers, long readBudget) {
+		checkReaders(readers, readBudget);
+		defaultReaders = readers;
+		defaultReadBudget = readBudget;
+	}
+
+	public static int getDefaultReaders() {
+		return defaultReaders;
+	}
+
+	public static long getDefaultReadBudget() {
+		return defaultReadBudget;
+	}
+
+	/**
+	 * Sets how many chunks are read at once, and the bytes of read objects
+	 * that may wait for the iterator.  Must be called before iterator().
+	 */
+	public synchronized void setReaders(int readers, long readBudget) {
+		checkReaders(readers, readBudget);
+		if (this.iterated) {
+			throw new IllegalStateException("Readers must be set before iterating");
+		}
+		this.readers = readers;
+		this.readBudget = readBudget;
+	}
+
+	private static void checkReaders(int readers, long readBudget) {
+		if (readers < 1) {
+			throw new IllegalArgumentException("readers must be greater than 0");
+		}
+		if (readBudget < 1) {
+			throw new IllegalArgumentException("readBudget must be greater than 0");
+		}
+	}
+
+	public static File loadedMarker(File chunkFile) {
+		String name = chunkFile.getName();
+		int ind = name.lastIndexOf('.');
+		return new File(chunkFile.getParentFile(),
+				(ind == -1 ? name : name.substring(0, ind)) + LOADED_MARKER_EXTENSION);
+	}
+
+	public boolean dataFilesExist() {
+		return !chunkFiles(this.bucketRoot).isEmpty();
+	}
+
+	@Override
+	public synchronized Iterator<IRiakObject> iterator() {
+		if (this.iterated) {
+			throw new IllegalStateException("BucketChunkSource can only be iterated once");
+		}
+		this.iterated = true;
+		List<File> chunkFiles = chunkFiles(this.bucketRoot);
+		if (!this.resume) {
+			for (File chunkFile : chunkFiles) {
+				loadedMarker(chunkFile).delete();
+			}
+		}
+		if (this.readers == 1 || chunkFiles.size() < 2) {
+			return new ChunkIterator(chunkFiles.iterator());
+		}
+		return new ConcurrentChunkIterator(chunkFiles);
+	}
+
+	/**
+	 * Records an object returned by the iterator as stored
+	 */
+	public void stored(IRiakObject riakObject) throws IOException {
+		Chunk chunk = null;
+		synchronized (this) {
+			chunk = this.inFlight.remove(riakObject);
+		}
+		if (chunk == null) {
+			throw new IllegalArgumentException("Object was not read from this source: " + riakObject.getKey());
+		}
+		chunk.journal.write(riakObject);
+		synchronized (this) {
+			--chunk.outstanding;
+			this.finishIfLoaded(chunk);
+		}
+	}
+
+	/**
+	 * Closes the journals of chunks that are not fully loaded, without
+	 * marking them
+	 */
+	public void close() {
+		ExecutorService executor = null;
+		synchronized (this) {
+			executor = this.readerExecutor;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		this.closeChunks();
+	}
+
+	private synchronized void closeChunks() {
+		for (Chunk chunk : this.openChunks) {
+			chunk.reader.close();
+			chunk.journal.close();
+		}
+		this.openChunks.clear();
+		this.inFlight.clear();
+	}
+
+	public synchronized long skippedChunks() {
+		return this.skippedChunks;
+	}
+
+	public synchronized long skippedObjects() {
+		return this.skippedObjects;
+	}
+
+	/**
+	 * Damaged blocks and records met by the chunk readers
+	 */
+	public synchronized long readErrors() {
+		return this.readErrors;
+	}
+
+	private void finishIfLoaded(Chunk chunk) throws IOException {
+		if (!chunk.exhausted || chunk.outstanding > 0) {
+			return;
+		}
+		chunk.journal.close();
+		this.openChunks.remove(chunk);
+		if (chunk.readErrors > 0) {
+			log.error(String.format("Not marking %s loaded after %d read errors",
+					chunk.dataFile.getAbsolutePath(), chunk.readErrors));
+			return;
+		}
+		File marker = loadedMarker(chunk.dataFile);
+		if (!marker.exists() && !marker.createNewFile()) {
+			throw new IOException("Could not create " + marker.getAbsolutePath());
+		}
+	}
+
+	private Chunk openChunk(File chunkFile) {
+		File journalPath = KeyJournal.createKeyPathFromPath(chunkFile, true);
+		KeyHashSet loadedKeys = null;
+		if (this.resume && journalPath.exists()) {
+			loadedKeys = new KeyHashSet();
+			KeyJournal loaded = new KeyJournal(journalPath, KeyJournal.Mode.READ);
+			try {
+				for (Key key : loaded) {
+					if (!key.errorKey()) {
+						loadedKeys.add(key);
+					}
+				}
+			} finally {
+				loaded.close();
+			}
+		}
+		log.debug("Opening chunk file " + chunkFile.getAbsolutePath());
+		Chunk chunk = new Chunk(chunkFile, new RiakObjectReader(chunkFile, this.resetVClock),
+				new ConcurrentKeyJournal(new KeyJournal(journalPath, 
+						loadedKeys == null ? KeyJournal.Mode.WRITE : KeyJournal.Mode.APPEND)),
+				loadedKeys);
+		synchronized (this) {
+			this.openChunks.add(chunk);
+		}
+		return chunk;
+	}
+
+	// Opens a chunk to read, or returns null if resuming and it is loaded
+	private Chunk openUnloadedChunk(File chunkFile) {
+		if (this.resume && loadedMarker(chunkFile).exists()) {
+			synchronized (this) {
+				++this.skippedChunks;
+			}
+			return null;
+		}
+		return this.openChunk(chunkFile);
+	}
+
+	// Tracks an object read from chunk, or returns false if it is loaded
+	private boolean issue(Chunk chunk, IRiakObject riakObject) {
+		boolean loaded = chunk.loadedKeys != null &&
+				chunk.loadedKeys.contains(riakObject.getBucket(), riakObject.getKey());
+		synchronized (this) {
+			if (loaded) {
+				++this.skippedObjects;
+				return false;
+			}
+			this.inFlight.put(riakObject, chunk);
+			++chunk.outstanding;
+		}
+		return true;
+	}
+
+	private void finishChunk(Chunk chunk) {
+		chunk.reader.close();
+		synchronized (this) {
+			chunk.readErrors = chunk.reader.errorCount();
+			this.readErrors += chunk.readErrors;
+			chunk.exhausted = true;
+			try {
+				this.finishIfLoaded(chunk);
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not mark chunk loaded", e);
+			}
+		}
+	}
+
+	private static long budgetBytes(IRiakObject riakObject) {
+		byte[] value = riakObject.getValue();
+		return (value == null ? 0 : value.length) + riakObject.getKey().length() +
+				riakObject.getBucket().length() + OBJECT_OVERHEAD_BYTES;
+	}
+
+	private static class Chunk {
+		final File dataFile;
+		final RiakObjectReader reader;
+		final ConcurrentKeyJournal journal;
+		final KeyHashSet loadedKeys;
+		int outstanding = 0;
+		int readErrors = 0;
+		boolean exhausted = false;
+
+		Chunk(File dataFile, RiakObjectReader reader, ConcurrentKeyJournal journal, KeyHashSet loadedKeys) {
+			this.dataFile = dataFile;
+			this.reader = reader;
+			this.journal = journal;
+			this.loadedKeys = loadedKeys;
+		}
+	}
+
+	private class ChunkIterator implements Iterator<IRiakObject> {
+		private final Iterator<File> chunkFiles;
+		private Chunk chunk = null;
+		private IRiakObject nextObject = null;
+
+		public ChunkIterator(Iterator<File> chunkFiles) {
+			this.chunkFiles = chunkFiles;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.nextObject == null) {
+				this.advance();
+			}
+			return this.nextObject != null;
+		}
+
+		@Override
+		public IRiakObject next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			IRiakObject riakObject = this.nextObject;
+			this.nextObject = null;
+			return riakObject;
+		}
+
+		private void advance() {
+			while (true) {
+				if (this.chunk != null) {
+					IRiakObject riakObject = this.chunk.reader.readRiakObject();
+					if (riakObject != null) {
+						if (!issue(this.chunk, riakObject)) {
+							continue;
+						}
+						this.nextObject = riakObject;
+						return;
+					}
+					finishChunk(this.chunk);
+					this.chunk = null;
+				}
+				if (!this.chunkFiles.hasNext()) {
+					return;
+				}
+				this.chunk = openUnloadedChunk(this.chunkFiles.next());
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Reads chunks on a pool of reader threads, each taking the next unread
+	 * chunk as it finishes one, into a queue the iterator takes from.  A
+	 * reader holds budget permits for the bytes of each object it queues
+	 * until the iterator takes it; an object larger than the whole budget
+	 * takes all of it.
+	 */
+	private class ConcurrentChunkIterator implements Iterator<IRiakObject> {
+		private final Iterator<File> chunkFiles;
+		private final LinkedBlockingQueue<ReadObject> queue = new LinkedBlockingQueue<ReadObject>();
+		private final Semaphore budget;
+		private final int budgetPermits;
+		private int runningReaders;
+		private RuntimeException failure = null;
+		private IRiakObject nextObject = null;
+		private boolean finished = false;
+
+		public ConcurrentChunkIterator(List<File> chunkFiles) {
+			this.chunkFiles = chunkFiles.iterator();
+			this.budgetPermits = (int)Math.min(readBudget, Integer.MAX_VALUE);
+			this.budget = new Semaphore(this.budgetPermits);
+			int threads = Math.min(readers, chunkFiles.size());
+			this.runningReaders = threads;
+			final String name = "BucketChunkSource-" + bucketRoot.getName();
+			ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, name);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			synchronized (BucketChunkSource.this) {
+				readerExecutor = executor;
+			}
+			for (int i = 0; i < threads; ++i) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						read();
+					}
+				});
+			}
+			executor.shutdown();
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.nextObject == null && !this.finished) {
+				this.take();
+			}
+			return this.nextObject != null;
+		}
+
+		@Override
+		public IRiakObject next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			IRiakObject riakObject = this.nextObject;
+			this.nextObject = null;
+			return riakObject;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void take() {
+			ReadObject read = null;
+			try {
+				read = this.queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				this.finished = true;
+				return;
+			}
+			if (read.riakObject == null) {
+				this.finished = true;
+				synchronized (this) {
+					if (this.failure != null) {
+						throw this.failure;
+					}
+				}
+				return;
+			}
+			this.budget.release(read.permits);
+			this.nextObject = read.riakObject;
+		}
+
+		private void read() {
+			try {
+				File chunkFile = null;
+				while ((chunkFile = this.nextChunkFile()) != null) {
+					Chunk chunk = openUnloadedChunk(chunkFile);
+					if (chunk == null) {
+						continue;
+					}
+					IRiakObject riakObject = null;
+					while ((riakObject = chunk.reader.readRiakObject()) != null) {
+						if (Thread.currentThread().isInterrupted()) {
+							return;
+						}
+						int permits = (int)Math.min(budgetBytes(riakObject), this.budgetPermits);
+						this.budget.acquire(permits);
+						if (issue(chunk, riakObject)) {
+							this.queue.put(new ReadObject(riakObject, permits));
+						} else {
+							this.budget.release(permits);
+						}
+					}
+					finishChunk(chunk);
+				}
+			} catch (InterruptedException e) {
+				// closed, exit
+			} catch (RuntimeException e) {
+				log.error("Could not read chunks from " + bucketRoot.getAbsolutePath(), e);
+				synchronized (this) {
+					if (this.failure == null) {
+						this.failure = e;
+					}
+				}
+			} finally {
+				this.readerFinished();
+			}
+		}
+
+		private File nextChunkFile() {
+			synchronized (this.chunkFiles) {
+				return this.chunkFiles.hasNext() ? this.chunkFiles.next() : null;
+			}
+		}
+
+		// the last reader to finish ends the iteration
+		private void readerFinished() {
+			boolean last = false;
+			synchronized (this) {
+				last = --this.runningReaders == 0;
+			}
+			if (last) {
+				this.queue.add(new ReadObject(null, 0));
+			}
+		}
+	}
+
+	private static class ReadObject {
+		final IRiakObject riakObject;
+		final int permits;
+
+		ReadObject(IRiakObject riakObject, int permits) {
+			this.riakObject = riakObject;
+			this.permits = permits;
+		}
+	}
+}
@@ -0,0 +1,297 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import org.xerial.snappy.SnappyFramedInputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * How a chunk file's records are compressed.
+ *
+ * FRAMED chunks, the default, start with a header
+ *
+ *   magic (4) version (1) codec (1) reserved (2)
+ *
+ * of version 2, followed by the chunk's blocks each compressed on its own
+ * and wrapped in a checksummed BlockFrame, so a damaged block can be
+ * skipped.  PLAIN chunks are the codec's own stream format as earlier
+ * versions wrote them: GZIP chunks are plain gzip files, which older
+ * versions still read, and chunks of any other codec have a header of
+ * version 1 followed by LZ4 frames, Snappy framing format or Zstandard
+ * frames.  openInput() tells them apart by their first bytes, so a bucket
+ * can hold chunks of different codecs and formats and loads read them all.
+ */
+public abstract class ChunkCodec {
+	// a chunk header records its codec as the ordinal, so new types go last
+	public enum Type { NONE, GZIP, LZ4, SNAPPY, ZSTD }
+	public enum Format { PLAIN, FRAMED }
+
+	static final byte[] MAGIC = { (byte)0x89, 'R', 'D', 'C' };
+	static final int VERSION = 1;
+	static final int FRAMED_VERSION = 2;
+	static final int HEADER_SIZE = 8;
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	public static final int DEFAULT_GZIP_LEVEL = 6;
+	public static final int DEFAULT_ZSTD_LEVEL = 3;
+
+	public static final ChunkCodec NONE = new ChunkCodec(Type.NONE, 0) {
+		@Override
+		OutputStream compress(OutputStream out) {
+			return out;
+		}
+
+		@Override
+		InputStream decompress(InputStream in) {
+			return in;
+		}
+	};
+
+	public static final ChunkCodec LZ4 = new ChunkCodec(Type.LZ4, 0) {
+		@Override
+		OutputStream compress(OutputStream out) throws IOException {
+			return new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_64KB);
+		}
+
+		@Override
+		InputStream decompress(InputStream in) throws IOException {
+			return new LZ4FrameInputStream(in);
+		}
+	};
+
+	public static final ChunkCodec SNAPPY = new ChunkCodec(Type.SNAPPY, 0) {
+		@Override
+		OutputStream compress(OutputStream out) throws IOException {
+			return new SnappyFramedOutputStream(out);
+		}
+
+		@Override
+		InputStream decompress(InputStream in) throws IOException {
+			return new SnappyFramedInputStream(in);
+		}
+	};
+
+	private static volatile ChunkCodec defaultCodec = gzip(DEFAULT_GZIP_LEVEL);
+	private static volatile Format defaultFormat = Format.FRAMED;
+
+	private final Type type;
+	private final int level;
+
+	private ChunkCodec(Type type, int level) {
+		this.type = type;
+		this.level = level;
+	}
+
+	/**
+	 * gzip at level 1 (fastest) to 9 (smallest)
+	 */
+	public static ChunkCodec gzip(final int level) {
+		if (level < 1 || level > 9) {
+			throw new IllegalArgumentException("gzip level must be from 1 to 9");
+		}
+		return new ChunkCodec(Type.GZIP, level) {
+			@Override
+			OutputStream compress(OutputStream out) throws IOException {
+				return new GZIPOutputStream(out, BUFFER_SIZE) {
+					{
+						this.def.setLevel(level);
+					}
+				};
+			}
+
+			@Override
+			InputStream decompress(InputStream in) throws IOException {
+				return new GZIPInputStream(in, BUFFER_SIZE);
+			}
+		};
+	}
+
+	/**
+	 * Zstandard at level 1 (fastest) to 22 (smallest)
+	 */
+	public static ChunkCodec zstd(final int level) {
+		if (level < 1 || level > 22) {
+			throw new IllegalArgumentException("zstd level must be from 1 to 22");
+		}
+		return new ChunkCodec(Type.ZSTD, level) {
+			@Override
+			OutputStream compress(OutputStream out) throws IOException {
+				return new ZstdOutputStream(out, level);
+			}
+
+			@Override
+			InputStream decompress(InputStream in) throws IOException {
+				return new ZstdInputStream(in);
+			}
+		};
+	}
+
+	/**
+	 * Parses none, gzip[:level], lz4, snappy or zstd[:level]
+	 */
+	public static ChunkCodec parse(String value) {
+		if (value == null) {
+			throw new IllegalArgumentException("value cannot be null");
+		}
+		String[] parts = value.trim().toLowerCase().split(":");
+		if (parts.length > 2) {
+			throw new IllegalArgumentException("Invalid codec " + value);
+		}
+		Integer level = null;
+		if (parts.length == 2) {
+			try {
+				level = Integer.parseInt(parts[1]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid codec level " + value, e);
+			}
+		}
+		if (parts[0].equals("gzip")) {
+			return gzip(level == null ? DEFAULT_GZIP_LEVEL : level);
+		} else if (parts[0].equals("zstd")) {
+			return zstd(level == null ? DEFAULT_ZSTD_LEVEL : level);
+		} else if (level != null) {
+			throw new IllegalArgumentException("Codec " + parts[0] + " takes no level");
+		} else if (parts[0].equals("none")) {
+			return NONE;
+		} else if (parts[0].equals("lz4")) {
+			return LZ4;
+		} else if (parts[0].equals("snappy")) {
+			return SNAPPY;
+		}
+		throw new IllegalArgumentException("Invalid codec " + value);
+	}
+
+	/**
+	 * Sets the codec of chunk files written without one
+	 */
+	public static void setDefault(ChunkCodec codec) {
+		if (codec == null) {
+			throw new IllegalArgumentException("codec cannot be null");
+		}
+		defaultCodec = codec;
+	}
+
+	public static ChunkCodec getDefault() {
+		return defaultCodec;
+	}
+
+	/**
+	 * Sets the format of chunk files written without one
+	 */
+	public static void setDefaultFormat(Format format) {
+		if (format == null) {
+			throw new IllegalArgumentException("format cannot be null");
+		}
+		defaultFormat = format;
+	}
+
+	public static Format getDefaultFormat() {
+		return defaultFormat;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	public int getLevel() {
+		return this.level;
+	}
+
+	@Override
+	public String toString() {
+		String name = this.type.name().toLowerCase();
+		return this.type == Type.GZIP || this.type == Type.ZSTD ? name + ":" + this.level : name;
+	}
+
+	/**
+	 * Starts a PLAIN chunk on out, writing the header if the codec has one,
+	 * and returns the stream to write its records to
+	 */
+	public OutputStream openOutput(OutputStream out) throws IOException {
+		this.writeHeader(out, Format.PLAIN);
+		return this.compress(out);
+	}
+
+	// returns the bytes written
+	int writeHeader(OutputStream out, Format format) throws IOException {
+		if (this.type == Type.GZIP && format == Format.PLAIN) {
+			return 0;
+		}
+		byte[] header = new byte[HEADER_SIZE];
+		System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+		header[4] = (byte)(format == Format.FRAMED ? FRAMED_VERSION : VERSION);
+		header[5] = (byte)this.type.ordinal();
+		out.write(header);
+		return HEADER_SIZE;
+	}
+
+	/**
+	 * Reads a chunk's header, if it has one, and returns the stream of its
+	 * records, whatever codec it was written with
+	 */
+	public static InputStream openInput(InputStream in) throws IOException {
+		if (!in.markSupported()) {
+			throw new IllegalArgumentException("in must support mark");
+		}
+		byte[] header = new byte[HEADER_SIZE];
+		int read = 0;
+		in.mark(HEADER_SIZE);
+		while (read < MAGIC.length) {
+			int count = in.read(header, read, HEADER_SIZE - read);
+			if (count < 0) {
+				break;
+			}
+			read += count;
+		}
+		boolean framed = read >= MAGIC.length;
+		for (int i = 0; framed && i < MAGIC.length; ++i) {
+			framed = header[i] == MAGIC[i];
+		}
+		if (!framed) {
+			in.reset();
+			return gzip(DEFAULT_GZIP_LEVEL).decompress(in);
+		}
+		while (read < HEADER_SIZE) {
+			int count = in.read(header, read, HEADER_SIZE - read);
+			if (count < 0) {
+				throw new IOException("Chunk header cut short");
+			}
+			read += count;
+		}
+		if (header[4] == FRAMED_VERSION) {
+			return new FramedBlockInputStream(in, forType(header[5]), HEADER_SIZE, true);
+		} else if (header[4] != VERSION) {
+			throw new IOException("Unsupported chunk version " + header[4]);
+		}
+		return forType(header[5]).decompress(in);
+	}
+
+	static ChunkCodec forType(int id) throws IOException {
+		if (id == Type.NONE.ordinal()) {
+			return NONE;
+		} else if (id == Type.GZIP.ordinal()) {
+			return gzip(DEFAULT_GZIP_LEVEL);
+		} else if (id == Type.LZ4.ordinal()) {
+			return LZ4;
+		} else if (id == Type.SNAPPY.ordinal()) {
+			return SNAPPY;
+		} else if (id == Type.ZSTD.ordinal()) {
+			return zstd(DEFAULT_ZSTD_LEVEL); // the level only matters for writing
+		}
+		throw new IOException("Unknown chunk codec " + id);
+	}
+
+	abstract OutputStream compress(OutputStream out) throws IOException;
+
+	abstract InputStream decompress(InputStream in) throws IOException;
+}
@@ -0,0 +1,298 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The sidecar index of a chunk file, N.index next to N.data, naming the
+ * block of the chunk that holds each of its records.  RiakObjectWriter cuts
+ * chunks into blocks that each decompress on their own, so the objects of a
+ * few keys can be read by decompressing only their blocks rather than the
+ * whole chunk.  The index is
+ *
+ *   magic (4) version (1) codec (1) framed (1) reserved (1)
+ *
+ * followed, deflated, by
+ *
+ *   blockCount (4) { offset (8) length (4) records (4) } ...
+ *   recordCount (4) { block (4) bucketLength (4) [bucket] keyLength (4) key } ...
+ *
+ * with a bucketLength of -1 when a record's bucket is that of the record
+ * before it.  The blocks of a framed chunk are located by their frames, and
+ * their checksums checked when they are read.  Chunks written before
+ * indexes existed have none, and are read whole.
+ */
+public class ChunkIndex {
+	public static final String INDEX_EXTENSION = ".index";
+	static final byte[] MAGIC = { (byte)0x89, 'R', 'D', 'X' };
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 8;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ChunkCodec codec;
+	private final boolean framed;
+	private final List<long[]> blocks = new ArrayList<long[]>();
+	private final List<Integer> blockRecords = new ArrayList<Integer>();
+	private final List<Integer> recordBlocks = new ArrayList<Integer>();
+	private final List<String> buckets = new ArrayList<String>();
+	private final List<String> keys = new ArrayList<String>();
+
+	ChunkIndex(ChunkCodec codec, boolean framed) {
+		this.codec = codec;
+		this.framed = framed;
+	}
+
+	public static File indexFile(File chunkFile) {
+		String name = chunkFile.getName();
+		int ind = name.lastIndexOf('.');
+		return new File(chunkFile.getParentFile(),
+				(ind == -1 ? name : name.substring(0, ind)) + INDEX_EXTENSION);
+	}
+
+	/**
+	 * Reads a chunk's index
+	 */
+	public static ChunkIndex read(File path) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		try {
+			byte[] header = new byte[HEADER_SIZE];
+			in.readFully(header);
+			for (int i = 0; i < MAGIC.length; ++i) {
+				if (header[i] != MAGIC[i]) {
+					throw new IOException(path.getAbsolutePath() + " is not a chunk index");
+				}
+			}
+			if (header[4] != VERSION) {
+				throw new IOException("Unsupported chunk index version " + header[4]);
+			}
+			ChunkIndex index = new ChunkIndex(ChunkCodec.forType(header[5]), header[6] == 1);
+			DataInputStream entries = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in)));
+			int blockCount = entries.readInt();
+			for (int b = 0; b < blockCount; ++b) {
+				index.blocks.add(new long[] { entries.readLong(), entries.readInt() });
+				index.blockRecords.add(entries.readInt());
+			}
+			int recordCount = entries.readInt();
+			String bucket = null;
+			for (int r = 0; r < recordCount; ++r) {
+				int block = entries.readInt();
+				if (block < 0 || block >= blockCount) {
+					throw new IOException("Corrupt chunk index " + path.getAbsolutePath());
+				}
+				int bucketLength = entries.readInt();
+				if (bucketLength >= 0) {
+					bucket = readString(entries, bucketLength);
+				} else if (bucket == null) {
+					throw new IOException("Corrupt chunk index " + path.getAbsolutePath());
+				}
+				index.add(block, bucket, readString(entries, entries.readInt()));
+			}
+			return index;
+		} finally {
+			in.close();
+		}
+	}
+
+	public int blockCount() {
+		return this.blocks.size();
+	}
+
+	public int recordCount() {
+		return this.keys.size();
+	}
+
+	public ChunkCodec.Type getCodecType() {
+		return this.codec.getType();
+	}
+
+	/**
+	 * The blocks holding records of the wanted keys, in chunk order
+	 */
+	public SortedSet<Integer> blocksFor(KeyHashSet wanted) {
+		SortedSet<Integer> found = new TreeSet<Integer>();
+		for (int r = 0; r < this.keys.size(); ++r) {
+			if (wanted.contains(this.buckets.get(r), this.keys.get(r))) {
+				found.add(this.recordBlocks.get(r));
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Opens one block of chunkFile, from which its records can be read
+	 */
+	public RiakObjectReader openBlock(File chunkFile, int block, boolean resetVClock) throws IOException {
+		long[] location = this.blocks.get(block);
+		FileInputStream file = new FileInputStream(chunkFile);
+		try {
+			long skipped = 0;
+			while (skipped < location[0]) {
+				long count = file.skip(location[0] - skipped);
+				if (count <= 0) {
+					throw new IOException("Block " + block + " is past the end of " + chunkFile.getAbsolutePath());
+				}
+				skipped += count;
+			}
+			InputStream blockStream = new LimitedInputStream(new BufferedInputStream(file, ChunkCodec.BUFFER_SIZE),
+					location[1]);
+			InputStream records = this.framed ?
+					new FramedBlockInputStream(blockStream, this.codec, location[0], false) :
+					this.codec.decompress(blockStream);
+			return new RiakObjectReader(records, "block " + block + " of " + chunkFile.getAbsolutePath(), resetVClock);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int blockRecords(int block) {
+		return this.blockRecords.get(block);
+	}
+
+	void add(int block, String bucket, String key) {
+		this.recordBlocks.add(block);
+		this.buckets.add(bucket);
+		this.keys.add(key);
+	}
+
+	// Records where each block was written, counting the records added to it
+	void setBlocks(List<long[]> written) {
+		int[] counts = new int[written.size()];
+		for (Integer block : this.recordBlocks) {
+			++counts[block];
+		}
+		this.blocks.clear();
+		this.blockRecords.clear();
+		for (int b = 0; b < written.size(); ++b) {
+			this.blocks.add(written.get(b));
+			this.blockRecords.add(counts[b]);
+		}
+	}
+
+	/**
+	 * Writes the index to path, forcing it to disk if sync is set
+	 */
+	void write(File path, boolean sync) throws IOException {
+		FileOutputStream file = new FileOutputStream(path);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+		try {
+			byte[] header = new byte[HEADER_SIZE];
+			System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+			header[4] = VERSION;
+			header[5] = (byte)this.codec.getType().ordinal();
+			header[6] = (byte)(this.framed ? 1 : 0);
+			out.write(header);
+			DeflaterOutputStream deflater = new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED));
+			DataOutputStream entries = new DataOutputStream(new BufferedOutputStream(deflater));
+			entries.writeInt(this.blocks.size());
+			for (int b = 0; b < this.blocks.size(); ++b) {
+				entries.writeLong(this.blocks.get(b)[0]);
+				entries.writeInt((int)this.blocks.get(b)[1]);
+				entries.writeInt(this.blockRecords.get(b));
+			}
+			entries.writeInt(this.keys.size());
+			String previousBucket = null;
+			for (int r = 0; r < this.keys.size(); ++r) {
+				entries.writeInt(this.recordBlocks.get(r));
+				String bucket = this.buckets.get(r);
+				if (bucket.equals(previousBucket)) {
+					entries.writeInt(-1);
+				} else {
+					writeString(entries, bucket);
+					previousBucket = bucket;
+				}
+				writeString(entries, this.keys.get(r));
+			}
+			entries.flush();
+			deflater.finish();
+			out.flush();
+			if (sync) {
+				file.getFD().sync();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in, int length) throws IOException {
+		if (length < 0) {
+			throw new IOException("Corrupt chunk index");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	// Ends a stream after a block's bytes
+	private static class LimitedInputStream extends FilterInputStream {
+		private long remaining;
+
+		LimitedInputStream(InputStream in, long length) {
+			super(in);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (this.remaining <= 0) {
+				return -1;
+			}
+			int b = this.in.read();
+			if (b >= 0) {
+				--this.remaining;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (this.remaining <= 0) {
+				return -1;
+			}
+			int count = this.in.read(b, off, (int)Math.min(len, this.remaining));
+			if (count > 0) {
+				this.remaining -= count;
+			}
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = this.in.skip(Math.min(n, this.remaining));
+			this.remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int)Math.min(this.in.available(), this.remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.basho.riak.client.IRiakObject;
+
+/**
+ * An append only KeyJournal that any number of threads can write to.  Each
+ * thread collects its keys in a buffer of its own and writes the buffer to
+ * the journal as a group, under one lock, once it holds bufferKeys keys, so
+ * writers only contend once per group.  flush() and close() write every
+ * thread's buffered keys.
+ *
+ * Keys from different threads are interleaved a group at a time, in no
+ * particular order.
+ */
+public class ConcurrentKeyJournal {
+	public static final int DEFAULT_BUFFER_KEYS = 256;
+
+	private final KeyJournal journal;
+	private final int bufferKeys;
+	private final List<Buffer> buffers = new ArrayList<Buffer>();
+	private final ThreadLocal<Buffer> threadBuffer = new ThreadLocal<Buffer>() {
+		@Override
+		protected Buffer initialValue() {
+			Buffer buffer = new Buffer(bufferKeys);
+			synchronized (buffers) {
+				buffers.add(buffer);
+			}
+			return buffer;
+		}
+	};
+	private volatile boolean closed = false;
+
+	public ConcurrentKeyJournal(KeyJournal journal) {
+		this(journal, DEFAULT_BUFFER_KEYS);
+	}
+
+	public ConcurrentKeyJournal(KeyJournal journal, int bufferKeys) {
+		if (journal == null) {
+			throw new IllegalArgumentException("journal cannot be null");
+		}
+		if (bufferKeys < 1) {
+			throw new IllegalArgumentException("bufferKeys must be greater than 0");
+		}
+		this.journal = journal;
+		this.bufferKeys = bufferKeys;
+	}
+
+	public void write(String bucket, String key) throws IOException {
+		if (bucket == null || key == null) {
+			throw new IllegalArgumentException("bucket and key must not be null");
+		}
+		Buffer buffer = this.threadBuffer.get();
+		synchronized (buffer) {
+			if (this.closed) {
+				throw new IOException("Key journal is closed");
+			}
+			buffer.buckets[buffer.count] = bucket;
+			buffer.keys[buffer.count] = key;
+			if (++buffer.count == buffer.keys.length) {
+				this.writeBuffer(buffer);
+			}
+		}
+	}
+
+	public void write(IRiakObject riakObject) throws IOException {
+		this.write(riakObject.getBucket(), riakObject.getKey());
+	}
+
+	/**
+	 * Writes every thread's buffered keys to the journal
+	 */
+	public void flush() throws IOException {
+		List<Buffer> buffers = null;
+		synchronized (this.buffers) {
+			buffers = new ArrayList<Buffer>(this.buffers);
+		}
+		for (Buffer buffer : buffers) {
+			synchronized (buffer) {
+				this.writeBuffer(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Writes every thread's buffered keys and forces the journal to disk
+	 */
+	public void sync() throws IOException {
+		this.flush();
+		synchronized (this.journal) {
+			this.journal.sync();
+		}
+	}
+
+	public SyncPolicy getSyncPolicy() {
+		return this.journal.getSyncPolicy();
+	}
+
+	/**
+	 * Flushes and closes the journal.  Later writes throw.
+	 */
+	public void close() {
+		// writes check closed under their buffer's lock, so none lands after its buffer is flushed
+		this.closed = true;
+		try {
+			this.flush();
+		} catch (IOException e) {
+			// no-op, swallowed like KeyJournal.close
+		}
+		synchronized (this.journal) {
+			if (!this.journal.isClosed()) {
+				this.journal.close();
+			}
+		}
+	}
+
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	private void writeBuffer(Buffer buffer) throws IOException {
+		if (buffer.count == 0) {
+			return;
+		}
+		synchronized (this.journal) {
+			for (int i = 0; i < buffer.count; ++i) {
+				this.journal.write(buffer.buckets[i], buffer.keys[i]);
+			}
+		}
+		for (int i = 0; i < buffer.count; ++i) {
+			buffer.buckets[i] = null;
+			buffer.keys[i] = null;
+		}
+		buffer.count = 0;
+	}
+
+	private static class Buffer {
+		final String[] buckets;
+		final String[] keys;
+		int count = 0;
+
+		Buffer(int size) {
+			this.buckets = new String[size];
+			this.keys = new String[size];
+		}
+	}
+}
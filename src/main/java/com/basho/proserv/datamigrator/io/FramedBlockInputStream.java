@@ -0,0 +1,268 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Checksum;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the records of a framed chunk, a BlockFrame at a time.  Each
+ * block's checksums are verified and the block decompressed whole before
+ * any of it is returned.  A block that fails is skipped: the stream scans
+ * forward for the next sync marker whose frame checks out and carries on
+ * from there, counting the damaged region once.  A chunk that ends without
+ * its end frame is counted as cut short.
+ */
+class FramedBlockInputStream extends InputStream {
+	private final Logger log = LoggerFactory.getLogger(FramedBlockInputStream.class);
+
+	private final InputStream in;
+	private final ChunkCodec codec;
+	private final boolean expectEnd;
+	private final Checksum crc = BlockFrame.newChecksum();
+	private final byte[] header = new byte[BlockFrame.HEADER_SIZE];
+	// bytes read past and given back while resynchronizing
+	private byte[] replay = new byte[0];
+	private int replayPosition = 0;
+	// offset in the chunk of the next byte of in
+	private long position;
+	// reused from block to block
+	private byte[] stored = new byte[0];
+	private byte[] block = new byte[0];
+	private int blockLength = 0;
+	private int blockPosition = 0;
+	private int corruptBlocks = 0;
+	private boolean resyncing = false;
+	private boolean ended = false;
+	private boolean truncated = false;
+
+	/**
+	 * in starts at offset position of the chunk.  Unless expectEnd is set,
+	 * as when reading a single block, running out before an end frame is not
+	 * counted.
+	 */
+	FramedBlockInputStream(InputStream in, ChunkCodec codec, long position, boolean expectEnd) {
+		this.in = in;
+		this.codec = codec;
+		this.position = position;
+		this.expectEnd = expectEnd;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (this.blockPosition == this.blockLength && !this.nextBlock()) {
+			return -1;
+		}
+		return this.block[this.blockPosition++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (this.blockPosition == this.blockLength && !this.nextBlock()) {
+			return -1;
+		}
+		int count = Math.min(len, this.blockLength - this.blockPosition);
+		System.arraycopy(this.block, this.blockPosition, b, off, count);
+		this.blockPosition += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return this.blockLength - this.blockPosition;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.in.close();
+	}
+
+	/**
+	 * Damaged regions skipped
+	 */
+	int corruptBlocks() {
+		return this.corruptBlocks;
+	}
+
+	/**
+	 * Whether the chunk ended without its end frame
+	 */
+	boolean truncated() {
+		return this.truncated;
+	}
+
+	private boolean nextBlock() throws IOException {
+		while (!this.ended && !this.truncated) {
+			long frameStart = this.position;
+			int skipped = this.findSync();
+			if (skipped < 0) {
+				this.cutShort(this.position);
+				return false;
+			}
+			frameStart += skipped;
+			if (skipped > 0) {
+				this.corrupt(frameStart - skipped, "no frame found");
+			}
+			if (!this.readFully(this.header, BlockFrame.SYNC.length, BlockFrame.HEADER_SIZE - BlockFrame.SYNC.length)) {
+				this.cutShort(frameStart);
+				return false;
+			}
+			int storedLength = BlockFrame.getInt(this.header, BlockFrame.STORED_LENGTH);
+			int rawLength = BlockFrame.getInt(this.header, BlockFrame.RAW_LENGTH);
+			if (BlockFrame.getInt(this.header, BlockFrame.HEADER_CRC) != BlockFrame.headerCrc(this.header, this.crc) ||
+					storedLength < 0 || rawLength < 0) {
+				this.corrupt(frameStart, "damaged frame header");
+				this.giveBack(this.header, 1, BlockFrame.HEADER_SIZE - 1, null, 0);
+				continue;
+			}
+			if (storedLength == 0 && rawLength == 0) {
+				this.ended = true;
+				return false;
+			}
+			if (this.stored.length < storedLength) {
+				this.stored = new byte[storedLength];
+			}
+			if (!this.readFully(this.stored, 0, storedLength)) {
+				this.cutShort(frameStart);
+				return false;
+			}
+			this.crc.reset();
+			this.crc.update(this.stored, 0, storedLength);
+			if ((int)this.crc.getValue() != BlockFrame.getInt(this.header, BlockFrame.BLOCK_CRC)) {
+				this.corrupt(frameStart, "checksum mismatch");
+				this.giveBack(this.header, 1, BlockFrame.HEADER_SIZE - 1, this.stored, storedLength);
+				continue;
+			}
+			if (!this.decompress(storedLength, rawLength)) {
+				this.corrupt(frameStart, "could not decompress");
+				this.giveBack(this.header, 1, BlockFrame.HEADER_SIZE - 1, this.stored, storedLength);
+				continue;
+			}
+			this.resyncing = false;
+			this.blockPosition = 0;
+			if (rawLength > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Reads up to the end of the next sync marker, returning the bytes
+	// skipped before it or -1 if there is none
+	private int findSync() throws IOException {
+		byte[] sync = this.header;
+		if (!this.readFully(sync, 0, BlockFrame.SYNC.length)) {
+			return -1;
+		}
+		int skipped = 0;
+		while (!BlockFrame.isSync(sync, 0)) {
+			int b = this.readByte();
+			if (b < 0) {
+				return -1;
+			}
+			System.arraycopy(sync, 1, sync, 0, BlockFrame.SYNC.length - 1);
+			sync[BlockFrame.SYNC.length - 1] = (byte)b;
+			++skipped;
+		}
+		return skipped;
+	}
+
+	// Decompresses the stored bytes into block
+	private boolean decompress(int storedLength, int rawLength) {
+		this.blockLength = 0;
+		if (this.block.length < rawLength) {
+			this.block = new byte[rawLength];
+		}
+		try {
+			InputStream blockStream = this.codec.decompress(new ByteArrayInputStream(this.stored, 0, storedLength));
+			int read = 0;
+			while (read < rawLength) {
+				int count = blockStream.read(this.block, read, rawLength - read);
+				if (count < 0) {
+					return false;
+				}
+				read += count;
+			}
+			blockStream.close();
+		} catch (IOException e) {
+			return false;
+		} catch (RuntimeException e) {
+			// codecs throw their own exceptions on damaged input
+			return false;
+		}
+		this.blockLength = rawLength;
+		return true;
+	}
+
+	private void corrupt(long offset, String reason) {
+		if (!this.resyncing) {
+			++this.corruptBlocks;
+			this.resyncing = true;
+			log.error(String.format("Skipping corrupt chunk block at offset %d: %s", offset, reason));
+		}
+	}
+
+	private void cutShort(long offset) {
+		if (this.expectEnd) {
+			this.truncated = true;
+			log.error(String.format("Chunk cut short at offset %d", offset));
+		} else {
+			this.ended = true;
+		}
+	}
+
+	// Puts the bytes of a rejected frame after its first back in front of
+	// the stream, so the scan for a marker covers them
+	private void giveBack(byte[] first, int offset, int length, byte[] second, int secondLength) {
+		int remaining = this.replay.length - this.replayPosition;
+		byte[] replay = new byte[length + secondLength + remaining];
+		System.arraycopy(first, offset, replay, 0, length);
+		if (second != null) {
+			System.arraycopy(second, 0, replay, length, secondLength);
+		}
+		System.arraycopy(this.replay, this.replayPosition, replay, length + secondLength, remaining);
+		this.replay = replay;
+		this.replayPosition = 0;
+		this.position -= length + secondLength;
+	}
+
+	private int readByte() throws IOException {
+		int b;
+		if (this.replayPosition < this.replay.length) {
+			b = this.replay[this.replayPosition++] & 0xFF;
+		} else {
+			b = this.in.read();
+		}
+		if (b >= 0) {
+			++this.position;
+		}
+		return b;
+	}
+
+	private boolean readFully(byte[] b, int off, int len) throws IOException {
+		while (len > 0 && this.replayPosition < this.replay.length) {
+			int count = Math.min(len, this.replay.length - this.replayPosition);
+			System.arraycopy(this.replay, this.replayPosition, b, off, count);
+			this.replayPosition += count;
+			this.position += count;
+			off += count;
+			len -= count;
+		}
+		while (len > 0) {
+			int count = this.in.read(b, off, len);
+			if (count < 0) {
+				return false;
+			}
+			this.position += count;
+			off += count;
+			len -= count;
+		}
+		return true;
+	}
+}
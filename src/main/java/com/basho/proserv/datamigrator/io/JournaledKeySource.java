@@ -0,0 +1,122 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes a stream of keys through, typically straight from a key listing,
+ * writing each one to a key journal as it goes by.  The journal is written
+ * to keyPath with RiakObjectWriter.TEMP_EXTENSION added, and closed and
+ * renamed to keyPath once the stream is exhausted, so it ends up identical
+ * to one written by listing the bucket up front.  A listing that stops part
+ * way through never appears under keyPath.
+ *
+ * Only a single iteration is supported.
+ */
+public class JournaledKeySource implements Iterable<Key> {
+	private final Logger log = LoggerFactory.getLogger(JournaledKeySource.class);
+	private final Iterable<Key> keys;
+	private final File keyPath;
+	private final File listingPath;
+	private final KeyJournal keyJournal;
+	private volatile long keyCount = 0;
+	private volatile boolean complete = false;
+	private boolean iterated = false;
+	
+	public JournaledKeySource(Iterable<Key> keys, File keyPath) {
+		if (keys == null || keyPath == null) {
+			throw new IllegalArgumentException("keys and keyPath must not be null");
+		}
+		this.keys = keys;
+		this.keyPath = keyPath;
+		this.listingPath = RiakObjectWriter.tempFile(keyPath);
+		// a journal left from an earlier listing would not match this one
+		keyPath.delete();
+		this.keyJournal = new KeyJournal(this.listingPath, KeyJournal.Mode.WRITE);
+	}
+	
+	/**
+	 * Keys seen so far; the bucket's full key count once isComplete()
+	 */
+	public long keyCount() {
+		return this.keyCount;
+	}
+	
+	public boolean isComplete() {
+		return this.complete;
+	}
+	
+	/**
+	 * Closes the journal, removing it if listing stopped part way through
+	 */
+	public synchronized void close() {
+		this.keyJournal.close();
+		if (!this.complete) {
+			this.listingPath.delete();
+		}
+	}
+	
+	// Only the first call renames the listing into place
+	private synchronized void finish() {
+		if (this.complete) {
+			return;
+		}
+		this.keyJournal.close();
+		this.complete = true;
+		if (!this.listingPath.renameTo(this.keyPath)) {
+			// the dump itself is unaffected, but a resume will list again
+			log.error("Could not rename " + this.listingPath.getAbsolutePath() + " to " + this.keyPath.getName());
+		}
+	}
+	
+	@Override
+	public synchronized Iterator<Key> iterator() {
+		if (this.iterated) {
+			throw new IllegalStateException("JournaledKeySource can only be iterated once");
+		}
+		this.iterated = true;
+		return new JournaledKeyIterator(this.keys.iterator());
+	}
+	
+	private class JournaledKeyIterator implements Iterator<Key> {
+		private final Iterator<Key> keys;
+		
+		public JournaledKeyIterator(Iterator<Key> keys) {
+			this.keys = keys;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if (this.keys.hasNext()) {
+				return true;
+			}
+			finish();
+			return false;
+		}
+		
+		@Override
+		public Key next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Key key = this.keys.next();
+			try {
+				keyJournal.write(key.bucket(), key.key());
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not write key to journal", e);
+			}
+			++keyCount;
+			return key;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -1,6 +1,6 @@
 package com.basho.proserv.datamigrator.io;
 
-public class Key {
+public class Key implements Comparable<Key> {
 	private final String bucket;
 	private final String key;
 	
@@ -25,13 +25,28 @@ public class Key {
 		return this.key;
 	}
 	
+	/**
+	 * Orders by bucket, then key.  Error keys sort first.
+	 */
+	@Override
+	public int compareTo(Key other) {
+		if (this.errorKey() || other.errorKey()) {
+			return (other.errorKey() ? 1 : 0) - (this.errorKey() ? 1 : 0);
+		}
+		int result = this.bucket().compareTo(other.bucket());
+		if (result == 0) {
+			result = this.key().compareTo(other.key());
+		}
+		return result;
+	}
+	
 	@Override
 	public boolean equals(Object other) {
 		boolean result = false;
 		if (other instanceof Key) {
 			Key otherKey = (Key)other;
-			result = otherKey.key().compareTo(this.key) == 0 &&
-					otherKey.bucket().compareTo(this.bucket) == 0;
+			result = otherKey.key().compareTo(this.key()) == 0 &&
+					otherKey.bucket().compareTo(this.bucket()) == 0;
 		}
 		return result;
 	}
@@ -39,7 +54,7 @@ public class Key {
 	@Override
 	public int hashCode() {
 		if (!errorKey()) {
-			return 41 * (41 + (this.key.hashCode() + this.bucket.hashCode()));
+			return 41 * (41 + (this.key().hashCode() + this.bucket().hashCode()));
 		} else {
 			return 0;
 		}
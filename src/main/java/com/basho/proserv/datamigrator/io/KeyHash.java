@@ -0,0 +1,106 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.nio.charset.Charset;
+
+/**
+ * 128 bit MurmurHash3 (x64 variant) of a bucket and key, returned as two
+ * longs.  The bucket is length prefixed so that ("ab", "c") and ("a", "bc")
+ * hash differently.
+ */
+public class KeyHash {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private KeyHash() {
+	}
+
+	public static long[] hash(Key key) {
+		return hash(key.bucket(), key.key());
+	}
+
+	public static long[] hash(String bucket, String key) {
+		byte[] bucketBytes = bucket.getBytes(UTF8);
+		byte[] keyBytes = key.getBytes(UTF8);
+		byte[] data = new byte[4 + bucketBytes.length + keyBytes.length];
+		data[0] = (byte)(bucketBytes.length >>> 24);
+		data[1] = (byte)(bucketBytes.length >>> 16);
+		data[2] = (byte)(bucketBytes.length >>> 8);
+		data[3] = (byte)bucketBytes.length;
+		System.arraycopy(bucketBytes, 0, data, 4, bucketBytes.length);
+		System.arraycopy(keyBytes, 0, data, 4 + bucketBytes.length, keyBytes.length);
+		return murmur3(data, 0);
+	}
+
+	@SuppressWarnings("fallthrough")
+	public static long[] murmur3(byte[] data, long seed) {
+		int length = data.length;
+		int blocks = length / 16;
+		long h1 = seed;
+		long h2 = seed;
+
+		for (int i = 0; i < blocks; ++i) {
+			long k1 = getLong(data, i * 16);
+			long k2 = getLong(data, i * 16 + 8);
+
+			k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+			k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		long k1 = 0;
+		long k2 = 0;
+		int tail = blocks * 16;
+		switch (length & 15) {
+		case 15: k2 ^= ((long)data[tail + 14] & 0xff) << 48; // fall through
+		case 14: k2 ^= ((long)data[tail + 13] & 0xff) << 40; // fall through
+		case 13: k2 ^= ((long)data[tail + 12] & 0xff) << 32; // fall through
+		case 12: k2 ^= ((long)data[tail + 11] & 0xff) << 24; // fall through
+		case 11: k2 ^= ((long)data[tail + 10] & 0xff) << 16; // fall through
+		case 10: k2 ^= ((long)data[tail + 9] & 0xff) << 8; // fall through
+		case 9:  k2 ^= ((long)data[tail + 8] & 0xff);
+			k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2; // fall through
+		case 8:  k1 ^= ((long)data[tail + 7] & 0xff) << 56; // fall through
+		case 7:  k1 ^= ((long)data[tail + 6] & 0xff) << 48; // fall through
+		case 6:  k1 ^= ((long)data[tail + 5] & 0xff) << 40; // fall through
+		case 5:  k1 ^= ((long)data[tail + 4] & 0xff) << 32; // fall through
+		case 4:  k1 ^= ((long)data[tail + 3] & 0xff) << 24; // fall through
+		case 3:  k1 ^= ((long)data[tail + 2] & 0xff) << 16; // fall through
+		case 2:  k1 ^= ((long)data[tail + 1] & 0xff) << 8; // fall through
+		case 1:  k1 ^= ((long)data[tail] & 0xff);
+			k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+		}
+
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+		h1 += h2;
+		h2 += h1;
+		return new long[] { h1, h2 };
+	}
+
+	private static long getLong(byte[] data, int offset) {
+		return ((long)data[offset] & 0xff)
+				| (((long)data[offset + 1] & 0xff) << 8)
+				| (((long)data[offset + 2] & 0xff) << 16)
+				| (((long)data[offset + 3] & 0xff) << 24)
+				| (((long)data[offset + 4] & 0xff) << 32)
+				| (((long)data[offset + 5] & 0xff) << 40)
+				| (((long)data[offset + 6] & 0xff) << 48)
+				| (((long)data[offset + 7] & 0xff) << 56);
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+}
@@ -0,0 +1,180 @@
+package com.basho.proserv.datamigrator.io;
+
+/**
+ * Compact set of keys for diffing key journals, holding a 128 bit KeyHash
+ * per key in a single open addressed long[] rather than the Key objects.
+ *
+ * Slots are picked with the top 32 bits of the hash's first 64, scaled to
+ * the capacity.  Keys whose first 64 bits collide are told apart by
+ * comparing the full 128 bits, and hashCollisions() counts how often that
+ * happened.  Two different keys sharing all 128 bits is the only way a
+ * lookup can be wrong; across two 300M key journals the odds of that are
+ * below 1 in 10^21.
+ *
+ * Memory per key is 16 bytes a slot over a load factor of at most 0.75,
+ * so 21 bytes when sized with expectedKeys and 21 to 43 bytes once it has
+ * had to grow, plus bitsPerKey / 8 for the optional Bloom filter, which
+ * saves a table probe (a likely cache miss) for most absent keys.  A
+ * HashSet of the same Keys measured 120 bytes per key for 12 character
+ * keys against 23 for a grown KeyHashSet, and grows with key length; see
+ * KeySetMemoryBenchmark.
+ *
+ * Not thread safe.
+ */
+public class KeyHashSet {
+	private static final double MAX_LOAD = 0.75;
+	private static final int MIN_CAPACITY = 16;
+	private static final int MAX_CAPACITY = (Integer.MAX_VALUE - 8) / 2;
+
+	private final BloomFilter bloomFilter;
+	private long[] table;
+	private int capacity;
+	private int size = 0;
+	private long hashCollisions = 0;
+
+	public KeyHashSet() {
+		this(MIN_CAPACITY, 0);
+	}
+
+	/**
+	 * @param expectedKeys size the table for this many keys up front
+	 * @param bloomBitsPerKey Bloom filter bits per expected key, 0 for none
+	 */
+	public KeyHashSet(long expectedKeys, int bloomBitsPerKey) {
+		if (expectedKeys < 0) {
+			throw new IllegalArgumentException("expectedKeys cannot be negative");
+		}
+		if (bloomBitsPerKey < 0) {
+			throw new IllegalArgumentException("bloomBitsPerKey cannot be negative");
+		}
+		this.capacity = (int)Math.min(MAX_CAPACITY,
+				Math.max(MIN_CAPACITY, (long)Math.ceil(expectedKeys / MAX_LOAD)));
+		this.table = new long[this.capacity * 2];
+		this.bloomFilter = bloomBitsPerKey > 0 ?
+				new BloomFilter(Math.max(1, expectedKeys), bloomBitsPerKey) : null;
+	}
+
+	/**
+	 * @return false if the key was already present
+	 */
+	public boolean add(Key key) {
+		long[] hash = KeyHash.hash(key);
+		return this.add(hash[0], hash[1]);
+	}
+
+	public boolean add(String bucket, String key) {
+		long[] hash = KeyHash.hash(bucket, key);
+		return this.add(hash[0], hash[1]);
+	}
+
+	public boolean contains(Key key) {
+		long[] hash = KeyHash.hash(key);
+		return this.contains(hash[0], hash[1]);
+	}
+
+	public boolean contains(String bucket, String key) {
+		long[] hash = KeyHash.hash(bucket, key);
+		return this.contains(hash[0], hash[1]);
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Keys added whose first 64 hash bits matched a different key's
+	 */
+	public long hashCollisions() {
+		return this.hashCollisions;
+	}
+
+	public long memoryBytes() {
+		return this.table.length * 8L + (this.bloomFilter == null ? 0 : this.bloomFilter.memoryBytes());
+	}
+
+	private boolean add(long h1, long h2) {
+		if (h1 == 0 && h2 == 0) {
+			h2 = 1; // (0, 0) marks an empty slot
+		}
+		if (this.size + 1 > this.capacity * MAX_LOAD) {
+			this.grow();
+		}
+		int slot = this.slot(h1);
+		boolean collided = false;
+		while (true) {
+			long s1 = this.table[slot * 2];
+			long s2 = this.table[slot * 2 + 1];
+			if (s1 == 0 && s2 == 0) {
+				break;
+			}
+			if (s1 == h1) {
+				if (s2 == h2) {
+					return false;
+				}
+				collided = true;
+			}
+			slot = slot + 1 == this.capacity ? 0 : slot + 1;
+		}
+		this.table[slot * 2] = h1;
+		this.table[slot * 2 + 1] = h2;
+		++this.size;
+		if (collided) {
+			++this.hashCollisions;
+		}
+		if (this.bloomFilter != null) {
+			this.bloomFilter.add(h1, h2);
+		}
+		return true;
+	}
+
+	private boolean contains(long h1, long h2) {
+		if (h1 == 0 && h2 == 0) {
+			h2 = 1;
+		}
+		if (this.bloomFilter != null && !this.bloomFilter.mightContain(h1, h2)) {
+			return false;
+		}
+		int slot = this.slot(h1);
+		while (true) {
+			long s1 = this.table[slot * 2];
+			long s2 = this.table[slot * 2 + 1];
+			if (s1 == h1 && s2 == h2) {
+				return true;
+			}
+			if (s1 == 0 && s2 == 0) {
+				return false;
+			}
+			slot = slot + 1 == this.capacity ? 0 : slot + 1;
+		}
+	}
+
+	// Maps the high 32 bits onto [0, capacity) without a division
+	private int slot(long h1) {
+		return (int)(((h1 >>> 32) * this.capacity) >>> 32);
+	}
+
+	private void grow() {
+		if (this.capacity == MAX_CAPACITY) {
+			if (this.size + 1 >= MAX_CAPACITY) {
+				throw new IllegalStateException("KeyHashSet is full at " + this.size + " keys");
+			}
+			return; // run past MAX_LOAD rather than fail
+		}
+		long[] old = this.table;
+		this.capacity = (int)Math.min(MAX_CAPACITY, this.capacity * 2L);
+		this.table = new long[this.capacity * 2];
+		for (int i = 0; i < old.length; i += 2) {
+			long h1 = old[i];
+			long h2 = old[i + 1];
+			if (h1 == 0 && h2 == 0) {
+				continue;
+			}
+			int slot = this.slot(h1);
+			while (this.table[slot * 2] != 0 || this.table[slot * 2 + 1] != 0) {
+				slot = slot + 1 == this.capacity ? 0 : slot + 1;
+			}
+			this.table[slot * 2] = h1;
+			this.table[slot * 2 + 1] = h2;
+		}
+	}
+}
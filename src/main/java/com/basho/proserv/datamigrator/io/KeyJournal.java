@@ -1,43 +1,160 @@
 package com.basho.proserv.datamigrator.io;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.util.Iterator;
 
 import com.basho.riak.client.IRiakObject;
 import com.basho.riak.pbc.RiakObject;
 
+/**
+ * A file of bucket and key pairs.  Journals are written in the binary
+ * format (see BinaryKeyJournal) unless the TEXT format of one
+ * "bucket,key" line per key is asked for.  Reading and appending detect the
+ * format of an existing journal, so journals from older dumps still work.
+ * Journals are read through a MappedKeyJournal.
+ *
+ * A SORTED journal is a front coded binary journal whose keys must be
+ * written in Key order, with a sparse index for SortedKeyJournal lookups.
+ * Sorted journals are written once, eg. by KeyJournalSorter, and cannot be
+ * appended to.
+ *
+ * Written journals are forced to disk as their SyncPolicy asks, by default
+ * the one set with SyncPolicy.setDefault.  A journal cut short by a crash
+ * keeps everything up to its last sync.
+ */
 public class KeyJournal implements Iterable<Key> {
-	public enum Mode { READ, WRITE }
+	public enum Mode { READ, WRITE, APPEND }
+	public enum Format { TEXT, BINARY, SORTED }
+	public enum Compression { NONE, DEFLATE }
+	
+	private static volatile Format defaultFormat = Format.BINARY;
+	private static volatile Compression defaultCompression = Compression.NONE;
 	
 	private final Mode mode;
+	private final Format format;
+	private final FileOutputStream fileOut;
 	private final BufferedWriter writer;
-	private final BufferedReader reader;
+	private final BinaryKeyJournal.Writer binaryWriter;
+	private final MappedKeyJournal reader;
+	private final SyncPolicy syncPolicy;
+	private final SyncPolicy.GroupCounter groupCounter;
 	private boolean closed = false;
 	
 	public KeyJournal(File path, Mode mode) {
+		this(path, mode, defaultFormat, defaultCompression);
+	}
+	
+	/**
+	 * format and compression apply to new journals; existing ones keep theirs
+	 */
+	public KeyJournal(File path, Mode mode, Format format, Compression compression) {
+		this(path, mode, format, compression, SyncPolicy.getDefault());
+	}
+	
+	public KeyJournal(File path, Mode mode, Format format, Compression compression, SyncPolicy syncPolicy) {
 		if (path == null) {
 			throw new IllegalArgumentException("path cannot be null");
 		}
+		if (syncPolicy == null) {
+			throw new IllegalArgumentException("syncPolicy cannot be null");
+		}
+		FileOutputStream fileOut = null;
+		BufferedWriter writer = null;
+		BinaryKeyJournal.Writer binaryWriter = null;
+		MappedKeyJournal reader = null;
 		try {
-			if (mode == Mode.WRITE) {
-				this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path)));
-				this.reader = null;
+			if (mode != Mode.WRITE && path.exists() && path.length() > 0) {
+				format = BinaryKeyJournal.format(path);
+			}
+			if (mode == Mode.WRITE || (mode == Mode.APPEND && (!path.exists() || path.length() == 0))) {
+				if (format != Format.TEXT) {
+					binaryWriter = new BinaryKeyJournal.Writer(path, compression, format == Format.SORTED);
+				} else {
+					fileOut = new FileOutputStream(path);
+					writer = new BufferedWriter(new OutputStreamWriter(fileOut));
+				}
+			} else if (mode == Mode.APPEND) {
+				if (format != Format.TEXT) {
+					binaryWriter = new BinaryKeyJournal.Writer(path);
+				} else {
+					boolean partialLine = endsWithPartialLine(path);
+					fileOut = new FileOutputStream(path, true);
+					writer = new BufferedWriter(new OutputStreamWriter(fileOut));
+					if (partialLine) {
+						// a journal cut short by a crash, keep the next key on its own line
+						writer.write("\n");
+					}
+				}
 			} else {
-				this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(path)));
-				this.writer = null;
+				reader = new MappedKeyJournal(path);
+				format = reader.getFormat();
 			}
-		} catch (FileNotFoundException e) {
-			throw new IllegalArgumentException("Could not open " + path.getAbsolutePath());
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not open " + path.getAbsolutePath(), e);
 		}
+		this.fileOut = fileOut;
+		this.writer = writer;
+		this.binaryWriter = binaryWriter;
+		this.reader = reader;
+		this.format = format;
 		this.mode = mode;
+		this.syncPolicy = syncPolicy;
+		this.groupCounter = syncPolicy.newCounter();
+	}
+	
+	/**
+	 * Sets the format and compression of journals opened without one
+	 */
+	public static void setDefaultFormat(Format format, Compression compression) {
+		if (format == null || compression == null) {
+			throw new IllegalArgumentException("format and compression cannot be null");
+		}
+		if (format == Format.SORTED) {
+			throw new IllegalArgumentException("Only journals written in order can be SORTED");
+		}
+		defaultFormat = format;
+		defaultCompression = compression;
+	}
+	
+	public static Format getDefaultFormat() {
+		return defaultFormat;
+	}
+	
+	public static Compression getDefaultCompression() {
+		return defaultCompression;
+	}
+	
+	public Format getFormat() {
+		return this.format;
+	}
+	
+	public SyncPolicy getSyncPolicy() {
+		return this.syncPolicy;
+	}
+	
+	/**
+	 * Counts a journal's keys, from the footer of a complete binary journal
+	 * without reading its keys
+	 */
+	public static long countKeys(File path) throws IOException {
+		if (BinaryKeyJournal.isBinary(path)) {
+			return BinaryKeyJournal.countKeys(path);
+		}
+		long count = 0;
+		KeyJournal keyJournal = new KeyJournal(path, Mode.READ);
+		try {
+			while (keyJournal.read() != null) {
+				++count;
+			}
+		} finally {
+			keyJournal.close();
+		}
+		return count;
 	}
 	
 	public void write(String bucket, String key) throws IOException {
@@ -47,7 +164,30 @@ public class KeyJournal implements Iterable<Key> {
 		if (bucket == null || key == null) {
 			throw new IllegalArgumentException("bucket and key must not be null");
 		}
-		this.writer.write((bucket + "," + key + "\n"));
+		if (this.binaryWriter != null) {
+			this.binaryWriter.write(bucket, key);
+		} else {
+			this.writer.write((bucket + "," + key + "\n"));
+		}
+		if (this.groupCounter.record()) {
+			this.sync();
+		}
+	}
+	
+	/**
+	 * Forces the keys written so far to disk, whatever the sync policy
+	 */
+	public void sync() throws IOException {
+		if (mode == Mode.READ) {
+			throw new IllegalArgumentException("KeyJournal is in READ mode for sync operation");
+		}
+		if (this.binaryWriter != null) {
+			this.binaryWriter.sync();
+		} else {
+			this.writer.flush();
+			this.fileOut.getFD().sync();
+		}
+		this.groupCounter.synced();
 	}
 	
 	public void write(RiakObject riakObject) throws IOException {
@@ -59,29 +199,24 @@ public class KeyJournal implements Iterable<Key> {
 	}
 	
 	public Key read() throws IOException {
-		if (mode == Mode.WRITE) {
+		if (mode != Mode.READ) {
 			throw new IllegalArgumentException("KeyJournal is in WRITE mode for read operation");
 		}
-		String line = this.reader.readLine();
-		if (line == null) {
-			return null;
-		}
-		String[] values = new String[2];
-		int comma = line.indexOf(',');
-		if (comma != -1) {
-			values[0] = line.substring(0, comma);
-			values[1] = line.substring(comma + 1, line.length());
-			return new Key(values[0], values[1]);
-		}
-		return null;
+		return this.reader.read();
 	}
 		
 	public void close() {
 		try {
 			if (this.writer != null) {
 				this.writer.flush();
+				if (this.syncPolicy.syncOnClose()) {
+					this.fileOut.getFD().sync();
+				}
 				this.writer.close();
 			}
+			if (this.binaryWriter != null) {
+				this.binaryWriter.close(this.syncPolicy.syncOnClose());
+			}
 			if (this.reader != null) {
 				this.reader.close();
 			}
@@ -99,6 +234,19 @@ public class KeyJournal implements Iterable<Key> {
 		return new KeyIterator(this);
 	}
 	
+	private static boolean endsWithPartialLine(File path) throws IOException {
+		if (!path.exists() || path.length() == 0) {
+			return false;
+		}
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			file.seek(file.length() - 1);
+			return file.read() != '\n';
+		} finally {
+			file.close();
+		}
+	}
+	
 	public static File createKeyPathFromPath(File file, boolean load) {
 		String path = file.getAbsolutePath(); 
 		int ind = path.lastIndexOf('.');
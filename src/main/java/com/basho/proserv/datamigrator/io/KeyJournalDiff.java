@@ -0,0 +1,158 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Streams the differences between a reference key set (eg. the listed keys
+ * of a bucket) and a compare key set (eg. the keys dumped), using a
+ * KeyJournalSorter to put both in order first.  Memory is bounded by the
+ * sorter, whatever the key counts.
+ *
+ * Keys in reference but not compare are MISSING, keys in compare but not
+ * reference are EXTRA, and every occurrence of a key past its first within
+ * either side is a DUPLICATE_REFERENCE or DUPLICATE_COMPARE.  Error keys are
+ * ignored.
+ */
+public class KeyJournalDiff {
+	public enum Difference { MISSING, EXTRA, DUPLICATE_REFERENCE, DUPLICATE_COMPARE }
+
+	public interface Listener {
+		public void difference(Difference difference, Key key) throws IOException;
+	}
+
+	private final KeyJournalSorter sorter;
+
+	public KeyJournalDiff(KeyJournalSorter sorter) {
+		if (sorter == null) {
+			throw new IllegalArgumentException("sorter cannot be null");
+		}
+		this.sorter = sorter;
+	}
+
+	public Result diff(Iterable<Key> reference, Iterable<Key> compare, Listener listener) throws IOException {
+		Iterable<Key> sortedReference = this.sorter.sorted(reference);
+		Iterable<Key> sortedCompare = null;
+		try {
+			sortedCompare = this.sorter.sorted(compare);
+		} catch (IOException e) {
+			drain(sortedReference.iterator());
+			throw e;
+		}
+		Iterator<Key> referenceKeys = sortedReference.iterator();
+		Iterator<Key> compareKeys = sortedCompare.iterator();
+		try {
+			return diffSorted(referenceKeys, compareKeys, listener);
+		} finally {
+			// read to the end, which removes the sorted journals
+			drain(referenceKeys);
+			drain(compareKeys);
+		}
+	}
+
+	/**
+	 * Diffs two key streams that are already in Key order
+	 * @throws IllegalArgumentException if either is out of order
+	 */
+	public static Result diffSorted(Iterator<Key> reference, Iterator<Key> compare,
+			Listener listener) throws IOException {
+		Result result = new Result();
+		SortedCursor referenceCursor = new SortedCursor(reference);
+		SortedCursor compareCursor = new SortedCursor(compare);
+		Key referenceKey = referenceCursor.next();
+		Key compareKey = compareCursor.next();
+		while (referenceKey != null || compareKey != null) {
+			int order = referenceKey == null ? 1 : compareKey == null ? -1 : referenceKey.compareTo(compareKey);
+			Key key = order <= 0 ? referenceKey : compareKey;
+			int referenceCount = 0;
+			int compareCount = 0;
+			while (referenceKey != null && referenceKey.compareTo(key) == 0) {
+				++referenceCount;
+				referenceKey = referenceCursor.next();
+			}
+			while (compareKey != null && compareKey.compareTo(key) == 0) {
+				++compareCount;
+				compareKey = compareCursor.next();
+			}
+			result.referenceCount += referenceCount;
+			result.compareCount += compareCount;
+			if (compareCount == 0) {
+				result.report(listener, Difference.MISSING, key);
+			} else if (referenceCount == 0) {
+				result.report(listener, Difference.EXTRA, key);
+			}
+			for (int i = 1; i < referenceCount; ++i) {
+				result.report(listener, Difference.DUPLICATE_REFERENCE, key);
+			}
+			for (int i = 1; i < compareCount; ++i) {
+				result.report(listener, Difference.DUPLICATE_COMPARE, key);
+			}
+		}
+		return result;
+	}
+
+	private static void drain(Iterator<Key> keys) {
+		while (keys.hasNext()) {
+			keys.next();
+		}
+	}
+
+	public static class Result {
+		private final long[] counts = new long[Difference.values().length];
+		private long referenceCount = 0;
+		private long compareCount = 0;
+
+		public long count(Difference difference) {
+			return this.counts[difference.ordinal()];
+		}
+
+		public long referenceCount() {
+			return this.referenceCount;
+		}
+
+		public long compareCount() {
+			return this.compareCount;
+		}
+
+		public boolean matched() {
+			for (long count : this.counts) {
+				if (count > 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void report(Listener listener, Difference difference, Key key) throws IOException {
+			++this.counts[difference.ordinal()];
+			if (listener != null) {
+				listener.difference(difference, key);
+			}
+		}
+	}
+
+	// Skips error keys and checks the order of the rest
+	private static class SortedCursor {
+		private final Iterator<Key> keys;
+		private Key previous = null;
+
+		public SortedCursor(Iterator<Key> keys) {
+			this.keys = keys;
+		}
+
+		public Key next() {
+			while (this.keys.hasNext()) {
+				Key key = this.keys.next();
+				if (key.errorKey()) {
+					continue;
+				}
+				if (this.previous != null && this.previous.compareTo(key) > 0) {
+					throw new IllegalArgumentException("Keys are not sorted at " + key.bucket() + "," + key.key());
+				}
+				this.previous = key;
+				return key;
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * External merge sort of keys into a KeyJournal in bucket, key order.
+ *
+ * Keys are gathered until about memoryBytes worth are held, sorted and
+ * spilled to a run journal under workDir.  The runs are then merged up to
+ * MERGE_WIDTH at a time, so any number of keys is sorted with a fixed heap
+ * and O(n log n) work.  Duplicates are kept and error keys dropped.  Run
+ * files are SORTED journals, front coded, and are removed as they are
+ * merged.
+ */
+public class KeyJournalSorter {
+	private final Logger log = LoggerFactory.getLogger(KeyJournalSorter.class);
+	public static final long DEFAULT_MEMORY_BYTES = 64L * 1024 * 1024;
+	public static final int MERGE_WIDTH = 64;
+	// Key, two Strings and their char arrays, and the ArrayList reference
+	private static final int KEY_OVERHEAD = 120;
+
+	private final File workDir;
+	private final long memoryBytes;
+
+	public KeyJournalSorter(File workDir) {
+		this(workDir, DEFAULT_MEMORY_BYTES);
+	}
+
+	public KeyJournalSorter(File workDir, long memoryBytes) {
+		if (workDir == null) {
+			throw new IllegalArgumentException("workDir cannot be null");
+		}
+		if (memoryBytes < 1) {
+			throw new IllegalArgumentException("memoryBytes must be greater than 0");
+		}
+		this.workDir = workDir;
+		this.memoryBytes = memoryBytes;
+	}
+
+	public File getWorkDir() {
+		return this.workDir;
+	}
+
+	/**
+	 * Writes keys to output in sorted order, as a journal of the default
+	 * format
+	 * @return the number of keys written
+	 */
+	public long sort(Iterable<Key> keys, File output) throws IOException {
+		return this.sort(keys, output, KeyJournal.getDefaultFormat());
+	}
+
+	/**
+	 * Writes keys to output in sorted order, as a journal of format
+	 * @return the number of keys written
+	 */
+	public long sort(Iterable<Key> keys, File output, KeyJournal.Format format) throws IOException {
+		this.workDir.mkdirs();
+		LinkedList<File> runs = new LinkedList<File>();
+		try {
+			long keyCount = this.spillRuns(keys, runs);
+			while (runs.size() > MERGE_WIDTH) {
+				List<File> merging = new ArrayList<File>();
+				while (merging.size() < MERGE_WIDTH) {
+					merging.add(runs.removeFirst());
+				}
+				runs.addLast(this.merge(merging, this.createRunFile(), KeyJournal.Format.SORTED));
+			}
+			output.delete();
+			if (format != KeyJournal.Format.SORTED || runs.size() != 1 || !runs.getFirst().renameTo(output)) {
+				this.merge(runs, output, format);
+			}
+			runs.clear();
+			return keyCount;
+		} finally {
+			for (File run : runs) {
+				run.delete();
+			}
+		}
+	}
+
+	/**
+	 * Sorts keys into a journal under workDir that can be iterated once, and
+	 * is deleted when read to the end
+	 */
+	public Iterable<Key> sorted(Iterable<Key> keys) throws IOException {
+		final File output = this.createRunFile();
+		try {
+			this.sort(keys, output, KeyJournal.Format.SORTED);
+		} catch (IOException e) {
+			output.delete();
+			throw e;
+		}
+		return new Iterable<Key>() {
+			@Override
+			public Iterator<Key> iterator() {
+				return new DeletingKeyIterator(output);
+			}
+		};
+	}
+
+	private long spillRuns(Iterable<Key> keys, List<File> runs) throws IOException {
+		List<Key> buffer = new ArrayList<Key>();
+		long bufferBytes = 0;
+		long keyCount = 0;
+		for (Key key : keys) {
+			if (key.errorKey()) {
+				continue;
+			}
+			buffer.add(key);
+			++keyCount;
+			bufferBytes += KEY_OVERHEAD + 2 * (key.bucket().length() + key.key().length());
+			if (bufferBytes >= this.memoryBytes) {
+				runs.add(this.writeRun(buffer));
+				buffer.clear();
+				bufferBytes = 0;
+			}
+		}
+		if (!buffer.isEmpty() || runs.isEmpty()) {
+			runs.add(this.writeRun(buffer));
+		}
+		log.debug(String.format("Sorted %d keys into %d runs", keyCount, runs.size()));
+		return keyCount;
+	}
+
+	private File writeRun(List<Key> keys) throws IOException {
+		Collections.sort(keys);
+		File run = this.createRunFile();
+		KeyJournal journal = createJournal(run, KeyJournal.Format.SORTED);
+		try {
+			for (Key key : keys) {
+				journal.write(key.bucket(), key.key());
+			}
+		} finally {
+			journal.close();
+		}
+		return run;
+	}
+
+	private File merge(List<File> runs, File output, KeyJournal.Format format) throws IOException {
+		PriorityQueue<RunHead> heads = new PriorityQueue<RunHead>();
+		KeyJournal journal = createJournal(output, format);
+		try {
+			for (File run : runs) {
+				RunHead head = new RunHead(run);
+				if (head.advance()) {
+					heads.add(head);
+				}
+			}
+			RunHead head = null;
+			while ((head = heads.poll()) != null) {
+				journal.write(head.key.bucket(), head.key.key());
+				if (head.advance()) {
+					heads.add(head);
+				}
+			}
+		} finally {
+			journal.close();
+			for (RunHead head : heads) {
+				head.close();
+			}
+			for (File run : runs) {
+				run.delete();
+			}
+		}
+		return output;
+	}
+
+	private static KeyJournal createJournal(File path, KeyJournal.Format format) {
+		return new KeyJournal(path, KeyJournal.Mode.WRITE, format, KeyJournal.getDefaultCompression());
+	}
+
+	private File createRunFile() throws IOException {
+		this.workDir.mkdirs();
+		return File.createTempFile("sort-", ".keys", this.workDir);
+	}
+
+	private static class RunHead implements Comparable<RunHead> {
+		private final KeyJournal journal;
+		private Key key = null;
+
+		public RunHead(File run) {
+			this.journal = new KeyJournal(run, KeyJournal.Mode.READ);
+		}
+
+		public boolean advance() throws IOException {
+			this.key = this.journal.read();
+			if (this.key == null) {
+				this.journal.close();
+				return false;
+			}
+			return true;
+		}
+
+		public void close() {
+			this.journal.close();
+		}
+
+		@Override
+		public int compareTo(RunHead other) {
+			return this.key.compareTo(other.key);
+		}
+	}
+
+	private static class DeletingKeyIterator implements Iterator<Key> {
+		private final File file;
+		private final KeyJournal journal;
+		private Key nextKey = null;
+
+		public DeletingKeyIterator(File file) {
+			this.file = file;
+			this.journal = new KeyJournal(file, KeyJournal.Mode.READ);
+			this.advance();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.nextKey != null;
+		}
+
+		@Override
+		public Key next() {
+			if (this.nextKey == null) {
+				throw new NoSuchElementException();
+			}
+			Key key = this.nextKey;
+			this.advance();
+			return key;
+		}
+
+		private void advance() {
+			try {
+				this.nextKey = this.journal.read();
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not read sorted keys from " + this.file.getAbsolutePath(), e);
+			}
+			if (this.nextKey == null) {
+				this.journal.close();
+				this.file.delete();
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Key read by MappedKeyJournal, pointing at its UTF-8 bytes in the
+ * journal's mapped window (or inflated block) rather than holding a
+ * String.  The key is decoded the first time key() is called and kept;
+ * concurrent first calls just decode it twice.
+ */
+final class KeyView extends Key {
+	private final ByteBuffer source;
+	private final int offset;
+	private final int length;
+	private String key = null;
+
+	KeyView(String bucket, ByteBuffer source, int offset, int length) {
+		super(bucket, null);
+		this.source = source;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	@Override
+	public boolean errorKey() {
+		return false;
+	}
+
+	@Override
+	public String key() {
+		String key = this.key;
+		if (key == null) {
+			key = decode(this.source, this.offset, this.length);
+			this.key = key;
+		}
+		return key;
+	}
+
+	// Absolute reads only, so views of one buffer decode from any thread
+	static String decode(ByteBuffer source, int offset, int length) {
+		if (source.hasArray()) {
+			return new String(source.array(), source.arrayOffset() + offset, length, BinaryKeyJournal.UTF8);
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; ++i) {
+			bytes[i] = source.get(offset + i);
+		}
+		return new String(bytes, BinaryKeyJournal.UTF8);
+	}
+}
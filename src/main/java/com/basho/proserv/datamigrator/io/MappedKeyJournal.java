@@ -0,0 +1,471 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a key journal, binary or text, through memory mapped windows of the
+ * file, parsing records in place.  Keys are returned as views that share
+ * their block's bucket name (or, for text, the previous line's when it is
+ * the same) and only decode the key String when key() is first called, so
+ * the thread reading the journal creates almost no garbage and the
+ * decoding is done by whichever worker hands the key to Riak.
+ *
+ * split() divides a journal into disjoint ranges that start on block (or
+ * line) boundaries, each read by its own MappedKeyJournal, so several
+ * producers can read one journal at once.  A journal is read as long as
+ * it was when opened; like KeyJournal, reading stops at a binary block cut
+ * short by a crash and skips text lines without a comma.
+ *
+ * Keys of a sorted (front coded) journal are built from the previous key of
+ * their block, so are returned as plain Keys rather than views.
+ */
+public class MappedKeyJournal implements Iterable<Key> {
+	static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private final File path;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final KeyJournal.Format format;
+	private final Inflater inflater;
+	private final long fileLength;
+	private long end;
+
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	// file offset of the next block or line
+	private long position;
+	private boolean ended = false;
+
+	// the current block's records, in the window or an inflated copy
+	private ByteBuffer block = null;
+	private int blockPosition = 0;
+	private int blockLimit = 0;
+	private String bucket = null;
+	private byte[] bucketBytes = null;
+	private byte[] stored = null;
+	// the previous key of a sorted block
+	private byte[] keyBytes = null;
+	private int keyLength = 0;
+
+	public MappedKeyJournal(File path) throws IOException {
+		this(path, -1, -1);
+	}
+
+	// Reads the blocks or lines starting in [start, end), or the whole journal when start is -1
+	private MappedKeyJournal(File path, long start, long end) throws IOException {
+		if (path == null) {
+			throw new IllegalArgumentException("path cannot be null");
+		}
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		int compressionId = -1;
+		boolean sorted = false;
+		long fileLength = 0;
+		try {
+			fileLength = file.length();
+			byte[] header = new byte[BinaryKeyJournal.HEADER_SIZE];
+			if (fileLength >= BinaryKeyJournal.MAGIC.length) {
+				file.readFully(header, 0, BinaryKeyJournal.MAGIC.length);
+				if (BinaryKeyJournal.startsWithMagic(header)) {
+					file.readFully(header, BinaryKeyJournal.MAGIC.length,
+							BinaryKeyJournal.HEADER_SIZE - BinaryKeyJournal.MAGIC.length);
+					compressionId = BinaryKeyJournal.checkHeader(header);
+					sorted = header[4] == BinaryKeyJournal.SORTED_VERSION;
+				}
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		this.path = path;
+		this.file = file;
+		this.channel = file.getChannel();
+		this.fileLength = fileLength;
+		this.format = compressionId == -1 ? KeyJournal.Format.TEXT :
+				sorted ? KeyJournal.Format.SORTED : KeyJournal.Format.BINARY;
+		this.inflater = compressionId == BinaryKeyJournal.COMPRESSION_DEFLATE ? new Inflater() : null;
+		if (start < 0) {
+			start = this.format != KeyJournal.Format.TEXT ? BinaryKeyJournal.HEADER_SIZE : 0;
+		}
+		this.position = start;
+		this.end = end < 0 ? fileLength : end;
+	}
+
+	public KeyJournal.Format getFormat() {
+		return this.format;
+	}
+
+	/**
+	 * Divides the unread part of this journal into at most count journals
+	 * of about the same size, to be read instead of this one
+	 */
+	public List<MappedKeyJournal> split(int count) throws IOException {
+		if (count < 1) {
+			throw new IllegalArgumentException("count must be greater than 0");
+		}
+		List<Long> boundaries = new ArrayList<Long>();
+		boundaries.add(this.position);
+		long length = this.end - this.position;
+		for (int i = 1; i < count; ++i) {
+			long previous = boundaries.get(boundaries.size() - 1);
+			long target = Math.max(previous + 1, this.position + length * i / count);
+			long boundary = this.format != KeyJournal.Format.TEXT ?
+					this.blockStartAfter(previous, target) : this.lineStartAfter(target);
+			if (boundary >= this.end) {
+				break;
+			}
+			boundaries.add(boundary);
+		}
+		boundaries.add(this.end);
+
+		List<MappedKeyJournal> splits = new ArrayList<MappedKeyJournal>();
+		try {
+			for (int i = 0; i + 1 < boundaries.size(); ++i) {
+				splits.add(new MappedKeyJournal(this.path, boundaries.get(i), boundaries.get(i + 1)));
+			}
+		} catch (IOException e) {
+			for (MappedKeyJournal split : splits) {
+				split.close();
+			}
+			throw e;
+		}
+		return splits;
+	}
+
+	/**
+	 * @return the next key, or null at the end of the journal or range
+	 */
+	public Key read() throws IOException {
+		if (this.format == KeyJournal.Format.BINARY) {
+			return this.readBinary();
+		} else if (this.format == KeyJournal.Format.SORTED) {
+			return this.readSorted();
+		}
+		return this.readText();
+	}
+
+	/**
+	 * Moves to the block at offset, reading it and the following blocks up
+	 * to end, for lookups in a sorted journal
+	 */
+	void seek(long offset, long end) {
+		this.position = offset;
+		this.end = end;
+		this.ended = false;
+		this.block = null;
+		this.blockPosition = 0;
+		this.blockLimit = 0;
+	}
+
+	/**
+	 * Keys already read stay readable, the mapped windows are released
+	 * once they are no longer referenced
+	 */
+	public void close() {
+		try {
+			this.file.close();
+		} catch (IOException e) {
+			// no-op, swallow
+		}
+		if (this.inflater != null) {
+			this.inflater.end();
+		}
+		this.ended = true;
+	}
+
+	@Override
+	public Iterator<Key> iterator() {
+		return new Iterator<Key>() {
+			private Key nextKey = null;
+
+			@Override
+			public boolean hasNext() {
+				if (this.nextKey == null) {
+					try {
+						this.nextKey = read();
+					} catch (IOException e) {
+						throw new IllegalStateException("Could not read key journal " + path.getAbsolutePath(), e);
+					}
+				}
+				return this.nextKey != null;
+			}
+
+			@Override
+			public Key next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Key key = this.nextKey;
+				this.nextKey = null;
+				return key;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private Key readBinary() throws IOException {
+		while (this.blockPosition >= this.blockLimit) {
+			if (!this.nextBlock()) {
+				return null;
+			}
+		}
+		long header = this.getVarint();
+		int keyLength = (int)(header >>> 1);
+		if ((header & 1) != 0) {
+			int bucketLength = (int)this.getVarint();
+			this.checkRemaining(bucketLength);
+			this.bucket = KeyView.decode(this.block, this.blockPosition, bucketLength);
+			this.blockPosition += bucketLength;
+		} else if (this.bucket == null) {
+			throw new IOException("Key journal block does not start with a bucket");
+		}
+		this.checkRemaining(keyLength);
+		Key key = new KeyView(this.bucket, this.block, this.blockPosition, keyLength);
+		this.blockPosition += keyLength;
+		return key;
+	}
+
+	private Key readSorted() throws IOException {
+		while (this.blockPosition >= this.blockLimit) {
+			if (!this.nextBlock()) {
+				return null;
+			}
+			this.keyLength = 0;
+		}
+		long header = this.getVarint();
+		int suffixLength = (int)(header >>> 1);
+		if ((header & 1) != 0) {
+			int bucketLength = (int)this.getVarint();
+			this.checkRemaining(bucketLength);
+			this.bucket = KeyView.decode(this.block, this.blockPosition, bucketLength);
+			this.blockPosition += bucketLength;
+			this.keyLength = 0;
+		} else if (this.bucket == null) {
+			throw new IOException("Key journal block does not start with a bucket");
+		}
+		int shared = (int)this.getVarint();
+		this.checkRemaining(suffixLength);
+		if (shared > this.keyLength) {
+			throw new IOException("Corrupt sorted key journal record");
+		}
+		int length = shared + suffixLength;
+		if (this.keyBytes == null || this.keyBytes.length < length) {
+			byte[] grown = new byte[Math.max(length * 2, 256)];
+			if (this.keyBytes != null) {
+				System.arraycopy(this.keyBytes, 0, grown, 0, shared);
+			}
+			this.keyBytes = grown;
+		}
+		for (int i = 0; i < suffixLength; ++i) {
+			this.keyBytes[shared + i] = this.block.get(this.blockPosition + i);
+		}
+		this.blockPosition += suffixLength;
+		this.keyLength = length;
+		return new Key(this.bucket, new String(this.keyBytes, 0, length, BinaryKeyJournal.UTF8));
+	}
+
+	private boolean nextBlock() throws IOException {
+		if (this.ended || this.position >= this.end ||
+				this.position + BinaryKeyJournal.BLOCK_HEADER_SIZE > this.fileLength) {
+			this.ended = true;
+			return false;
+		}
+		int base = this.map(this.position, BinaryKeyJournal.BLOCK_HEADER_SIZE);
+		int recordCount = this.window.getInt(base);
+		if (recordCount < 0) {
+			this.ended = true; // the footer
+			return false;
+		}
+		int rawLength = this.window.getInt(base + 4);
+		int storedLength = this.window.getInt(base + 8);
+		if (rawLength < 0 || storedLength < 0 || storedLength > rawLength) {
+			throw new IOException("Corrupt key journal block header");
+		}
+		long dataStart = this.position + BinaryKeyJournal.BLOCK_HEADER_SIZE;
+		if (dataStart + storedLength > this.fileLength) {
+			this.ended = true; // cut short, no footer
+			return false;
+		}
+		this.position = dataStart + storedLength;
+		int dataBase = this.map(dataStart, storedLength);
+		if (storedLength < rawLength) {
+			// a fresh array per block, the keys read from it keep pointing at it
+			byte[] raw = new byte[rawLength];
+			this.inflate(dataBase, storedLength, raw);
+			this.block = ByteBuffer.wrap(raw);
+			this.blockPosition = 0;
+			this.blockLimit = rawLength;
+		} else {
+			this.block = this.window;
+			this.blockPosition = dataBase;
+			this.blockLimit = dataBase + rawLength;
+		}
+		this.bucket = null;
+		return true;
+	}
+
+	private void inflate(int base, int storedLength, byte[] raw) throws IOException {
+		if (this.inflater == null) {
+			throw new IOException("Compressed block in an uncompressed key journal");
+		}
+		if (this.stored == null || this.stored.length < storedLength) {
+			this.stored = new byte[Math.max(storedLength, BinaryKeyJournal.BLOCK_SIZE)];
+		}
+		ByteBuffer storedBytes = this.window.duplicate();
+		storedBytes.position(base);
+		storedBytes.get(this.stored, 0, storedLength);
+		this.inflater.reset();
+		this.inflater.setInput(this.stored, 0, storedLength);
+		try {
+			int length = this.inflater.inflate(raw, 0, raw.length);
+			if (length != raw.length) {
+				throw new IOException("Key journal block inflated to " + length + " bytes, expected " + raw.length);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt key journal block", e);
+		}
+	}
+
+	private long getVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			this.checkRemaining(1);
+			byte b = this.block.get(this.blockPosition++);
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt key journal record length");
+	}
+
+	private void checkRemaining(int length) throws IOException {
+		if (length < 0 || this.blockPosition + length > this.blockLimit) {
+			throw new IOException("Corrupt key journal record");
+		}
+	}
+
+	private Key readText() throws IOException {
+		while (!this.ended && this.position < this.end) {
+			int length = this.lineLength(this.position);
+			int base = (int)(this.position - this.windowStart);
+			this.position += length + 1;
+			if (length > 0 && this.window.get(base + length - 1) == '\r') {
+				--length;
+			}
+			int comma = -1;
+			for (int i = 0; i < length; ++i) {
+				if (this.window.get(base + i) == ',') {
+					comma = i;
+					break;
+				}
+			}
+			if (comma == -1) {
+				continue; // skip lines cut short by a crash rather than ending the journal there
+			}
+			return new KeyView(this.textBucket(base, comma), this.window, base + comma + 1, length - comma - 1);
+		}
+		this.ended = true;
+		return null;
+	}
+
+	// The bucket of the previous line when this line's is the same
+	private String textBucket(int base, int length) {
+		boolean same = this.bucketBytes != null && this.bucketBytes.length == length;
+		for (int i = 0; same && i < length; ++i) {
+			same = this.bucketBytes[i] == this.window.get(base + i);
+		}
+		if (!same) {
+			this.bucketBytes = new byte[length];
+			for (int i = 0; i < length; ++i) {
+				this.bucketBytes[i] = this.window.get(base + i);
+			}
+			this.bucket = new String(this.bucketBytes, BinaryKeyJournal.UTF8);
+		}
+		return this.bucket;
+	}
+
+	// Maps the line starting at offset, returning its length without the newline
+	private int lineLength(long offset) throws IOException {
+		int base = this.map(offset, 1);
+		int i = base;
+		while (true) {
+			int limit = this.window.capacity();
+			for (; i < limit; ++i) {
+				if (this.window.get(i) == '\n') {
+					return i - base;
+				}
+			}
+			if (this.windowStart + limit >= this.fileLength) {
+				return limit - base; // the last line has no newline
+			}
+			// the line runs past the window, map a larger one from its start
+			long scanned = limit - base;
+			base = this.map(offset, (int)Math.min(scanned * 2, this.fileLength - offset));
+			i = base + (int)scanned;
+		}
+	}
+
+	// Maps a window holding [offset, offset + length), returning offset's index in it
+	private int map(long offset, int length) throws IOException {
+		if (this.window == null || offset < this.windowStart ||
+				offset + length > this.windowStart + this.window.capacity()) {
+			long size = Math.min(Math.max(WINDOW_SIZE, length), this.fileLength - offset);
+			this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+			this.windowStart = offset;
+		}
+		return (int)(offset - this.windowStart);
+	}
+
+	// The first block starting at or after target, walking the block headers from offset
+	private long blockStartAfter(long offset, long target) throws IOException {
+		while (offset < target) {
+			if (offset + BinaryKeyJournal.BLOCK_HEADER_SIZE > this.fileLength) {
+				return this.end;
+			}
+			this.file.seek(offset);
+			int recordCount = this.file.readInt();
+			this.file.readInt();
+			int storedLength = this.file.readInt();
+			if (recordCount < 0 || storedLength < 0) {
+				return this.end;
+			}
+			offset += BinaryKeyJournal.BLOCK_HEADER_SIZE + storedLength;
+		}
+		return offset;
+	}
+
+	// The first line starting at or after target
+	private long lineStartAfter(long target) throws IOException {
+		if (target <= 0) {
+			return 0;
+		}
+		byte[] buffer = new byte[8192];
+		long offset = target - 1;
+		this.file.seek(offset);
+		int count;
+		while ((count = this.file.read(buffer)) > 0) {
+			for (int i = 0; i < count; ++i) {
+				if (buffer[i] == '\n') {
+					return offset + i + 1;
+				}
+			}
+			offset += count;
+		}
+		return this.end;
+	}
+}
@@ -2,15 +2,29 @@ package com.basho.proserv.datamigrator.io;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.basho.riak.client.IRiakObject;
 
+/**
+ * A bucket's dump directory of chunk files.  In WRITE mode objects are
+ * spread over one or more chunk streams by key hash, each writing its own
+ * sequence of chunks on its own ThreadedRiakObjectWriter, so several chunks
+ * are encoded, compressed and written at once.  writeRiakObject() may be
+ * called from several threads.  A chunk is named for the bucket-wide index
+ * of the object that started it, which is unique however the streams
+ * interleave.  The objects of chunks that could not be written are counted
+ * in lostCount() rather than failing writeRiakObject(), since they are only
+ * known to be lost once the chunk is finished.
+ */
 public class RiakObjectBucket implements IRiakObjectWriter, IRiakObjectReader, Iterable<IRiakObject> {
 	public static enum BucketMode { READ, WRITE };
 	
@@ -20,6 +34,8 @@ public class RiakObjectBucket implements IRiakObjectWriter, IRiakObjectReader, I
 	private final static long DEFAULT_BUCKET_CHUNK_MAX_SIZE = 107374182400l;
 	private final static String DEFAULT_FILE_PREFIX = "";
 	
+	private static volatile int defaultChunkStreams = 1;
+	
 	private File fileRoot = null;
 	private BucketMode bucketMode = null;
 	private int bucketChunkSize = DEFAULT_BUCKET_CHUNK_COUNT;
@@ -27,12 +43,14 @@ public class RiakObjectBucket implements IRiakObjectWriter, IRiakObjectReader, I
 	private String filePrefix = DEFAULT_FILE_PREFIX;
 	private boolean resetVClock = false;
 	
-	private Long bucketCount = 0L;
-	private Long currentChunkCount = 0L;
-	private Long currentChunkByteSize = 0L;
+	private final AtomicLong bucketCount = new AtomicLong(0);
+	private final AtomicLong lostCount = new AtomicLong(0);
+	private ChunkStream[] chunkStreams = null;
 	
-	private IRiakObjectWriter currentRiakObjectWriter = null;
 	private IRiakObjectReader currentRiakObjectReader = null;
+	private ConcurrentKeyJournal keyJournal = null;
+	// chunk writers not yet known to have finished
+	private final List<ThreadedRiakObjectWriter> chunkWriters = new ArrayList<ThreadedRiakObjectWriter>();
 	
 	private Queue<File> fileQueue = new LinkedBlockingQueue<File>();
 	
@@ -73,6 +91,10 @@ public class RiakObjectBucket implements IRiakObjectWriter, IRiakObjectReader, I
 		this.bucketChunkSize = bucketChunkCount;
 		this.resetVClock = resetVClock;
 		
+		if (bucketMode == BucketMode.WRITE) {
+			this.removeUncommittedChunks();
+			this.setChunkStreams(defaultChunkStreams);
+		}
 		if (bucketMode == BucketMode.READ) {
 			this.populateChunks();
 			if (this.dataFilesExist()) {
@@ -90,10 +112,55 @@ public class RiakObjectBucket implements IRiakObjectWriter, IRiakObjectReader, I
 		return fileList.length > 0;
 	}
 	
+	/**
+	 * Sets how many chunk streams buckets opened for WRITE have, unless set
+	 * on the bucket
+	 */
+	public static void setDefaultChunkStreams(int chunkStreams) {
+		if (chunkStreams < 1) {
+			throw new IllegalArgumentException("chunkStreams must be greater than 0");
+		}
+		defaultChunkStreams = chunkStreams;
+	}
+	
+	public static int getDefaultChunkStreams() {
+		return defaultChunkStreams;
+	}
+	
+	/**
+	 * Sets how many chunks are written at once.  Must be called before the
+	 * first object is written.
+	 */
+	public synchronized void setChunkStreams(int chunkStreams) {
+		if (chunkStreams < 1) {
+			throw new IllegalArgumentException("chunkStreams must be greater than 0");
+		}
+		if (this.bucketCount.get() > 0) {
+			throw new IllegalStateException("Chunk streams must be set before writing");
+		}
+		this.chunkStreams = new ChunkStream[chunkStreams];
+		for (int i = 0; i < chunkStreams; ++i) {
+			this.chunkStreams[i] = new ChunkStream();
+		}
+	}
+	
+	public int getChunkStreams() {
+		return this.chunkStreams == null ? 0 : this.chunkStreams.length;
+	}
+	
 	public void setFilePrefix(String filePrefix) {
 		this.filePrefix = filePrefix;
 	}
 	
+	/**
+	 * Has the chunk writers record the keys of each chunk once it is
+	 * committed.  close() waits for them, so the journal can be closed once
+	 * it returns.
+	 */
+	public void setKeyJournal(ConcurrentKeyJournal keyJournal) {
+		this.keyJournal = keyJournal;
+	}
+	
 	public boolean writeRiakObject(IRiakObject riakObject) {
 		if (this.bucketMode == BucketMode.READ) {
 			throw new IllegalArgumentException("Bucket is in Read Mode");
@@ -101,14 +168,18 @@ public class RiakObjectBucket implements IRiakObjectWriter, IRiakObjectReader, I
 		if (riakObject == null) {
 			throw new IllegalArgumentException("riakObject cannot be null");
 		}
-		if (shouldStartNewChunk()) {
-			closeChunk();
-			writeNewChunkFile();
+		ChunkStream stream = this.chunkStreams[this.chunkStreams.length == 1 ? 0 :
+				(riakObject.getKey().hashCode() & Integer.MAX_VALUE) % this.chunkStreams.length];
+		long index = this.bucketCount.getAndIncrement();
+		synchronized (stream) {
+			if (stream.shouldStartNewChunk()) {
+				stream.closeChunk();
+				stream.writer = this.writeNewChunkFile(index);
+			}
+			stream.writer.writeRiakObject(riakObject);
+			stream.chunkByteSize += riakObject.getValue().length;
+			++stream.chunkCount;
 		}
-		this.currentRiakObjectWriter.writeRiakObject(riakObject);
-		this.currentChunkByteSize += riakObject.getValue().length;
-		++this.currentChunkCount;
-		++this.bucketCount;
 		return true;
 	}
 	
@@ -131,10 +202,21 @@ public class RiakObjectBucket implements IRiakObjectWriter, IRiakObjectReader, I
 		return this.fileRoot;
 	}
 	
-	private boolean shouldStartNewChunk() {
-		return (this.currentChunkCount >= this.bucketChunkSize ||
-				this.currentChunkByteSize >= this.bucketChunkByteSize ||
-				this.currentRiakObjectWriter == null);
+	// chunks left part written by a dump that died, whose keys were never journalled
+	private void removeUncommittedChunks() {
+		String[] names = this.fileRoot.list();
+		if (names == null) {
+			return;
+		}
+		for (String name : names) {
+			String lowerName = name.toLowerCase();
+			if (lowerName.endsWith(".data" + RiakObjectWriter.TEMP_EXTENSION) ||
+					lowerName.endsWith(ChunkIndex.INDEX_EXTENSION + RiakObjectWriter.TEMP_EXTENSION)) {
+				File file = new File(this.fileRoot, name);
+				log.info("Removing uncommitted chunk file " + file.getAbsolutePath());
+				file.delete();
+			}
+		}
 	}
 	
 	private void populateChunks() {
@@ -147,12 +229,16 @@ public class RiakObjectBucket implements IRiakObjectWriter, IRiakObjectReader, I
 		}
 	}
 	
-	private boolean writeNewChunkFile() {
+	// named for firstIndex, the index in the bucket of the object starting the chunk
+	private ThreadedRiakObjectWriter writeNewChunkFile(long firstIndex) {
 		String filename = this.fileRoot.getAbsolutePath() + "/" 
-				+ this.filePrefix + this.bucketCount.toString() + ".data";
+				+ this.filePrefix + firstIndex + ".data";
 		log.debug("Creating new chunk file " + filename);
-		this.currentRiakObjectWriter = new ThreadedRiakObjectWriter(new File(filename));
-		return true;
+		ThreadedRiakObjectWriter writer = new ThreadedRiakObjectWriter(new File(filename), this.keyJournal);
+		synchronized (this.chunkWriters) {
+			this.chunkWriters.add(writer);
+		}
+		return writer;
 	}
 	
 	private boolean readNewChunkFile() {
@@ -173,20 +259,59 @@ public class RiakObjectBucket implements IRiakObjectWriter, IRiakObjectReader, I
 	}
 	
 	private void closeChunk() {
-		this.currentChunkByteSize = 0l;
-		this.currentChunkCount = 0l;
 		if (this.currentRiakObjectReader != null) {
 			this.currentRiakObjectReader.close();
 			log.debug("Closed chunk file.");
 		}
-		if (this.currentRiakObjectWriter != null) {
-			this.currentRiakObjectWriter.close();
-			log.debug("Closed chunk file.");
-		}
 	}
 	
 	public void close() {
 		this.closeChunk();
+		if (this.chunkStreams != null) {
+			for (ChunkStream stream : this.chunkStreams) {
+				synchronized (stream) {
+					stream.closeChunk();
+				}
+			}
+		}
+		synchronized (this.chunkWriters) {
+			for (ThreadedRiakObjectWriter writer : this.chunkWriters) {
+				writer.awaitClosed();
+				this.lostCount.addAndGet(writer.lostCount());
+			}
+			this.chunkWriters.clear();
+		}
+	}
+	
+	/**
+	 * The objects written to chunks that failed and were removed, once
+	 * close() has returned.  Their keys are not journalled.
+	 */
+	public long lostCount() {
+		return this.lostCount.get();
+	}
+	
+	// One of the chunks being written, and how full it is
+	private class ChunkStream {
+		ThreadedRiakObjectWriter writer = null;
+		long chunkCount = 0;
+		long chunkByteSize = 0;
+		
+		boolean shouldStartNewChunk() {
+			return (this.chunkCount >= bucketChunkSize ||
+					this.chunkByteSize >= bucketChunkByteSize ||
+					this.writer == null);
+		}
+		
+		void closeChunk() {
+			this.chunkCount = 0;
+			this.chunkByteSize = 0;
+			if (this.writer != null) {
+				this.writer.close();
+				this.writer = null;
+				log.debug("Closed chunk file.");
+			}
+		}
 	}
 
 	@Override
@@ -7,7 +7,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
+import java.io.InputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,18 +20,25 @@ import com.basho.riak.pbc.RiakObject;
 import com.basho.riak.pbc.RiakObjectIO;
 import com.google.protobuf.InvalidProtocolBufferException;
 
+/**
+ * Reads a chunk file written with any ChunkCodec.  The damaged blocks of a
+ * framed chunk are skipped, and counted in errorCount(), rather than ending
+ * the chunk.
+ */
 public class RiakObjectReader implements IRiakObjectReader{
 	private final Logger log = LoggerFactory.getLogger(RiakObjectReader.class);
 	private final RiakObjectIO riakObjectIo = new RiakObjectIO();
 	private DataInputStream dataInputStream = null;
+	private FramedBlockInputStream frames = null;
 	private final boolean resetVClock;
+	private final String source;
 	private int errorCount = 0;
 	
 	public RiakObjectReader(File inputFile, boolean resetVClock) {
 		this.resetVClock = resetVClock;
+		this.source = inputFile.getAbsolutePath();
 		try {
-			dataInputStream = new DataInputStream(
-					new GZIPInputStream(new BufferedInputStream(new FileInputStream(inputFile))));
+			this.open(ChunkCodec.openInput(new BufferedInputStream(new FileInputStream(inputFile))));
 		} catch (FileNotFoundException e) {
 			throw new IllegalArgumentException("File could not be found " + inputFile.getAbsolutePath());
 		} catch (IOException e) {
@@ -39,6 +46,20 @@ public class RiakObjectReader implements IRiakObjectReader{
 		}
 	}
 	
+	// reads records from an already decompressed stream, eg. one block of a chunk
+	RiakObjectReader(InputStream in, String source, boolean resetVClock) {
+		this.resetVClock = resetVClock;
+		this.source = source;
+		this.open(in);
+	}
+	
+	private void open(InputStream records) {
+		if (records instanceof FramedBlockInputStream) {
+			this.frames = (FramedBlockInputStream)records;
+		}
+		this.dataInputStream = new DataInputStream(new BufferedInputStream(records, ChunkCodec.BUFFER_SIZE));
+	}
+	
 	public IRiakObject readRiakObject() {
 		try {
 			RiakObject riakObject = riakObjectIo.readRiakObject(this.dataInputStream);
@@ -63,6 +84,12 @@ public class RiakObjectReader implements IRiakObjectReader{
 			++this.errorCount;
 		} catch (EOFException e) {
 			//no-op, end of file reached
+			if (this.frames != null && this.frames.corruptBlocks() > 0) {
+				log.error(String.format("Skipped %d corrupt blocks of %s", this.frames.corruptBlocks(), this.source));
+			}
+			if (this.frames != null && this.frames.truncated()) {
+				log.error(this.source + " was cut short");
+			}
 		} catch (IOException e) {
 			log.error("readRiakObject IO exception", e);
 			++this.errorCount;
@@ -71,6 +98,9 @@ public class RiakObjectReader implements IRiakObjectReader{
 	}
 		
 	public int errorCount() {
+		if (this.frames != null) {
+			return this.errorCount + this.frames.corruptBlocks() + (this.frames.truncated() ? 1 : 0);
+		}
 		return this.errorCount;
 	}
 	
@@ -5,8 +5,9 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPOutputStream;
+import java.io.OutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,46 +18,220 @@ import com.basho.riak.pbc.RiakObject;
 import com.basho.riak.pbc.RiakObjectIO;
 import com.google.protobuf.ByteString;
 
+/**
+ * Writes a chunk file, compressed with a ChunkCodec in a ChunkCodec.Format
+ * on the threads of a BlockCompressor, by default those set with
+ * ChunkCodec.setDefault, ChunkCodec.setDefaultFormat and
+ * BlockCompressor.setDefault.  Objects are written to the chunk's name with
+ * TEMP_EXTENSION added, which is renamed to the chunk's name once close()
+ * has written it out, so a chunk only appears once it is complete.  Under a
+ * SyncPolicy other than NONE the file is forced to disk before the rename
+ * and its directory after it, so a committed chunk survives a crash.
+ * A chunk whose write fails is removed rather than committed.
+ *
+ * Records are grouped into blocks of about BlockCompressor.BLOCK_SIZE that
+ * each decompress on their own, and a ChunkIndex naming the block of every
+ * record is committed next to the chunk just before it, so a few keys can be
+ * restored without reading the whole chunk.
+ */
 public class RiakObjectWriter implements IRiakObjectWriter {
 	private final Logger log = LoggerFactory.getLogger(RiakObjectWriter.class);
-	
+	public static final String TEMP_EXTENSION = ".tmp";
+
+	private final File file;
+	private final File tempFile;
+	private final File indexFile;
+	private final SyncPolicy syncPolicy;
+	private final FileOutputStream fileOutputStream;
+	private final BlockCompressor.BlockOutputStream blockStream;
 	private final DataOutputStream dataOutputStream;
+	private final ChunkIndex index;
 	private final RiakObjectIO riakObjectIo = new RiakObjectIO();
-	
+	private boolean closed = false;
+	private boolean committed = false;
+	private boolean abandoned = false;
+
 	public RiakObjectWriter(File file) {
+		this(file, SyncPolicy.getDefault());
+	}
+
+	public RiakObjectWriter(File file, SyncPolicy syncPolicy) {
+		this(file, syncPolicy, ChunkCodec.getDefault());
+	}
+
+	public RiakObjectWriter(File file, SyncPolicy syncPolicy, ChunkCodec codec) {
+		this(file, syncPolicy, codec, BlockCompressor.getDefault());
+	}
+
+	public RiakObjectWriter(File file, SyncPolicy syncPolicy, ChunkCodec codec, BlockCompressor compressor) {
+		this(file, syncPolicy, codec, ChunkCodec.getDefaultFormat(), compressor);
+	}
+
+	public RiakObjectWriter(File file, SyncPolicy syncPolicy, ChunkCodec codec, ChunkCodec.Format format,
+			BlockCompressor compressor) {
+		if (syncPolicy == null || codec == null || format == null || compressor == null) {
+			throw new IllegalArgumentException("syncPolicy, codec, format and compressor cannot be null");
+		}
+		this.file = file;
+		this.tempFile = tempFile(file);
+		this.indexFile = ChunkIndex.indexFile(file);
+		this.syncPolicy = syncPolicy;
+		this.index = new ChunkIndex(codec, format == ChunkCodec.Format.FRAMED);
 		try {
-			this.dataOutputStream = new DataOutputStream(
-					new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file))));
+			this.fileOutputStream = new FileOutputStream(this.tempFile);
+			OutputStream fileStream = new SyncingOutputStream(new BufferedOutputStream(this.fileOutputStream));
+			this.blockStream = compressor.openBlocks(codec, format, fileStream);
+			this.dataOutputStream = new DataOutputStream(this.blockStream);
 		} catch (FileNotFoundException e) {
 			throw new IllegalArgumentException("File could not be created " + file.getAbsolutePath());
 		} catch (IOException e) {
 			throw new IllegalArgumentException("Could not create file " + file.getAbsolutePath());
 		}
 	}
-	
+
+	public static File tempFile(File file) {
+		return new File(file.getParentFile(), file.getName() + TEMP_EXTENSION);
+	}
+
 	public boolean writeRiakObject(IRiakObject riakObject) {
+		if (this.closed) {
+			return false;
+		}
 		try {
 			RiakObject object = ConversionUtilWrapper.convertInterfaceToConcrete(riakObject);
+			this.index.add(this.blockStream.blockNumber(), riakObject.getBucket(), riakObject.getKey());
 			riakObjectIo.writeRiakObject(this.dataOutputStream, object);
+			if (this.blockStream.blockLength() >= BlockCompressor.BLOCK_SIZE) {
+				this.blockStream.endBlock();
+			}
 		} catch (IOException ex) {
 			log.error("Could not write RiakObject to outputStream", ex);
-			this.close();
+			this.abort();
 			return false;
 		}
-		
+
 		return true;
 	}
-	
+
+	/**
+	 * Finishes the chunk and renames it into place
+	 */
 	public void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
 		try {
 			this.writeEOFRiakObject();
-			this.dataOutputStream.flush();
 			this.dataOutputStream.close();
 		} catch (IOException e) {
 			log.error("Could not close RiakObjectWriter file", e);
+			this.abandoned = true;
+			this.closeQuietly();
+			this.tempFile.delete();
+			return;
+		}
+		this.commitIndex();
+		this.committed = commit(this.tempFile, this.file);
+		if (!this.committed) {
+			// the index is of the chunk that was not renamed into place
+			this.indexFile.delete();
+		} else if (this.syncPolicy.syncOnClose()) {
+			// the index was renamed into the same directory, so one sync covers both
+			this.syncDirectory();
 		}
 	}
-	
+
+	// The chunk is already in place, so a directory that cannot be synced
+	// only leaves the rename as durable as under SyncPolicy.NONE
+	private void syncDirectory() {
+		File directory = this.file.getAbsoluteFile().getParentFile();
+		try {
+			SyncPolicy.syncDirectory(directory);
+		} catch (IOException e) {
+			log.warn("Could not sync directory " + directory.getAbsolutePath(), e);
+		}
+	}
+
+	// A chunk without an index is still whole, so failing to write one only
+	// means the chunk is read whole by selective loads
+	private void commitIndex() {
+		File indexTemp = tempFile(this.indexFile);
+		try {
+			this.index.setBlocks(this.blockStream.writtenBlocks());
+			this.index.write(indexTemp, this.syncPolicy.syncOnClose());
+		} catch (IOException e) {
+			log.error("Could not write chunk index " + this.indexFile.getAbsolutePath(), e);
+			indexTemp.delete();
+			// an index left from an earlier chunk of this name would be wrong
+			this.indexFile.delete();
+			return;
+		}
+		if (!commit(indexTemp, this.indexFile)) {
+			indexTemp.delete();
+			this.indexFile.delete();
+		}
+	}
+
+	private boolean commit(File temp, File target) {
+		// renameTo won't replace an existing file on every platform
+		if (target.exists() && !target.delete()) {
+			log.error("Could not replace " + target.getAbsolutePath());
+		} else if (!temp.renameTo(target)) {
+			log.error("Could not rename " + temp.getAbsolutePath() + " to " + target.getName());
+		} else {
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Whether close() renamed the complete chunk into place
+	 */
+	public boolean isCommitted() {
+		return this.committed;
+	}
+
+	private void abort() {
+		this.closed = true;
+		this.abandoned = true;
+		this.closeQuietly();
+		this.tempFile.delete();
+	}
+
+	private void closeQuietly() {
+		try {
+			this.dataOutputStream.close();
+		} catch (IOException e) {
+			// no-op, already failed
+		}
+	}
+
+	// Forces the file to disk, if the sync policy asks, once the codec has
+	// written the last of the chunk on closing and before the file is closed
+	private class SyncingOutputStream extends FilterOutputStream {
+		public SyncingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				this.out.flush();
+				if (!abandoned && syncPolicy.syncOnClose()) {
+					fileOutputStream.getFD().sync();
+				}
+			} finally {
+				this.out.close();
+			}
+		}
+	}
+
 	private void writeEOFRiakObject() throws IOException {
 		RiakObject riakObject = new RiakObject(ByteString.copyFromUtf8(""),
 											   ByteString.copyFromUtf8(""),
@@ -64,5 +239,5 @@ public class RiakObjectWriter implements IRiakObjectWriter {
 											   ByteString.copyFromUtf8(""));
 		riakObjectIo.writeRiakObject(this.dataOutputStream, riakObject, 255);
 	}
-	
+
 }
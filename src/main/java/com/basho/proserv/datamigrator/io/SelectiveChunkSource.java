@@ -0,0 +1,227 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.SortedSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basho.riak.client.IRiakObject;
+
+/**
+ * Reads only the objects of the wanted keys from a bucket's dump.  For each
+ * chunk with a ChunkIndex only the blocks holding wanted keys are opened and
+ * decompressed; chunks without one, written before indexes existed or whose
+ * index could not be read, are read whole.  Siblings of a wanted key are
+ * all returned.  Nothing is journalled or marked as loaded.  Damaged blocks
+ * and records are skipped and counted in readErrors().  Blocks are opened
+ * one at a time as the one before is used up, so no more than one file is
+ * open however many blocks are wanted.
+ */
+public class SelectiveChunkSource implements Iterable<IRiakObject> {
+	private final Logger log = LoggerFactory.getLogger(SelectiveChunkSource.class);
+
+	private final File bucketRoot;
+	private final KeyHashSet wanted;
+	private final boolean resetVClock;
+	private long blocksRead = 0;
+	private long blocksSkipped = 0;
+	private long chunksRead = 0;
+	private long readErrors = 0;
+	private SelectiveIterator iterator = null;
+
+	public SelectiveChunkSource(File bucketRoot, KeyHashSet wanted, boolean resetVClock) {
+		if (bucketRoot == null || wanted == null) {
+			throw new IllegalArgumentException("bucketRoot and wanted cannot be null");
+		}
+		this.bucketRoot = bucketRoot;
+		this.wanted = wanted;
+		this.resetVClock = resetVClock;
+	}
+
+	@Override
+	public synchronized Iterator<IRiakObject> iterator() {
+		if (this.iterator != null) {
+			throw new IllegalStateException("SelectiveChunkSource can only be iterated once");
+		}
+		this.iterator = new SelectiveIterator(BucketChunkSource.chunkFiles(this.bucketRoot).iterator());
+		return this.iterator;
+	}
+
+	/**
+	 * Closes the block or chunk being read
+	 */
+	public void close() {
+		SelectiveIterator iterator = null;
+		synchronized (this) {
+			iterator = this.iterator;
+		}
+		if (iterator != null) {
+			iterator.close();
+		}
+	}
+
+	/**
+	 * Blocks of indexed chunks decompressed
+	 */
+	public synchronized long blocksRead() {
+		return this.blocksRead;
+	}
+
+	/**
+	 * Blocks of indexed chunks passed over without being read
+	 */
+	public synchronized long blocksSkipped() {
+		return this.blocksSkipped;
+	}
+
+	/**
+	 * Chunks without an index, read whole
+	 */
+	public synchronized long chunksRead() {
+		return this.chunksRead;
+	}
+
+	/**
+	 * Damaged blocks and records met by the readers
+	 */
+	public synchronized long readErrors() {
+		return this.readErrors;
+	}
+
+	private ChunkIndex readIndex(File chunkFile) {
+		File indexFile = ChunkIndex.indexFile(chunkFile);
+		if (!indexFile.exists()) {
+			return null;
+		}
+		try {
+			return ChunkIndex.read(indexFile);
+		} catch (IOException e) {
+			log.warn("Could not read chunk index " + indexFile.getAbsolutePath() + ", reading the whole chunk", e);
+			return null;
+		}
+	}
+
+	private class SelectiveIterator implements Iterator<IRiakObject> {
+		private final Iterator<File> chunkFiles;
+		// blocks of the current chunk still to read
+		private final Queue<Integer> blocks = new LinkedList<Integer>();
+		private File chunkFile = null;
+		private ChunkIndex index = null;
+		private RiakObjectReader reader = null;
+		private IRiakObject nextObject = null;
+		private volatile boolean closed = false;
+
+		public SelectiveIterator(Iterator<File> chunkFiles) {
+			this.chunkFiles = chunkFiles;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.nextObject == null) {
+				this.advance();
+			}
+			return this.nextObject != null;
+		}
+
+		@Override
+		public IRiakObject next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			IRiakObject riakObject = this.nextObject;
+			this.nextObject = null;
+			return riakObject;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void advance() {
+			while (!this.closed) {
+				RiakObjectReader reader = this.reader;
+				if (reader != null) {
+					IRiakObject riakObject = null;
+					while ((riakObject = reader.readRiakObject()) != null) {
+						if (wanted.contains(riakObject.getBucket(), riakObject.getKey())) {
+							this.nextObject = riakObject;
+							return;
+						}
+					}
+					this.closeReader();
+				}
+				if (!this.blocks.isEmpty()) {
+					this.openBlock(this.blocks.poll());
+					continue;
+				}
+				if (!this.chunkFiles.hasNext()) {
+					return;
+				}
+				this.openChunk(this.chunkFiles.next());
+			}
+		}
+
+		synchronized void close() {
+			this.closed = true;
+			if (this.reader != null) {
+				this.reader.close();
+				this.reader = null;
+			}
+			this.blocks.clear();
+		}
+
+		private synchronized void closeReader() {
+			if (this.reader == null) {
+				// closed while reading
+				return;
+			}
+			this.reader.close();
+			synchronized (SelectiveChunkSource.this) {
+				readErrors += this.reader.errorCount();
+			}
+			this.reader = null;
+		}
+
+		private synchronized void openBlock(int block) {
+			if (this.closed) {
+				return;
+			}
+			try {
+				this.reader = this.index.openBlock(this.chunkFile, block, resetVClock);
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not read block " + block + " of " +
+						this.chunkFile.getAbsolutePath(), e);
+			}
+		}
+
+		private void openChunk(File chunkFile) {
+			ChunkIndex index = readIndex(chunkFile);
+			if (index == null) {
+				synchronized (SelectiveChunkSource.this) {
+					++chunksRead;
+				}
+				synchronized (this) {
+					if (!this.closed) {
+						this.reader = new RiakObjectReader(chunkFile, resetVClock);
+					}
+				}
+				return;
+			}
+			SortedSet<Integer> blocks = index.blocksFor(wanted);
+			synchronized (SelectiveChunkSource.this) {
+				blocksRead += blocks.size();
+				blocksSkipped += index.blockCount() - blocks.size();
+			}
+			this.chunkFile = chunkFile;
+			this.index = index;
+			this.blocks.addAll(blocks);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Looks keys up in a SORTED key journal.  The journal's sparse index of the
+ * first key of every block is held in memory as it is stored, about a
+ * hundredth of the journal, and contains() binary searches it for the block
+ * that would hold a key and decodes only that block, so a lookup reads one
+ * small block whatever the journal's size.  Keys are read in order with a
+ * KeyJournal or MappedKeyJournal as for any other journal.
+ *
+ * Lookups share one reader, so contains() is synchronized.
+ */
+public class SortedKeyJournal {
+	private final File path;
+	private final MappedKeyJournal reader;
+	// the stored index, and where each entry starts in it
+	private final byte[] index;
+	private final int[] entryStarts;
+	private final long indexOffset;
+	private final long keyCount;
+
+	public SortedKeyJournal(File path) throws IOException {
+		if (path == null) {
+			throw new IllegalArgumentException("path cannot be null");
+		}
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			byte[] header = new byte[BinaryKeyJournal.HEADER_SIZE];
+			file.readFully(header);
+			BinaryKeyJournal.checkHeader(header);
+			if (header[4] != BinaryKeyJournal.SORTED_VERSION) {
+				throw new IOException(path.getAbsolutePath() + " is not a sorted key journal");
+			}
+			long length = file.length();
+			long trailer = length - BinaryKeyJournal.FOOTER_SIZE - 8;
+			if (trailer < BinaryKeyJournal.HEADER_SIZE) {
+				throw new IOException("Sorted key journal " + path.getAbsolutePath() + " is incomplete");
+			}
+			file.seek(trailer);
+			this.indexOffset = file.readLong();
+			if (file.readInt() != -1) {
+				throw new IOException("Sorted key journal " + path.getAbsolutePath() + " is incomplete");
+			}
+			this.keyCount = file.readLong();
+			if (this.indexOffset < BinaryKeyJournal.HEADER_SIZE || this.indexOffset > trailer) {
+				throw new IOException("Corrupt sorted key journal index offset");
+			}
+			file.seek(this.indexOffset);
+			int marker = file.readInt();
+			int entries = file.readInt();
+			int indexLength = file.readInt();
+			if (marker != BinaryKeyJournal.INDEX_MARKER || entries < 0 || indexLength < 0 ||
+					this.indexOffset + BinaryKeyJournal.BLOCK_HEADER_SIZE + indexLength != trailer) {
+				throw new IOException("Corrupt sorted key journal index");
+			}
+			this.index = new byte[indexLength];
+			file.readFully(this.index);
+			this.entryStarts = entryStarts(this.index, entries);
+		} finally {
+			file.close();
+		}
+		this.path = path;
+		this.reader = new MappedKeyJournal(path);
+	}
+
+	public long keyCount() {
+		return this.keyCount;
+	}
+
+	public int blockCount() {
+		return this.entryStarts.length;
+	}
+
+	public synchronized boolean contains(String bucket, String key) throws IOException {
+		if (bucket == null || key == null) {
+			throw new IllegalArgumentException("bucket and key must not be null");
+		}
+		Key target = new Key(bucket, key);
+		// the last block whose first key is not after target
+		int low = 0;
+		int high = this.entryStarts.length - 1;
+		int block = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int order = this.firstKey(middle).compareTo(target);
+			if (order == 0) {
+				return true;
+			} else if (order < 0) {
+				block = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if (block < 0) {
+			return false;
+		}
+		this.reader.seek(this.blockOffset(block),
+				block + 1 < this.entryStarts.length ? this.blockOffset(block + 1) : this.indexOffset);
+		Key candidate = null;
+		while ((candidate = this.reader.read()) != null) {
+			int order = candidate.compareTo(target);
+			if (order >= 0) {
+				return order == 0;
+			}
+		}
+		return false;
+	}
+
+	public boolean contains(Key key) throws IOException {
+		return this.contains(key.bucket(), key.key());
+	}
+
+	public void close() {
+		this.reader.close();
+	}
+
+	public File getPath() {
+		return this.path;
+	}
+
+	private long blockOffset(int entry) {
+		long offset = 0;
+		int position = this.entryStarts[entry];
+		for (int b = 0; b < 8; ++b) {
+			offset = (offset << 8) | (this.index[position + b] & 0xFF);
+		}
+		return offset;
+	}
+
+	private Key firstKey(int entry) throws IOException {
+		int[] position = { this.entryStarts[entry] + 8 };
+		String bucket = readString(this.index, position);
+		return new Key(bucket, readString(this.index, position));
+	}
+
+	// Checks every entry is whole, returning their starts
+	private static int[] entryStarts(byte[] index, int entries) throws IOException {
+		int[] starts = new int[entries];
+		int[] position = new int[1];
+		for (int i = 0; i < entries; ++i) {
+			starts[i] = position[0];
+			position[0] += 8;
+			if (position[0] > index.length) {
+				throw new IOException("Corrupt sorted key journal index");
+			}
+			readString(index, position);
+			readString(index, position);
+		}
+		return starts;
+	}
+
+	private static String readString(byte[] index, int[] position) throws IOException {
+		long length = 0;
+		for (int shift = 0; ; shift += 7) {
+			if (shift >= 35 || position[0] >= index.length) {
+				throw new IOException("Corrupt sorted key journal index");
+			}
+			byte b = index[position[0]++];
+			length |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		if (position[0] + length > index.length) {
+			throw new IOException("Corrupt sorted key journal index");
+		}
+		String value = new String(index, position[0], (int)length, BinaryKeyJournal.UTF8);
+		position[0] += (int)length;
+		return value;
+	}
+}
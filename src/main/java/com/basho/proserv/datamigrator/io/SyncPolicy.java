@@ -0,0 +1,158 @@
+package com.basho.proserv.datamigrator.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * When key journals and chunk files are forced to disk.
+ *
+ *   NONE   never; files are flushed to the OS on close and a crash may lose
+ *          whatever the OS had not yet written
+ *   GROUP  journals are synced every groupRecords keys, or at the first key
+ *          written groupMillis after the last sync, and on close
+ *   CHUNK  journals are synced once per chunk: a chunk's loaded keys journal
+ *          on close, and the dumped keys journal once each chunk's keys are
+ *          written
+ *
+ * Chunk files are only visible under their final name once complete (see
+ * RiakObjectWriter), so under GROUP and CHUNK they are synced once, before
+ * the rename, and their directory is synced after it so the rename itself
+ * survives a crash.
+ */
+public final class SyncPolicy {
+	public enum Mode { NONE, GROUP, CHUNK }
+
+	public static final int DEFAULT_GROUP_RECORDS = 10000;
+	public static final long DEFAULT_GROUP_MILLIS = 1000;
+
+	public static final SyncPolicy NONE = new SyncPolicy(Mode.NONE, 0, 0);
+	public static final SyncPolicy CHUNK = new SyncPolicy(Mode.CHUNK, 0, 0);
+
+	private static volatile SyncPolicy defaultPolicy = NONE;
+
+	private final Mode mode;
+	private final int groupRecords;
+	private final long groupMillis;
+
+	private SyncPolicy(Mode mode, int groupRecords, long groupMillis) {
+		this.mode = mode;
+		this.groupRecords = groupRecords;
+		this.groupMillis = groupMillis;
+	}
+
+	public static SyncPolicy group(int groupRecords, long groupMillis) {
+		if (groupRecords < 1 || groupMillis < 1) {
+			throw new IllegalArgumentException("groupRecords and groupMillis must be greater than 0");
+		}
+		return new SyncPolicy(Mode.GROUP, groupRecords, groupMillis);
+	}
+
+	/**
+	 * Parses none, chunk or group[:records[:millis]]
+	 */
+	public static SyncPolicy parse(String value) {
+		if (value == null) {
+			throw new IllegalArgumentException("value cannot be null");
+		}
+		String[] parts = value.trim().split(":");
+		if (parts.length == 1 && parts[0].equalsIgnoreCase("none")) {
+			return NONE;
+		} else if (parts.length == 1 && parts[0].equalsIgnoreCase("chunk")) {
+			return CHUNK;
+		} else if (parts.length <= 3 && parts[0].equalsIgnoreCase("group")) {
+			try {
+				return group(parts.length > 1 ? Integer.parseInt(parts[1]) : DEFAULT_GROUP_RECORDS,
+						parts.length > 2 ? Long.parseLong(parts[2]) : DEFAULT_GROUP_MILLIS);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid group sync policy " + value, e);
+			}
+		}
+		throw new IllegalArgumentException("Invalid sync policy " + value);
+	}
+
+	/**
+	 * Sets the policy of journals and chunk files opened without one
+	 */
+	public static void setDefault(SyncPolicy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("policy cannot be null");
+		}
+		defaultPolicy = policy;
+	}
+
+	public static SyncPolicy getDefault() {
+		return defaultPolicy;
+	}
+
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	public int getGroupRecords() {
+		return this.groupRecords;
+	}
+
+	public long getGroupMillis() {
+		return this.groupMillis;
+	}
+
+	/**
+	 * Whether files are synced on close
+	 */
+	public boolean syncOnClose() {
+		return this.mode != Mode.NONE;
+	}
+
+	/**
+	 * Forces a directory's entries, such as a file just renamed into it, to
+	 * disk.  Not every platform can open a directory to sync it.
+	 */
+	public static void syncDirectory(File directory) throws IOException {
+		FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		if (this.mode == Mode.GROUP) {
+			return String.format("group:%d:%d", this.groupRecords, this.groupMillis);
+		}
+		return this.mode.name().toLowerCase();
+	}
+
+	/**
+	 * Counts the records written to one file since it was last synced.  Not
+	 * thread safe; the file's writer calls it under its own lock.
+	 */
+	class GroupCounter {
+		private int records = 0;
+		private long lastSync = System.currentTimeMillis();
+
+		/**
+		 * Records a write, returning true when the group is due to be synced
+		 */
+		boolean record() {
+			if (mode != Mode.GROUP) {
+				return false;
+			}
+			++this.records;
+			return this.records >= groupRecords ||
+					System.currentTimeMillis() - this.lastSync >= groupMillis;
+		}
+
+		void synced() {
+			this.records = 0;
+			this.lastSync = System.currentTimeMillis();
+		}
+	}
+
+	GroupCounter newCounter() {
+		return new GroupCounter();
+	}
+}
@@ -1,6 +1,7 @@
 package com.basho.proserv.datamigrator.io;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -19,6 +20,7 @@ public class ThreadedRiakObjectReader implements IRiakObjectReader {
 	@SuppressWarnings("unused")
 	private final Logger log = LoggerFactory.getLogger(ThreadedRiakObjectReader.class);
 	private static final int DEFAULT_QUEUE_SIZE = 10000;
+	private static final int READ_BATCH_SIZE = 1000;
 	private static final String STOP_STRING = "STOPSTOPSTOPSTOP";
 	private static final ByteString STOP_FLAG = ByteString.copyFromUtf8(STOP_STRING);
 	private static IRiakObject STOP_OBJECT = ConversionUtilWrapper.convertConcreteToInterface(
@@ -26,6 +28,7 @@ public class ThreadedRiakObjectReader implements IRiakObjectReader {
 	
 	private final boolean resetVClock;
 	private final ArrayBlockingQueue<IRiakObject> queue;
+	private final ArrayDeque<IRiakObject> batch = new ArrayDeque<IRiakObject>(READ_BATCH_SIZE);
 	private final NamedThreadFactory threadFactory = new NamedThreadFactory();
 	private final ExecutorService executor = Executors.newCachedThreadPool(threadFactory);
 	
@@ -49,14 +52,20 @@ public class ThreadedRiakObjectReader implements IRiakObjectReader {
 	public IRiakObject readRiakObject() {
 		IRiakObject riakObject = null;
 		try {
-			riakObject = queue.take();
+			riakObject = this.batch.poll();
+			if (riakObject == null) {
+				riakObject = queue.take();
+				queue.drainTo(this.batch, READ_BATCH_SIZE);
+			}
 			++this.count;
 		} catch (InterruptedException e) {
 			readerFuture.cancel(true);
 			riakObject = null;
 		}
 		
-		if (riakObject != null && riakObject.getBucket().compareTo(STOP_STRING)==0) {
+		if (riakObject == STOP_OBJECT) {
+			// leave the marker in place so repeated calls keep returning null
+			this.batch.addFirst(STOP_OBJECT);
 			riakObject = null;
 		}
 
@@ -84,9 +93,7 @@ public class ThreadedRiakObjectReader implements IRiakObjectReader {
 				while (!Thread.currentThread().isInterrupted()) {
 					IRiakObject riakObject = super.readRiakObject();
 					if (riakObject != null) {
-						while (!this.queue.offer(riakObject)) { // offer returns false if op not successful
-							Thread.sleep(10);
-						}
+						this.queue.put(riakObject);
 						++count;
 					} else {
 						this.queue.put(STOP_OBJECT);
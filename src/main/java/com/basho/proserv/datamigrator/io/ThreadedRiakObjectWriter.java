@@ -1,8 +1,12 @@
 package com.basho.proserv.datamigrator.io;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import org.slf4j.Logger;
@@ -14,10 +18,19 @@ import com.basho.riak.client.raw.pbc.ConversionUtilWrapper;
 import com.basho.riak.pbc.RiakObject;
 import com.google.protobuf.ByteString;
 
+/**
+ * Writes a chunk file on a thread of its own.  Given a key journal, the
+ * writer thread holds the keys of the objects it writes until the chunk is
+ * committed, then journals them, so the journal never names an object that
+ * a crash could lose with an uncommitted chunk.  Under the CHUNK sync policy
+ * the journal is synced after each chunk's keys.  A chunk that fails to be
+ * written is removed, and every object given to the writer is counted in
+ * lostCount().
+ */
 public class ThreadedRiakObjectWriter implements IRiakObjectWriter {
-	@SuppressWarnings("unused")
-	private final Logger log = LoggerFactory.getLogger(ThreadedRiakObjectReader.class);
+	private final Logger log = LoggerFactory.getLogger(ThreadedRiakObjectWriter.class);
 	private static final int DEFAULT_QUEUE_SIZE = 10000;
+	private static final int WRITE_BATCH_SIZE = 1000;
 	private static final String  STOP_STRING = "STOPSTOPSTOPSTOPSTOP";
 	private static final ByteString STOP_FLAG = ByteString.copyFromUtf8(STOP_STRING);
 	private static final IRiakObject STOP_OBJECT = ConversionUtilWrapper.convertConcreteToInterface(new RiakObject(STOP_FLAG, STOP_FLAG, STOP_FLAG, STOP_FLAG));
@@ -25,11 +38,18 @@ public class ThreadedRiakObjectWriter implements IRiakObjectWriter {
 	private final ArrayBlockingQueue<IRiakObject> queue;
 	private final NamedThreadFactory threadFactory = new NamedThreadFactory();
 	private final ExecutorService executor = Executors.newCachedThreadPool(threadFactory);
+	private final ConcurrentKeyJournal keyJournal;
 	
 	private static int threadId = 0;
 	private long count = 0;
+	private volatile long lostCount = 0;
 	
 	public ThreadedRiakObjectWriter(File file) {
+		this(file, null);
+	}
+	
+	public ThreadedRiakObjectWriter(File file, ConcurrentKeyJournal keyJournal) {
+		this.keyJournal = keyJournal;
 		this.queue = new ArrayBlockingQueue<IRiakObject>(DEFAULT_QUEUE_SIZE);
 		this.threadFactory.setNextThreadName(String.format("ThreadedRiakObjectWriter-%d", threadId++));
 		executor.submit(new RiakObjectWriterThread(file, queue));
@@ -55,40 +75,87 @@ public class ThreadedRiakObjectWriter implements IRiakObjectWriter {
 		executor.shutdown();
 	}
 	
+	/**
+	 * The objects written to a chunk that was not committed, once
+	 * awaitClosed() has returned
+	 */
+	public long lostCount() {
+		return this.lostCount;
+	}
+	
+	/**
+	 * Waits for the writer thread to finish the chunk after close()
+	 */
+	public void awaitClosed() {
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
 	private class RiakObjectWriterThread extends RiakObjectWriter implements Runnable {
 		private final ArrayBlockingQueue<IRiakObject> queue;
+		private final List<Key> writtenKeys = new ArrayList<Key>();
+		private final File file;
 		
 		public RiakObjectWriterThread(File file, 
 					ArrayBlockingQueue<IRiakObject> queue) {
 			super(file);
 			
+			this.file = file;
 			this.queue = queue;
 			
 		}
 
 		@Override
 		public void run() {
+			List<IRiakObject> batch = new ArrayList<IRiakObject>(WRITE_BATCH_SIZE);
 			try {
-				while (!Thread.currentThread().isInterrupted()) {
-					IRiakObject riakObject = queue.poll();
-					if (riakObject == null) {
-						Thread.sleep(10);
-						continue;
+				boolean stopped = false;
+				while (!stopped && !Thread.currentThread().isInterrupted()) {
+					batch.add(queue.take());
+					queue.drainTo(batch, WRITE_BATCH_SIZE - 1);
+					for (IRiakObject riakObject : batch) {
+						if (riakObject == STOP_OBJECT) {
+							stopped = true;
+							break;
+						}
+						if (super.writeRiakObject(riakObject) && keyJournal != null) {
+							this.writtenKeys.add(new Key(riakObject.getBucket(), riakObject.getKey()));
+						}
+						++count;
 					}
-					if (riakObject.getBucket().compareTo(STOP_STRING) == 0) {
-						break;
-					}
-					boolean success = super.writeRiakObject(riakObject);
-					++count;
+					batch.clear();
 				}
 			} catch (InterruptedException e) {
 				// no-op, allow to exit
 			}
 			
 			super.close();
+			if (!super.isCommitted()) {
+				log.error(String.format("Lost %d objects with the chunk %s", count, this.file.getAbsolutePath()));
+				lostCount = count;
+			} else if (keyJournal != null) {
+				this.journalKeys();
+			}
 			
 		}
 		
+		private void journalKeys() {
+			try {
+				for (Key key : this.writtenKeys) {
+					keyJournal.write(key.bucket(), key.key());
+				}
+				if (keyJournal.getSyncPolicy().getMode() == SyncPolicy.Mode.CHUNK) {
+					keyJournal.sync();
+				}
+			} catch (IOException e) {
+				log.error("Could not journal the keys of a chunk", e);
+			}
+			this.writtenKeys.clear();
+		}
+		
 	}
 
 }
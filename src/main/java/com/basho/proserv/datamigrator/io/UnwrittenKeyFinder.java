@@ -1,91 +1,255 @@
 package com.basho.proserv.datamigrator.io;
 
-import java.util.HashSet;
+import java.io.File;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Set;
 
+/**
+ * Yields the compare keys that are missing from the reference keys, eg. the
+ * listed keys of a bucket that have not been dumped yet.
+ *
+ * Reference keys are held as hashes in a KeyHashSet.  With a single
+ * partition every reference key is held at once.  With more, both key sets
+ * are first split by key hash into partitionCount journals under workDir and
+ * diffed one partition at a time, so only 1/partitionCount of the reference
+ * keys are in memory at once.  Each iteration repartitions, and removes its
+ * partition files once exhausted.
+ */
 public class UnwrittenKeyFinder implements Iterable<Key> {
-	private Set<Key> referenceKeySet = new HashSet<Key>();
+	public static final int MAX_PARTITIONS = 256;
+
+	private KeyHashSet referenceKeySet = new KeyHashSet();
+	private boolean referenceKeysLoaded = false;
 	private final Iterable<Key> referenceKeys;
 	private final Iterable<Key> compareKeys;
-	
+	private final File workDir;
+	private final int partitionCount;
+
 	public UnwrittenKeyFinder(Iterable<Key> referenceKeys, Iterable<Key> compareKeys) {
 		this.referenceKeys = referenceKeys;
 		this.compareKeys = compareKeys;
-		
-		this.loadKeys(this.referenceKeys, this.referenceKeySet);
+		this.workDir = null;
+		this.partitionCount = 1;
+
+		this.loadReferenceKeys(this.referenceKeys);
+	}
+
+	public UnwrittenKeyFinder(Iterable<Key> referenceKeys, Iterable<Key> compareKeys,
+			File workDir, int partitionCount) {
+		if (partitionCount < 1 || partitionCount > MAX_PARTITIONS) {
+			throw new IllegalArgumentException("partitionCount must be between 1 and " + MAX_PARTITIONS);
+		}
+		if (partitionCount > 1 && workDir == null) {
+			throw new IllegalArgumentException("workDir cannot be null");
+		}
+		this.referenceKeys = referenceKeys;
+		this.compareKeys = compareKeys;
+		this.workDir = workDir;
+		this.partitionCount = partitionCount;
 	}
-	
-	
+
 	public void loadReferenceKeys(Iterable<Key> keys) {
-		loadKeys(keys, referenceKeySet);
+		this.referenceKeySet = loadKeys(keys, 0);
+		this.referenceKeysLoaded = true;
 	}
-		
+
 	public boolean keyExists(Key key) {
-		if (referenceKeySet.size() == 0) {
+		if (!this.referenceKeysLoaded) {
 			throw new IllegalArgumentException("Reference Keys have not been loaded");
 		}
-		
+
 		return this.referenceKeySet.contains(key);
 	}
 
+	/**
+	 * Partitioning errors surface as IllegalStateException
+	 */
 	@Override
 	public Iterator<Key> iterator() {
-		return new UnwrittenKeyIterator(this);
+		if (this.partitionCount == 1) {
+			if (!this.referenceKeysLoaded) {
+				this.loadReferenceKeys(this.referenceKeys);
+			}
+			return new UnwrittenKeyIterator(this.referenceKeySet, this.compareKeys.iterator(), null);
+		}
+		try {
+			return new PartitionedKeyIterator();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not partition keys under " + this.workDir.getAbsolutePath(), e);
+		}
+	}
+
+	static int partition(Key key, int partitionCount) {
+		// spread the hash so partitions don't share HashSet bucket bits
+		long hash = (key.hashCode() * 0x9E3779B97F4A7C15L) >>> 33;
+		return (int)(hash % partitionCount);
 	}
-	
-	private void loadKeys(Iterable<Key> keys, Set<Key> toLoad) {
-		toLoad.clear();
+
+	private static KeyHashSet loadKeys(Iterable<Key> keys, long expectedKeys) {
+		KeyHashSet toLoad = new KeyHashSet(expectedKeys, 0);
 		for (Key key : keys) {
-			toLoad.add(key);
+			if (!key.errorKey()) {
+				toLoad.add(key);
+			}
 		}
+		return toLoad;
 	}
-	
-	private class UnwrittenKeyIterator implements Iterator<Key> {
-		private final UnwrittenKeyFinder comparator;
+
+	// counts, if not null, receives the number of keys written to each partition
+	private File[] splitKeys(Iterable<Key> keys, String name, long[] counts) throws IOException {
+		File[] files = new File[this.partitionCount];
+		KeyJournal[] journals = new KeyJournal[this.partitionCount];
+		try {
+			for (int i = 0; i < this.partitionCount; ++i) {
+				files[i] = new File(this.workDir, String.format("%s-%d.keys", name, i));
+				journals[i] = new KeyJournal(files[i], KeyJournal.Mode.WRITE);
+			}
+			for (Key key : keys) {
+				if (!key.errorKey()) {
+					int partition = partition(key, this.partitionCount);
+					journals[partition].write(key.bucket(), key.key());
+					if (counts != null) {
+						++counts[partition];
+					}
+				}
+			}
+		} finally {
+			for (KeyJournal journal : journals) {
+				if (journal != null) {
+					journal.close();
+				}
+			}
+		}
+		return files;
+	}
+
+	private static void delete(File[] files) {
+		for (File file : files) {
+			if (file != null) {
+				file.delete();
+			}
+		}
+	}
+
+	private static class UnwrittenKeyIterator implements Iterator<Key> {
+		private final KeyHashSet referenceKeySet;
 		private final Iterator<Key> keyIterator;
-		
+		private final KeyJournal source;
+
 		private Key nextKey = null;
-		
-		public UnwrittenKeyIterator(UnwrittenKeyFinder comparator) {
-			this.comparator = comparator;
-			this.keyIterator = comparator.compareKeys.iterator();
+
+		public UnwrittenKeyIterator(KeyHashSet referenceKeySet, Iterator<Key> keyIterator, KeyJournal source) {
+			this.referenceKeySet = referenceKeySet;
+			this.keyIterator = keyIterator;
+			this.source = source;
 			this.setNextKey();
 		}
-		
+
 		@Override
 		public boolean hasNext() {
-			return nextKey == null;
+			return nextKey != null;
 		}
 
 		@Override
 		public Key next() {
+			if (this.nextKey == null) {
+				throw new NoSuchElementException();
+			}
 			Key currentKey = this.nextKey;
 			this.setNextKey();
-			
+
 			return currentKey;
 		}
-		
+
 		private void setNextKey() {
+			this.nextKey = null;
+			while (this.keyIterator.hasNext()) {
+				Key key = this.keyIterator.next();
+				if (!key.errorKey() && !this.referenceKeySet.contains(key)) {
+					this.nextKey = key;
+					return;
+				}
+			}
+			if (this.source != null) {
+				this.source.close();
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private class PartitionedKeyIterator implements Iterator<Key> {
+		private final File[] referenceFiles;
+		private final File[] compareFiles;
+		private final long[] referenceCounts = new long[partitionCount];
+		private int partition = -1;
+		private UnwrittenKeyIterator keys = null;
+
+		public PartitionedKeyIterator() throws IOException {
+			workDir.mkdirs();
+			File[] referenceFiles = null;
 			try {
-				while (!Thread.interrupted()) {
-					Key key = keyIterator.next();
-					if (!this.comparator.keyExists(key)) {
-						nextKey = key;
-						break;
-					}
+				referenceFiles = splitKeys(referenceKeys, "reference", this.referenceCounts);
+				this.compareFiles = splitKeys(compareKeys, "compare", null);
+				this.referenceFiles = referenceFiles;
+			} catch (IOException e) {
+				if (referenceFiles != null) {
+					delete(referenceFiles);
 				}
-			} catch (NoSuchElementException e) {
-				nextKey = null;
+				throw e;
+			}
+			this.advance();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.keys != null && this.keys.hasNext();
+		}
+
+		@Override
+		public Key next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Key key = this.keys.next();
+			if (!this.keys.hasNext()) {
+				this.advance();
+			}
+			return key;
+		}
+
+		// Moves to the next partition with an unwritten key, cleaning up behind
+		private void advance() {
+			while (this.keys == null || !this.keys.hasNext()) {
+				if (this.partition >= 0) {
+					this.referenceFiles[this.partition].delete();
+					this.compareFiles[this.partition].delete();
+				}
+				++this.partition;
+				if (this.partition >= partitionCount) {
+					this.keys = null;
+					return;
+				}
+				KeyHashSet referenceSet = null;
+				KeyJournal reference = new KeyJournal(this.referenceFiles[this.partition], KeyJournal.Mode.READ);
+				try {
+					referenceSet = loadKeys(reference, this.referenceCounts[this.partition]);
+				} finally {
+					reference.close();
+				}
+				KeyJournal compare = new KeyJournal(this.compareFiles[this.partition], KeyJournal.Mode.READ);
+				this.keys = new UnwrittenKeyIterator(referenceSet, compare.iterator(), compare);
 			}
 		}
 
 		@Override
 		public void remove() {
-			// TODO Auto-generated method stub
-			
+			throw new UnsupportedOperationException();
 		}
 	}
-	
+
 }
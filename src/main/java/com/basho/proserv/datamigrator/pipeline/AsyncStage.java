@@ -0,0 +1,26 @@
+package com.basho.proserv.datamigrator.pipeline;
+
+import java.io.IOException;
+
+/**
+ * A stage whose work may still be in flight when process() returns, eg.
+ * pipelined Riak requests, so one worker can have many items outstanding.
+ * While it has, the worker waits for input only briefly and calls
+ * emitCompleted() in between, and once input is exhausted it calls finish().
+ */
+public interface AsyncStage<I, O> extends Stage<I, O> {
+	/**
+	 * Whether any item processed has not been completed yet
+	 */
+	public boolean hasPending();
+
+	/**
+	 * Completes the items that are done, without waiting
+	 */
+	public void emitCompleted(Emitter<O> emitter) throws IOException, InterruptedException;
+
+	/**
+	 * Waits for and completes every pending item
+	 */
+	public void finish(Emitter<O> emitter) throws IOException, InterruptedException;
+}
@@ -0,0 +1,232 @@
+package com.basho.proserv.datamigrator.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded hand-off between pipeline stages.  Completion is signalled by each
+ * producer calling producerDone(), and errors by fail(), so no sentinel
+ * values travel through the channel.
+ */
+public class Channel<T> {
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final ArrayDeque<T> buffer;
+	private final int capacity;
+
+	private int openProducers;
+	private Throwable failure = null;
+
+	public Channel(int capacity, int producerCount) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be greater than 0");
+		}
+		if (producerCount < 1) {
+			throw new IllegalArgumentException("producerCount must be greater than 0");
+		}
+		this.capacity = capacity;
+		this.openProducers = producerCount;
+		this.buffer = new ArrayDeque<T>(Math.min(capacity, 1024));
+	}
+
+	public void put(T item) throws IOException, InterruptedException {
+		if (item == null) {
+			throw new IllegalArgumentException("item cannot be null");
+		}
+		this.lock.lockInterruptibly();
+		try {
+			while (this.buffer.size() >= this.capacity && this.failure == null) {
+				this.notFull.await();
+			}
+			if (this.failure != null) {
+				throw failureException();
+			}
+			if (this.openProducers == 0) {
+				throw new IllegalStateException("Channel is closed");
+			}
+			this.buffer.add(item);
+			this.notEmpty.signal();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the next item, or null once every producer is done and the
+	 * channel has been drained.
+	 */
+	public T take() throws IOException, InterruptedException {
+		this.lock.lockInterruptibly();
+		try {
+			T item = null;
+			while ((item = this.buffer.poll()) == null) {
+				if (this.failure != null) {
+					throw failureException();
+				}
+				if (this.openProducers == 0) {
+					return null;
+				}
+				this.notEmpty.await();
+			}
+			if (this.failure != null) {
+				throw failureException();
+			}
+			this.notFull.signal();
+			return item;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits up to timeoutMillis for an item.  Returns null on timeout, or
+	 * once every producer is done and the channel has been drained, which
+	 * isDrained() tells apart.
+	 */
+	public T poll(long timeoutMillis) throws IOException, InterruptedException {
+		long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.lock.lockInterruptibly();
+		try {
+			T item = null;
+			while ((item = this.buffer.poll()) == null) {
+				if (this.failure != null) {
+					throw failureException();
+				}
+				if (this.openProducers == 0 || remaining <= 0) {
+					return null;
+				}
+				remaining = this.notEmpty.awaitNanos(remaining);
+			}
+			if (this.failure != null) {
+				throw failureException();
+			}
+			this.notFull.signal();
+			return item;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Whether every producer is done and the channel has been drained
+	 */
+	public boolean isDrained() {
+		this.lock.lock();
+		try {
+			return this.openProducers == 0 && this.buffer.isEmpty();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Blocks until at least one item is available and moves up to maxItems
+	 * into target.  Returns 0 once the channel is closed and drained.
+	 */
+	public int drainTo(Collection<? super T> target, int maxItems)
+			throws IOException, InterruptedException {
+		this.lock.lockInterruptibly();
+		try {
+			while (this.buffer.isEmpty()) {
+				if (this.failure != null) {
+					throw failureException();
+				}
+				if (this.openProducers == 0) {
+					return 0;
+				}
+				this.notEmpty.await();
+			}
+			if (this.failure != null) {
+				throw failureException();
+			}
+			int count = 0;
+			T item = null;
+			while (count < maxItems && (item = this.buffer.poll()) != null) {
+				target.add(item);
+				++count;
+			}
+			this.notFull.signalAll();
+			return count;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits up to timeoutMillis for every producer to be done and the
+	 * channel drained, for consumers of stages that emit nothing.
+	 * @return true once it has, false on timeout
+	 */
+	public boolean awaitClosed(long timeoutMillis) throws IOException, InterruptedException {
+		long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.lock.lockInterruptibly();
+		try {
+			while (true) {
+				if (this.failure != null) {
+					throw failureException();
+				}
+				if (this.openProducers == 0 && this.buffer.isEmpty()) {
+					return true;
+				}
+				if (remaining <= 0) {
+					return false;
+				}
+				remaining = this.notEmpty.awaitNanos(remaining);
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	public void producerDone() {
+		this.lock.lock();
+		try {
+			if (this.openProducers > 0) {
+				--this.openProducers;
+			}
+			if (this.openProducers == 0) {
+				this.notEmpty.signalAll();
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	public void fail(Throwable cause) {
+		this.lock.lock();
+		try {
+			if (this.failure == null) {
+				this.failure = cause;
+			}
+			this.notEmpty.signalAll();
+			this.notFull.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	public int size() {
+		this.lock.lock();
+		try {
+			return this.buffer.size();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	public int capacity() {
+		return this.capacity;
+	}
+
+	private IOException failureException() {
+		if (this.failure instanceof IOException) {
+			return (IOException)this.failure;
+		}
+		return new IOException(this.failure);
+	}
+}
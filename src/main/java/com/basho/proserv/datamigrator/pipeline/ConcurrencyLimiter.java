@@ -0,0 +1,118 @@
+package com.basho.proserv.datamigrator.pipeline;
+
+/**
+ * Adaptive cap on the number of Riak requests in flight, shared by every
+ * worker talking to one cluster.  Workers call acquire() before each request
+ * and release() with its outcome afterwards; acquire() blocks while the
+ * current limit is in use, so the remaining workers sit idle.
+ *
+ * The limit follows AIMD steered by latency: a failed request cuts it by a
+ * quarter (at most once per window), a window whose average latency is over
+ * the target scales it by target / average, and a window that was fast and
+ * actually used the whole limit raises it by one.  Windows whose workers were
+ * starved for input never raise the limit, so an idle job doesn't drift up
+ * to maxLimit and then hit the cluster all at once.
+ */
+public class ConcurrencyLimiter {
+	private static final int MIN_WINDOW_SIZE = 10;
+	private static final double FAILURE_BACKOFF = 0.75;
+	private static final double MIN_LATENCY_BACKOFF = 0.5;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final long targetLatencyNanos;
+
+	private int limit;
+	private int inUse = 0;
+
+	// current window
+	private int samples = 0;
+	private int successes = 0;
+	private long latencySum = 0;
+	private boolean saturated = false;
+	private boolean backedOff = false;
+
+	public ConcurrencyLimiter(int minLimit, int maxLimit, long targetLatencyMillis) {
+		if (minLimit < 1) {
+			throw new IllegalArgumentException("minLimit must be greater than 0");
+		}
+		if (maxLimit < minLimit) {
+			throw new IllegalArgumentException("maxLimit cannot be less than minLimit");
+		}
+		if (targetLatencyMillis < 1) {
+			throw new IllegalArgumentException("targetLatencyMillis must be greater than 0");
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.targetLatencyNanos = targetLatencyMillis * 1000000L;
+		this.limit = Math.max(minLimit, maxLimit / 2);
+	}
+
+	/**
+	 * Blocks until a request may be sent.  Returns the start time to pass to
+	 * release().
+	 */
+	public synchronized long acquire() throws InterruptedException {
+		while (this.inUse >= this.limit) {
+			this.wait();
+		}
+		++this.inUse;
+		if (this.inUse >= this.limit) {
+			this.saturated = true;
+		}
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the outcome of a request started with acquire().  A request
+	 * that is going to be retried counts as a failure.
+	 */
+	public synchronized void release(long startNanos, boolean success) {
+		--this.inUse;
+		if (!success) {
+			if (!this.backedOff) {
+				this.setLimit((int)(this.limit * FAILURE_BACKOFF));
+				this.backedOff = true;
+			}
+		} else {
+			this.latencySum += System.nanoTime() - startNanos;
+			++this.successes;
+		}
+		++this.samples;
+		if (this.samples >= Math.max(MIN_WINDOW_SIZE, this.limit)) {
+			this.endWindow();
+		}
+		this.notifyAll();
+	}
+
+	public synchronized int limit() {
+		return this.limit;
+	}
+
+	public synchronized int inUse() {
+		return this.inUse;
+	}
+
+	public int maxLimit() {
+		return this.maxLimit;
+	}
+
+	private void endWindow() {
+		long averageLatency = this.successes == 0 ? 0 : this.latencySum / this.successes;
+		if (averageLatency > this.targetLatencyNanos) {
+			double scale = Math.max(MIN_LATENCY_BACKOFF, (double)this.targetLatencyNanos / averageLatency);
+			this.setLimit((int)(this.limit * scale));
+		} else if (this.saturated && !this.backedOff) {
+			this.setLimit(this.limit + 1);
+		}
+		this.samples = 0;
+		this.successes = 0;
+		this.latencySum = 0;
+		this.saturated = this.inUse >= this.limit;
+		this.backedOff = false;
+	}
+
+	private void setLimit(int limit) {
+		this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, limit));
+	}
+}
@@ -0,0 +1,11 @@
+package com.basho.proserv.datamigrator.pipeline;
+
+import java.io.IOException;
+
+public interface Emitter<O> {
+	/**
+	 * Blocks while the downstream channel is full.  Throws IOException if the
+	 * pipeline has already failed.
+	 */
+	public void emit(O item) throws IOException, InterruptedException;
+}
@@ -0,0 +1,276 @@
+package com.basho.proserv.datamigrator.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Source -> N workers -> consumer.  A source task feeds items from an
+ * Iterable into a bounded input channel, workerCount workers run a Stage over
+ * them and emit into a bounded output channel, and the caller pulls results
+ * with next().  Given several sources (eg. the splits of a key journal) a
+ * task is run for each, feeding the same channel.
+ *
+ * next() returns null once every source is exhausted and every worker has
+ * finished, and throws the first error raised by the source or any worker.
+ * A worker running an AsyncStage keeps taking input while earlier items are
+ * in flight, and completes them as they finish.
+ */
+public class Pipeline<I, O> {
+	private final Logger log = LoggerFactory.getLogger(Pipeline.class);
+	public static final int DEFAULT_CHANNEL_CAPACITY = 10000;
+	private static final int CONSUMER_BATCH_SIZE = 1000;
+	// how long an AsyncStage with items in flight waits for more input
+	// before completing those that are done
+	private static final long ASYNC_POLL_MILLIS = 5;
+
+	private final String name;
+	private final List<? extends Iterable<? extends I>> sources;
+	private final StageFactory<I, O> stageFactory;
+	private final int workerCount;
+	private final PipelineExecutor executor;
+	private final Channel<I> input;
+	private final Channel<O> output;
+	private final ArrayDeque<O> outputBatch = new ArrayDeque<O>(CONSUMER_BATCH_SIZE);
+
+	private final Set<Thread> runningThreads = new HashSet<Thread>();
+	private final AtomicInteger unfinishedTasks = new AtomicInteger(0);
+	private volatile boolean cancelled = false;
+	private boolean started = false;
+
+	public Pipeline(String name, Iterable<? extends I> source, StageFactory<I, O> stageFactory,
+			int workerCount) {
+		this(name, source, stageFactory, workerCount, DEFAULT_CHANNEL_CAPACITY,
+				PipelineExecutor.getDefault());
+	}
+
+	public Pipeline(String name, Iterable<? extends I> source, StageFactory<I, O> stageFactory,
+			int workerCount, int channelCapacity, PipelineExecutor executor) {
+		this(name, Collections.<Iterable<? extends I>>singletonList(source), stageFactory, workerCount,
+				channelCapacity, executor);
+	}
+
+	public Pipeline(String name, List<? extends Iterable<? extends I>> sources, StageFactory<I, O> stageFactory,
+			int workerCount, int channelCapacity, PipelineExecutor executor) {
+		if (sources == null || sources.isEmpty() || sources.contains(null)) {
+			throw new IllegalArgumentException("sources cannot be null or empty");
+		}
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("workerCount must be greater than 0");
+		}
+		this.name = name;
+		this.sources = sources;
+		this.stageFactory = stageFactory;
+		this.workerCount = workerCount;
+		this.executor = executor;
+		this.input = new Channel<I>(channelCapacity, sources.size());
+		this.output = new Channel<O>(channelCapacity, workerCount);
+	}
+
+	/**
+	 * Reserves a thread for each worker and source from the executor, blocking
+	 * until they are available, and starts them.
+	 */
+	public synchronized void start() {
+		if (this.started) {
+			throw new IllegalStateException("Pipeline already started");
+		}
+		this.started = true;
+
+		int taskCount = this.workerCount + this.sources.size();
+		this.executor.reserve(taskCount);
+		this.unfinishedTasks.set(taskCount);
+
+		for (int i = 0; i < this.workerCount; ++i) {
+			this.executor.execute(String.format("%sWorker-%d", this.name, i),
+					new Task(new Worker(this.stageFactory.createStage(i))));
+		}
+		for (int i = 0; i < this.sources.size(); ++i) {
+			this.executor.execute(this.sources.size() == 1 ? this.name + "Source" :
+					String.format("%sSource-%d", this.name, i), new Task(new Source(this.sources.get(i))));
+		}
+	}
+
+	/**
+	 * Returns the next result, or null once the pipeline has completed.
+	 */
+	public O next() throws IOException {
+		O item = this.outputBatch.poll();
+		if (item == null) {
+			try {
+				if (this.output.drainTo(this.outputBatch, CONSUMER_BATCH_SIZE) > 0) {
+					item = this.outputBatch.poll();
+				}
+			} catch (InterruptedException e) {
+				this.cancel();
+				Thread.currentThread().interrupt();
+			} catch (IOException e) {
+				this.cancel();
+				throw e;
+			}
+		}
+		return item;
+	}
+
+	/**
+	 * Waits up to timeoutMillis for the pipeline to complete, for stages
+	 * that hand their results on themselves rather than emitting them.
+	 * @return true once it has completed
+	 */
+	public boolean await(long timeoutMillis) throws IOException {
+		try {
+			return this.output.awaitClosed(timeoutMillis);
+		} catch (InterruptedException e) {
+			this.cancel();
+			Thread.currentThread().interrupt();
+			return true;
+		} catch (IOException e) {
+			this.cancel();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stops the source and workers.  A subsequent next() throws.
+	 */
+	public void cancel() {
+		this.fail(new IOException(String.format("Pipeline %s cancelled", this.name)));
+	}
+
+	public int workerCount() {
+		return this.workerCount;
+	}
+
+	public int inputQueueSize() {
+		return this.input.size();
+	}
+
+	public int outputQueueSize() {
+		return this.output.size();
+	}
+
+	private void fail(Throwable cause) {
+		this.input.fail(cause);
+		this.output.fail(cause);
+		this.cancelled = true;
+		synchronized (this.runningThreads) {
+			for (Thread thread : this.runningThreads) {
+				if (thread != Thread.currentThread()) {
+					thread.interrupt();
+				}
+			}
+		}
+	}
+
+	// Tracks the running thread so fail() can interrupt it, and hands the
+	// reserved threads back to the executor once the last task finishes
+	private class Task implements Runnable {
+		private final Runnable body;
+
+		public Task(Runnable body) {
+			this.body = body;
+		}
+
+		@Override
+		public void run() {
+			synchronized (runningThreads) {
+				runningThreads.add(Thread.currentThread());
+			}
+			try {
+				if (!cancelled) {
+					this.body.run();
+				}
+			} finally {
+				synchronized (runningThreads) {
+					runningThreads.remove(Thread.currentThread());
+				}
+				Thread.interrupted(); // don't leak an interrupt into the pooled thread
+				if (unfinishedTasks.decrementAndGet() == 0) {
+					executor.release(workerCount + sources.size());
+				}
+			}
+		}
+	}
+
+	private class Source implements Runnable {
+		private final Iterable<? extends I> source;
+
+		public Source(Iterable<? extends I> source) {
+			this.source = source;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (I item : this.source) {
+					input.put(item);
+				}
+				input.producerDone();
+			} catch (InterruptedException e) {
+				// no-op, pipeline cancelled
+			} catch (Throwable t) {
+				if (!cancelled) {
+					log.error(String.format("Pipeline %s source failed", name), t);
+				}
+				fail(t);
+			}
+		}
+	}
+
+	private class Worker implements Runnable {
+		private final Stage<I, O> stage;
+		private final Emitter<O> emitter = new Emitter<O>() {
+			@Override
+			public void emit(O item) throws IOException, InterruptedException {
+				output.put(item);
+			}
+		};
+
+		public Worker(Stage<I, O> stage) {
+			this.stage = stage;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (this.stage instanceof AsyncStage) {
+					this.runAsync((AsyncStage<I, O>)this.stage);
+				} else {
+					I item = null;
+					while ((item = input.take()) != null) {
+						this.stage.process(item, this.emitter);
+					}
+				}
+				output.producerDone();
+			} catch (InterruptedException e) {
+				// no-op, pipeline cancelled
+			} catch (Throwable t) {
+				if (!cancelled) {
+					log.error(String.format("Pipeline %s worker failed", name), t);
+				}
+				fail(t);
+			}
+		}
+
+		private void runAsync(AsyncStage<I, O> stage) throws IOException, InterruptedException {
+			while (true) {
+				I item = stage.hasPending() ? input.poll(ASYNC_POLL_MILLIS) : input.take();
+				if (item != null) {
+					stage.process(item, this.emitter);
+				} else if (input.isDrained()) {
+					break;
+				} else {
+					stage.emitCompleted(this.emitter);
+				}
+			}
+			stage.finish(this.emitter);
+		}
+	}
+}
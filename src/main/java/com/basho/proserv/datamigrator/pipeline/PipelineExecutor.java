@@ -0,0 +1,95 @@
+package com.basho.proserv.datamigrator.pipeline;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread pool shared by every Pipeline in the process.  Idle threads are
+ * reused between pipelines; the number of threads running pipeline tasks at
+ * once is bounded by maxThreads.  A pipeline reserves all of its threads up
+ * front, so it never starts with only some of its stages running.
+ */
+public class PipelineExecutor {
+	public static final int DEFAULT_MAX_THREADS = 1024;
+
+	private static PipelineExecutor defaultExecutor = null;
+
+	private final int maxThreads;
+	private final Semaphore threadBudget;
+	private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "PipelineExecutor");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public PipelineExecutor(int maxThreads) {
+		if (maxThreads < 2) {
+			throw new IllegalArgumentException("maxThreads must be at least 2");
+		}
+		this.maxThreads = maxThreads;
+		this.threadBudget = new Semaphore(maxThreads, true);
+	}
+
+	public static synchronized PipelineExecutor getDefault() {
+		if (defaultExecutor == null) {
+			defaultExecutor = new PipelineExecutor(DEFAULT_MAX_THREADS);
+		}
+		return defaultExecutor;
+	}
+
+	public static synchronized void setDefault(PipelineExecutor executor) {
+		defaultExecutor = executor;
+	}
+
+	/**
+	 * Blocks until threadCount threads are free.
+	 */
+	public void reserve(int threadCount) {
+		if (threadCount > this.maxThreads) {
+			throw new IllegalArgumentException(String.format(
+					"Cannot reserve %d threads from an executor limited to %d", threadCount, this.maxThreads));
+		}
+		this.threadBudget.acquireUninterruptibly(threadCount);
+	}
+
+	public void release(int threadCount) {
+		this.threadBudget.release(threadCount);
+	}
+
+	/**
+	 * Runs task on a pooled thread renamed to threadName for the duration of
+	 * the task.  Callers must have reserved the thread beforehand.
+	 */
+	public void execute(final String threadName, final Runnable task) {
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Thread thread = Thread.currentThread();
+				String idleName = thread.getName();
+				thread.setName(threadName);
+				try {
+					task.run();
+				} finally {
+					thread.setName(idleName);
+				}
+			}
+		});
+	}
+
+	public int maxThreads() {
+		return this.maxThreads;
+	}
+
+	public int availableThreads() {
+		return this.threadBudget.availablePermits();
+	}
+
+	public void shutdown() {
+		this.executor.shutdown();
+	}
+}
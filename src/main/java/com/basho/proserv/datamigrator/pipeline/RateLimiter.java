@@ -0,0 +1,79 @@
+package com.basho.proserv.datamigrator.pipeline;
+
+/**
+ * Token bucket shared by many threads.  Tokens accrue at rate per second up
+ * to one second's worth, and acquire() blocks until enough are available.
+ * A rate of 0 or less means no limit.
+ *
+ * consume() takes tokens without waiting and may leave the bucket in debt,
+ * for costs that are only known once a request has completed; later
+ * acquire() calls wait until the debt is paid off.  The rate can be changed
+ * while threads are waiting.
+ */
+public class RateLimiter {
+	private double rate;
+	private double tokens;
+	private long lastRefill;
+
+	public RateLimiter(double rate) {
+		this.rate = rate;
+		this.tokens = Math.max(rate, 0);
+		this.lastRefill = System.nanoTime();
+	}
+
+	/**
+	 * Blocks until permits tokens are available, or the bucket is full when
+	 * permits is more than a second's worth, then takes them
+	 */
+	public synchronized void acquire(long permits) throws InterruptedException {
+		while (true) {
+			this.refill();
+			if (this.rate <= 0) {
+				return;
+			}
+			double needed = Math.min(permits, this.burst());
+			if (this.tokens >= needed) {
+				this.tokens -= permits;
+				return;
+			}
+			long waitMillis = (long)Math.ceil((needed - this.tokens) / this.rate * 1000);
+			this.wait(Math.max(1, waitMillis));
+		}
+	}
+
+	/**
+	 * Takes permits tokens without waiting
+	 */
+	public synchronized void consume(long permits) {
+		this.refill();
+		if (this.rate > 0) {
+			this.tokens -= permits;
+		}
+	}
+
+	public synchronized void setRate(double rate) {
+		if (rate == this.rate) {
+			return;
+		}
+		this.refill();
+		this.rate = rate;
+		this.tokens = rate > 0 ? Math.min(this.tokens, this.burst()) : 0;
+		this.notifyAll();
+	}
+
+	public synchronized double rate() {
+		return this.rate;
+	}
+
+	private double burst() {
+		return Math.max(this.rate, 1);
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		if (this.rate > 0) {
+			this.tokens = Math.min(this.burst(), this.tokens + (now - this.lastRefill) * this.rate / 1e9);
+		}
+		this.lastRefill = now;
+	}
+}
@@ -0,0 +1,11 @@
+package com.basho.proserv.datamigrator.pipeline;
+
+import java.io.IOException;
+
+/**
+ * A unit of work run by each Pipeline worker.  A stage may emit any number
+ * of outputs per input; throwing fails the whole pipeline.
+ */
+public interface Stage<I, O> {
+	public void process(I item, Emitter<O> emitter) throws IOException, InterruptedException;
+}
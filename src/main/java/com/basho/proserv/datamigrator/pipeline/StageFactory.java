@@ -0,0 +1,9 @@
+package com.basho.proserv.datamigrator.pipeline;
+
+/**
+ * Creates one Stage per worker so stages can hold per-thread state such as
+ * a Riak client.
+ */
+public interface StageFactory<I, O> {
+	public Stage<I, O> createStage(int workerId);
+}
@@ -8,11 +8,9 @@ public abstract class AbstractClientDataDeleter {
 	protected final static int MAX_RETRIES = 3;
 	protected final static int RETRY_WAIT_TIME = 10;
 	protected final Connection connection;
-	protected final Iterable<Key> keySource;
 	
-	AbstractClientDataDeleter(Connection connection, Iterable<Key> keySource) {
+	AbstractClientDataDeleter(Connection connection) {
 		this.connection = connection;
-		this.keySource = keySource;
 	}
 	
 	public abstract Key deleteObject() throws IOException;
@@ -2,7 +2,6 @@ package com.basho.proserv.datamigrator.riak;
 
 import java.io.IOException;
 
-import com.basho.proserv.datamigrator.io.Key;
 import com.basho.riak.client.IRiakObject;
 
 public abstract class AbstractClientDataReader {
@@ -10,14 +9,11 @@ public abstract class AbstractClientDataReader {
 	protected final static int RETRY_WAIT_TIME = 10;
 	protected final Connection connection;
 	protected final IClientReaderFactory clientReaderFactory;
-	protected final Iterable<Key> keySource;
 	
 	AbstractClientDataReader(Connection connection, 
-							IClientReaderFactory clientReaderFactory,
-							Iterable<Key> keySource) {
+							IClientReaderFactory clientReaderFactory) {
 		this.connection = connection;
 		this.clientReaderFactory = clientReaderFactory;
-		this.keySource = keySource;
 	}
 	public abstract IRiakObject readObject() throws IOException;
 //	public abstract void close() throws IOException;
@@ -13,7 +13,7 @@ public class ClientDataDeleter extends AbstractClientDataDeleter {
 	private final Iterator<Key> keyIterator;
 	
 	public ClientDataDeleter(Connection connection, Iterable<Key> keySource) {
-		super(connection, keySource);
+		super(connection);
 		this.keyIterator = keySource.iterator();
 	}
 	
@@ -25,7 +25,7 @@ public class ClientDataReader extends AbstractClientDataReader {
 	public ClientDataReader(Connection connection,
 			IClientReaderFactory clientReaderFactory,
 			Iterable<Key> keySource) {
-		super(connection, clientReaderFactory, keySource);
+		super(connection, clientReaderFactory);
 		
 		this.reader = clientReaderFactory.createClientReader(connection);
 		this.keyIterator = keySource.iterator();
@@ -4,6 +4,9 @@ public class ClientReaderFactory implements IClientReaderFactory {
 	
 	@Override
 	public IClientReader createClientReader(Connection connection) {
+		if (connection.pipelined()) {
+			return new PipelinedClientReader(connection);
+		}
 		return new ClientReader(connection);
 	}
 
@@ -4,6 +4,9 @@ public class ClientWriterFactory implements IClientWriterFactory {
 
 	@Override
 	public IClientWriter createClientWriter(Connection connection) {
+		if (connection.pipelined()) {
+			return new PipelinedClientWriter(connection);
+		}
 		return new ClientWriter(connection);
 	}
 
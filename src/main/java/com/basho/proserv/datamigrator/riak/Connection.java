@@ -7,6 +7,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
+import com.basho.proserv.datamigrator.pipeline.ConcurrencyLimiter;
 import com.basho.riak.client.raw.RawClient;
 import com.basho.riak.client.raw.http.HTTPClientConfig;
 import com.basho.riak.client.raw.http.HTTPClusterClientFactory;
@@ -16,6 +17,7 @@ import com.basho.riak.client.raw.pbc.PBClientConfig;
 import com.basho.riak.client.raw.pbc.PBClusterClientFactory;
 import com.basho.riak.client.raw.pbc.PBClusterConfig;
 import com.basho.riak.client.raw.pbc.PBRiakClientFactory;
+import com.basho.riak.pbc.PipelinedRiakClient;
 
 public class Connection {
 	private Logger log = LoggerFactory.getLogger(Connection.class);
@@ -23,10 +25,18 @@ public class Connection {
 	private static enum ClientType { HTTP, PB }
 	
 	private final static int DEFAULT_MAX_CONNECTIONS = 50;
+	final static int MAX_RETRIES = 3;
+	final static int RETRY_WAIT_TIME = 10;
 	
 	private int maxConnections = DEFAULT_MAX_CONNECTIONS;
 
 	public RawClient riakClient = null;
+	// when set, fetch/store/delete go over this instead of riakClient
+	public PipelinedRiakClient pipelinedClient = null;
+	// when set, caps fetch/store/delete requests in flight across all workers
+	public ConcurrencyLimiter concurrencyLimiter = null;
+	// when set, caps fetch/store/delete objects/sec and bytes/sec
+	public ThroughputThrottle throttle = null;
 	
 	public Connection() {
 		this(DEFAULT_MAX_CONNECTIONS);
@@ -36,10 +46,103 @@ public class Connection {
 		this.maxConnections = maxConnections;
 	}
 	
+	public int getMaxConnections() {
+		return this.maxConnections;
+	}
+	
 	public boolean connected() {
 		return riakClient == null ? false : true;
 	}
 	
+	public boolean pipelined() {
+		return pipelinedClient == null ? false : true;
+	}
+	
+	public boolean adaptive() {
+		return concurrencyLimiter == null ? false : true;
+	}
+	
+	public boolean throttled() {
+		return throttle == null ? false : true;
+	}
+	
+	/**
+	 * Waits for the throttle and concurrency limiter, if any, to allow another
+	 * request.  Returns the start time to pass to releaseRequest().
+	 */
+	public long acquireRequest() throws InterruptedException {
+		if (throttled()) {
+			this.throttle.acquire();
+		}
+		return adaptive() ? this.concurrencyLimiter.acquire() : 0;
+	}
+	
+	// Charges object value bytes fetched or stored to the throttle
+	public void transferred(long byteCount) {
+		if (throttled()) {
+			this.throttle.transferred(byteCount);
+		}
+	}
+	
+	public void releaseRequest(long start, boolean success) {
+		if (adaptive()) {
+			this.concurrencyLimiter.release(start, success);
+		}
+	}
+	
+	/**
+	 * One attempt at a fetch, store or delete, made by request()
+	 */
+	public interface RiakRequest<T> {
+		public T attempt() throws IOException;
+	}
+	
+	/**
+	 * Makes a request, waiting for the throttle and concurrency limiter before
+	 * each attempt and retrying a failed attempt up to MAX_RETRIES times.
+	 * operation and key name the request in the log.
+	 */
+	public <T> T request(String operation, String key, RiakRequest<T> request)
+			throws IOException, InterruptedException {
+		int retries = 0;
+		while (true) {
+			long start = this.acquireRequest();
+			try {
+				T result = request.attempt();
+				this.releaseRequest(start, true);
+				return result;
+			} catch (IOException e) {
+				this.releaseRequest(start, false);
+				retries = this.retry(operation, key, retries, e);
+			}
+		}
+	}
+	
+	// Counts a failed attempt and waits before the next, or rethrows once
+	// MAX_RETRIES is reached
+	int retry(String operation, String key, int retries, IOException e)
+			throws IOException, InterruptedException {
+		++retries;
+		if (retries > MAX_RETRIES) {
+			log.error(String.format("Max retries %d reached", MAX_RETRIES), e);
+			throw e;
+		}
+		log.error(String.format("%s fail %d on key %s, retrying", operation, retries, key), e);
+		Thread.sleep(RETRY_WAIT_TIME);
+		return retries;
+	}
+	
+	/**
+	 * For status lines: the current limit on requests in flight when it is
+	 * adjusted to the cluster's latency, or an empty string
+	 */
+	public String limiterStatus() {
+		if (!adaptive()) {
+			return "";
+		}
+		return String.format(", in-flight limit %d", this.concurrencyLimiter.limit());
+	}
+	
 	public boolean testConnection() {
 		if (this.connected()) {
 			try {
@@ -107,7 +210,7 @@ public class Connection {
 	
 	public boolean connectPBClient(String host, Integer port) {
 		boolean success = false;
-		PBClientConfig clientConfig = createPBClientConfig(host, port);
+		PBClientConfig clientConfig = createPBClientConfig(host, port, this.maxConnections);
 		try {
 			this.riakClient = PBRiakClientFactory.getInstance().newClient(clientConfig);
 			success = true;
@@ -117,6 +220,22 @@ public class Connection {
 		return success;
 	}
 	
+	/**
+	 * Opens connectionsPerHost pipelined PB sockets to every host, each with
+	 * up to maxInFlight requests outstanding, for object fetch/store/delete.
+	 * riakClient is still needed for listing, bucket properties and ping.
+	 */
+	public boolean connectPipelinedPB(Set<String> hosts, int port, int connectionsPerHost, int maxInFlight) {
+		boolean success = false;
+		try {
+			this.pipelinedClient = new PipelinedRiakClient(hosts, port, connectionsPerHost, maxInFlight);
+			success = true;
+		} catch (IOException e) {
+			log.error("Could not create new pipelined PB Client", e);
+		}
+		return success;
+	}
+	
 	public boolean connectHTTPClient(String host, Integer port) {
 		boolean success = false;
 		HTTPClientConfig clientConfig = createHTTPClientConfig(host, port);
@@ -128,12 +247,21 @@ public class Connection {
 	}
 
 	public static PBClientConfig createPBClientConfig(String host, Integer port) {
+		return createPBClientConfig(host, port, null);
+	}
+	
+	// poolSize bounds the connections a single-host client opens; the cluster
+	// client is bounded by PBClusterConfig instead
+	public static PBClientConfig createPBClientConfig(String host, Integer port, Integer poolSize) {
 		PBClientConfig.Builder b = new PBClientConfig.Builder();
 		
 		b.withHost(host);
 		if (port != null) {
 			b.withPort(port);
 		}
+		if (poolSize != null) {
+			b.withPoolSize(poolSize);
+		}
 		b.withRequestTimeoutMillis(0);
 		
 		return b.build();
@@ -158,6 +286,10 @@ public class Connection {
 			success = true;
 			this.riakClient = null;
 		}
+		if (pipelined()) {
+			this.pipelinedClient.close();
+			this.pipelinedClient = null;
+		}
 		
 		return success;
 	}
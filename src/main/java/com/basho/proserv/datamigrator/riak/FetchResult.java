@@ -0,0 +1,26 @@
+package com.basho.proserv.datamigrator.riak;
+
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.riak.client.IRiakObject;
+
+/**
+ * The objects fetched for a single key.  objects is empty when the key was
+ * not found and holds more than one object when the key has siblings.
+ */
+public class FetchResult {
+	private final Key key;
+	private final IRiakObject[] objects;
+	
+	public FetchResult(Key key, IRiakObject[] objects) {
+		this.key = key;
+		this.objects = objects;
+	}
+	
+	public Key key() {
+		return this.key;
+	}
+	
+	public IRiakObject[] objects() {
+		return this.objects;
+	}
+}
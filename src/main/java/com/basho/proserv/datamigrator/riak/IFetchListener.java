@@ -0,0 +1,12 @@
+package com.basho.proserv.datamigrator.riak;
+
+import java.io.IOException;
+
+import com.basho.riak.client.IRiakObject;
+
+/**
+ * Told of each object once it has been fetched, on the fetch worker's thread
+ */
+public interface IFetchListener {
+	public void fetched(IRiakObject riakObject) throws IOException;
+}
@@ -0,0 +1,12 @@
+package com.basho.proserv.datamigrator.riak;
+
+import java.io.IOException;
+
+import com.basho.riak.client.IRiakObject;
+
+/**
+ * Told of each object once it has been stored, on the store worker's thread
+ */
+public interface IStoreListener {
+	public void stored(IRiakObject riakObject) throws IOException;
+}
@@ -0,0 +1,338 @@
+package com.basho.proserv.datamigrator.riak;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.pipeline.Channel;
+import com.basho.riak.client.query.indexes.BucketIndex;
+import com.basho.riak.client.query.indexes.KeyIndex;
+import com.basho.riak.client.raw.query.indexes.BinRangeQuery;
+import com.basho.riak.client.raw.query.indexes.BinValueQuery;
+import com.basho.riak.client.raw.query.indexes.IndexQuery;
+
+/**
+ * Enumerates a bucket's keys with secondary index queries instead of
+ * listKeys.  With a single range the whole bucket is read with one $bucket
+ * query.  Otherwise the key space is cut into rangeCount $key ranges on the
+ * first character of the key, which are listed in parallel, one thread each.
+ *
+ * The riak-client fetchIndex call has no paging and returns a whole range at
+ * once, so a range that still fails after MAX_RETRIES is split in two and
+ * each half is listed on its own.  A failure only repeats the half that
+ * failed; ranges whose keys have already been handed out are never queried
+ * again.
+ *
+ * Riak compares $key bounds as UTF-8 bytes, which is the order of the keys'
+ * code points rather than of their UTF-16 chars, so ranges are split and
+ * filtered by code point, and split points are always whole code points.
+ * The last range ends at TOP_KEY, which every valid UTF-8 key sorts at or
+ * below unless it starts with TOP_KEY.
+ *
+ * Range boundaries are spread over [0-9A-Za-z], so buckets whose keys share a
+ * long common prefix gain little from more ranges.  Keys are returned in key
+ * order within a range, but ranges are interleaved.  Requires a backend with
+ * secondary index support (eleveldb or memory).
+ */
+public class IndexKeySource implements Iterable<Key> {
+	private final Logger log = LoggerFactory.getLogger(IndexKeySource.class);
+	private final static int MAX_RETRIES = 3;
+	private final static int RETRY_WAIT_TIME = 10;
+	// enough halvings to single out one code point and split the one after it
+	private final static int MAX_SPLIT_DEPTH = 32;
+	private final static int CHANNEL_CAPACITY = 10000;
+	private final static String BOUNDARY_ALPHABET =
+			"0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+	// Upper bound for the last range; U+10FFFF encodes as the highest valid
+	// UTF-8 bytes, so only keys starting with all of TOP_KEY sort above it
+	private final static String TOP_KEY = topKey(16);
+	// Code points are split as scalars, which skip the surrogates, so a
+	// split point never holds a lone surrogate
+	private final static int SURROGATE_COUNT = Character.MAX_SURROGATE - Character.MIN_SURROGATE + 1;
+	private final static int SCALAR_COUNT = Character.MAX_CODE_POINT + 1 - SURROGATE_COUNT;
+	private final static int ASCII_COUNT = 0x80;
+
+	/**
+	 * Orders keys as Riak does, by their UTF-8 bytes
+	 */
+	static final Comparator<String> KEY_ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String a, String b) {
+			int i = 0;
+			int j = 0;
+			while (i < a.length() && j < b.length()) {
+				int aPoint = a.codePointAt(i);
+				int bPoint = b.codePointAt(j);
+				if (aPoint != bPoint) {
+					return aPoint < bPoint ? -1 : 1;
+				}
+				i += Character.charCount(aPoint);
+				j += Character.charCount(bPoint);
+			}
+			return (a.length() - i) - (b.length() - j);
+		}
+	};
+
+	private final Connection connection;
+	private final String bucketName;
+	private final int rangeCount;
+	private final List<Thread> threads = new ArrayList<Thread>();
+	private Channel<Key> keys = null;
+
+	public IndexKeySource(Connection connection, String bucketName, int rangeCount) {
+		if (connection == null) {
+			throw new IllegalArgumentException("connection cannot be null");
+		}
+		if (bucketName == null || bucketName.isEmpty()) {
+			throw new IllegalArgumentException("bucketName cannot be null or empty");
+		}
+		if (rangeCount < 1) {
+			throw new IllegalArgumentException("rangeCount must be greater than 0");
+		}
+		this.connection = connection;
+		this.bucketName = bucketName;
+		this.rangeCount = rangeCount;
+	}
+
+	/**
+	 * Starts the listing threads.  Only a single iteration is supported.
+	 */
+	@Override
+	public synchronized Iterator<Key> iterator() {
+		if (this.keys != null) {
+			throw new IllegalStateException("IndexKeySource can only be iterated once");
+		}
+		List<String> boundaries = rangeBoundaries(this.rangeCount);
+		this.keys = new Channel<Key>(CHANNEL_CAPACITY, boundaries.size() + 1);
+		for (int i = 0; i <= boundaries.size(); ++i) {
+			String from = i == 0 ? "" : boundaries.get(i - 1);
+			String to = i == boundaries.size() ? null : boundaries.get(i);
+			Thread thread = new Thread(new RangeLister(from, to),
+					String.format("IndexKeySource-%d", i));
+			thread.setDaemon(true);
+			this.threads.add(thread);
+		}
+		for (Thread thread : this.threads) {
+			thread.start();
+		}
+		return new IndexKeyIterator(this.keys);
+	}
+
+	/**
+	 * Stops listing early, for callers abandoning the iteration
+	 */
+	public synchronized void close() {
+		if (this.keys != null) {
+			this.keys.fail(new IOException("Key listing closed"));
+		}
+		for (Thread thread : this.threads) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * rangeCount - 1 first-character boundaries, spread evenly over BOUNDARY_ALPHABET
+	 */
+	static List<String> rangeBoundaries(int rangeCount) {
+		int count = Math.min(rangeCount, BOUNDARY_ALPHABET.length());
+		List<String> boundaries = new ArrayList<String>();
+		for (int i = 1; i < count; ++i) {
+			boundaries.add(BOUNDARY_ALPHABET.substring(i * BOUNDARY_ALPHABET.length() / count,
+					i * BOUNDARY_ALPHABET.length() / count + 1));
+		}
+		return boundaries;
+	}
+
+	/**
+	 * A key strictly between low and high (null for unbounded) in KEY_ORDER,
+	 * or null if there is no room to split
+	 */
+	static String midpoint(String low, String high) {
+		int[] lowScalars = scalars(low);
+		int[] highScalars = high == null ? null : scalars(high);
+		int i = 0;
+		while (true) {
+			int lowScalar = i < lowScalars.length ? lowScalars[i] : 0;
+			int highScalar = highScalars == null ? SCALAR_COUNT : 
+					(i < highScalars.length ? highScalars[i] : 0);
+			if (lowScalar == highScalar) {
+				if (highScalars != null && i >= highScalars.length) {
+					return null;
+				}
+				++i;
+				continue;
+			}
+			int middle = between(lowScalar, highScalar);
+			if (middle >= 0) {
+				// low and high agree up to i, and only high is known to reach it
+				return key(highScalars == null ? lowScalars : highScalars, i, middle);
+			}
+			// adjacent scalars, keep low's and split the next position
+			if (i >= lowScalars.length) {
+				return null;
+			}
+			middle = between(i + 1 < lowScalars.length ? lowScalars[i + 1] : 0, SCALAR_COUNT);
+			if (middle < 0) {
+				return null;
+			}
+			return key(lowScalars, i + 1, middle);
+		}
+	}
+
+	// A scalar strictly between low and high, or -1 if there is none.  Most
+	// keys are ASCII, so a range spanning it is split at its end first.
+	private static int between(int low, int high) {
+		if (high - low < 2) {
+			return -1;
+		}
+		if (low < ASCII_COUNT && high > ASCII_COUNT) {
+			return ASCII_COUNT;
+		}
+		return low + (high - low) / 2;
+	}
+
+	private static int[] scalars(String key) {
+		int[] scalars = new int[key.codePointCount(0, key.length())];
+		for (int i = 0, c = 0; c < scalars.length; ++c) {
+			int codePoint = key.codePointAt(i);
+			scalars[c] = codePoint > Character.MAX_SURROGATE ? codePoint - SURROGATE_COUNT : codePoint;
+			i += Character.charCount(codePoint);
+		}
+		return scalars;
+	}
+
+	// The first length scalars of prefix followed by last
+	private static String key(int[] prefix, int length, int last) {
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; i <= length; ++i) {
+			int scalar = i < length ? prefix[i] : last;
+			key.appendCodePoint(scalar >= Character.MIN_SURROGATE ? scalar + SURROGATE_COUNT : scalar);
+		}
+		return key.toString();
+	}
+
+	private static String topKey(int length) {
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; i < length; ++i) {
+			key.appendCodePoint(Character.MAX_CODE_POINT);
+		}
+		return key.toString();
+	}
+
+	private List<String> query(String from, String to) throws IOException {
+		IndexQuery query = null;
+		if (from.isEmpty() && to == null) {
+			query = new BinValueQuery(BucketIndex.index, this.bucketName, this.bucketName);
+		} else {
+			query = new BinRangeQuery(KeyIndex.index, this.bucketName, from, to == null ? TOP_KEY : to);
+		}
+		return this.connection.riakClient.fetchIndex(query);
+	}
+
+	private class RangeLister implements Runnable {
+		private final String from;
+		private final String to;
+
+		public RangeLister(String from, String to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public void run() {
+			try {
+				this.listRange(this.from, this.to, 0);
+				keys.producerDone();
+			} catch (InterruptedException e) {
+				keys.fail(e);
+			} catch (Throwable e) {
+				log.error(String.format("Could not list keys for bucket %s from '%s'", bucketName, this.from), e);
+				keys.fail(e);
+			}
+		}
+
+		// Lists keys in [from, to), to == null meaning no upper bound
+		private void listRange(String from, String to, int depth)
+				throws IOException, InterruptedException {
+			List<String> rangeKeys = null;
+			int retries = 0;
+			while (rangeKeys == null) {
+				try {
+					rangeKeys = query(from, to);
+				} catch (IOException e) {
+					++retries;
+					if (retries > MAX_RETRIES) {
+						String split = depth < MAX_SPLIT_DEPTH ? midpoint(from, to) : null;
+						if (split == null) {
+							log.error(String.format("Max retries %d reached", MAX_RETRIES), e);
+							throw e;
+						}
+						log.error(String.format("Listing keys from '%s' failed, splitting at '%s'", from, split), e);
+						this.listRange(from, split, depth + 1);
+						this.listRange(split, to, depth + 1);
+						return;
+					}
+					log.error(String.format("Index query fail %d from key '%s', retrying", retries, from), e);
+					Thread.sleep(RETRY_WAIT_TIME);
+				}
+			}
+			Collections.sort(rangeKeys, KEY_ORDER);
+			for (String key : rangeKeys) {
+				// range queries are inclusive at both ends
+				if (KEY_ORDER.compare(key, from) < 0 || (to != null && KEY_ORDER.compare(key, to) >= 0)) {
+					continue;
+				}
+				keys.put(new Key(bucketName, key));
+			}
+		}
+	}
+
+	private class IndexKeyIterator implements Iterator<Key> {
+		private final Channel<Key> keys;
+		private Key nextKey = null;
+		private boolean done = false;
+
+		public IndexKeyIterator(Channel<Key> keys) {
+			this.keys = keys;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.nextKey == null && !this.done) {
+				try {
+					this.nextKey = this.keys.take();
+				} catch (IOException e) {
+					throw new IllegalStateException("Error listing keys for bucket " + bucketName, e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted listing keys for bucket " + bucketName, e);
+				}
+				this.done = this.nextKey == null;
+			}
+			return this.nextKey != null;
+		}
+
+		@Override
+		public Key next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Key key = this.nextKey;
+			this.nextKey = null;
+			return key;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
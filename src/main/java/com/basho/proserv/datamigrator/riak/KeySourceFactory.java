@@ -0,0 +1,35 @@
+package com.basho.proserv.datamigrator.riak;
+
+import java.io.IOException;
+
+import com.basho.proserv.datamigrator.io.Key;
+
+/**
+ * Chooses how bucket keys are enumerated: RawClient.listKeys by default, or
+ * secondary index queries split into indexKeyRanges parallel ranges.
+ */
+public class KeySourceFactory {
+	private final int indexKeyRanges;
+	
+	public KeySourceFactory() {
+		this(0);
+	}
+	
+	/**
+	 * @param indexKeyRanges 0 to use listKeys, otherwise the number of
+	 * $key ranges to list in parallel (1 uses a single $bucket query)
+	 */
+	public KeySourceFactory(int indexKeyRanges) {
+		if (indexKeyRanges < 0) {
+			throw new IllegalArgumentException("indexKeyRanges must not be negative");
+		}
+		this.indexKeyRanges = indexKeyRanges;
+	}
+	
+	public Iterable<Key> createKeySource(Connection connection, String bucketName) throws IOException {
+		if (this.indexKeyRanges > 0) {
+			return new IndexKeySource(connection, bucketName, this.indexKeyRanges);
+		}
+		return new ListKeysSource(connection, bucketName);
+	}
+}
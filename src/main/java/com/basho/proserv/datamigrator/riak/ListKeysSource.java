@@ -0,0 +1,40 @@
+package com.basho.proserv.datamigrator.riak;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import com.basho.proserv.datamigrator.io.Key;
+
+/**
+ * A bucket's keys as streamed by RawClient.listKeys
+ */
+public class ListKeysSource implements Iterable<Key> {
+	private final String bucketName;
+	private final Iterable<String> keys;
+	
+	public ListKeysSource(Connection connection, String bucketName) throws IOException {
+		this.bucketName = bucketName;
+		this.keys = connection.riakClient.listKeys(bucketName);
+	}
+	
+	@Override
+	public Iterator<Key> iterator() {
+		final Iterator<String> keyNames = this.keys.iterator();
+		return new Iterator<Key>() {
+			@Override
+			public boolean hasNext() {
+				return keyNames.hasNext();
+			}
+			
+			@Override
+			public Key next() {
+				return new Key(bucketName, keyNames.next());
+			}
+			
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,25 @@
+package com.basho.proserv.datamigrator.riak;
+
+import java.io.IOException;
+
+import com.basho.riak.pbc.RiakObject;
+
+/**
+ * Fetches over the connection's PipelinedRiakClient, so worker threads share
+ * a few sockets instead of holding one pooled connection each
+ */
+public class PipelinedClientReader implements IClientReader {
+	
+	private final Connection connection;
+	
+	public PipelinedClientReader(Connection connection) {
+		this.connection = connection;
+	}
+
+	@Override
+	public RiakObject[] fetchRiakObject(String bucket, String key) 
+			throws IOException {
+		return this.connection.pipelinedClient.fetch(bucket, key);
+	}
+
+}
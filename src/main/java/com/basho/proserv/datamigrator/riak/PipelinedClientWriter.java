@@ -0,0 +1,27 @@
+package com.basho.proserv.datamigrator.riak;
+
+import java.io.IOException;
+
+import com.basho.riak.client.IRiakObject;
+
+import static com.basho.riak.client.raw.pbc.ConversionUtilWrapper.convertInterfaceToConcrete;
+
+/**
+ * Stores over the connection's PipelinedRiakClient, so worker threads share
+ * a few sockets instead of holding one pooled connection each
+ */
+public class PipelinedClientWriter implements IClientWriter {
+
+	private final Connection connection;
+	
+	public PipelinedClientWriter(Connection connection) {
+		this.connection = connection;
+	}
+	
+	@Override
+	public IRiakObject storeRiakObject(IRiakObject riakObject) throws IOException {
+		this.connection.pipelinedClient.store(convertInterfaceToConcrete(riakObject));
+		return riakObject;
+	}
+
+}
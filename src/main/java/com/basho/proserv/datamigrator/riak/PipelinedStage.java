@@ -0,0 +1,112 @@
+package com.basho.proserv.datamigrator.riak;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import com.basho.proserv.datamigrator.pipeline.AsyncStage;
+import com.basho.proserv.datamigrator.pipeline.Emitter;
+import com.basho.riak.pbc.PipelinedRiakConnection;
+
+/**
+ * Sends a worker's requests over the connection's PipelinedRiakClient
+ * without waiting for each response, so a few workers keep up to the
+ * client's maxInFlight requests outstanding.  Each request waits for the
+ * throttle and concurrency limiter before it is sent and is released to the
+ * limiter as soon as its response arrives.  Responses are completed oldest
+ * first, on the worker's thread, once done or once the worker has
+ * maxInFlight requests outstanding.  A failed request is sent again up to
+ * Connection.MAX_RETRIES times.
+ */
+abstract class PipelinedStage<I, T, O> implements AsyncStage<I, O> {
+	protected final Connection connection;
+	private final String operation;
+	private final int window;
+	private final ArrayDeque<Request> pending = new ArrayDeque<Request>();
+
+	PipelinedStage(Connection connection, String operation) {
+		this.connection = connection;
+		this.operation = operation;
+		this.window = connection.pipelinedClient.maxInFlight();
+	}
+
+	// Queues the request for item
+	abstract PipelinedRiakConnection.Response<T> send(I item) throws IOException, InterruptedException;
+
+	// The key of item, for the log
+	abstract String key(I item);
+
+	// Hands on the result of item's request
+	abstract void completed(I item, T result, Emitter<O> emitter) throws IOException, InterruptedException;
+
+	@Override
+	public void process(I item, Emitter<O> emitter) throws IOException, InterruptedException {
+		this.emitCompleted(emitter);
+		while (this.pending.size() >= this.window) {
+			this.completeOldest(emitter);
+		}
+		this.pending.add(this.issue(item, 0));
+	}
+
+	@Override
+	public boolean hasPending() {
+		return !this.pending.isEmpty();
+	}
+
+	@Override
+	public void emitCompleted(Emitter<O> emitter) throws IOException, InterruptedException {
+		while (!this.pending.isEmpty() && this.pending.peek().response.isDone()) {
+			this.completeOldest(emitter);
+		}
+	}
+
+	@Override
+	public void finish(Emitter<O> emitter) throws IOException, InterruptedException {
+		while (!this.pending.isEmpty()) {
+			this.completeOldest(emitter);
+		}
+	}
+
+	private Request issue(I item, int retries) throws IOException, InterruptedException {
+		while (true) {
+			final long start = this.connection.acquireRequest();
+			try {
+				final PipelinedRiakConnection.Response<T> response = this.send(item);
+				response.whenDone(new Runnable() {
+					@Override
+					public void run() {
+						connection.releaseRequest(start, !response.isFailed());
+					}
+				});
+				return new Request(item, response, retries);
+			} catch (IOException e) {
+				this.connection.releaseRequest(start, false);
+				retries = this.connection.retry(this.operation, this.key(item), retries, e);
+			}
+		}
+	}
+
+	private void completeOldest(Emitter<O> emitter) throws IOException, InterruptedException {
+		Request request = this.pending.poll();
+		T result = null;
+		try {
+			result = request.response.get();
+		} catch (IOException e) {
+			int retries = this.connection.retry(this.operation, this.key(request.item), request.retries, e);
+			this.pending.addFirst(this.issue(request.item, retries));
+			return;
+		}
+		this.completed(request.item, result, emitter);
+	}
+
+	private class Request {
+		final I item;
+		final PipelinedRiakConnection.Response<T> response;
+		final int retries;
+
+		Request(I item, PipelinedRiakConnection.Response<T> response, int retries) {
+			this.item = item;
+			this.response = response;
+			this.retries = retries;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.basho.proserv.datamigrator.riak;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.basho.proserv.datamigrator.Utilities;
+
+/**
+ * Time of day throughput caps, read from a file with one window per line:
+ *
+ *   # start-end  objects/sec  bytes/sec
+ *   09:00-18:00  500          4M
+ *   18:00-09:00  -            -
+ *
+ * Times are local, a window ending before it starts wraps past midnight, and
+ * the first window containing the current time applies.  A rate of "-" or 0
+ * means no cap, and rates may carry a K, M or G suffix (powers of 1024).
+ * Blank lines and lines starting with # are ignored.
+ */
+public class RateSchedule {
+	private static final int MINUTES_PER_DAY = 24 * 60;
+
+	private final List<Window> windows;
+
+	public RateSchedule(List<Window> windows) {
+		this.windows = Collections.unmodifiableList(new ArrayList<Window>(windows));
+	}
+
+	public static RateSchedule load(File file) throws IOException {
+		return parse(Utilities.readFileLines(file.getAbsolutePath()));
+	}
+
+	public static RateSchedule parse(List<String> lines) throws IOException {
+		List<Window> windows = new ArrayList<Window>();
+		int lineNumber = 0;
+		for (String line : lines) {
+			++lineNumber;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\\s+");
+			String[] times = fields[0].split("-");
+			if (fields.length != 3 || times.length != 2) {
+				throw new IOException(String.format(
+						"Rate schedule line %d: expected 'HH:MM-HH:MM objects/sec bytes/sec'", lineNumber));
+			}
+			try {
+				windows.add(new Window(parseTime(times[0]), parseTime(times[1]),
+						parseRate(fields[1]), parseRate(fields[2])));
+			} catch (IllegalArgumentException e) {
+				throw new IOException(String.format("Rate schedule line %d: %s", lineNumber, e.getMessage()));
+			}
+		}
+		return new RateSchedule(windows);
+	}
+
+	/**
+	 * The window containing minuteOfDay, or null if none does
+	 */
+	public Window windowAt(int minuteOfDay) {
+		for (Window window : this.windows) {
+			if (window.contains(minuteOfDay)) {
+				return window;
+			}
+		}
+		return null;
+	}
+
+	public List<Window> windows() {
+		return this.windows;
+	}
+
+	static int parseTime(String time) {
+		String[] parts = time.split(":");
+		try {
+			if (parts.length == 2) {
+				int hours = Integer.parseInt(parts[0]);
+				int minutes = Integer.parseInt(parts[1]);
+				if (hours >= 0 && hours <= 24 && minutes >= 0 && minutes < 60 && hours * 60 + minutes <= MINUTES_PER_DAY) {
+					return hours * 60 + minutes;
+				}
+			}
+		} catch (NumberFormatException e) {
+			// fall through
+		}
+		throw new IllegalArgumentException("invalid time " + time);
+	}
+
+	public static long parseRate(String rate) {
+		if (rate.equals("-")) {
+			return 0;
+		}
+		if (rate.isEmpty()) {
+			throw new IllegalArgumentException("empty rate");
+		}
+		long multiplier = 1;
+		char suffix = Character.toUpperCase(rate.charAt(rate.length() - 1));
+		if (suffix == 'K') {
+			multiplier = 1024L;
+		} else if (suffix == 'M') {
+			multiplier = 1024L * 1024;
+		} else if (suffix == 'G') {
+			multiplier = 1024L * 1024 * 1024;
+		}
+		String digits = multiplier == 1 ? rate : rate.substring(0, rate.length() - 1);
+		try {
+			long value = Long.parseLong(digits);
+			if (value >= 0) {
+				return value * multiplier;
+			}
+		} catch (NumberFormatException e) {
+			// fall through
+		}
+		throw new IllegalArgumentException("invalid rate " + rate);
+	}
+
+	public static class Window {
+		private final int start;
+		private final int end;
+		private final long objectsPerSecond;
+		private final long bytesPerSecond;
+
+		public Window(int start, int end, long objectsPerSecond, long bytesPerSecond) {
+			this.start = start;
+			this.end = end;
+			this.objectsPerSecond = objectsPerSecond;
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+		public boolean contains(int minuteOfDay) {
+			if (this.start <= this.end) {
+				return minuteOfDay >= this.start && minuteOfDay < this.end;
+			}
+			return minuteOfDay >= this.start || minuteOfDay < this.end;
+		}
+
+		public long objectsPerSecond() {
+			return this.objectsPerSecond;
+		}
+
+		public long bytesPerSecond() {
+			return this.bytesPerSecond;
+		}
+	}
+}
@@ -1,246 +1,199 @@
 package com.basho.proserv.datamigrator.riak;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ArrayBlockingQueue;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import com.basho.proserv.datamigrator.io.Key;
-import com.basho.proserv.datamigrator.util.NamedThreadFactory;
+import com.basho.proserv.datamigrator.pipeline.Emitter;
+import com.basho.proserv.datamigrator.pipeline.Pipeline;
+import com.basho.proserv.datamigrator.pipeline.PipelineExecutor;
+import com.basho.proserv.datamigrator.pipeline.Stage;
+import com.basho.proserv.datamigrator.pipeline.StageFactory;
 import com.basho.riak.client.IRiakObject;
 import com.basho.riak.client.raw.pbc.ConversionUtilWrapper;
+import com.basho.riak.pbc.PipelinedRiakConnection;
 import com.basho.riak.pbc.RiakObject;
-import com.google.protobuf.ByteString;
 
 public class ThreadedClientDataReader extends AbstractClientDataReader {
-	private final Logger log = LoggerFactory.getLogger(ThreadedClientDataReader.class);
-	private static final int MAX_QUEUE_SIZE = 10000;
 	private static final int WORKER_PROC_MULTIPLER = 2;
 
-	private final NamedThreadFactory threadFactory = new NamedThreadFactory();
-	private final ExecutorService executor = Executors.newCachedThreadPool(threadFactory);
-	
-	private final int workerCount;
-	private final ArrayBlockingQueue<Key> keyQueue = 
-			new ArrayBlockingQueue<Key>(MAX_QUEUE_SIZE);
-	private final ArrayBlockingQueue<IRiakObject> returnQueue = 
-			new ArrayBlockingQueue<IRiakObject>(MAX_QUEUE_SIZE);
-	
-	private static String ERROR_STRING = "ERRORERRORERROR";
-	private static ByteString ERROR_FLAG = ByteString.copyFromUtf8(ERROR_STRING);
-	private static Key ERROR_KEY = new Key(ERROR_STRING, ERROR_STRING);
-	private static IRiakObject ERROR_OBJECT = ConversionUtilWrapper.convertConcreteToInterface(
-			new RiakObject(ERROR_FLAG, ERROR_FLAG, ERROR_FLAG, ERROR_FLAG));
-	private static String STOP_STRING = "STOPSTOPSTOPSTOPSTOP";
-	private static ByteString STOP_FLAG = ByteString.copyFromUtf8(STOP_STRING);
-	private static Key STOP_KEY = new Key(STOP_STRING, STOP_STRING);
-	private static IRiakObject STOP_OBJECT = ConversionUtilWrapper.convertConcreteToInterface(
-			new RiakObject(STOP_FLAG, STOP_FLAG, STOP_FLAG, STOP_FLAG));
-	
-	private List<Future<Runnable>> threads = new ArrayList<Future<Runnable>>();
-	private int stopCount = 0;
-	
-	public ThreadedClientDataReader(Connection connection, 
+	private final Pipeline<Key, IRiakObject> pipeline;
+	private final IFetchListener fetchListener;
+
+	public ThreadedClientDataReader(Connection connection,
 								   IClientReaderFactory clientReaderFactory,
 								   Iterable<Key> keySource) {
-		this(connection, 
-			 clientReaderFactory, 
-			 keySource, 
+		this(connection,
+			 clientReaderFactory,
+			 keySource,
 			 Runtime.getRuntime().availableProcessors() * WORKER_PROC_MULTIPLER);
 	}
-	
-	public ThreadedClientDataReader(Connection connection, 
-				IClientReaderFactory clientReaderFactory, 
+
+	public ThreadedClientDataReader(Connection connection,
+				IClientReaderFactory clientReaderFactory,
 				Iterable<Key> keySource,
 				int workerCount) {
-		super(connection, clientReaderFactory, keySource);
-		this.workerCount = workerCount;
-		
-		this.run();
+		this(connection, clientReaderFactory, keySource, workerCount, PipelineExecutor.getDefault());
+	}
+
+	public ThreadedClientDataReader(Connection connection,
+				IClientReaderFactory clientReaderFactory,
+				Iterable<Key> keySource,
+				int workerCount,
+				PipelineExecutor executor) {
+		this(connection, clientReaderFactory, Collections.<Iterable<Key>>singletonList(keySource),
+				workerCount, executor);
 	}
-	
+
+	/**
+	 * Fetches the keys of several sources, eg. the splits of a
+	 * MappedKeyJournal, each read by its own thread
+	 */
+	public ThreadedClientDataReader(Connection connection,
+				IClientReaderFactory clientReaderFactory,
+				List<? extends Iterable<Key>> keySources,
+				int workerCount,
+				PipelineExecutor executor) {
+		this(connection, clientReaderFactory, keySources, workerCount, executor, null);
+	}
+
+	/**
+	 * With a fetchListener, the fetch workers hand it each fetched object
+	 * rather than returning it through readObject(), which then only
+	 * returns null once done.  Wait for that with awaitCompletion().
+	 */
+	public ThreadedClientDataReader(Connection connection,
+				IClientReaderFactory clientReaderFactory,
+				List<? extends Iterable<Key>> keySources,
+				int workerCount,
+				PipelineExecutor executor,
+				IFetchListener fetchListener) {
+		super(connection, clientReaderFactory);
+		this.fetchListener = fetchListener;
+
+		this.pipeline = new Pipeline<Key, IRiakObject>("ClientReader", keySources,
+				new ClientReaderStageFactory(), workerCount, Pipeline.DEFAULT_CHANNEL_CAPACITY, executor);
+		this.pipeline.start();
+	}
+
 	public IRiakObject readObject() throws IOException {
-		IRiakObject riakObject = null;
-		
 		try {
-//			riakObject = this.returnQueue.take();
-			while ((riakObject = this.returnQueue.poll()) == null) {
-				log.debug("waiting on return");
-				Thread.sleep(10);
-			}
-			
-			//fast exit if not flag
-			if (isStop(riakObject) || isError(riakObject)) {
-				while (!Thread.currentThread().isInterrupted()) {
-
-					
-					if (isStop(riakObject)) {
-						++stopCount;
-						if (this.stopCount == this.workerCount) {
-							riakObject = null;
-							break;
-						}
-					} else if (isError(riakObject)) {
-						this.interruptWorkers();
-						throw new IOException("Error reading Riak Object, shutting down bucket load process");
-					} else { 
-						break;
-					}
-					riakObject = this.returnQueue.take();
-				}
-			}
-		} catch (InterruptedException e) {
-			//no-op, allow to return 
-		} catch (Throwable t) {
-			t.printStackTrace();
+			return this.pipeline.next();
+		} catch (IOException e) {
+			throw new IOException("Error reading Riak Object, shutting down bucket dump process", e);
 		}
-		finally {
-			this.close();
+	}
+
+	/**
+	 * Waits up to timeoutMillis for every key to be fetched
+	 * @return true once they have been
+	 */
+	public boolean awaitCompletion(long timeoutMillis) throws IOException {
+		try {
+			return this.pipeline.await(timeoutMillis);
+		} catch (IOException e) {
+			throw new IOException("Error reading Riak Object, shutting down bucket dump process", e);
 		}
-		
-		return riakObject;
 	}
-	
-	private static boolean isStop(IRiakObject riakObject) {
-		return riakObject.getBucket().compareTo(STOP_STRING) == 0;
+
+	// Hands fetched objects to the listener, or on down the pipeline
+	private void fetched(RiakObject[] objects, Emitter<IRiakObject> emitter) throws IOException, InterruptedException {
+		for (int i = 0; i < objects.length; ++i) {
+			IRiakObject riakObject = ConversionUtilWrapper.convertConcreteToInterface(objects[i]);
+			if (this.fetchListener != null) {
+				this.fetchListener.fetched(riakObject);
+			} else {
+				emitter.emit(riakObject);
+			}
+		}
 	}
-	
-	private static boolean isError(IRiakObject riakObject) {
-		return riakObject.getBucket().compareTo(ERROR_STRING) == 0;
+
+	// Fetches key with the connection's retries, and charges its bytes to the throttle
+	static RiakObject[] fetch(Connection connection, final IClientReader reader, final Key key)
+			throws IOException, InterruptedException {
+		RiakObject[] objects = connection.request("Fetch", key.key(), new Connection.RiakRequest<RiakObject[]>() {
+			@Override
+			public RiakObject[] attempt() throws IOException {
+				return reader.fetchRiakObject(key.bucket(), key.key());
+			}
+		});
+		connection.transferred(valueBytes(objects));
+		return objects;
 	}
-	
-	@SuppressWarnings("unchecked")
-	private void run() {
-		for (int i = 0; i < workerCount; ++i) {
-			threadFactory.setNextThreadName(String.format("ClientReaderThread-%d", i));
-			this.threads.add((Future<Runnable>) this.executor.submit(new ClientReaderThread(
-										this.clientReaderFactory.createClientReader(this.connection),
-										this.keyQueue, 
-										this.returnQueue)));
+
+	// Value bytes across all siblings, for throughput throttling
+	static long valueBytes(RiakObject[] objects) {
+		long byteCount = 0;
+		for (RiakObject object : objects) {
+			if (object.getValue() != null) {
+				byteCount += object.getValue().size();
+			}
 		}
-		threadFactory.setNextThreadName("KeyReaderThread");
-		this.threads.add((Future<Runnable>) this.executor.submit(new KeyReaderThread(this.keySource, this.keyQueue, 
-				this.workerCount)));
+		return byteCount;
 	}
-	
-	private void interruptWorkers() {
-		for (Future<Runnable> worker : threads) {
-			worker.cancel(true);
+
+	private class ClientReaderStageFactory implements StageFactory<Key, IRiakObject> {
+		@Override
+		public Stage<Key, IRiakObject> createStage(int workerId) {
+			if (connection.pipelined()) {
+				return new PipelinedReaderStage();
+			}
+			return new ClientReaderStage(clientReaderFactory.createClientReader(connection));
 		}
 	}
-	private void close() {
-		this.executor.shutdown();
+
+	// Fetches keys over the connection's PipelinedRiakClient
+	abstract static class PipelinedFetchStage<O> extends PipelinedStage<Key, RiakObject[], O> {
+		PipelinedFetchStage(Connection connection) {
+			super(connection, "Fetch");
+		}
+
+		@Override
+		PipelinedRiakConnection.Response<RiakObject[]> send(Key key) throws IOException, InterruptedException {
+			return this.connection.pipelinedClient.fetchAsync(key.bucket(), key.key());
+		}
+
+		@Override
+		String key(Key key) {
+			return key.key();
+		}
+
+		@Override
+		void completed(Key key, RiakObject[] objects, Emitter<O> emitter) throws IOException, InterruptedException {
+			this.connection.transferred(valueBytes(objects));
+			this.fetched(key, objects, emitter);
+		}
+
+		abstract void fetched(Key key, RiakObject[] objects, Emitter<O> emitter)
+				throws IOException, InterruptedException;
 	}
-		
-	private class KeyReaderThread implements Runnable {
-
-		private final Iterable<Key> keySource;
-		private final ArrayBlockingQueue<Key> keyQueue;
-		private final int stopCount;
-		
-		public KeyReaderThread(Iterable<Key> keys, ArrayBlockingQueue<Key> keyQueue,
-				int stopCount) {
-			this.keySource = keys;
-			this.keyQueue = keyQueue;
-			this.stopCount = stopCount;
+
+	private class PipelinedReaderStage extends PipelinedFetchStage<IRiakObject> {
+		PipelinedReaderStage() {
+			super(ThreadedClientDataReader.this.connection);
 		}
-		
+
 		@Override
-		public void run() {
-			try {
-				for (Key key : keySource) {
-					if (Thread.currentThread().isInterrupted()) {
-						break;
-					}
-						
-					while (!keyQueue.offer(key)) {
-						Thread.sleep(10);
-					}
-				}
-				for (int i = 0; i < this.stopCount; ++i) {
-					this.keyQueue.put(STOP_KEY);
-				}
-			} catch (InterruptedException e) {
-				// no-op, allow to exit
-			} catch (Throwable e) { // key source error
-				log.error("Error listing keys", e);
-				try {
-					keyQueue.put(ERROR_KEY);
-				} catch (InterruptedException intE) {
-					// no-op
-				}
-			}
+		void fetched(Key key, RiakObject[] objects, Emitter<IRiakObject> emitter)
+				throws IOException, InterruptedException {
+			ThreadedClientDataReader.this.fetched(objects, emitter);
 		}
 	}
-	
-	private class ClientReaderThread implements Runnable {
+
+	private class ClientReaderStage implements Stage<Key, IRiakObject> {
 
 		private final IClientReader reader;
-		private final ArrayBlockingQueue<Key> keyQueue;
-		private final ArrayBlockingQueue<IRiakObject> returnQueue;
-		
-		public ClientReaderThread(IClientReader reader,
-				ArrayBlockingQueue<Key> keyQueue,
-				ArrayBlockingQueue<IRiakObject> returnQueue) {
+
+		public ClientReaderStage(IClientReader reader) {
 			this.reader = reader;
-			this.keyQueue = keyQueue;
-			this.returnQueue = returnQueue;
 		}
-		
+
 		@Override
-		public void run() {
-			try {
-				try {
-					while (!Thread.currentThread().isInterrupted()) {
-						 Key key = keyQueue.poll();
-						 if (key == null) {
-							 Thread.sleep(10);
-							 continue;
-						 }
-						 if (key.bucket() == STOP_STRING) {
-							 break;
-						 } else if (key.bucket() == ERROR_STRING) {
-							 returnQueue.put(ERROR_OBJECT);
-						 }
-						 int retries = 0;
-						 while (!Thread.currentThread().isInterrupted() && retries < MAX_RETRIES) {
-							 try {
-								 RiakObject[] objects = this.reader.fetchRiakObject(key.bucket(), key.key());
-								 for (int i = 0; i < objects.length; ++i) {
-									 IRiakObject riakObject = ConversionUtilWrapper.convertConcreteToInterface(objects[i]);
-									 while (!Thread.interrupted() && !returnQueue.offer(riakObject)) {
-										 Thread.sleep(10);
-									 }
-								 }
-								 break;
-							 } catch (IOException e) {
-								 ++retries;
-								 log.error(String.format("Fetch fail %d on key %s, retrying", retries, key.key()), e);
-								 Thread.sleep(RETRY_WAIT_TIME);
-								 if (retries > MAX_RETRIES) {
-									 log.error(String.format("Max retries %d reached", MAX_RETRIES), e);
-									 throw e;
-								 }
-							 }
-						 }
-					}
-					returnQueue.put(STOP_OBJECT);
-				} catch (IOException e ) {
-					returnQueue.put(ERROR_OBJECT);
-				}
-			} catch (InterruptedException e) {
-				// no-op, allow to exit
-			}
-			
+		public void process(Key key, Emitter<IRiakObject> emitter)
+				throws IOException, InterruptedException {
+			fetched(fetch(connection, this.reader, key), emitter);
 		}
-		
-		
 	}
 
 }
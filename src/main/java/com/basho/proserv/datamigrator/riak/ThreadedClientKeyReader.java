@@ -0,0 +1,99 @@
+package com.basho.proserv.datamigrator.riak;
+
+import java.io.IOException;
+
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.pipeline.Emitter;
+import com.basho.proserv.datamigrator.pipeline.Pipeline;
+import com.basho.proserv.datamigrator.pipeline.PipelineExecutor;
+import com.basho.proserv.datamigrator.pipeline.Stage;
+import com.basho.proserv.datamigrator.pipeline.StageFactory;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.raw.pbc.ConversionUtilWrapper;
+import com.basho.riak.pbc.RiakObject;
+
+/**
+ * Like ThreadedClientDataReader, but emits one FetchResult per key, including
+ * keys that were not found.  Callers feeding keys from many buckets through
+ * one pipeline use this to tell when every key of a bucket has come back.
+ */
+public class ThreadedClientKeyReader {
+	
+	private final Connection connection;
+	private final IClientReaderFactory clientReaderFactory;
+	private final Pipeline<Key, FetchResult> pipeline;
+	
+	public ThreadedClientKeyReader(Connection connection,
+				IClientReaderFactory clientReaderFactory,
+				Iterable<Key> keySource,
+				int workerCount) {
+		this(connection, clientReaderFactory, keySource, workerCount, PipelineExecutor.getDefault());
+	}
+	
+	public ThreadedClientKeyReader(Connection connection,
+				IClientReaderFactory clientReaderFactory,
+				Iterable<Key> keySource,
+				int workerCount,
+				PipelineExecutor executor) {
+		this.connection = connection;
+		this.clientReaderFactory = clientReaderFactory;
+		
+		this.pipeline = new Pipeline<Key, FetchResult>("ClientKeyReader", keySource,
+				new ClientKeyReaderStageFactory(), workerCount, Pipeline.DEFAULT_CHANNEL_CAPACITY, executor);
+		this.pipeline.start();
+	}
+	
+	public FetchResult readKey() throws IOException {
+		try {
+			return this.pipeline.next();
+		} catch (IOException e) {
+			throw new IOException("Error reading Riak Object, shutting down bucket dump process", e);
+		}
+	}
+	
+	private class ClientKeyReaderStageFactory implements StageFactory<Key, FetchResult> {
+		@Override
+		public Stage<Key, FetchResult> createStage(int workerId) {
+			if (connection.pipelined()) {
+				return new PipelinedKeyReaderStage(connection);
+			}
+			return new ClientKeyReaderStage(clientReaderFactory.createClientReader(connection));
+		}
+	}
+	
+	private static FetchResult fetchResult(Key key, RiakObject[] objects) {
+		IRiakObject[] converted = new IRiakObject[objects.length];
+		for (int i = 0; i < objects.length; ++i) {
+			converted[i] = ConversionUtilWrapper.convertConcreteToInterface(objects[i]);
+		}
+		return new FetchResult(key, converted);
+	}
+	
+	private static class PipelinedKeyReaderStage extends ThreadedClientDataReader.PipelinedFetchStage<FetchResult> {
+		PipelinedKeyReaderStage(Connection connection) {
+			super(connection);
+		}
+		
+		@Override
+		void fetched(Key key, RiakObject[] objects, Emitter<FetchResult> emitter)
+				throws IOException, InterruptedException {
+			emitter.emit(fetchResult(key, objects));
+		}
+	}
+	
+	private class ClientKeyReaderStage implements Stage<Key, FetchResult> {
+		
+		private final IClientReader reader;
+		
+		public ClientKeyReaderStage(IClientReader reader) {
+			this.reader = reader;
+		}
+		
+		@Override
+		public void process(Key key, Emitter<FetchResult> emitter)
+				throws IOException, InterruptedException {
+			RiakObject[] objects = ThreadedClientDataReader.fetch(connection, this.reader, key);
+			emitter.emit(fetchResult(key, objects));
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.basho.proserv.datamigrator.riak;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basho.proserv.datamigrator.pipeline.RateLimiter;
+
+/**
+ * Caps the objects/sec and value bytes/sec of every fetch, store and delete
+ * made through a Connection, across all workers and buckets.
+ *
+ * The caps come from an optional RateSchedule file, falling back to the
+ * default rates outside its windows.  The file is checked once a second and
+ * re-read when it changes, so a running job picks up new caps without a
+ * restart; a file that no longer parses is logged and the previous schedule
+ * kept.
+ */
+public class ThroughputThrottle {
+	private final Logger log = LoggerFactory.getLogger(ThroughputThrottle.class);
+	private static final long CHECK_INTERVAL = 1000;
+
+	private final RateLimiter objects;
+	private final RateLimiter bytes;
+	private final long defaultObjectsPerSecond;
+	private final long defaultBytesPerSecond;
+	private final File scheduleFile;
+
+	private RateSchedule schedule = null;
+	private long scheduleModified = 0;
+	private volatile long nextCheck = 0;
+
+	public ThroughputThrottle(long objectsPerSecond, long bytesPerSecond) {
+		this.defaultObjectsPerSecond = objectsPerSecond;
+		this.defaultBytesPerSecond = bytesPerSecond;
+		this.objects = new RateLimiter(objectsPerSecond);
+		this.bytes = new RateLimiter(bytesPerSecond);
+		this.scheduleFile = null;
+	}
+
+	public ThroughputThrottle(long objectsPerSecond, long bytesPerSecond, File scheduleFile) throws IOException {
+		if (scheduleFile == null) {
+			throw new IllegalArgumentException("scheduleFile cannot be null");
+		}
+		this.defaultObjectsPerSecond = objectsPerSecond;
+		this.defaultBytesPerSecond = bytesPerSecond;
+		this.objects = new RateLimiter(objectsPerSecond);
+		this.bytes = new RateLimiter(bytesPerSecond);
+		this.scheduleFile = scheduleFile;
+		this.scheduleModified = scheduleFile.lastModified();
+		this.schedule = RateSchedule.load(scheduleFile);
+		this.update(System.currentTimeMillis());
+	}
+
+	/**
+	 * Blocks until another request may be sent
+	 */
+	public void acquire() throws InterruptedException {
+		long now = System.currentTimeMillis();
+		if (now >= this.nextCheck) {
+			this.update(now);
+		}
+		this.objects.acquire(1);
+		this.bytes.acquire(0);
+	}
+
+	/**
+	 * Charges value bytes sent or received; later requests wait them off
+	 */
+	public void transferred(long byteCount) {
+		this.bytes.consume(byteCount);
+	}
+
+	public long objectsPerSecond() {
+		return (long)this.objects.rate();
+	}
+
+	public long bytesPerSecond() {
+		return (long)this.bytes.rate();
+	}
+
+	/**
+	 * Re-reads the schedule file if it changed and applies the caps for now
+	 */
+	synchronized void update(long now) {
+		this.nextCheck = now + CHECK_INTERVAL;
+		if (this.scheduleFile == null) {
+			return;
+		}
+		long modified = this.scheduleFile.lastModified();
+		if (modified != this.scheduleModified) {
+			this.scheduleModified = modified;
+			try {
+				this.schedule = RateSchedule.load(this.scheduleFile);
+				log.info("Reloaded rate schedule " + this.scheduleFile.getAbsolutePath());
+			} catch (IOException e) {
+				log.error("Could not reload rate schedule, keeping the previous one", e);
+			}
+		}
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(now);
+		RateSchedule.Window window = this.schedule.windowAt(
+				calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE));
+		if (window == null) {
+			this.objects.setRate(this.defaultObjectsPerSecond);
+			this.bytes.setRate(this.defaultBytesPerSecond);
+		} else {
+			this.objects.setRate(window.objectsPerSecond());
+			this.bytes.setRate(window.bytesPerSecond());
+		}
+	}
+}
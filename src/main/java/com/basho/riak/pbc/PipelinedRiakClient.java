@@ -0,0 +1,139 @@
+package com.basho.riak.pbc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A small, fixed set of PipelinedRiakConnections spread over the cluster's
+ * hosts.  Requests are handed out round robin, so many caller threads share
+ * a few sockets, each with up to maxInFlight requests outstanding.  A broken
+ * connection is replaced the next time its slot is picked.
+ *
+ * The async methods return as soon as the request is queued, blocking only
+ * while its connection already has maxInFlight requests outstanding, so a
+ * few threads can keep every connection full.
+ */
+public class PipelinedRiakClient {
+	private final List<String> hosts;
+	private final int port;
+	private final int maxInFlight;
+	private final AtomicReferenceArray<PipelinedRiakConnection> connections;
+	private final AtomicInteger next = new AtomicInteger(0);
+	private volatile boolean closed = false;
+
+	public PipelinedRiakClient(Collection<String> hosts, int port, int connectionsPerHost, int maxInFlight)
+			throws IOException {
+		if (hosts == null || hosts.isEmpty()) {
+			throw new IllegalArgumentException("hosts cannot be null or empty");
+		}
+		if (connectionsPerHost < 1) {
+			throw new IllegalArgumentException("connectionsPerHost must be greater than 0");
+		}
+		this.hosts = new ArrayList<String>(hosts);
+		this.port = port;
+		this.maxInFlight = maxInFlight;
+		this.connections = new AtomicReferenceArray<PipelinedRiakConnection>(
+				this.hosts.size() * connectionsPerHost);
+		for (int i = 0; i < this.connections.length(); ++i) {
+			this.connections.set(i, this.connect(i));
+		}
+	}
+
+	public RiakObject[] fetch(String bucket, String key) throws IOException {
+		try {
+			return this.fetchAsync(bucket, key).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted fetching " + key, e);
+		}
+	}
+
+	public void store(RiakObject riakObject) throws IOException {
+		try {
+			this.storeAsync(riakObject).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted storing " + riakObject.getKey(), e);
+		}
+	}
+
+	public void delete(String bucket, String key) throws IOException {
+		try {
+			this.deleteAsync(bucket, key).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted deleting " + key, e);
+		}
+	}
+
+	public PipelinedRiakConnection.Response<RiakObject[]> fetchAsync(String bucket, String key)
+			throws IOException, InterruptedException {
+		return this.connection().fetch(bucket, key);
+	}
+
+	public PipelinedRiakConnection.Response<RiakObject> storeAsync(RiakObject riakObject)
+			throws IOException, InterruptedException {
+		return this.connection().store(riakObject);
+	}
+
+	public PipelinedRiakConnection.Response<Boolean> deleteAsync(String bucket, String key)
+			throws IOException, InterruptedException {
+		return this.connection().delete(bucket, key);
+	}
+
+	/**
+	 * Requests currently outstanding across all connections
+	 */
+	public int inFlightCount() {
+		int count = 0;
+		for (int i = 0; i < this.connections.length(); ++i) {
+			count += this.connections.get(i).inFlightCount();
+		}
+		return count;
+	}
+
+	public int connectionCount() {
+		return this.connections.length();
+	}
+
+	/**
+	 * Requests that can be outstanding across all connections at once
+	 */
+	public int maxInFlight() {
+		return this.connections.length() * this.maxInFlight;
+	}
+
+	public synchronized void close() {
+		this.closed = true;
+		for (int i = 0; i < this.connections.length(); ++i) {
+			this.connections.get(i).close();
+		}
+	}
+
+	private PipelinedRiakConnection connection() throws IOException {
+		int slot = (this.next.getAndIncrement() & Integer.MAX_VALUE) % this.connections.length();
+		PipelinedRiakConnection connection = this.connections.get(slot);
+		if (connection.isBroken()) {
+			synchronized (this) {
+				if (this.closed) {
+					throw new IOException("Client is closed");
+				}
+				connection = this.connections.get(slot);
+				if (connection.isBroken()) {
+					connection = this.connect(slot);
+					this.connections.set(slot, connection);
+				}
+			}
+		}
+		return connection;
+	}
+
+	private PipelinedRiakConnection connect(int slot) throws IOException {
+		return new PipelinedRiakConnection(this.hosts.get(slot % this.hosts.size()), this.port,
+				this.maxInFlight);
+	}
+}
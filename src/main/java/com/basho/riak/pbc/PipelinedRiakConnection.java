@@ -0,0 +1,380 @@
+package com.basho.riak.pbc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.basho.riak.protobuf.RiakKvPB;
+import com.basho.riak.protobuf.RiakPB;
+import com.google.protobuf.ByteString;
+
+/**
+ * A single PB socket with many requests in flight.  Riak answers requests on
+ * a connection in the order they were sent, so requests are written by one
+ * writer thread, which batches whatever is queued into a single flush, and
+ * matched to responses in FIFO order by one reader thread.
+ *
+ * At most maxInFlight requests are outstanding; further callers block in
+ * fetch/store/delete until a response frees a slot.  An I/O error fails every
+ * outstanding request and marks the connection broken, after which new
+ * requests fail straight away and the owner should open a new connection.
+ *
+ * Framing matches RiakObjectIO: [int length + 1][byte code][message].
+ */
+public class PipelinedRiakConnection implements RiakMessageCodes {
+	private final Logger log = LoggerFactory.getLogger(PipelinedRiakConnection.class);
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int WRITE_BATCH_SIZE = 256;
+	private static final int CONNECT_TIMEOUT = 10000;
+
+	private final Socket socket;
+	private final DataOutputStream out;
+	private final DataInputStream in;
+	private final Semaphore inFlight;
+	private final int maxInFlight;
+	private final LinkedBlockingQueue<Request<?>> unsent = new LinkedBlockingQueue<Request<?>>();
+	private final ConcurrentLinkedQueue<Request<?>> awaiting = new ConcurrentLinkedQueue<Request<?>>();
+	private final Thread writerThread;
+	private final Thread readerThread;
+	private volatile IOException failure = null;
+
+	public PipelinedRiakConnection(String host, int port, int maxInFlight) throws IOException {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be greater than 0");
+		}
+		this.socket = new Socket();
+		this.socket.setTcpNoDelay(true);
+		this.socket.setKeepAlive(true);
+		this.socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+		this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream(), BUFFER_SIZE));
+		this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream(), BUFFER_SIZE));
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+
+		String name = String.format("PipelinedRiakConnection-%s:%d", host, this.socket.getLocalPort());
+		this.writerThread = new Thread(new Writer(), name + "-writer");
+		this.readerThread = new Thread(new Reader(), name + "-reader");
+		this.writerThread.setDaemon(true);
+		this.readerThread.setDaemon(true);
+		this.writerThread.start();
+		this.readerThread.start();
+	}
+
+	public Response<RiakObject[]> fetch(String bucket, String key)
+			throws IOException, InterruptedException {
+		final ByteString bucketBS = ByteString.copyFromUtf8(bucket);
+		final ByteString keyBS = ByteString.copyFromUtf8(key);
+		final RiakKvPB.RpbGetReq req = RiakKvPB.RpbGetReq.newBuilder()
+				.setBucket(bucketBS)
+				.setKey(keyBS)
+				.build();
+		return this.submit(new Request<RiakObject[]>(MSG_GetReq, MSG_GetResp) {
+			@Override
+			void writeBody(DataOutputStream out) throws IOException {
+				req.writeTo(out);
+			}
+			@Override
+			int bodySize() {
+				return req.getSerializedSize();
+			}
+			@Override
+			RiakObject[] decode(byte[] data) throws IOException {
+				if (data == null) {
+					return new RiakObject[0]; // not found
+				}
+				// Uses code liberated from com.basho.riak.pbc.RiakClient.processFetchReply
+				RiakKvPB.RpbGetResp resp = RiakKvPB.RpbGetResp.parseFrom(data);
+				int count = resp.getContentCount();
+				RiakObject[] objects = new RiakObject[count];
+				ByteString vclock = resp.getVclock();
+				for (int i = 0; i < count; ++i) {
+					objects[i] = new RiakObject(vclock, bucketBS, keyBS, resp.getContent(i));
+				}
+				return objects;
+			}
+		});
+	}
+
+	public Response<RiakObject> store(final RiakObject riakObject)
+			throws IOException, InterruptedException {
+		// Uses code liberated from com.basho.riak.pbc.RiakClient.store
+		RiakKvPB.RpbPutReq.Builder builder = RiakKvPB.RpbPutReq.newBuilder()
+				.setBucket(riakObject.getBucketBS())
+				.setKey(riakObject.getKeyBS())
+				.setContent(riakObject.buildContent());
+		if (riakObject.getVclock() != null) {
+			builder.setVclock(riakObject.getVclock());
+		}
+		builder.setReturnBody(false);
+		final RiakKvPB.RpbPutReq req = builder.build();
+		return this.submit(new Request<RiakObject>(MSG_PutReq, MSG_PutResp) {
+			@Override
+			void writeBody(DataOutputStream out) throws IOException {
+				req.writeTo(out);
+			}
+			@Override
+			int bodySize() {
+				return req.getSerializedSize();
+			}
+			@Override
+			RiakObject decode(byte[] data) {
+				return riakObject;
+			}
+		});
+	}
+
+	public Response<Boolean> delete(String bucket, String key)
+			throws IOException, InterruptedException {
+		final RiakKvPB.RpbDelReq req = RiakKvPB.RpbDelReq.newBuilder()
+				.setBucket(ByteString.copyFromUtf8(bucket))
+				.setKey(ByteString.copyFromUtf8(key))
+				.build();
+		return this.submit(new Request<Boolean>(MSG_DelReq, MSG_DelResp) {
+			@Override
+			void writeBody(DataOutputStream out) throws IOException {
+				req.writeTo(out);
+			}
+			@Override
+			int bodySize() {
+				return req.getSerializedSize();
+			}
+			@Override
+			Boolean decode(byte[] data) {
+				return Boolean.TRUE;
+			}
+		});
+	}
+
+	public boolean isBroken() {
+		return this.failure != null;
+	}
+
+	public int inFlightCount() {
+		return this.maxInFlight - this.inFlight.availablePermits();
+	}
+
+	public int maxInFlight() {
+		return this.maxInFlight;
+	}
+
+	public void close() {
+		this.fail(new IOException("Connection closed"));
+	}
+
+	private <T> Response<T> submit(Request<T> request) throws IOException, InterruptedException {
+		this.inFlight.acquire();
+		if (this.failure != null) {
+			this.inFlight.release();
+			throw new IOException("Connection is broken", this.failure);
+		}
+		this.unsent.put(request);
+		// a failure racing the put may have missed this request
+		if (this.failure != null && this.unsent.remove(request)) {
+			this.inFlight.release();
+			throw new IOException("Connection is broken", this.failure);
+		}
+		return request.response;
+	}
+
+	private synchronized void fail(IOException e) {
+		if (this.failure != null) {
+			return;
+		}
+		this.failure = e;
+		try {
+			this.socket.close();
+		} catch (IOException ignored) {
+			// no-op
+		}
+		this.writerThread.interrupt();
+		this.failPending();
+	}
+
+	private void failPending() {
+		Request<?> request = null;
+		while ((request = this.awaiting.poll()) != null) {
+			request.response.fail(this.failure);
+			this.inFlight.release();
+		}
+		while ((request = this.unsent.poll()) != null) {
+			request.response.fail(this.failure);
+			this.inFlight.release();
+		}
+	}
+
+	private class Writer implements Runnable {
+		@Override
+		public void run() {
+			List<Request<?>> batch = new ArrayList<Request<?>>(WRITE_BATCH_SIZE);
+			int queued = 0;
+			try {
+				while (failure == null) {
+					batch.add(unsent.take());
+					unsent.drainTo(batch, WRITE_BATCH_SIZE - 1);
+					for (queued = 0; queued < batch.size(); ) {
+						Request<?> request = batch.get(queued);
+						// queue before writing so the reader always finds it
+						awaiting.add(request);
+						++queued;
+						out.writeInt(request.bodySize() + 1);
+						out.write(request.requestCode);
+						request.writeBody(out);
+					}
+					out.flush();
+					batch.clear();
+					queued = 0;
+				}
+			} catch (InterruptedException e) {
+				// closing
+			} catch (IOException e) {
+				log.error("Error writing to Riak", e);
+				fail(e);
+			}
+			// requests taken from unsent but never queued for a response
+			for (int i = queued; i < batch.size(); ++i) {
+				batch.get(i).response.fail(failure);
+				inFlight.release();
+			}
+			failPending();
+		}
+	}
+
+	private class Reader implements Runnable {
+		@Override
+		public void run() {
+			try {
+				while (failure == null) {
+					// Uses code liberated from com.basho.riak.pbc.RiakConnection.receive
+					int len = in.readInt();
+					int code = in.read();
+					byte[] data = null;
+					if (len > 1) {
+						data = new byte[len - 1];
+						in.readFully(data);
+					}
+					Request<?> request = awaiting.poll();
+					if (request == null) {
+						throw new IOException("Response with no outstanding request, code " + code);
+					}
+					request.complete(code, data);
+					inFlight.release();
+				}
+			} catch (IOException e) {
+				if (failure == null) {
+					log.error("Error reading from Riak", e);
+				}
+				fail(e);
+			}
+		}
+	}
+
+	private abstract static class Request<T> {
+		final int requestCode;
+		final int responseCode;
+		final Response<T> response = new Response<T>();
+
+		Request(int requestCode, int responseCode) {
+			this.requestCode = requestCode;
+			this.responseCode = responseCode;
+		}
+
+		abstract void writeBody(DataOutputStream out) throws IOException;
+		abstract int bodySize();
+		abstract T decode(byte[] data) throws IOException;
+
+		void complete(int code, byte[] data) {
+			try {
+				if (code == MSG_ErrorResp) {
+					this.response.fail(new RiakError(RiakPB.RpbErrorResp.parseFrom(
+							data == null ? new byte[0] : data)));
+				} else if (code != this.responseCode) {
+					this.response.fail(new IOException("bad message code. Expected: " +
+							this.responseCode + " actual: " + code));
+				} else {
+					this.response.succeed(this.decode(data));
+				}
+			} catch (IOException e) {
+				this.response.fail(e);
+			}
+		}
+	}
+
+	/**
+	 * The outcome of one pipelined request
+	 */
+	public static class Response<T> {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile T value = null;
+		private volatile IOException error = null;
+		private Runnable listener = null;
+
+		public T get() throws IOException, InterruptedException {
+			this.done.await();
+			if (this.error != null) {
+				throw new IOException(this.error.getMessage(), this.error);
+			}
+			return this.value;
+		}
+
+		public boolean isDone() {
+			return this.done.getCount() == 0;
+		}
+
+		/**
+		 * Whether the request is done and failed
+		 */
+		public boolean isFailed() {
+			return this.isDone() && this.error != null;
+		}
+
+		/**
+		 * Runs listener once the request is done, on the connection's reader
+		 * thread, or straight away if it already is.  Only one listener is
+		 * kept.
+		 */
+		public void whenDone(Runnable listener) {
+			synchronized (this) {
+				if (!this.isDone()) {
+					this.listener = listener;
+					return;
+				}
+			}
+			listener.run();
+		}
+
+		void succeed(T value) {
+			this.value = value;
+			this.finish();
+		}
+
+		void fail(IOException error) {
+			this.error = error;
+			this.finish();
+		}
+
+		private void finish() {
+			Runnable listener = null;
+			synchronized (this) {
+				this.done.countDown();
+				listener = this.listener;
+				this.listener = null;
+			}
+			if (listener != null) {
+				listener.run();
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.basho.proserv.datamigrator;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.RiakObjectBucket;
+import com.basho.proserv.datamigrator.riak.Connection;
+import com.basho.riak.client.IRiakObject;
+
+public class ContinuousPipelineTests {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private static int keyCount(int bucket) {
+		return bucket % 5;
+	}
+
+	@Test
+	public void testContinuousDumpAndLoad() throws Exception {
+		int BUCKET_COUNT = 300;
+		FakeRawClient source = new FakeRawClient();
+		byte[] value = "1234567890".getBytes();
+		Set<String> bucketNames = new HashSet<String>();
+		long expected = 0;
+		for (Integer b = 0; b < BUCKET_COUNT; ++b) {
+			bucketNames.add("bucket" + b);
+			for (Integer k = 0; k < keyCount(b); ++k) {
+				source.put("bucket" + b, k.toString(), value);
+			}
+			expected += keyCount(b);
+		}
+		Connection sourceConnection = new Connection();
+		sourceConnection.riakClient = source;
+
+		File dumpDirectory = tempFolder.newFolder();
+		BucketDumper dumper = new BucketDumper(sourceConnection, new Connection(), dumpDirectory,
+				false, 4, 1, true);
+		assertEquals(expected, dumper.dumpBuckets(bucketNames, false, false));
+		assertEquals(0, dumper.errorCount());
+		assertEquals(BUCKET_COUNT, dumper.summary.bucketNames().size());
+		for (int b = 0; b < BUCKET_COUNT; ++b) {
+			assertEquals(keyCount(b), dumper.summary.getBucketStatistic("bucket" + b)[0].longValue());
+		}
+
+		Thread.sleep(500); // let the chunk writer threads finish
+		for (int b = 1; b < BUCKET_COUNT; b += 7) {
+			if (keyCount(b) == 0) {
+				continue; // empty buckets leave no data files
+			}
+			RiakObjectBucket bucket = new RiakObjectBucket(new File(dumpDirectory, "bucket" + b),
+					RiakObjectBucket.BucketMode.READ, false);
+			int count = 0;
+			IRiakObject riakObject = null;
+			while ((riakObject = bucket.readRiakObject()) != null) {
+				assertEquals("bucket" + b, riakObject.getBucket());
+				++count;
+			}
+			bucket.close();
+			assertEquals(keyCount(b), count);
+		}
+
+		FakeRawClient destination = new FakeRawClient();
+		Connection destinationConnection = new Connection();
+		destinationConnection.riakClient = destination;
+		BucketLoader loader = new BucketLoader(destinationConnection, new Connection(), dumpDirectory,
+				false, 4, false, 1, true);
+		assertEquals(expected, loader.LoadAllBuckets());
+		assertEquals(0, loader.errorCount());
+		for (int b = 0; b < BUCKET_COUNT; ++b) {
+			assertEquals(keyCount(b), destination.size("bucket" + b));
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package com.basho.proserv.datamigrator;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.RiakObjectBucket;
+import com.basho.proserv.datamigrator.riak.Connection;
+
+public class DumpResumeTests {
+	private static final int KEY_COUNT = 1000;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Fails the first listing of a bucket once it has returned failAfter keys
+	 */
+	private static class FailingListingClient extends FakeRawClient {
+		private final int failAfter;
+		private volatile boolean failed = false;
+
+		public FailingListingClient(int failAfter) {
+			this.failAfter = failAfter;
+		}
+
+		@Override
+		public Iterable<String> listKeys(String bucketName) throws IOException {
+			final Iterable<String> keys = super.listKeys(bucketName);
+			if (this.failed) {
+				return keys;
+			}
+			this.failed = true;
+			return new Iterable<String>() {
+				@Override
+				public Iterator<String> iterator() {
+					final Iterator<String> iterator = keys.iterator();
+					return new Iterator<String>() {
+						private int count = 0;
+
+						@Override
+						public boolean hasNext() {
+							if (count == failAfter) {
+								throw new IllegalStateException("Simulated listing failure");
+							}
+							return iterator.hasNext();
+						}
+
+						@Override
+						public String next() {
+							++count;
+							return iterator.next();
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+	}
+
+	private static FakeRawClient createClient() {
+		return fill(new FakeRawClient());
+	}
+
+	private static FakeRawClient fill(FakeRawClient client) {
+		byte[] value = "1234567890".getBytes();
+		for (Integer k = 0; k < KEY_COUNT; ++k) {
+			client.put("bucket", k.toString(), value);
+		}
+		return client;
+	}
+
+	// Rewrites the journal as text keeping the first lineCount keys, and half
+	// of the next line, as if the dump had died
+	private static void truncateJournal(File journal, int lineCount) throws Exception {
+		KeyJournal keyJournal = new KeyJournal(journal, KeyJournal.Mode.READ);
+		StringBuilder kept = new StringBuilder();
+		for (int i = 0; i < lineCount; ++i) {
+			Key key = keyJournal.read();
+			kept.append(key.bucket()).append(',').append(key.key()).append('\n');
+		}
+		Key next = keyJournal.read();
+		keyJournal.close();
+		String partial = next.bucket() + "," + next.key();
+		kept.append(partial.substring(0, partial.length() / 2));
+		FileWriter writer = new FileWriter(journal);
+		writer.write(kept.toString());
+		writer.close();
+	}
+
+	private static Set<Key> readKeys(File journal) {
+		Set<Key> keys = new HashSet<Key>();
+		KeyJournal keyJournal = new KeyJournal(journal, KeyJournal.Mode.READ);
+		for (Key key : keyJournal) {
+			keys.add(key);
+		}
+		keyJournal.close();
+		return keys;
+	}
+
+	@Test
+	public void testResumeFetchesOnlyUndumpedKeys() throws Exception {
+		FakeRawClient client = createClient();
+		Connection connection = new Connection();
+		connection.riakClient = client;
+		File dumpDirectory = tempFolder.newFolder();
+
+		BucketDumper dumper = new BucketDumper(connection, new Connection(), dumpDirectory, false, 4);
+		assertEquals(KEY_COUNT, dumper.dumpBucket("bucket", false, false));
+		File bucketDirectory = new File(dumpDirectory, "bucket");
+		File dumpedKeys = new File(bucketDirectory, "dumpedkeys.keys");
+		truncateJournal(dumpedKeys, 400);
+		int chunkCount = bucketDirectory.list(RiakObjectBucket.dataFileFilter).length;
+
+		long fetches = client.fetchCount.get();
+		long listings = client.listKeysCount.get();
+		dumper = new BucketDumper(connection, new Connection(), dumpDirectory, false, 4);
+		assertEquals(KEY_COUNT - 400, dumper.dumpBucket("bucket", true, false));
+		assertEquals(0, dumper.errorCount());
+		assertEquals(KEY_COUNT - 400, client.fetchCount.get() - fetches);
+		assertEquals(listings, client.listKeysCount.get());
+
+		// the journal now covers every key, and the old chunks were left alone
+		Set<Key> keys = readKeys(dumpedKeys);
+		for (Integer k = 0; k < KEY_COUNT; ++k) {
+			assertTrue(keys.contains(new Key("bucket", k.toString())));
+		}
+		String[] chunks = bucketDirectory.list(RiakObjectBucket.dataFileFilter);
+		assertEquals(chunkCount + 1, chunks.length);
+
+		// nothing left to do
+		assertEquals(0, dumper.dumpBucket("bucket", true, false));
+	}
+
+	@Test
+	public void testResumeWithoutListing() throws Exception {
+		FakeRawClient client = createClient();
+		Connection connection = new Connection();
+		connection.riakClient = client;
+		File dumpDirectory = tempFolder.newFolder();
+
+		BucketDumper dumper = new BucketDumper(connection, new Connection(), dumpDirectory, false, 4);
+		assertEquals(KEY_COUNT, dumper.dumpBucket("bucket", true, false));
+		assertEquals(1, client.listKeysCount.get());
+		assertEquals(KEY_COUNT, readKeys(new File(dumpDirectory, "bucket/dumpedkeys.keys")).size());
+	}
+
+	@Test
+	public void testParallelAndContinuousResume() throws Exception {
+		FakeRawClient client = createClient();
+		for (Integer k = 0; k < KEY_COUNT; ++k) {
+			client.put("other", k.toString(), "1234567890".getBytes());
+		}
+		Connection connection = new Connection();
+		connection.riakClient = client;
+		File dumpDirectory = tempFolder.newFolder();
+		Set<String> bucketNames = new HashSet<String>();
+		bucketNames.add("bucket");
+		bucketNames.add("other");
+
+		BucketDumper dumper = new BucketDumper(connection, new Connection(), dumpDirectory, false, 4, 2);
+		assertEquals(2 * KEY_COUNT, dumper.dumpBuckets(bucketNames, false, false));
+		truncateJournal(new File(dumpDirectory, "bucket/dumpedkeys.keys"), 100);
+		truncateJournal(new File(dumpDirectory, "other/dumpedkeys.keys"), 200);
+		assertEquals(2 * KEY_COUNT - 300, dumper.dumpBuckets(bucketNames, true, false));
+
+		// the last resume's journal has a cut short line in it, which doesn't count
+		File dumpedKeys = new File(dumpDirectory, "bucket/dumpedkeys.keys");
+		truncateJournal(dumpedKeys, 500);
+		int dumpedCount = readKeys(dumpedKeys).size();
+		dumper = new BucketDumper(connection, new Connection(), dumpDirectory, false, 4, 1, true);
+		assertEquals(KEY_COUNT - dumpedCount, dumper.dumpBuckets(bucketNames, true, false));
+		assertEquals(0, dumper.errorCount());
+	}
+
+	@Test
+	public void testResumeFromSortedKeys() throws Exception {
+		FakeRawClient client = createClient();
+		Connection connection = new Connection();
+		connection.riakClient = client;
+		File dumpDirectory = tempFolder.newFolder();
+
+		BucketDumper dumper = new BucketDumper(connection, new Connection(), dumpDirectory, false, 4);
+		dumper.setSortKeys(true);
+		assertEquals(KEY_COUNT, dumper.dumpBucket("bucket", false, false));
+		File bucketKeys = new File(dumpDirectory, "bucket/bucketkeys.keys");
+		KeyJournal keyJournal = new KeyJournal(bucketKeys, KeyJournal.Mode.READ);
+		assertEquals(KeyJournal.Format.SORTED, keyJournal.getFormat());
+		keyJournal.close();
+		assertEquals(KEY_COUNT, readKeys(bucketKeys).size());
+		assertFalse(new File(dumpDirectory, "bucket/sort.tmp").exists());
+
+		truncateJournal(new File(dumpDirectory, "bucket/dumpedkeys.keys"), 300);
+		assertEquals(KEY_COUNT - 300, dumper.dumpBucket("bucket", true, false));
+		assertEquals(0, dumper.errorCount());
+	}
+
+	@Test
+	public void testLostChunkCountedAndRedumpedOnResume() throws Exception {
+		FakeRawClient client = createClient();
+		Connection connection = new Connection();
+		connection.riakClient = client;
+		File dumpDirectory = tempFolder.newFolder();
+		// a directory in the way of the bucket's only chunk stops it being renamed into place
+		File blocker = new File(dumpDirectory, "bucket/0.data/blocker");
+		assertTrue(blocker.mkdirs());
+
+		BucketDumper dumper = new BucketDumper(connection, new Connection(), dumpDirectory, false, 4);
+		assertEquals(0, dumper.dumpBucket("bucket", false, false));
+		assertEquals(KEY_COUNT, dumper.errorCount());
+		assertEquals(0, readKeys(new File(dumpDirectory, "bucket/dumpedkeys.keys")).size());
+
+		blocker.delete();
+		blocker.getParentFile().delete();
+		dumper = new BucketDumper(connection, new Connection(), dumpDirectory, false, 4);
+		assertEquals(KEY_COUNT, dumper.dumpBucket("bucket", true, false));
+		assertEquals(0, dumper.errorCount());
+	}
+
+	@Test
+	public void testResumeRelistsAfterFailedListing() throws Exception {
+		FakeRawClient client = fill(new FailingListingClient(300));
+		Connection connection = new Connection();
+		connection.riakClient = client;
+		File dumpDirectory = tempFolder.newFolder();
+		File bucketKeys = new File(dumpDirectory, "bucket/bucketkeys.keys");
+
+		BucketDumper dumper = new BucketDumper(connection, new Connection(), dumpDirectory, false, 4);
+		assertEquals(0, dumper.dumpBucket("bucket", false, false));
+		assertFalse(bucketKeys.exists());
+		assertFalse(new File(dumpDirectory, "bucket/bucketkeys.keys.tmp").exists());
+
+		assertEquals(KEY_COUNT, dumper.dumpBucket("bucket", true, false));
+		assertEquals(2, client.listKeysCount.get());
+		assertEquals(KEY_COUNT, readKeys(bucketKeys).size());
+		assertEquals(KEY_COUNT, readKeys(new File(dumpDirectory, "bucket/dumpedkeys.keys")).size());
+	}
+
+	@Test
+	public void testResumeRelistsAfterFailedStreamedListing() throws Exception {
+		FakeRawClient client = fill(new FailingListingClient(300));
+		Connection connection = new Connection();
+		connection.riakClient = client;
+		File dumpDirectory = tempFolder.newFolder();
+		File bucketKeys = new File(dumpDirectory, "bucket/bucketkeys.keys");
+
+		BucketDumper dumper = new BucketDumper(connection, new Connection(), dumpDirectory, false, 4, 1,
+				false, true);
+		long dumped = dumper.dumpBucket("bucket", false, false);
+		assertTrue(dumped <= 300);
+		assertTrue(dumper.errorCount() > 0);
+		// the keys listed before the failure are not taken for the whole bucket
+		assertFalse(bucketKeys.exists());
+		assertFalse(new File(dumpDirectory, "bucket/bucketkeys.keys.tmp").exists());
+
+		dumper = new BucketDumper(connection, new Connection(), dumpDirectory, false, 4);
+		assertEquals(KEY_COUNT - dumped, dumper.dumpBucket("bucket", true, false));
+		assertEquals(2, client.listKeysCount.get());
+		assertEquals(KEY_COUNT, readKeys(new File(dumpDirectory, "bucket/dumpedkeys.keys")).size());
+	}
+}
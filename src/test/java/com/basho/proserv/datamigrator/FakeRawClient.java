@@ -0,0 +1,254 @@
+package com.basho.proserv.datamigrator;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.bucket.BucketProperties;
+import com.basho.riak.client.builders.RiakObjectBuilder;
+import com.basho.riak.client.query.MapReduceResult;
+import com.basho.riak.client.query.NodeStats;
+import com.basho.riak.client.query.WalkResult;
+import com.basho.riak.client.query.indexes.BucketIndex;
+import com.basho.riak.client.query.indexes.KeyIndex;
+import com.basho.riak.client.raw.DeleteMeta;
+import com.basho.riak.client.raw.FetchMeta;
+import com.basho.riak.client.raw.RawClient;
+import com.basho.riak.client.raw.RiakResponse;
+import com.basho.riak.client.raw.StoreMeta;
+import com.basho.riak.client.raw.Transport;
+import com.basho.riak.client.raw.query.LinkWalkSpec;
+import com.basho.riak.client.raw.query.MapReduceSpec;
+import com.basho.riak.client.raw.query.indexes.IndexQuery;
+import com.basho.riak.client.raw.query.indexes.IndexWriter;
+
+/**
+ * In-memory RawClient standing in for a Riak node in tests that exercise
+ * BucketDumper, BucketLoader and BucketDelete without a running cluster.
+ */
+public class FakeRawClient implements RawClient {
+	private static final byte[] VCLOCK = "FakeVClock".getBytes();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Map<String, Map<String, IRiakObject>> buckets =
+			new TreeMap<String, Map<String, IRiakObject>>();
+	public final AtomicLong fetchCount = new AtomicLong(0);
+	public final AtomicLong storeCount = new AtomicLong(0);
+	public final AtomicLong listKeysCount = new AtomicLong(0);
+	public final AtomicLong indexQueryCount = new AtomicLong(0);
+	public final AtomicInteger indexFailures = new AtomicInteger(0);
+	public volatile int maxIndexRangeSize = Integer.MAX_VALUE;
+
+	public synchronized void put(String bucket, String key, byte[] value) {
+		IRiakObject riakObject = RiakObjectBuilder.newBuilder(bucket, key)
+				.withValue(value)
+				.withVClock(VCLOCK)
+				.build();
+		bucketMap(bucket).put(key, riakObject);
+	}
+
+	public synchronized int size(String bucket) {
+		Map<String, IRiakObject> bucketMap = this.buckets.get(bucket);
+		return bucketMap == null ? 0 : bucketMap.size();
+	}
+
+	public synchronized IRiakObject get(String bucket, String key) {
+		return bucketMap(bucket).get(key);
+	}
+
+	private Map<String, IRiakObject> bucketMap(String bucket) {
+		Map<String, IRiakObject> bucketMap = this.buckets.get(bucket);
+		if (bucketMap == null) {
+			bucketMap = new TreeMap<String, IRiakObject>();
+			this.buckets.put(bucket, bucketMap);
+		}
+		return bucketMap;
+	}
+
+	@Override
+	public synchronized RiakResponse fetch(String bucket, String key) throws IOException {
+		this.fetchCount.incrementAndGet();
+		IRiakObject riakObject = bucketMap(bucket).get(key);
+		if (riakObject == null) {
+			return new RiakResponse(null, new IRiakObject[0]);
+		}
+		return new RiakResponse(VCLOCK, new IRiakObject[] { riakObject });
+	}
+
+	@Override
+	public RiakResponse fetch(String bucket, String key, int readQuorum) throws IOException {
+		return fetch(bucket, key);
+	}
+
+	@Override
+	public RiakResponse fetch(String bucket, String key, FetchMeta fetchMeta) throws IOException {
+		return fetch(bucket, key);
+	}
+
+	@Override
+	public RiakResponse head(String bucket, String key, FetchMeta fetchMeta) throws IOException {
+		return fetch(bucket, key);
+	}
+
+	@Override
+	public synchronized void store(IRiakObject object) throws IOException {
+		this.storeCount.incrementAndGet();
+		bucketMap(object.getBucket()).put(object.getKey(), object);
+	}
+
+	@Override
+	public RiakResponse store(IRiakObject object, StoreMeta storeMeta) throws IOException {
+		store(object);
+		return new RiakResponse(VCLOCK, new IRiakObject[0]);
+	}
+
+	@Override
+	public synchronized void delete(String bucket, String key) throws IOException {
+		bucketMap(bucket).remove(key);
+	}
+
+	@Override
+	public void delete(String bucket, String key, int deleteQuorum) throws IOException {
+		delete(bucket, key);
+	}
+
+	@Override
+	public void delete(String bucket, String key, DeleteMeta deleteMeta) throws IOException {
+		delete(bucket, key);
+	}
+
+	@Override
+	public synchronized Set<String> listBuckets() throws IOException {
+		return new TreeSet<String>(this.buckets.keySet());
+	}
+
+	@Override
+	public synchronized Iterable<String> listKeys(String bucketName) throws IOException {
+		this.listKeysCount.incrementAndGet();
+		return new ArrayList<String>(bucketMap(bucketName).keySet());
+	}
+
+	/**
+	 * Supports $bucket value queries and $key range queries.  The first
+	 * indexFailures queries covering more than maxIndexRangeSize keys throw.
+	 */
+	@Override
+	public List<String> fetchIndex(IndexQuery indexQuery) throws IOException {
+		this.indexQueryCount.incrementAndGet();
+		final String[] range = new String[3];
+		indexQuery.write(new IndexWriter() {
+			@Override
+			public void write(String bucket, String index, String value) {
+				range[0] = index;
+				range[1] = value;
+				range[2] = value;
+			}
+			@Override
+			public void write(String bucket, String index, String from, String to) {
+				range[0] = index;
+				range[1] = from;
+				range[2] = to;
+			}
+			@Override
+			public void write(String bucket, String index, long value) {
+				throw new UnsupportedOperationException();
+			}
+			@Override
+			public void write(String bucket, String index, long from, long to) {
+				throw new UnsupportedOperationException();
+			}
+		});
+		List<String> keys = new ArrayList<String>();
+		synchronized (this) {
+			Map<String, IRiakObject> bucketMap = bucketMap(indexQuery.getBucket());
+			if (BucketIndex.index.getFullname().equals(range[0])) {
+				keys.addAll(bucketMap.keySet());
+			} else if (KeyIndex.index.getFullname().equals(range[0])) {
+				// as Riak, which gets the bounds as UTF-8 and compares keys' bytes
+				byte[] from = range[1].getBytes(UTF8);
+				byte[] to = range[2].getBytes(UTF8);
+				for (String key : bucketMap.keySet()) {
+					byte[] bytes = key.getBytes(UTF8);
+					if (compareBytes(from, bytes) <= 0 && compareBytes(bytes, to) <= 0) {
+						keys.add(key);
+					}
+				}
+			} else {
+				throw new UnsupportedOperationException("Unsupported index " + range[0]);
+			}
+		}
+		if (keys.size() > this.maxIndexRangeSize && this.indexFailures.getAndDecrement() > 0) {
+			throw new IOException("Simulated index query timeout");
+		}
+		return keys;
+	}
+
+	private static int compareBytes(byte[] a, byte[] b) {
+		for (int i = 0; i < a.length && i < b.length; ++i) {
+			if (a[i] != b[i]) {
+				return (a[i] & 0xff) - (b[i] & 0xff);
+			}
+		}
+		return a.length - b.length;
+	}
+
+	@Override
+	public BucketProperties fetchBucket(String bucketName) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void updateBucket(String name, BucketProperties bucketProperties) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public WalkResult linkWalk(LinkWalkSpec linkWalkSpec) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public MapReduceResult mapReduce(MapReduceSpec spec) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public byte[] generateAndSetClientId() throws IOException {
+		return VCLOCK;
+	}
+
+	@Override
+	public void setClientId(byte[] clientId) throws IOException {
+	}
+
+	@Override
+	public byte[] getClientId() throws IOException {
+		return VCLOCK;
+	}
+
+	@Override
+	public void ping() throws IOException {
+	}
+
+	@Override
+	public Transport getTransport() {
+		return Transport.PB;
+	}
+
+	@Override
+	public void shutdown() {
+	}
+
+	@Override
+	public NodeStats stats() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,89 @@
+package com.basho.proserv.datamigrator;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.BucketChunkSource;
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.riak.Connection;
+
+public class KeyAuditTests {
+	private static final int KEY_COUNT = 1000;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private static int keyCount(File journal) {
+		int count = 0;
+		KeyJournal keyJournal = new KeyJournal(journal, KeyJournal.Mode.READ);
+		for (@SuppressWarnings("unused") Key key : keyJournal) {
+			++count;
+		}
+		keyJournal.close();
+		return count;
+	}
+
+	private static void truncate(File journal, int keepCount) throws Exception {
+		StringBuilder kept = new StringBuilder();
+		KeyJournal keyJournal = new KeyJournal(journal, KeyJournal.Mode.READ);
+		int count = 0;
+		for (Key key : keyJournal) {
+			if (count++ < keepCount) {
+				kept.append(key.bucket()).append(',').append(key.key()).append('\n');
+			}
+		}
+		keyJournal.close();
+		FileWriter writer = new FileWriter(journal);
+		writer.write(kept.toString());
+		writer.close();
+	}
+
+	@Test
+	public void testAudit() throws Exception {
+		FakeRawClient source = new FakeRawClient();
+		for (Integer k = 0; k < KEY_COUNT; ++k) {
+			source.put("bucket", k.toString(), "1234567890".getBytes());
+		}
+		Connection sourceConnection = new Connection();
+		sourceConnection.riakClient = source;
+		File dumpDirectory = tempFolder.newFolder();
+		BucketDumper dumper = new BucketDumper(sourceConnection, new Connection(), dumpDirectory, false, 4);
+		assertEquals(KEY_COUNT, dumper.dumpBucket("bucket", false, false));
+		Thread.sleep(500); // let the chunk writer threads finish
+
+		Connection destinationConnection = new Connection();
+		destinationConnection.riakClient = new FakeRawClient();
+		BucketLoader loader = new BucketLoader(destinationConnection, new Connection(), dumpDirectory, false, 4, false);
+		assertEquals(KEY_COUNT, loader.LoadBucket("bucket"));
+
+		KeyAudit audit = new KeyAudit(dumpDirectory, 4096);
+		assertTrue(audit.auditBucket("bucket"));
+		File bucketDirectory = new File(dumpDirectory, "bucket");
+		assertEquals(0, keyCount(new File(bucketDirectory, "undumped.keys")));
+		assertEquals(0, keyCount(new File(bucketDirectory, "unloaded.keys")));
+
+		// drop the last keys of the first chunk's loaded keys and of the dumped keys
+		List<File> chunks = BucketChunkSource.chunkFiles(bucketDirectory);
+		File loadedKeys = KeyJournal.createKeyPathFromPath(chunks.get(0), true);
+		int loadedCount = keyCount(loadedKeys);
+		truncate(loadedKeys, loadedCount - 100);
+		File dumpedKeys = new File(bucketDirectory, "dumpedkeys.keys");
+		truncate(dumpedKeys, KEY_COUNT - 10);
+
+		assertFalse(audit.auditBucket("bucket"));
+		assertEquals(1, audit.mismatchedBuckets());
+		assertEquals(10, keyCount(new File(bucketDirectory, "undumped.keys")));
+		// keys no longer in dumpedkeys.keys can't be missed from the load
+		int missedLoads = keyCount(new File(bucketDirectory, "unloaded.keys"));
+		assertTrue(missedLoads <= 100 && missedLoads >= 90);
+		assertFalse(new File(bucketDirectory, "audit.tmp").exists());
+	}
+}
@@ -0,0 +1,179 @@
+package com.basho.proserv.datamigrator;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.BucketChunkSource;
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.RiakObjectBucket;
+import com.basho.proserv.datamigrator.riak.Connection;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.raw.pbc.ConversionUtilWrapper;
+import com.basho.riak.pbc.RiakObject;
+import com.google.protobuf.ByteString;
+
+public class LoadResumeTests {
+	private static final int KEY_COUNT = 1000;
+	private static final int CHUNK_SIZE = 100;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private File writeDump(String... bucketNames) throws Exception {
+		File dumpDirectory = tempFolder.newFolder();
+		for (String bucketName : bucketNames) {
+			RiakObjectBucket bucket = new RiakObjectBucket(new File(dumpDirectory, bucketName),
+					RiakObjectBucket.BucketMode.WRITE, CHUNK_SIZE, false);
+			KeyJournal bucketKeys = new KeyJournal(new File(dumpDirectory, bucketName + "/bucketkeys.keys"),
+					KeyJournal.Mode.WRITE);
+			for (Integer k = 0; k < KEY_COUNT; ++k) {
+				IRiakObject riakObject = ConversionUtilWrapper.convertConcreteToInterface(
+						new RiakObject(ByteString.copyFromUtf8(""),
+								ByteString.copyFromUtf8(bucketName),
+								ByteString.copyFromUtf8(k.toString()),
+								ByteString.copyFromUtf8("1234567890")));
+				bucket.writeRiakObject(riakObject);
+				bucketKeys.write(bucketName, k.toString());
+			}
+			bucket.close();
+			bucketKeys.close();
+		}
+		Thread.sleep(500); // let the chunk writer threads finish
+		return dumpDirectory;
+	}
+
+	private static BucketLoader createLoader(FakeRawClient client, File dumpDirectory, boolean continuous) {
+		Connection connection = new Connection();
+		connection.riakClient = client;
+		return new BucketLoader(connection, new Connection(), dumpDirectory, false, 4, false, 1, continuous);
+	}
+
+	private static int lineCount(File journal) {
+		int count = 0;
+		KeyJournal keyJournal = new KeyJournal(journal, KeyJournal.Mode.READ);
+		for (Key key : keyJournal) {
+			assertFalse(key.errorKey());
+			++count;
+		}
+		keyJournal.close();
+		return count;
+	}
+
+	// Keeps the first keepCount keys of a chunk's journal and drops its marker
+	private static void interruptChunk(File chunkFile, int keepCount) throws Exception {
+		assertTrue(BucketChunkSource.loadedMarker(chunkFile).delete());
+		File journal = KeyJournal.createKeyPathFromPath(chunkFile, true);
+		StringBuilder kept = new StringBuilder();
+		KeyJournal keyJournal = new KeyJournal(journal, KeyJournal.Mode.READ);
+		int count = 0;
+		for (Key key : keyJournal) {
+			if (count++ == keepCount) {
+				break;
+			}
+			kept.append(key.bucket()).append(',').append(key.key()).append('\n');
+		}
+		keyJournal.close();
+		FileWriter writer = new FileWriter(journal);
+		writer.write(kept.toString());
+		writer.close();
+	}
+
+	@Test
+	public void testLoadMarksChunks() throws Exception {
+		File dumpDirectory = writeDump("bucket");
+		FakeRawClient client = new FakeRawClient();
+		BucketLoader loader = createLoader(client, dumpDirectory, false);
+		assertEquals(KEY_COUNT, loader.LoadBucket("bucket"));
+
+		List<File> chunks = BucketChunkSource.chunkFiles(new File(dumpDirectory, "bucket"));
+		assertEquals(KEY_COUNT / CHUNK_SIZE, chunks.size());
+		for (File chunk : chunks) {
+			assertTrue(BucketChunkSource.loadedMarker(chunk).exists());
+			assertEquals(CHUNK_SIZE, lineCount(KeyJournal.createKeyPathFromPath(chunk, true)));
+		}
+
+		// everything is loaded, so a resume reads nothing
+		long stores = client.storeCount.get();
+		assertEquals(0, createLoader(client, dumpDirectory, false).LoadBucket("bucket", true));
+		assertEquals(stores, client.storeCount.get());
+	}
+
+	@Test
+	public void testResumeStoresOnlyUnloadedObjects() throws Exception {
+		File dumpDirectory = writeDump("bucket");
+		FakeRawClient client = new FakeRawClient();
+		assertEquals(KEY_COUNT, createLoader(client, dumpDirectory, false).LoadBucket("bucket"));
+
+		List<File> chunks = BucketChunkSource.chunkFiles(new File(dumpDirectory, "bucket"));
+		interruptChunk(chunks.get(3), 40);
+		assertTrue(BucketChunkSource.loadedMarker(chunks.get(7)).delete());
+		assertTrue(KeyJournal.createKeyPathFromPath(chunks.get(7), true).delete());
+
+		long stores = client.storeCount.get();
+		BucketLoader loader = createLoader(client, dumpDirectory, false);
+		assertEquals(CHUNK_SIZE - 40 + CHUNK_SIZE, loader.LoadBucket("bucket", true));
+		assertEquals(0, loader.errorCount());
+		assertEquals(CHUNK_SIZE - 40 + CHUNK_SIZE, client.storeCount.get() - stores);
+		for (File chunk : chunks) {
+			assertTrue(BucketChunkSource.loadedMarker(chunk).exists());
+		}
+		assertEquals(CHUNK_SIZE, lineCount(KeyJournal.createKeyPathFromPath(chunks.get(3), true)));
+
+		// without resume the markers are ignored and everything is stored again
+		stores = client.storeCount.get();
+		assertEquals(KEY_COUNT, createLoader(client, dumpDirectory, false).LoadBucket("bucket", false));
+		assertEquals(KEY_COUNT, client.storeCount.get() - stores);
+	}
+
+	@Test
+	public void testContinuousResume() throws Exception {
+		File dumpDirectory = writeDump("bucket", "other");
+		FakeRawClient client = new FakeRawClient();
+		Set<String> bucketNames = new HashSet<String>();
+		bucketNames.add("bucket");
+		bucketNames.add("other");
+		assertEquals(2 * KEY_COUNT, createLoader(client, dumpDirectory, true).LoadBuckets(bucketNames));
+
+		interruptChunk(BucketChunkSource.chunkFiles(new File(dumpDirectory, "bucket")).get(0), 10);
+		interruptChunk(BucketChunkSource.chunkFiles(new File(dumpDirectory, "other")).get(5), 70);
+
+		long stores = client.storeCount.get();
+		BucketLoader loader = createLoader(client, dumpDirectory, true);
+		assertEquals(2 * CHUNK_SIZE - 80, loader.LoadBuckets(bucketNames, true));
+		assertEquals(0, loader.errorCount());
+		assertEquals(2 * CHUNK_SIZE - 80, client.storeCount.get() - stores);
+		assertEquals(2, loader.summary.bucketNames().size());
+	}
+
+	@Test
+	public void testDamagedChunkIsNotMarked() throws Exception {
+		File dumpDirectory = writeDump("bucket");
+		List<File> chunks = BucketChunkSource.chunkFiles(new File(dumpDirectory, "bucket"));
+		RandomAccessFile chunk = new RandomAccessFile(chunks.get(2), "rw");
+		chunk.setLength(chunk.length() / 2);
+		chunk.close();
+
+		FakeRawClient client = new FakeRawClient();
+		BucketLoader loader = createLoader(client, dumpDirectory, false);
+		assertTrue(loader.LoadBucket("bucket") < KEY_COUNT);
+		assertTrue(loader.errorCount() > 0);
+		assertFalse(BucketChunkSource.loadedMarker(chunks.get(2)).exists());
+		assertTrue(BucketChunkSource.loadedMarker(chunks.get(3)).exists());
+
+		// a resume reads the damaged chunk again
+		loader = createLoader(client, dumpDirectory, false);
+		loader.LoadBucket("bucket", true);
+		assertTrue(loader.errorCount() > 0);
+	}
+}
@@ -0,0 +1,84 @@
+package com.basho.proserv.datamigrator;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.RiakObjectBucket;
+import com.basho.proserv.datamigrator.riak.Connection;
+import com.basho.riak.client.IRiakObject;
+
+public class ParallelBucketDumperTests {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private FakeRawClient loadClient(int bucketCount) {
+		FakeRawClient client = new FakeRawClient();
+		byte[] value = "1234567890".getBytes();
+		for (Integer b = 0; b < bucketCount; ++b) {
+			// bucket sizes vary so scheduling order matters
+			int keyCount = (b + 1) * 50;
+			for (Integer k = 0; k < keyCount; ++k) {
+				client.put("bucket" + b, k.toString(), value);
+			}
+		}
+		return client;
+	}
+
+	@Test
+	public void testParallelDump() throws Exception {
+		int BUCKET_COUNT = 12;
+		FakeRawClient client = loadClient(BUCKET_COUNT);
+		Connection connection = new Connection();
+		connection.riakClient = client;
+
+		File dumpDirectory = tempFolder.newFolder();
+		BucketDumper dumper = new BucketDumper(connection, new Connection(), dumpDirectory, false, 8, 4);
+
+		long dumpCount = dumper.dumpAllBuckets(false, false);
+
+		long expected = 0;
+		for (int b = 0; b < BUCKET_COUNT; ++b) {
+			expected += (b + 1) * 50;
+		}
+		assertEquals(expected, dumpCount);
+		assertEquals(0, dumper.errorCount());
+		assertEquals(BUCKET_COUNT, dumper.summary.bucketNames().size());
+		assertEquals(expected, dumper.summary.getTotalCount().longValue());
+
+		Thread.sleep(500); // let the chunk writer threads finish
+		for (int b = 0; b < BUCKET_COUNT; ++b) {
+			RiakObjectBucket bucket = new RiakObjectBucket(new File(dumpDirectory, "bucket" + b),
+					RiakObjectBucket.BucketMode.READ, false);
+			Set<String> keys = new HashSet<String>();
+			IRiakObject riakObject = null;
+			while ((riakObject = bucket.readRiakObject()) != null) {
+				assertEquals("bucket" + b, riakObject.getBucket());
+				keys.add(riakObject.getKey());
+			}
+			bucket.close();
+			assertEquals((b + 1) * 50, keys.size());
+		}
+	}
+
+	@Test
+	public void testParallelKeysOnly() throws Exception {
+		FakeRawClient client = loadClient(5);
+		Connection connection = new Connection();
+		connection.riakClient = client;
+
+		BucketDumper dumper = new BucketDumper(connection, new Connection(), tempFolder.newFolder(),
+				false, 4, 3);
+		long keyCount = dumper.dumpAllBuckets(false, true);
+
+		assertEquals(50 + 100 + 150 + 200 + 250, keyCount);
+		assertEquals(0, client.fetchCount.get());
+	}
+}
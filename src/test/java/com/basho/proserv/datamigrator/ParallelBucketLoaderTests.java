@@ -0,0 +1,55 @@
+package com.basho.proserv.datamigrator;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.riak.Connection;
+
+public class ParallelBucketLoaderTests {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testParallelLoad() throws Exception {
+		int BUCKET_COUNT = 10;
+		FakeRawClient source = new FakeRawClient();
+		byte[] value = "1234567890".getBytes();
+		long expected = 0;
+		for (Integer b = 0; b < BUCKET_COUNT; ++b) {
+			// one bucket far larger than the rest
+			int keyCount = b == 0 ? 2000 : 40;
+			for (Integer k = 0; k < keyCount; ++k) {
+				source.put("bucket" + b, k.toString(), value);
+			}
+			expected += keyCount;
+		}
+		Connection sourceConnection = new Connection();
+		sourceConnection.riakClient = source;
+
+		File dumpDirectory = tempFolder.newFolder();
+		BucketDumper dumper = new BucketDumper(sourceConnection, new Connection(), dumpDirectory, false, 4);
+		assertEquals(expected, dumper.dumpAllBuckets(false, false));
+		Thread.sleep(500); // let the chunk writer threads finish
+
+		FakeRawClient destination = new FakeRawClient();
+		Connection destinationConnection = new Connection();
+		destinationConnection.riakClient = destination;
+
+		BucketLoader loader = new BucketLoader(destinationConnection, new Connection(), dumpDirectory,
+				false, 8, false, 4);
+		long loadCount = loader.LoadAllBuckets();
+
+		assertEquals(expected, loadCount);
+		assertEquals(0, loader.errorCount());
+		assertEquals(BUCKET_COUNT, loader.summary.bucketNames().size());
+		for (int b = 0; b < BUCKET_COUNT; ++b) {
+			assertEquals(source.size("bucket" + b), destination.size("bucket" + b));
+		}
+	}
+}
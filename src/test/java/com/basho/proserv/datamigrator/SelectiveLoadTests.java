@@ -0,0 +1,66 @@
+package com.basho.proserv.datamigrator;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.BucketChunkSource;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.RiakObjectBucket;
+import com.basho.proserv.datamigrator.riak.Connection;
+import com.basho.riak.client.builders.RiakObjectBuilder;
+
+public class SelectiveLoadTests {
+	private static final int KEY_COUNT = 1000;
+	private static final int CHUNK_SIZE = 100;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private File writeDump(String... bucketNames) throws Exception {
+		File dumpDirectory = tempFolder.newFolder();
+		for (String bucketName : bucketNames) {
+			RiakObjectBucket bucket = new RiakObjectBucket(new File(dumpDirectory, bucketName),
+					RiakObjectBucket.BucketMode.WRITE, CHUNK_SIZE, false);
+			for (Integer k = 0; k < KEY_COUNT; ++k) {
+				bucket.writeRiakObject(RiakObjectBuilder.newBuilder(bucketName, k.toString())
+						.withValue(bucketName + k).build());
+			}
+			bucket.close();
+		}
+		return dumpDirectory;
+	}
+
+	@Test
+	public void testLoadsOnlyJournalledKeys() throws Exception {
+		File dumpDirectory = writeDump("bucket", "other");
+		File wanted = tempFolder.newFile("wanted.keys");
+		KeyJournal journal = new KeyJournal(wanted, KeyJournal.Mode.WRITE);
+		journal.write("bucket", "5");
+		journal.write("bucket", "550");
+		journal.write("other", "999");
+		journal.write("other", "missing");
+		journal.write("absent", "1");
+		journal.close();
+
+		FakeRawClient client = new FakeRawClient();
+		Connection connection = new Connection();
+		connection.riakClient = client;
+		BucketLoader loader = new BucketLoader(connection, new Connection(), dumpDirectory, false, 4, false);
+		assertEquals(3, loader.loadKeys(wanted));
+		assertEquals(0, loader.errorCount());
+		assertEquals(3, client.storeCount.get());
+		assertEquals("bucket550", client.get("bucket", "550").getValueAsString());
+		assertEquals("other999", client.get("other", "999").getValueAsString());
+		assertNotNull(client.get("bucket", "5"));
+
+		// a selective load is not a resumable load
+		for (File chunk : BucketChunkSource.chunkFiles(new File(dumpDirectory, "bucket"))) {
+			assertFalse(BucketChunkSource.loadedMarker(chunk).exists());
+		}
+	}
+}
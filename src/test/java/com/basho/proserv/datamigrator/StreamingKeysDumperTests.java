@@ -0,0 +1,119 @@
+package com.basho.proserv.datamigrator;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.riak.Connection;
+
+public class StreamingKeysDumperTests {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	/**
+	 * Lists keys slowly, and holds back the second half of a bucket's keys
+	 * until some fetch has happened, which only works if fetching overlaps listing.
+	 */
+	private static class SlowListingClient extends FakeRawClient {
+		public volatile boolean fetchedDuringListing = false;
+
+		@Override
+		public Iterable<String> listKeys(String bucketName) throws IOException {
+			final Iterable<String> keys = super.listKeys(bucketName);
+			final int half = size(bucketName) / 2;
+			return new Iterable<String>() {
+				@Override
+				public Iterator<String> iterator() {
+					final Iterator<String> iterator = keys.iterator();
+					return new Iterator<String>() {
+						private int count = 0;
+
+						@Override
+						public boolean hasNext() {
+							return iterator.hasNext();
+						}
+
+						@Override
+						public String next() {
+							if (++count == half) {
+								long deadline = System.currentTimeMillis() + 5000;
+								while (fetchCount.get() == 0 && System.currentTimeMillis() < deadline) {
+									Thread.yield();
+								}
+								fetchedDuringListing = fetchCount.get() > 0;
+							}
+							return iterator.next();
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+	}
+
+	@Test
+	public void testFetchOverlapsListing() throws Exception {
+		int KEY_COUNT = 5000;
+		SlowListingClient client = new SlowListingClient();
+		byte[] value = "1234567890".getBytes();
+		for (Integer k = 0; k < KEY_COUNT; ++k) {
+			client.put("bucket", k.toString(), value);
+		}
+		Connection connection = new Connection();
+		connection.riakClient = client;
+
+		File dumpDirectory = tempFolder.newFolder();
+		BucketDumper dumper = new BucketDumper(connection, new Connection(), dumpDirectory,
+				false, 4, 1, false, true);
+		assertEquals(KEY_COUNT, dumper.dumpBucket("bucket", false, false));
+		assertTrue(client.fetchedDuringListing);
+		assertEquals(0, dumper.errorCount());
+
+		// the key journal is still written in full
+		KeyJournal bucketKeys = new KeyJournal(new File(dumpDirectory, "bucket/bucketkeys.keys"),
+				KeyJournal.Mode.READ);
+		Set<String> keys = new HashSet<String>();
+		for (Key key : bucketKeys) {
+			assertEquals("bucket", key.bucket());
+			keys.add(key.key());
+		}
+		bucketKeys.close();
+		assertEquals(KEY_COUNT, keys.size());
+	}
+
+	@Test
+	public void testContinuousStreaming() throws Exception {
+		FakeRawClient client = new FakeRawClient();
+		byte[] value = "1234567890".getBytes();
+		Set<String> bucketNames = new HashSet<String>();
+		for (Integer b = 0; b < 20; ++b) {
+			bucketNames.add("bucket" + b);
+			for (Integer k = 0; k < 100; ++k) {
+				client.put("bucket" + b, k.toString(), value);
+			}
+		}
+		Connection connection = new Connection();
+		connection.riakClient = client;
+
+		BucketDumper dumper = new BucketDumper(connection, new Connection(), tempFolder.newFolder(),
+				false, 4, 1, true, true);
+		assertEquals(2000, dumper.dumpBuckets(bucketNames, false, false));
+		assertEquals(20, dumper.summary.bucketNames().size());
+		assertEquals(2000, dumper.summary.getTotalCount().longValue());
+	}
+}
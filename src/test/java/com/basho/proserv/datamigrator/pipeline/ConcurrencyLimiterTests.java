@@ -0,0 +1,102 @@
+package com.basho.proserv.datamigrator.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTests {
+	private static final long TARGET_LATENCY = 100;
+
+	// Runs limit() requests at once, each taking latencyMillis
+	private static void runWindow(ConcurrencyLimiter limiter, long latencyMillis, boolean success)
+			throws InterruptedException {
+		int count = Math.max(10, limiter.limit());
+		long[] starts = new long[count];
+		int acquired = 0;
+		for (int i = 0; i < count; ++i) {
+			if (acquired == limiter.limit()) {
+				limiter.release(starts[i - acquired] - latencyMillis * 1000000L, success);
+				--acquired;
+			}
+			starts[i] = limiter.acquire();
+			++acquired;
+		}
+		for (int i = count - acquired; i < count; ++i) {
+			limiter.release(starts[i] - latencyMillis * 1000000L, success);
+		}
+	}
+
+	@Test
+	public void testGrowsWhenFastAndSaturated() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 16, TARGET_LATENCY);
+		int initial = limiter.limit();
+		for (int i = 0; i < 20; ++i) {
+			runWindow(limiter, 1, true);
+		}
+		assertTrue(limiter.limit() > initial);
+		assertTrue(limiter.limit() <= 16);
+	}
+
+	@Test
+	public void testDoesNotGrowWhenStarved() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 16, TARGET_LATENCY);
+		int initial = limiter.limit();
+		for (int i = 0; i < 100; ++i) {
+			limiter.release(limiter.acquire(), true);
+		}
+		assertEquals(initial, limiter.limit());
+	}
+
+	@Test
+	public void testShrinksOnSlowResponses() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 16, TARGET_LATENCY);
+		int initial = limiter.limit();
+		runWindow(limiter, TARGET_LATENCY * 2, true);
+		assertTrue(limiter.limit() < initial);
+		for (int i = 0; i < 20; ++i) {
+			runWindow(limiter, TARGET_LATENCY * 10, true);
+		}
+		assertEquals(1, limiter.limit());
+	}
+
+	@Test
+	public void testShrinksOnFailures() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 16, TARGET_LATENCY);
+		int initial = limiter.limit();
+		limiter.release(limiter.acquire(), false);
+		assertTrue(limiter.limit() < initial);
+		for (int i = 0; i < 20; ++i) {
+			runWindow(limiter, 1, false);
+		}
+		assertEquals(2, limiter.limit());
+	}
+
+	@Test
+	public void testBlocksAtLimit() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 2, TARGET_LATENCY);
+		assertEquals(1, limiter.limit());
+		long start = limiter.acquire();
+
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread waiter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					limiter.release(limiter.acquire(), true);
+					acquired.countDown();
+				} catch (InterruptedException e) {
+					// no-op
+				}
+			}
+		});
+		waiter.start();
+
+		assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+		limiter.release(start, true);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		assertEquals(0, limiter.inUse());
+	}
+}
@@ -0,0 +1,188 @@
+package com.basho.proserv.datamigrator.pipeline;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PipelineTests {
+
+	private static List<Integer> range(int count) {
+		List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < count; ++i) {
+			items.add(i);
+		}
+		return items;
+	}
+
+	private static class DoublingStageFactory implements StageFactory<Integer, Integer> {
+		@Override
+		public Stage<Integer, Integer> createStage(int workerId) {
+			return new Stage<Integer, Integer>() {
+				@Override
+				public void process(Integer item, Emitter<Integer> emitter)
+						throws IOException, InterruptedException {
+					emitter.emit(item);
+					emitter.emit(item);
+				}
+			};
+		}
+	}
+
+	@Test
+	public void testCompletes() throws Exception {
+		int TEST_SIZE = 100000;
+		Pipeline<Integer, Integer> pipeline = new Pipeline<Integer, Integer>("Test", range(TEST_SIZE),
+				new DoublingStageFactory(), 8, 100, new PipelineExecutor(16));
+		pipeline.start();
+
+		long sum = 0;
+		int count = 0;
+		Integer item = null;
+		while ((item = pipeline.next()) != null) {
+			sum += item;
+			++count;
+		}
+
+		assertEquals(TEST_SIZE * 2, count);
+		assertEquals((long)TEST_SIZE * (TEST_SIZE - 1), sum);
+		assertNull(pipeline.next());
+	}
+
+	@Test
+	public void testSeveralSources() throws Exception {
+		List<List<Integer>> sources = new ArrayList<List<Integer>>();
+		sources.add(range(30000));
+		sources.add(range(0));
+		sources.add(range(20000));
+		PipelineExecutor executor = new PipelineExecutor(7);
+		Pipeline<Integer, Integer> pipeline = new Pipeline<Integer, Integer>("Test", sources,
+				new DoublingStageFactory(), 4, 100, executor);
+		pipeline.start();
+		assertEquals(0, executor.availableThreads());
+
+		int count = 0;
+		while (pipeline.next() != null) {
+			++count;
+		}
+		assertEquals(100000, count);
+	}
+
+	@Test
+	public void testEmptySource() throws Exception {
+		Pipeline<Integer, Integer> pipeline = new Pipeline<Integer, Integer>("Test", range(0),
+				new DoublingStageFactory(), 4);
+		pipeline.start();
+		assertNull(pipeline.next());
+	}
+
+	@Test
+	public void testWorkerErrorPropagates() throws Exception {
+		StageFactory<Integer, Integer> failing = new StageFactory<Integer, Integer>() {
+			@Override
+			public Stage<Integer, Integer> createStage(int workerId) {
+				return new Stage<Integer, Integer>() {
+					@Override
+					public void process(Integer item, Emitter<Integer> emitter)
+							throws IOException, InterruptedException {
+						if (item == 5000) {
+							throw new IOException("boom");
+						}
+						emitter.emit(item);
+					}
+				};
+			}
+		};
+		PipelineExecutor executor = new PipelineExecutor(8);
+		Pipeline<Integer, Integer> pipeline = new Pipeline<Integer, Integer>("Test", range(100000),
+				failing, 4, 100, executor);
+		pipeline.start();
+
+		try {
+			while (pipeline.next() != null) {
+				// drain
+			}
+			fail("Expected worker error");
+		} catch (IOException e) {
+			assertEquals("boom", e.getMessage());
+		}
+
+		// every reserved thread is eventually handed back
+		long deadline = System.currentTimeMillis() + 5000;
+		while (executor.availableThreads() != 8 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(8, executor.availableThreads());
+	}
+
+	@Test
+	public void testSourceErrorPropagates() throws Exception {
+		Iterable<Integer> source = new Iterable<Integer>() {
+			@Override
+			public Iterator<Integer> iterator() {
+				return new Iterator<Integer>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return true;
+					}
+
+					@Override
+					public Integer next() {
+						if (next == 1000) {
+							throw new IllegalStateException("listing failed");
+						}
+						return next++;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+		Pipeline<Integer, Integer> pipeline = new Pipeline<Integer, Integer>("Test", source,
+				new DoublingStageFactory(), 4);
+		pipeline.start();
+
+		try {
+			while (pipeline.next() != null) {
+				// drain
+			}
+			fail("Expected source error");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testPipelinesShareExecutorBudget() throws Exception {
+		PipelineExecutor executor = new PipelineExecutor(5);
+		Pipeline<Integer, Integer> first = new Pipeline<Integer, Integer>("First", range(1000),
+				new DoublingStageFactory(), 4, 10, executor);
+		first.start();
+		assertEquals(0, executor.availableThreads());
+
+		int count = 0;
+		while (first.next() != null) {
+			++count;
+		}
+		assertEquals(2000, count);
+
+		// blocks until the first pipeline has handed its threads back
+		Pipeline<Integer, Integer> second = new Pipeline<Integer, Integer>("Second", range(1000),
+				new DoublingStageFactory(), 4, 10, executor);
+		second.start();
+		count = 0;
+		while (second.next() != null) {
+			++count;
+		}
+		assertEquals(2000, count);
+	}
+}
@@ -0,0 +1,61 @@
+package com.basho.proserv.datamigrator.pipeline;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class RateLimiterTests {
+
+	@Test
+	public void testLimitsRate() throws Exception {
+		RateLimiter limiter = new RateLimiter(100);
+		long start = System.currentTimeMillis();
+		// the first second's worth is available straight away
+		for (int i = 0; i < 150; ++i) {
+			limiter.acquire(1);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("elapsed " + elapsed, elapsed >= 400);
+	}
+
+	@Test
+	public void testUnlimited() throws Exception {
+		RateLimiter limiter = new RateLimiter(0);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 100000; ++i) {
+			limiter.acquire(1000);
+		}
+		assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+
+	@Test
+	public void testDebtIsPaidOff() throws Exception {
+		RateLimiter limiter = new RateLimiter(1000);
+		limiter.consume(1500);
+		long start = System.currentTimeMillis();
+		limiter.acquire(0);
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("elapsed " + elapsed, elapsed >= 400);
+	}
+
+	@Test
+	public void testRaisingRateWakesWaiters() throws Exception {
+		final RateLimiter limiter = new RateLimiter(1);
+		limiter.acquire(1);
+		Thread waiter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					limiter.acquire(1);
+				} catch (InterruptedException e) {
+					// no-op
+				}
+			}
+		});
+		waiter.start();
+		Thread.sleep(50);
+		limiter.setRate(0);
+		waiter.join(500);
+		assertFalse(waiter.isAlive());
+	}
+}
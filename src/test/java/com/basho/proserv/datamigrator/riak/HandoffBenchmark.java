@@ -0,0 +1,123 @@
+package com.basho.proserv.datamigrator.riak;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.locks.LockSupport;
+
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.pbc.RiakObject;
+import com.google.protobuf.ByteString;
+
+/**
+ * Measures throughput and worker-to-consumer handoff latency of
+ * ThreadedClientDataReader.  Not run as part of the unit tests; invoke
+ * main() directly:
+ *
+ *   HandoffBenchmark [keyCount] [workerCount] [fetchLatencyMicros]
+ *
+ * Each fetched object carries the System.nanoTime() at which the worker
+ * produced it, so the consumer can measure how long the object sat in the
+ * return queue before readObject() handed it back.
+ */
+public class HandoffBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int workerCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		final long fetchLatencyMicros = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+		// warm up
+		run(keyCount / 10, workerCount, fetchLatencyMicros);
+
+		long[] latencies = new long[keyCount];
+		long start = System.nanoTime();
+		int readCount = run(keyCount, workerCount, fetchLatencyMicros, latencies);
+		long elapsed = System.nanoTime() - start;
+
+		Arrays.sort(latencies, 0, readCount);
+		System.out.println(String.format("keys=%d workers=%d fetchLatency=%dus",
+				keyCount, workerCount, fetchLatencyMicros));
+		System.out.println(String.format("throughput: %.0f obj/sec", readCount / (elapsed / 1e9)));
+		System.out.println(String.format("handoff p50: %.3f ms  p99: %.3f ms  max: %.3f ms",
+				latencies[readCount / 2] / 1e6,
+				latencies[(int)(readCount * 0.99)] / 1e6,
+				latencies[readCount - 1] / 1e6));
+	}
+
+	private static int run(int keyCount, int workerCount, long fetchLatencyMicros) throws IOException {
+		return run(keyCount, workerCount, fetchLatencyMicros, new long[keyCount]);
+	}
+
+	private static int run(int keyCount, int workerCount, final long fetchLatencyMicros,
+			long[] latencies) throws IOException {
+		IClientReaderFactory factory = new IClientReaderFactory() {
+			@Override
+			public IClientReader createClientReader(Connection connection) {
+				return new StampingClientReader(fetchLatencyMicros);
+			}
+		};
+		ThreadedClientDataReader reader = new ThreadedClientDataReader(new Connection(),
+				factory, new KeySource(keyCount), workerCount);
+
+		int readCount = 0;
+		IRiakObject riakObject = null;
+		while ((riakObject = reader.readObject()) != null) {
+			long stamp = ByteBuffer.wrap(riakObject.getValue()).getLong();
+			latencies[readCount++] = System.nanoTime() - stamp;
+		}
+		return readCount;
+	}
+
+	private static class StampingClientReader implements IClientReader {
+		private final long latencyNanos;
+
+		public StampingClientReader(long latencyMicros) {
+			this.latencyNanos = latencyMicros * 1000;
+		}
+
+		@Override
+		public RiakObject[] fetchRiakObject(String bucket, String key) throws IOException {
+			if (this.latencyNanos > 0) {
+				LockSupport.parkNanos(this.latencyNanos); // simulated round trip
+			}
+			byte[] value = ByteBuffer.allocate(8).putLong(System.nanoTime()).array();
+			return new RiakObject[] { new RiakObject(ByteString.EMPTY,
+					ByteString.copyFromUtf8(bucket),
+					ByteString.copyFromUtf8(key),
+					ByteString.copyFrom(value)) };
+		}
+	}
+
+	private static class KeySource implements Iterable<Key> {
+		private final int keyCount;
+
+		public KeySource(int keyCount) {
+			this.keyCount = keyCount;
+		}
+
+		@Override
+		public Iterator<Key> iterator() {
+			return new Iterator<Key>() {
+				private int next = 0;
+
+				@Override
+				public boolean hasNext() {
+					return next < keyCount;
+				}
+
+				@Override
+				public Key next() {
+					return new Key("benchBucket", Integer.toString(next++));
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+}
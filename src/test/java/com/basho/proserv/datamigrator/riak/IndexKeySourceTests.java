@@ -0,0 +1,173 @@
+package com.basho.proserv.datamigrator.riak;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.basho.proserv.datamigrator.FakeRawClient;
+import com.basho.proserv.datamigrator.io.Key;
+
+public class IndexKeySourceTests {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static FakeRawClient loadClient(int keyCount) {
+		FakeRawClient client = new FakeRawClient();
+		byte[] value = "1234567890".getBytes();
+		for (Integer k = 0; k < keyCount; ++k) {
+			client.put("bucket", "key" + k, value);
+			client.put("bucket", k.toString(), value);
+			client.put("bucket", "Z" + k, value);
+		}
+		client.put("other", "key0", value);
+		return client;
+	}
+
+	private static Set<String> listAll(Iterable<Key> source) {
+		Set<String> keys = new HashSet<String>();
+		for (Key key : source) {
+			assertEquals("bucket", key.bucket());
+			assertTrue("duplicate key " + key.key(), keys.add(key.key()));
+		}
+		return keys;
+	}
+
+	@Test
+	public void testListsEveryKeyOnce() throws Exception {
+		FakeRawClient client = loadClient(1000);
+		Connection connection = new Connection();
+		connection.riakClient = client;
+
+		for (int ranges : new int[] {1, 2, 7, 16, 100}) {
+			Set<String> keys = listAll(new IndexKeySource(connection, "bucket", ranges));
+			assertEquals(3000, keys.size());
+		}
+	}
+
+	@Test
+	public void testFailedRangesAreSplit() throws Exception {
+		FakeRawClient client = loadClient(1000);
+		// any query over 200 keys fails 20 times before succeeding
+		client.maxIndexRangeSize = 200;
+		client.indexFailures.set(20);
+		Connection connection = new Connection();
+		connection.riakClient = client;
+
+		Set<String> keys = listAll(new IndexKeySource(connection, "bucket", 4));
+		assertEquals(3000, keys.size());
+	}
+
+	@Test
+	public void testListsNonBmpKeysOnce() throws Exception {
+		FakeRawClient client = loadClient(100);
+		byte[] value = "1234567890".getBytes();
+		// U+FFFD sorts above surrogates as UTF-16 but below U+1F600 as UTF-8
+		for (String prefix : new String[] { "\u00e9", "\ue000", "\ufffd", "\ud83d\ude00", "\udbff\udfff" }) {
+			for (Integer k = 0; k < 100; ++k) {
+				client.put("bucket", prefix + k, value);
+			}
+		}
+		Connection connection = new Connection();
+		connection.riakClient = client;
+
+		for (int ranges : new int[] {1, 2, 7, 100}) {
+			Set<String> keys = listAll(new IndexKeySource(connection, "bucket", ranges));
+			assertEquals(800, keys.size());
+			assertTrue(keys.contains("\ud83d\ude0099"));
+			assertTrue(keys.contains("\udbff\udfff0"));
+		}
+	}
+
+	@Test
+	public void testRepeatedSplitsWithNonBmpKeys() throws Exception {
+		FakeRawClient client = loadClient(100);
+		byte[] value = "1234567890".getBytes();
+		for (Integer k = 0; k < 150; ++k) {
+			client.put("bucket", "\ud83d\ude00" + k, value);
+		}
+		for (Integer k = 0; k < 30; ++k) {
+			client.put("bucket", "\ufffd" + k, value);
+		}
+		// every query over 120 keys fails, so ranges are split until none is,
+		// down to the character after the emoji
+		client.maxIndexRangeSize = 120;
+		client.indexFailures.set(Integer.MAX_VALUE);
+		Connection connection = new Connection();
+		connection.riakClient = client;
+
+		Set<String> keys = listAll(new IndexKeySource(connection, "bucket", 2));
+		assertEquals(480, keys.size());
+	}
+
+	@Test
+	public void testMidpoint() {
+		String[][] ranges = { {"", null}, {"a", "b"}, {"a", "c"}, {"abc", "abd"}, 
+				{"a", "a\u0000\u0005"}, {"Z", null}, {"key1", "key2"}, {"\ud7ff", "\ue001"},
+				{"\ufffd", "\ud83d\ude00"}, {"\ud83d\ude00", "\ud83d\ude01"}, {"\ud83d\ude00", null},
+				{"\udbff\udfff", null}, {"\ud800\udc00", "\ud800\udc01"} };
+		for (String[] range : ranges) {
+			String mid = IndexKeySource.midpoint(range[0], range[1]);
+			assertNotNull(mid);
+			assertWellFormed(mid);
+			assertTrue(IndexKeySource.KEY_ORDER.compare(mid, range[0]) > 0);
+			if (range[1] != null) {
+				assertTrue(IndexKeySource.KEY_ORDER.compare(mid, range[1]) < 0);
+			}
+		}
+		assertNull(IndexKeySource.midpoint("a", "a"));
+	}
+
+	@Test
+	public void testRepeatedMidpointsStayWellFormed() {
+		// halve towards each end in turn, as repeated splits of a failing range do
+		for (String high : new String[] { null, "\ud83d\ude00", "\uffff" }) {
+			String low = "";
+			String top = high;
+			for (int depth = 0; depth < 40; ++depth) {
+				String mid = IndexKeySource.midpoint(low, top);
+				if (mid == null) {
+					break;
+				}
+				assertWellFormed(mid);
+				assertTrue(IndexKeySource.KEY_ORDER.compare(mid, low) > 0);
+				assertTrue(top == null || IndexKeySource.KEY_ORDER.compare(mid, top) < 0);
+				if (depth % 2 == 0) {
+					low = mid;
+				} else {
+					top = mid;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testKeyOrderIsUtf8Order() {
+		String[] ordered = { "", "a", "a\u0000", "\u00e9", "\ud7ff", "\ue000", "\ufffd", "\ud800\udc00",
+				"\ud83d\ude00", "\udbff\udfff" };
+		for (int i = 0; i < ordered.length; ++i) {
+			for (int j = 0; j < ordered.length; ++j) {
+				int expected = Integer.signum(compareUtf8(ordered[i], ordered[j]));
+				assertEquals(Integer.signum(i - j), expected);
+				assertEquals(expected, Integer.signum(IndexKeySource.KEY_ORDER.compare(ordered[i], ordered[j])));
+			}
+		}
+	}
+
+	private static int compareUtf8(String a, String b) {
+		byte[] aBytes = a.getBytes(UTF8);
+		byte[] bBytes = b.getBytes(UTF8);
+		for (int i = 0; i < aBytes.length && i < bBytes.length; ++i) {
+			if (aBytes[i] != bBytes[i]) {
+				return (aBytes[i] & 0xff) - (bBytes[i] & 0xff);
+			}
+		}
+		return aBytes.length - bBytes.length;
+	}
+
+	private static void assertWellFormed(String key) {
+		assertEquals(key, new String(key.getBytes(UTF8), UTF8));
+	}
+}
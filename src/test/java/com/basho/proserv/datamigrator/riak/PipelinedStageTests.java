@@ -0,0 +1,141 @@
+package com.basho.proserv.datamigrator.riak;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.pipeline.ConcurrencyLimiter;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.builders.RiakObjectBuilder;
+import com.basho.riak.pbc.FakePBServer;
+
+public class PipelinedStageTests {
+	private static final int LATENCY_MILLIS = 50;
+	private static final int WORKERS = 4;
+	private static final int OBJECT_COUNT = 800;
+
+	private FakePBServer server;
+	private Connection connection;
+
+	@Before
+	public void setUp() throws Exception {
+		this.server = new FakePBServer(LATENCY_MILLIS);
+		this.connection = new Connection();
+		assertTrue(this.connection.connectPipelinedPB(Collections.singleton("127.0.0.1"), this.server.port(), 2, 64));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.connection.pipelinedClient.close();
+		this.server.close();
+	}
+
+	private static List<IRiakObject> objects(int count) {
+		List<IRiakObject> objects = new ArrayList<IRiakObject>();
+		for (int i = 0; i < count; ++i) {
+			objects.add(RiakObjectBuilder.newBuilder("bucket", "key" + i).withValue("value" + i).build());
+		}
+		return objects;
+	}
+
+	private static List<Key> keys(int count) {
+		List<Key> keys = new ArrayList<Key>();
+		for (int i = 0; i < count; ++i) {
+			keys.add(new Key("bucket", "key" + i));
+		}
+		return keys;
+	}
+
+	private long store(List<IRiakObject> objects) throws IOException {
+		long start = System.currentTimeMillis();
+		ThreadedClientDataWriter writer = new ThreadedClientDataWriter(this.connection, new ClientWriterFactory(),
+				objects, WORKERS);
+		int stored = 0;
+		while (writer.writeObject() != null) {
+			++stored;
+		}
+		assertEquals(objects.size(), stored);
+		return System.currentTimeMillis() - start;
+	}
+
+	@Test
+	public void testFewWorkersKeepManyRequestsInFlight() throws Exception {
+		long elapsed = this.store(objects(OBJECT_COUNT));
+		assertEquals(OBJECT_COUNT, this.server.size());
+		// one request per worker at a time would take OBJECT_COUNT / WORKERS round trips
+		long synchronous = (long)OBJECT_COUNT / WORKERS * LATENCY_MILLIS;
+		assertTrue("took " + elapsed + "ms", elapsed < synchronous / 2);
+		assertTrue(this.server.maxOutstanding.get() > WORKERS);
+
+		long start = System.currentTimeMillis();
+		ThreadedClientDataReader reader = new ThreadedClientDataReader(this.connection, new ClientReaderFactory(),
+				keys(OBJECT_COUNT), WORKERS);
+		Set<String> fetched = new HashSet<String>();
+		IRiakObject riakObject = null;
+		while ((riakObject = reader.readObject()) != null) {
+			assertEquals("value" + riakObject.getKey().substring(3), riakObject.getValueAsString());
+			fetched.add(riakObject.getKey());
+		}
+		assertEquals(OBJECT_COUNT, fetched.size());
+		assertTrue(System.currentTimeMillis() - start < synchronous / 2);
+
+		ThreadedClientKeyReader keyReader = new ThreadedClientKeyReader(this.connection, new ClientReaderFactory(),
+				keys(OBJECT_COUNT + 10), WORKERS);
+		int found = 0;
+		int missing = 0;
+		FetchResult result = null;
+		while ((result = keyReader.readKey()) != null) {
+			if (result.objects().length == 0) {
+				++missing;
+			} else {
+				++found;
+			}
+		}
+		assertEquals(OBJECT_COUNT, found);
+		assertEquals(10, missing);
+
+		start = System.currentTimeMillis();
+		ThreadedClientDataDeleter deleter = new ThreadedClientDataDeleter(this.connection, keys(OBJECT_COUNT),
+				WORKERS);
+		int deleted = 0;
+		while (deleter.deleteObject() != null) {
+			++deleted;
+		}
+		assertEquals(OBJECT_COUNT, deleted);
+		assertEquals(0, this.server.size());
+		assertTrue(System.currentTimeMillis() - start < synchronous / 2);
+	}
+
+	@Test
+	public void testConcurrencyLimiterCapsInFlight() throws Exception {
+		this.connection.concurrencyLimiter = new ConcurrencyLimiter(8, 8, 1000);
+		this.store(objects(200));
+		assertEquals(200, this.server.size());
+		assertTrue(this.server.maxOutstanding.get() <= 8);
+		assertEquals(0, this.connection.concurrencyLimiter.inUse());
+	}
+
+	@Test
+	public void testFailedRequestsAreRetriedThenFail() throws Exception {
+		List<IRiakObject> objects = objects(50);
+		objects.add(RiakObjectBuilder.newBuilder("bucket", "error").withValue("value").build());
+		try {
+			this.store(objects);
+			fail("Expected the store of the error key to fail");
+		} catch (IOException e) {
+			// expected, once the retries are used up
+		}
+		// the first attempt and Connection.MAX_RETRIES retries
+		assertTrue(this.server.requestCount.get() >= 50 + 1 + Connection.MAX_RETRIES);
+	}
+}
@@ -4,11 +4,14 @@ package com.basho.proserv.datamigrator.riak;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
 
 import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.pipeline.PipelineExecutor;
 import com.basho.riak.client.IRiakObject;
 import com.basho.riak.pbc.RiakObject;
 
@@ -46,4 +49,36 @@ public class ThreadedClientDataReaderTests {
 		
 		assertTrue(readCount == TEST_SIZE);
 	}
+
+	@Test
+	public void testFetchListener() throws Exception {
+		int TEST_SIZE = 10000;
+		
+		List<Key> dummyKeys = new ArrayList<Key>();
+		for (Integer i = 0; i < TEST_SIZE; ++i) {
+			dummyKeys.add(new Key("fakeBucket", i.toString()));
+		}
+		
+		final AtomicLong fetchedCount = new AtomicLong(0);
+		final Thread mainThread = Thread.currentThread();
+		ThreadedClientDataReader reader = 
+				new ThreadedClientDataReader(new Connection(), 
+						new DummyClientReaderFactory(), 
+						Collections.singletonList(dummyKeys),
+						8,
+						PipelineExecutor.getDefault(),
+						new IFetchListener() {
+							@Override
+							public void fetched(IRiakObject riakObject) {
+								assertNotSame(mainThread, Thread.currentThread());
+								fetchedCount.incrementAndGet();
+							}
+						});
+		
+		while (!reader.awaitCompletion(100)) {
+			// waiting
+		}
+		assertEquals(TEST_SIZE, fetchedCount.get());
+		assertNull(reader.readObject());
+	}
 }
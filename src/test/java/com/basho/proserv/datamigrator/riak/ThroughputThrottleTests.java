@@ -0,0 +1,82 @@
+package com.basho.proserv.datamigrator.riak;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ThroughputThrottleTests {
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private static void write(File file, String contents, long modified) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		writer.write(contents);
+		writer.close();
+		file.setLastModified(modified);
+	}
+
+	private static long at(int hour, int minute) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.HOUR_OF_DAY, hour);
+		calendar.set(Calendar.MINUTE, minute);
+		return calendar.getTimeInMillis();
+	}
+
+	@Test
+	public void testParseSchedule() throws Exception {
+		RateSchedule schedule = RateSchedule.parse(Arrays.asList(
+				"# business hours",
+				"09:00-18:00 500 4M",
+				"",
+				"22:00-06:00 - 1k"));
+		assertEquals(2, schedule.windows().size());
+
+		RateSchedule.Window day = schedule.windowAt(9 * 60);
+		assertEquals(500, day.objectsPerSecond());
+		assertEquals(4 * 1024 * 1024, day.bytesPerSecond());
+		assertNull(schedule.windowAt(18 * 60));
+
+		RateSchedule.Window night = schedule.windowAt(23 * 60);
+		assertSame(night, schedule.windowAt(5 * 60 + 59));
+		assertEquals(0, night.objectsPerSecond());
+		assertEquals(1024, night.bytesPerSecond());
+	}
+
+	@Test(expected = IOException.class)
+	public void testBadSchedule() throws Exception {
+		RateSchedule.parse(Arrays.asList("09:00-25:00 500 4M"));
+	}
+
+	@Test
+	public void testScheduleAndReload() throws Exception {
+		File file = this.tempFolder.newFile("schedule");
+		long modified = System.currentTimeMillis() - 10000;
+		write(file, "09:00-18:00 100 1M\n", modified);
+
+		ThroughputThrottle throttle = new ThroughputThrottle(1000, 0, file);
+		throttle.update(at(12, 0));
+		assertEquals(100, throttle.objectsPerSecond());
+		assertEquals(1024 * 1024, throttle.bytesPerSecond());
+		throttle.update(at(20, 0));
+		assertEquals(1000, throttle.objectsPerSecond());
+		assertEquals(0, throttle.bytesPerSecond());
+
+		write(file, "00:00-24:00 50 -\n", modified + 5000);
+		throttle.update(at(20, 0));
+		assertEquals(50, throttle.objectsPerSecond());
+		assertEquals(0, throttle.bytesPerSecond());
+
+		// a broken edit keeps the previous schedule
+		write(file, "whenever 10\n", modified + 6000);
+		throttle.update(at(12, 0));
+		assertEquals(50, throttle.objectsPerSecond());
+	}
+}
@@ -0,0 +1,125 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.BlockCompressor;
+import com.basho.proserv.datamigrator.io.ChunkCodec;
+import com.basho.proserv.datamigrator.io.ChunkIndex;
+import com.basho.proserv.datamigrator.io.RiakObjectReader;
+import com.basho.proserv.datamigrator.io.RiakObjectWriter;
+import com.basho.proserv.datamigrator.io.SyncPolicy;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.builders.RiakObjectBuilder;
+
+public class BlockCompressorTests {
+	// enough objects for a few dozen blocks
+	private static final int OBJECT_COUNT = 20000;
+
+	private static BlockCompressor compressor = null;
+
+	@Rule
+	public TemporaryFolder chunkFolder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void startCompressor() {
+		compressor = new BlockCompressor(4);
+	}
+
+	@AfterClass
+	public static void stopCompressor() {
+		compressor.shutdown();
+	}
+
+	private static String value(int i) {
+		return "{\"id\":" + i + ",\"name\":\"user" + i + "\",\"tags\":[\"a\",\"b\",\"c\"],\"score\":" + (i * 31 % 1000) + "}";
+	}
+
+	private File writeChunk(ChunkCodec codec, BlockCompressor compressor) {
+		return this.writeChunk(codec, ChunkCodec.Format.FRAMED, compressor);
+	}
+
+	private File writeChunk(ChunkCodec codec, ChunkCodec.Format format, BlockCompressor compressor) {
+		File file = new File(this.chunkFolder.getRoot(), format + "-" + codec.getType() + "-" + compressor.threads() + ".data");
+		RiakObjectWriter writer = new RiakObjectWriter(file, SyncPolicy.CHUNK, codec, format, compressor);
+		for (int i = 0; i < OBJECT_COUNT; ++i) {
+			IRiakObject riakObject = RiakObjectBuilder.newBuilder("Test", "key" + i)
+					.withValue(value(i)).build();
+			assertTrue(writer.writeRiakObject(riakObject));
+		}
+		writer.close();
+		assertTrue(writer.isCommitted());
+		return file;
+	}
+
+	private static void assertReads(File file) {
+		RiakObjectReader reader = new RiakObjectReader(file, false);
+		IRiakObject riakObject = null;
+		int count = 0;
+		while ((riakObject = reader.readRiakObject()) != null) {
+			assertEquals("key" + count, riakObject.getKey());
+			assertEquals(value(count), riakObject.getValueAsString());
+			++count;
+		}
+		reader.close();
+		assertEquals(OBJECT_COUNT, count);
+		assertEquals(0, reader.errorCount());
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		for (ChunkCodec codec : new ChunkCodec[] { ChunkCodec.NONE, ChunkCodec.gzip(6),
+				ChunkCodec.LZ4, ChunkCodec.SNAPPY, ChunkCodec.zstd(3) }) {
+			File file = this.writeChunk(codec, compressor);
+			assertReads(file);
+		}
+	}
+
+	@Test
+	public void testGzipIsMultiMember() throws Exception {
+		File parallel = this.writeChunk(ChunkCodec.gzip(6), ChunkCodec.Format.PLAIN, compressor);
+		File serial = this.writeChunk(ChunkCodec.gzip(6), ChunkCodec.Format.PLAIN, new BlockCompressor(1));
+		assertTrue(parallel.length() > BlockCompressor.BLOCK_SIZE / 10);
+		assertEquals(uncompressedLength(serial), uncompressedLength(parallel));
+		// a block per member however many threads compress them, so the
+		// chunk's index can name blocks that decompress on their own
+		assertEquals(serial.length(), parallel.length());
+		assertTrue(ChunkIndex.read(ChunkIndex.indexFile(serial)).blockCount() > 1);
+	}
+
+	private static long uncompressedLength(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(file)));
+		long length = 0;
+		try {
+			byte[] buffer = new byte[8192];
+			int count = 0;
+			while ((count = in.read(buffer)) >= 0) {
+				length += count;
+			}
+		} finally {
+			in.close();
+		}
+		return length;
+	}
+
+	@Test
+	public void testInvalidThreads() {
+		try {
+			new BlockCompressor(0);
+			fail("Created a compressor without threads");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
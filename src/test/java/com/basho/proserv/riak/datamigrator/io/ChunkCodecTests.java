@@ -0,0 +1,115 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.BlockCompressor;
+import com.basho.proserv.datamigrator.io.ChunkCodec;
+import com.basho.proserv.datamigrator.io.RiakObjectBucket;
+import com.basho.proserv.datamigrator.io.RiakObjectReader;
+import com.basho.proserv.datamigrator.io.RiakObjectWriter;
+import com.basho.proserv.datamigrator.io.SyncPolicy;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.builders.RiakObjectBuilder;
+
+public class ChunkCodecTests {
+	private static final int OBJECT_COUNT = 2000;
+
+	@Rule
+	public TemporaryFolder chunkFolder = new TemporaryFolder();
+
+	private static ChunkCodec[] codecs() {
+		return new ChunkCodec[] { ChunkCodec.NONE, ChunkCodec.gzip(1), ChunkCodec.gzip(9),
+				ChunkCodec.LZ4, ChunkCodec.SNAPPY, ChunkCodec.zstd(1), ChunkCodec.zstd(19) };
+	}
+
+	private static void writeChunk(File file, ChunkCodec codec, ChunkCodec.Format format, String prefix) {
+		RiakObjectWriter writer = new RiakObjectWriter(file, SyncPolicy.NONE, codec, format,
+				BlockCompressor.getDefault());
+		for (int i = 0; i < OBJECT_COUNT; ++i) {
+			IRiakObject riakObject = RiakObjectBuilder.newBuilder("Test", prefix + i)
+					.withValue("{\"id\":" + i + ",\"name\":\"user" + i + "\"}").build();
+			assertTrue(writer.writeRiakObject(riakObject));
+		}
+		writer.close();
+		assertTrue(writer.isCommitted());
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		for (ChunkCodec.Format format : ChunkCodec.Format.values()) {
+			for (ChunkCodec codec : codecs()) {
+				this.assertRoundTrip(codec, format);
+			}
+		}
+	}
+
+	private void assertRoundTrip(ChunkCodec codec, ChunkCodec.Format format) {
+		File file = new File(this.chunkFolder.getRoot(), format + "-" + codec.getType() + "-" + codec.getLevel() + ".data");
+		writeChunk(file, codec, format, "key");
+		RiakObjectReader reader = new RiakObjectReader(file, false);
+		IRiakObject riakObject = null;
+		int count = 0;
+		while ((riakObject = reader.readRiakObject()) != null) {
+			assertEquals("key" + count, riakObject.getKey());
+			assertEquals("{\"id\":" + count + ",\"name\":\"user" + count + "\"}", riakObject.getValueAsString());
+			++count;
+		}
+		reader.close();
+		assertEquals(format + " " + codec, OBJECT_COUNT, count);
+		assertEquals(0, reader.errorCount());
+	}
+
+	@Test
+	public void testPlainGzipChunksArePlainGzip() throws Exception {
+		File file = new File(this.chunkFolder.getRoot(), "0.data");
+		writeChunk(file, ChunkCodec.gzip(6), ChunkCodec.Format.PLAIN, "key");
+		GZIPInputStream in = new GZIPInputStream(new FileInputStream(file));
+		assertTrue(in.read() >= 0);
+		in.close();
+	}
+
+	@Test
+	public void testMixedCodecBucket() throws Exception {
+		File root = this.chunkFolder.newFolder("Test");
+		ChunkCodec[] codecs = codecs();
+		for (int c = 0; c < codecs.length; ++c) {
+			writeChunk(new File(root, c + ".data"), codecs[c], ChunkCodec.Format.values()[c % 2], c + "-");
+		}
+		RiakObjectBucket bucket = new RiakObjectBucket(root, RiakObjectBucket.BucketMode.READ, false);
+		Set<String> keys = new HashSet<String>();
+		for (IRiakObject riakObject : bucket) {
+			keys.add(riakObject.getKey());
+		}
+		bucket.close();
+		assertEquals(codecs.length * OBJECT_COUNT, keys.size());
+	}
+
+	@Test
+	public void testParse() {
+		assertEquals(ChunkCodec.Type.NONE, ChunkCodec.parse("none").getType());
+		assertEquals(ChunkCodec.Type.LZ4, ChunkCodec.parse("LZ4").getType());
+		assertEquals(ChunkCodec.Type.SNAPPY, ChunkCodec.parse("snappy").getType());
+		assertEquals("gzip:6", ChunkCodec.parse("gzip").toString());
+		assertEquals("gzip:1", ChunkCodec.parse("gzip:1").toString());
+		assertEquals("zstd:3", ChunkCodec.parse("zstd").toString());
+		assertEquals("zstd:19", ChunkCodec.parse("zstd:19").toString());
+		for (String invalid : new String[] { "", "bzip2", "gzip:0", "gzip:10", "zstd:23", "lz4:1", "gzip:x", "gzip:1:2" }) {
+			try {
+				ChunkCodec.parse(invalid);
+				fail("Parsed " + invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
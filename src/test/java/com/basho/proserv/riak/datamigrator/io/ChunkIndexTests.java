@@ -0,0 +1,171 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.BlockCompressor;
+import com.basho.proserv.datamigrator.io.ChunkCodec;
+import com.basho.proserv.datamigrator.io.ChunkIndex;
+import com.basho.proserv.datamigrator.io.KeyHashSet;
+import com.basho.proserv.datamigrator.io.RiakObjectReader;
+import com.basho.proserv.datamigrator.io.RiakObjectWriter;
+import com.basho.proserv.datamigrator.io.SelectiveChunkSource;
+import com.basho.proserv.datamigrator.io.SyncPolicy;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.builders.RiakObjectBuilder;
+
+public class ChunkIndexTests {
+	private static final int CHUNK_COUNT = 3;
+	private static final int CHUNK_OBJECTS = 2000;
+	private static final int VALUE_BYTES = 1024;
+
+	@Rule
+	public TemporaryFolder dumpFolder = new TemporaryFolder();
+
+	private File writeBucket(ChunkCodec codec) throws Exception {
+		File bucketRoot = this.dumpFolder.newFolder(codec.getType().name());
+		BlockCompressor compressor = new BlockCompressor(2);
+		Random random = new Random(42);
+		try {
+			for (int c = 0; c < CHUNK_COUNT; ++c) {
+				RiakObjectWriter writer = new RiakObjectWriter(new File(bucketRoot, c + ".data"),
+						SyncPolicy.NONE, codec, compressor);
+				for (int i = 0; i < CHUNK_OBJECTS; ++i) {
+					writer.writeRiakObject(RiakObjectBuilder.newBuilder("Test", key(c, i))
+							.withValue(value(random)).build());
+				}
+				writer.close();
+			}
+		} finally {
+			compressor.shutdown();
+		}
+		return bucketRoot;
+	}
+
+	private static String key(int chunk, int i) {
+		return chunk + ":" + i;
+	}
+
+	private static String value(Random random) {
+		StringBuilder builder = new StringBuilder(VALUE_BYTES);
+		while (builder.length() < VALUE_BYTES) {
+			builder.append(Integer.toHexString(random.nextInt()));
+		}
+		return builder.toString();
+	}
+
+	private static KeyHashSet wanted(Set<String> keys) {
+		KeyHashSet wanted = new KeyHashSet();
+		for (String key : keys) {
+			wanted.add("Test", key);
+		}
+		return wanted;
+	}
+
+	private static Set<String> read(SelectiveChunkSource source) {
+		Set<String> keys = new HashSet<String>();
+		for (IRiakObject riakObject : source) {
+			assertTrue(keys.add(riakObject.getKey()));
+			assertEquals(VALUE_BYTES, riakObject.getValueAsString().length(), 8);
+		}
+		return keys;
+	}
+
+	@Test
+	public void testIndexesEveryRecord() throws Exception {
+		File bucketRoot = this.writeBucket(ChunkCodec.getDefault());
+		File chunk = new File(bucketRoot, "0.data");
+		File indexFile = ChunkIndex.indexFile(chunk);
+		assertEquals("0.index", indexFile.getName());
+		assertTrue(indexFile.exists());
+
+		ChunkIndex index = ChunkIndex.read(indexFile);
+		assertEquals(CHUNK_OBJECTS, index.recordCount());
+		assertTrue(index.blockCount() > 1);
+		int records = 0;
+		Set<String> keys = new HashSet<String>();
+		for (int b = 0; b < index.blockCount(); ++b) {
+			RiakObjectReader reader = index.openBlock(chunk, b, false);
+			for (int r = 0; r < index.blockRecords(b); ++r) {
+				IRiakObject riakObject = reader.readRiakObject();
+				assertNotNull(riakObject);
+				assertTrue(keys.add(riakObject.getKey()));
+				++records;
+			}
+			reader.close();
+		}
+		assertEquals(CHUNK_OBJECTS, records);
+
+		// a block holds the keys it is indexed under
+		Set<String> one = new HashSet<String>();
+		one.add(key(0, CHUNK_OBJECTS / 2));
+		assertEquals(1, index.blocksFor(wanted(one)).size());
+	}
+
+	@Test
+	public void testSelectiveRead() throws Exception {
+		for (ChunkCodec codec : new ChunkCodec[] { ChunkCodec.getDefault(), ChunkCodec.NONE,
+				ChunkCodec.LZ4, ChunkCodec.SNAPPY, ChunkCodec.zstd(3) }) {
+			File bucketRoot = this.writeBucket(codec);
+			Set<String> keys = new HashSet<String>();
+			keys.add(key(0, 0));
+			keys.add(key(1, 1000));
+			keys.add(key(2, CHUNK_OBJECTS - 1));
+			keys.add(key(2, CHUNK_OBJECTS - 2));
+			keys.add(key(CHUNK_COUNT + 1, 0));
+
+			SelectiveChunkSource source = new SelectiveChunkSource(bucketRoot, wanted(keys), false);
+			Set<String> read = read(source);
+			keys.remove(key(CHUNK_COUNT + 1, 0));
+			assertEquals(codec.toString(), keys, read);
+			assertEquals(0, source.chunksRead());
+			assertTrue(source.blocksRead() <= keys.size());
+			assertTrue(source.blocksSkipped() > source.blocksRead());
+		}
+	}
+
+	@Test
+	public void testReadsUnindexedChunkWhole() throws Exception {
+		File bucketRoot = this.writeBucket(ChunkCodec.getDefault());
+		assertTrue(ChunkIndex.indexFile(new File(bucketRoot, "1.data")).delete());
+		// an unreadable index is ignored too
+		FileOutputStream corrupt = new FileOutputStream(ChunkIndex.indexFile(new File(bucketRoot, "2.data")));
+		corrupt.write(new byte[] { 1, 2, 3 });
+		corrupt.close();
+
+		Set<String> keys = new HashSet<String>();
+		for (int c = 0; c < CHUNK_COUNT; ++c) {
+			keys.add(key(c, 7));
+		}
+		SelectiveChunkSource source = new SelectiveChunkSource(bucketRoot, wanted(keys), false);
+		assertEquals(keys, read(source));
+		assertEquals(2, source.chunksRead());
+		assertEquals(1, source.blocksRead());
+	}
+
+	@Test
+	public void testCloseEndsIteration() throws Exception {
+		File bucketRoot = this.writeBucket(ChunkCodec.getDefault());
+		Set<String> keys = new HashSet<String>();
+		for (int i = 0; i < CHUNK_OBJECTS; i += 100) {
+			keys.add(key(0, i));
+		}
+		SelectiveChunkSource source = new SelectiveChunkSource(bucketRoot, wanted(keys), false);
+		Iterator<IRiakObject> objects = source.iterator();
+		assertTrue(objects.hasNext());
+		objects.next();
+		source.close();
+		assertFalse(objects.hasNext());
+		source.close();
+	}
+}
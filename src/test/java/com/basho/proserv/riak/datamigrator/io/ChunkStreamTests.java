@@ -0,0 +1,103 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.ConcurrentKeyJournal;
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.RiakObjectBucket;
+import com.basho.proserv.datamigrator.io.RiakObjectReader;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.builders.RiakObjectBuilder;
+
+public class ChunkStreamTests {
+	private static final int CHUNK_SIZE = 100;
+	private static final int THREADS = 4;
+	private static final int THREAD_OBJECTS = 2500;
+
+	@Rule
+	public TemporaryFolder dumpFolder = new TemporaryFolder();
+
+	@Test
+	public void testConcurrentStreams() throws Exception {
+		File bucketRoot = this.dumpFolder.newFolder("Test");
+		File dumpedKeys = new File(bucketRoot, "dumpedkeys.keys");
+		ConcurrentKeyJournal keyJournal = new ConcurrentKeyJournal(new KeyJournal(dumpedKeys, KeyJournal.Mode.WRITE));
+		final RiakObjectBucket bucket = new RiakObjectBucket(bucketRoot, RiakObjectBucket.BucketMode.WRITE,
+				CHUNK_SIZE, false);
+		bucket.setChunkStreams(3);
+		bucket.setKeyJournal(keyJournal);
+		Thread[] writers = new Thread[THREADS];
+		for (int t = 0; t < THREADS; ++t) {
+			final int thread = t;
+			writers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < THREAD_OBJECTS; ++i) {
+						bucket.writeRiakObject(RiakObjectBuilder.newBuilder("Test", thread + ":" + i)
+								.withValue("value" + i).build());
+					}
+				}
+			});
+			writers[t].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		bucket.close();
+		keyJournal.close();
+
+		// every chunk is full but the last of each stream
+		String[] chunks = bucketRoot.list(RiakObjectBucket.dataFileFilter);
+		int partChunks = 0;
+		Set<String> keys = new HashSet<String>();
+		for (String chunk : chunks) {
+			RiakObjectReader reader = new RiakObjectReader(new File(bucketRoot, chunk), false);
+			IRiakObject riakObject = null;
+			int count = 0;
+			while ((riakObject = reader.readRiakObject()) != null) {
+				assertTrue(keys.add(riakObject.getKey()));
+				++count;
+			}
+			reader.close();
+			assertTrue(count <= CHUNK_SIZE);
+			if (count < CHUNK_SIZE) {
+				++partChunks;
+			}
+		}
+		assertEquals(THREADS * THREAD_OBJECTS, keys.size());
+		assertTrue(partChunks <= 3);
+		assertTrue(chunks.length >= THREADS * THREAD_OBJECTS / CHUNK_SIZE);
+
+		Set<String> journalled = new HashSet<String>();
+		KeyJournal journal = new KeyJournal(dumpedKeys, KeyJournal.Mode.READ);
+		for (Key key : journal) {
+			journalled.add(key.key());
+		}
+		journal.close();
+		assertEquals(keys, journalled);
+	}
+
+	@Test
+	public void testStreamsFixedOnceWriting() throws Exception {
+		RiakObjectBucket bucket = new RiakObjectBucket(this.dumpFolder.newFolder("Test"),
+				RiakObjectBucket.BucketMode.WRITE, CHUNK_SIZE, false);
+		bucket.writeRiakObject(RiakObjectBuilder.newBuilder("Test", "key").withValue("value").build());
+		try {
+			bucket.setChunkStreams(2);
+			fail("Changed streams after writing");
+		} catch (IllegalStateException e) {
+			// expected
+		} finally {
+			bucket.close();
+		}
+	}
+}
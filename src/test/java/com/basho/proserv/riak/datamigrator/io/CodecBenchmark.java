@@ -0,0 +1,105 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import java.io.File;
+import java.util.Random;
+
+import com.basho.proserv.datamigrator.io.BlockCompressor;
+import com.basho.proserv.datamigrator.io.ChunkCodec;
+import com.basho.proserv.datamigrator.io.ChunkIndex;
+import com.basho.proserv.datamigrator.io.RiakObjectReader;
+import com.basho.proserv.datamigrator.io.RiakObjectWriter;
+import com.basho.proserv.datamigrator.io.SyncPolicy;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.builders.RiakObjectBuilder;
+
+/**
+ * Compares the chunk codecs' compression ratio and write and read speed on
+ * JSON documents like those typically stored in Riak, with indexes and
+ * metadata, in both chunk formats.  Speeds are of the object bytes written,
+ * before compression.
+ * Chunks are compressed on a BlockCompressor of compressThreads threads, one
+ * per processor by default.  Not run as part of the unit tests; invoke
+ * main() directly:
+ *
+ *   CodecBenchmark directory [objectCount] [valueBytes] [compressThreads]
+ */
+public class CodecBenchmark {
+	private static final String[] WORDS = { "active", "pending", "shipped", "account", "customer",
+		"order", "London", "Boston", "premium", "standard", "email", "mobile", "true", "false" };
+
+	public static void main(String[] args) throws Exception {
+		File directory = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+		int objectCount = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int valueBytes = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+		BlockCompressor compressor = new BlockCompressor(args.length > 3 ?
+				Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors());
+
+		IRiakObject[] objects = new IRiakObject[objectCount];
+		long rawBytes = 0;
+		Random random = new Random(42);
+		for (int i = 0; i < objectCount; ++i) {
+			String value = document(random, i, valueBytes);
+			rawBytes += value.length();
+			objects[i] = RiakObjectBuilder.newBuilder("customers", "customer:" + i)
+					.withValue(value)
+					.withContentType("application/json")
+					.addIndex("created_int", 1300000000 + random.nextInt(100000000))
+					.addIndex("email_bin", "user" + i + "@example.com")
+					.addUsermeta("source", WORDS[random.nextInt(WORDS.length)])
+					.build();
+		}
+
+		ChunkCodec[] codecs = { ChunkCodec.NONE, ChunkCodec.gzip(1), ChunkCodec.gzip(6), ChunkCodec.gzip(9),
+				ChunkCodec.LZ4, ChunkCodec.SNAPPY, ChunkCodec.zstd(1), ChunkCodec.zstd(3), ChunkCodec.zstd(9) };
+		File chunk = new File(directory, "codecbench.data");
+		double megabytes = rawBytes / (1024.0 * 1024.0);
+		for (int pass = 0; pass < 2; ++pass) {
+			for (ChunkCodec.Format format : ChunkCodec.Format.values()) {
+				for (ChunkCodec codec : codecs) {
+					long start = System.nanoTime();
+					RiakObjectWriter writer = new RiakObjectWriter(chunk, SyncPolicy.NONE, codec, format, compressor);
+					for (IRiakObject riakObject : objects) {
+						writer.writeRiakObject(riakObject);
+					}
+					writer.close();
+					double writeSeconds = (System.nanoTime() - start) / 1e9;
+
+					start = System.nanoTime();
+					RiakObjectReader reader = new RiakObjectReader(chunk, false);
+					while (reader.readRiakObject() != null) {
+						// read everything
+					}
+					reader.close();
+					double readSeconds = (System.nanoTime() - start) / 1e9;
+					// the first pass only warms up the JIT
+					if (pass == 1) {
+						System.out.println(String.format("%-6s %-8s ratio %5.2f  write %7.1f MB/s  read %7.1f MB/s",
+								format.name().toLowerCase(), codec, (double)rawBytes / chunk.length(), megabytes / writeSeconds,
+								megabytes / readSeconds));
+					}
+				}
+			}
+		}
+		chunk.delete();
+		ChunkIndex.indexFile(chunk).delete();
+		compressor.shutdown();
+	}
+
+	private static String document(Random random, int id, int valueBytes) {
+		StringBuilder builder = new StringBuilder(valueBytes + 64);
+		builder.append("{\"id\":").append(id)
+			.append(",\"email\":\"user").append(id).append("@example.com\"")
+			.append(",\"balance\":").append(random.nextInt(1000000) / 100.0)
+			.append(",\"history\":[");
+		for (int item = 0; builder.length() < valueBytes; ++item) {
+			if (item > 0) {
+				builder.append(',');
+			}
+			builder.append("{\"order\":").append(random.nextInt(10000000))
+				.append(",\"status\":\"").append(WORDS[random.nextInt(WORDS.length)])
+				.append("\",\"city\":\"").append(WORDS[random.nextInt(WORDS.length)])
+				.append("\",\"ts\":").append(1300000000L + random.nextInt(100000000)).append('}');
+		}
+		return builder.append("]}").toString();
+	}
+}
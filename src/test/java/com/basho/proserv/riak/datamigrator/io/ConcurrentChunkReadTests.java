@@ -0,0 +1,114 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.BucketChunkSource;
+import com.basho.proserv.datamigrator.io.RiakObjectWriter;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.builders.RiakObjectBuilder;
+
+public class ConcurrentChunkReadTests {
+	private static final int CHUNK_COUNT = 12;
+	private static final int CHUNK_OBJECTS = 500;
+
+	@Rule
+	public TemporaryFolder dumpFolder = new TemporaryFolder();
+
+	private File writeBucket() throws Exception {
+		File bucketRoot = this.dumpFolder.newFolder("Test");
+		for (int c = 0; c < CHUNK_COUNT; ++c) {
+			RiakObjectWriter writer = new RiakObjectWriter(new File(bucketRoot, c + ".data"));
+			for (int i = 0; i < CHUNK_OBJECTS; ++i) {
+				writer.writeRiakObject(RiakObjectBuilder.newBuilder("Test", c + ":" + i)
+						.withValue("value" + i).build());
+			}
+			writer.close();
+		}
+		return bucketRoot;
+	}
+
+	private static Set<String> load(BucketChunkSource source) throws Exception {
+		Set<String> keys = new HashSet<String>();
+		for (IRiakObject riakObject : source) {
+			assertTrue(keys.add(riakObject.getKey()));
+			source.stored(riakObject);
+		}
+		source.close();
+		return keys;
+	}
+
+	@Test
+	public void testReadsEveryChunk() throws Exception {
+		File bucketRoot = this.writeBucket();
+		BucketChunkSource source = new BucketChunkSource(bucketRoot, false, false);
+		source.setReaders(4, BucketChunkSource.DEFAULT_READ_BUDGET);
+		assertEquals(CHUNK_COUNT * CHUNK_OBJECTS, load(source).size());
+		for (File chunk : BucketChunkSource.chunkFiles(bucketRoot)) {
+			assertTrue(BucketChunkSource.loadedMarker(chunk).exists());
+		}
+	}
+
+	@Test
+	public void testTinyBudget() throws Exception {
+		BucketChunkSource source = new BucketChunkSource(this.writeBucket(), false, false);
+		// smaller than any object, so readers take turns
+		source.setReaders(4, 1);
+		assertEquals(CHUNK_COUNT * CHUNK_OBJECTS, load(source).size());
+	}
+
+	@Test
+	public void testResumeSkipsLoadedChunks() throws Exception {
+		File bucketRoot = this.writeBucket();
+		BucketChunkSource source = new BucketChunkSource(bucketRoot, false, false);
+		source.setReaders(4, BucketChunkSource.DEFAULT_READ_BUDGET);
+		load(source);
+		List<File> chunks = BucketChunkSource.chunkFiles(bucketRoot);
+		assertTrue(BucketChunkSource.loadedMarker(chunks.get(3)).delete());
+		assertTrue(BucketChunkSource.loadedMarker(chunks.get(8)).delete());
+
+		source = new BucketChunkSource(bucketRoot, false, true);
+		source.setReaders(4, BucketChunkSource.DEFAULT_READ_BUDGET);
+		assertEquals(0, load(source).size());
+		assertEquals(CHUNK_COUNT - 2, source.skippedChunks());
+		assertEquals(2 * CHUNK_OBJECTS, source.skippedObjects());
+	}
+
+	@Test(timeout = 10000)
+	public void testCloseStopsReaders() throws Exception {
+		BucketChunkSource source = new BucketChunkSource(this.writeBucket(), false, false);
+		source.setReaders(4, 1024);
+		Iterator<IRiakObject> objects = source.iterator();
+		for (int i = 0; i < 10; ++i) {
+			assertNotNull(objects.next());
+		}
+		// readers are waiting on the budget
+		source.close();
+	}
+
+	@Test
+	public void testInvalidReaders() {
+		BucketChunkSource source = new BucketChunkSource(this.dumpFolder.getRoot(), false, false);
+		try {
+			source.setReaders(0, 1024);
+			fail("Set no readers");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			source.setReaders(2, 0);
+			fail("Set no budget");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.ConcurrentKeyJournal;
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+
+public class ConcurrentKeyJournalTests {
+	private static final int THREAD_COUNT = 8;
+	private static final int KEYS_PER_THREAD = 10001;
+
+	@Rule
+	public TemporaryFolder journalFolder = new TemporaryFolder();
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		File path = this.journalFolder.newFile();
+		final ConcurrentKeyJournal journal = new ConcurrentKeyJournal(
+				new KeyJournal(path, KeyJournal.Mode.WRITE), 100);
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < THREAD_COUNT; ++t) {
+			final String bucket = "bucket" + t;
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (Integer i = 0; i < KEYS_PER_THREAD; ++i) {
+							journal.write(bucket, i.toString());
+						}
+					} catch (Throwable e) {
+						synchronized (errors) {
+							errors.add(e);
+						}
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// the threads' last partial buffers are written by close
+		journal.close();
+		assertTrue(errors.isEmpty());
+
+		Set<Key> keys = new HashSet<Key>();
+		int count = 0;
+		KeyJournal readJournal = new KeyJournal(path, KeyJournal.Mode.READ);
+		for (Key key : readJournal) {
+			keys.add(new Key(key.bucket(), key.key()));
+			++count;
+		}
+		readJournal.close();
+		assertEquals(THREAD_COUNT * KEYS_PER_THREAD, count);
+		assertEquals(THREAD_COUNT * KEYS_PER_THREAD, keys.size());
+
+		try {
+			journal.write("bucket", "late");
+			fail("Expected write after close to fail");
+		} catch (IOException e) {
+			assertTrue(journal.isClosed());
+		}
+	}
+
+	@Test
+	public void testFlush() throws Exception {
+		File path = this.journalFolder.newFile();
+		ConcurrentKeyJournal journal = new ConcurrentKeyJournal(new KeyJournal(path, KeyJournal.Mode.WRITE,
+				KeyJournal.Format.TEXT, KeyJournal.Compression.NONE));
+		journal.write("bucket", "1");
+		journal.write("bucket", "2");
+		assertEquals(0, path.length());
+		journal.flush();
+		journal.close();
+		assertEquals(2, KeyJournal.countKeys(path));
+	}
+}
@@ -0,0 +1,148 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.BlockCompressor;
+import com.basho.proserv.datamigrator.io.ChunkCodec;
+import com.basho.proserv.datamigrator.io.ChunkIndex;
+import com.basho.proserv.datamigrator.io.KeyHashSet;
+import com.basho.proserv.datamigrator.io.RiakObjectReader;
+import com.basho.proserv.datamigrator.io.RiakObjectWriter;
+import com.basho.proserv.datamigrator.io.SelectiveChunkSource;
+import com.basho.proserv.datamigrator.io.SyncPolicy;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.builders.RiakObjectBuilder;
+
+public class FramedChunkTests {
+	private static final int OBJECT_COUNT = 4000;
+	private static final int VALUE_BYTES = 1024;
+
+	@Rule
+	public TemporaryFolder chunkFolder = new TemporaryFolder();
+
+	private File writeChunk(File root, ChunkCodec codec) {
+		File file = new File(root, "0.data");
+		BlockCompressor compressor = new BlockCompressor(1);
+		RiakObjectWriter writer = new RiakObjectWriter(file, SyncPolicy.NONE, codec, ChunkCodec.Format.FRAMED,
+				compressor);
+		Random random = new Random(42);
+		for (int i = 0; i < OBJECT_COUNT; ++i) {
+			StringBuilder value = new StringBuilder(VALUE_BYTES);
+			while (value.length() < VALUE_BYTES) {
+				value.append(Integer.toHexString(random.nextInt()));
+			}
+			assertTrue(writer.writeRiakObject(RiakObjectBuilder.newBuilder("Test", "key" + i)
+					.withValue(value.toString()).build()));
+		}
+		writer.close();
+		compressor.shutdown();
+		assertTrue(writer.isCommitted());
+		return file;
+	}
+
+	private static void overwrite(File file, long offset, int length) throws Exception {
+		RandomAccessFile chunk = new RandomAccessFile(file, "rw");
+		byte[] garbage = new byte[length];
+		new Random(7).nextBytes(garbage);
+		chunk.seek(offset);
+		chunk.write(garbage);
+		chunk.close();
+	}
+
+	// the numbers of the keys read, which must be in order
+	private static List<Integer> read(File file, int expectedErrors) {
+		RiakObjectReader reader = new RiakObjectReader(file, false);
+		List<Integer> keys = new ArrayList<Integer>();
+		IRiakObject riakObject = null;
+		while ((riakObject = reader.readRiakObject()) != null) {
+			int key = Integer.parseInt(riakObject.getKey().substring(3));
+			assertTrue(keys.isEmpty() || key > keys.get(keys.size() - 1));
+			keys.add(key);
+		}
+		reader.close();
+		assertEquals(expectedErrors, reader.errorCount());
+		return keys;
+	}
+
+	private static int maxBlockRecords(File file) throws Exception {
+		ChunkIndex index = ChunkIndex.read(ChunkIndex.indexFile(file));
+		int max = 0;
+		for (int b = 0; b < index.blockCount(); ++b) {
+			max = Math.max(max, index.blockRecords(b));
+		}
+		return max;
+	}
+
+	@Test
+	public void testSkipsCorruptBlock() throws Exception {
+		for (ChunkCodec codec : new ChunkCodec[] { ChunkCodec.gzip(6), ChunkCodec.NONE, ChunkCodec.LZ4,
+				ChunkCodec.SNAPPY, ChunkCodec.zstd(3) }) {
+			File file = this.writeChunk(this.chunkFolder.newFolder(codec.getType().name()), codec);
+			assertEquals(OBJECT_COUNT, read(file, 0).size());
+
+			// a flipped byte loses the one block it is in
+			overwrite(file, file.length() / 2, 1);
+			List<Integer> keys = read(file, 1);
+			assertTrue(codec.toString(), keys.size() < OBJECT_COUNT);
+			assertTrue(codec.toString(), keys.size() >= OBJECT_COUNT - maxBlockRecords(file));
+			assertEquals(OBJECT_COUNT - 1, (int)keys.get(keys.size() - 1));
+		}
+	}
+
+	@Test
+	public void testResyncsAfterDamagedRegion() throws Exception {
+		File file = this.writeChunk(this.chunkFolder.getRoot(), ChunkCodec.gzip(6));
+		int blockRecords = maxBlockRecords(file);
+		// spans at least one whole frame, markers and all
+		overwrite(file, file.length() / 3, BlockCompressor.BLOCK_SIZE);
+		List<Integer> keys = read(file, 1);
+		assertTrue(keys.size() <= OBJECT_COUNT - blockRecords);
+		assertTrue(keys.size() > OBJECT_COUNT / 2);
+		assertEquals(OBJECT_COUNT - 1, (int)keys.get(keys.size() - 1));
+	}
+
+	@Test
+	public void testCutShort() throws Exception {
+		File file = this.writeChunk(this.chunkFolder.getRoot(), ChunkCodec.LZ4);
+		RandomAccessFile chunk = new RandomAccessFile(file, "rw");
+		chunk.setLength(file.length() * 2 / 3);
+		chunk.close();
+		List<Integer> keys = read(file, 1);
+		assertTrue(keys.size() > OBJECT_COUNT / 2);
+		assertEquals(keys.size() - 1, (int)keys.get(keys.size() - 1));
+	}
+
+	@Test
+	public void testSelectiveReadSkipsCorruptBlock() throws Exception {
+		File root = this.chunkFolder.getRoot();
+		File file = this.writeChunk(root, ChunkCodec.zstd(3));
+		overwrite(file, file.length() / 2, 16);
+		Set<Integer> readable = new HashSet<Integer>(read(file, 1));
+
+		KeyHashSet wanted = new KeyHashSet();
+		Set<String> expected = new HashSet<String>();
+		for (int i = 0; i < OBJECT_COUNT; i += 100) {
+			wanted.add("Test", "key" + i);
+			if (readable.contains(i)) {
+				expected.add("key" + i);
+			}
+		}
+		Set<String> keys = new HashSet<String>();
+		for (IRiakObject riakObject : new SelectiveChunkSource(root, wanted, false)) {
+			keys.add(riakObject.getKey());
+		}
+		assertEquals(expected, keys);
+	}
+}
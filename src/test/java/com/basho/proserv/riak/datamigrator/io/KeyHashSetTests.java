@@ -0,0 +1,93 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.basho.proserv.datamigrator.io.BloomFilter;
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyHash;
+import com.basho.proserv.datamigrator.io.KeyHashSet;
+
+public class KeyHashSetTests {
+
+	@Test
+	public void testMurmurReferenceVector() throws Exception {
+		long[] hash = KeyHash.murmur3("The quick brown fox jumps over the lazy dog".getBytes("UTF-8"), 0);
+		assertEquals(0xe34bbc7bbc071b6cL, hash[0]);
+		assertEquals(0x7a433ca9c49a9347L, hash[1]);
+		assertArrayEquals(new long[] { 0, 0 }, KeyHash.murmur3(new byte[0], 0));
+	}
+
+	@Test
+	public void testBucketIsPartOfTheHash() {
+		assertFalse(KeyHash.hash("ab", "c")[0] == KeyHash.hash("a", "bc")[0]);
+		assertFalse(KeyHash.hash("a", "b")[0] == KeyHash.hash("b", "a")[0]);
+	}
+
+	@Test
+	public void testAddContainsAndGrow() {
+		int KEY_COUNT = 200000;
+		KeyHashSet keys = new KeyHashSet();
+		for (Integer i = 0; i < KEY_COUNT; i += 2) {
+			assertTrue(keys.add(new Key("bucket", i.toString())));
+		}
+		for (Integer i = 0; i < KEY_COUNT; i += 2) {
+			assertFalse(keys.add("bucket", i.toString()));
+		}
+		assertEquals(KEY_COUNT / 2, keys.size());
+		for (Integer i = 0; i < KEY_COUNT; ++i) {
+			assertEquals(i % 2 == 0, keys.contains(new Key("bucket", i.toString())));
+			assertFalse(keys.contains("other", i.toString()));
+		}
+		assertEquals(0, keys.hashCollisions());
+	}
+
+	@Test
+	public void testMemoryPerKey() {
+		int KEY_COUNT = 100000;
+		KeyHashSet sized = new KeyHashSet(KEY_COUNT, 0);
+		KeyHashSet grown = new KeyHashSet();
+		KeyHashSet filtered = new KeyHashSet(KEY_COUNT, 10);
+		for (Integer i = 0; i < KEY_COUNT; ++i) {
+			sized.add("bucket", i.toString());
+			grown.add("bucket", i.toString());
+			filtered.add("bucket", i.toString());
+		}
+		double sizedBytes = (double)sized.memoryBytes() / KEY_COUNT;
+		assertTrue(sizedBytes > 21 && sizedBytes < 22);
+		double grownBytes = (double)grown.memoryBytes() / KEY_COUNT;
+		assertTrue(grownBytes >= 21 && grownBytes <= 43);
+		double filteredBytes = (double)filtered.memoryBytes() / KEY_COUNT;
+		assertEquals(sizedBytes + 10 / 8.0, filteredBytes, 0.1);
+	}
+
+	@Test
+	public void testBloomFilter() {
+		int KEY_COUNT = 100000;
+		BloomFilter filter = new BloomFilter(KEY_COUNT, 10);
+		for (Integer i = 0; i < KEY_COUNT; ++i) {
+			long[] hash = KeyHash.hash("bucket", i.toString());
+			filter.add(hash[0], hash[1]);
+		}
+		int falsePositives = 0;
+		for (Integer i = 0; i < KEY_COUNT; ++i) {
+			long[] hash = KeyHash.hash("bucket", i.toString());
+			assertTrue(filter.mightContain(hash[0], hash[1]));
+			hash = KeyHash.hash("absent", i.toString());
+			if (filter.mightContain(hash[0], hash[1])) {
+				++falsePositives;
+			}
+		}
+		assertTrue("false positives " + falsePositives, falsePositives < KEY_COUNT * 0.02);
+
+		KeyHashSet keys = new KeyHashSet(KEY_COUNT / 10, 10);
+		for (Integer i = 0; i < KEY_COUNT; ++i) {
+			keys.add("bucket", i.toString()); // well past the filter's expected keys
+		}
+		for (Integer i = 0; i < KEY_COUNT; ++i) {
+			assertTrue(keys.contains("bucket", i.toString()));
+			assertFalse(keys.contains("absent", i.toString()));
+		}
+	}
+}
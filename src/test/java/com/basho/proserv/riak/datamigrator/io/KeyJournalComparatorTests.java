@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
@@ -13,6 +14,8 @@ import com.basho.proserv.datamigrator.io.KeyJournal;
 import com.basho.proserv.datamigrator.io.UnwrittenKeyFinder;
 
 public class KeyJournalComparatorTests {
+	@Rule
+	public TemporaryFolder partitionFolder = new TemporaryFolder();
 
 	@Test
 	public void test() throws Exception {
@@ -52,4 +55,34 @@ public class KeyJournalComparatorTests {
 		readKeyJournal2.close();
 	}
 
+	@Test
+	public void testPartitioned() throws Exception {
+		int KEY_COUNT = 100000;
+		File listed = partitionFolder.newFile();
+		File dumped = partitionFolder.newFile();
+		KeyJournal listedJournal = new KeyJournal(listed, KeyJournal.Mode.WRITE);
+		KeyJournal dumpedJournal = new KeyJournal(dumped, KeyJournal.Mode.WRITE);
+		for (Integer i = 0; i < KEY_COUNT; ++i) {
+			listedJournal.write("bucket", i.toString());
+			if (i % 3 != 0) {
+				dumpedJournal.write("bucket", i.toString());
+			}
+		}
+		listedJournal.close();
+		dumpedJournal.close();
+
+		File workDir = partitionFolder.newFolder();
+		KeyJournal reference = new KeyJournal(dumped, KeyJournal.Mode.READ);
+		KeyJournal compare = new KeyJournal(listed, KeyJournal.Mode.READ);
+		UnwrittenKeyFinder finder = new UnwrittenKeyFinder(reference, compare, workDir, 16);
+		int count = 0;
+		for (Key key : finder) {
+			assertEquals(0, Integer.parseInt(key.key()) % 3);
+			++count;
+		}
+		reference.close();
+		compare.close();
+		assertEquals((KEY_COUNT + 2) / 3, count);
+		assertEquals(0, workDir.list().length);
+	}
 }
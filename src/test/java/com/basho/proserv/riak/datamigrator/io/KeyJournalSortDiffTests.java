@@ -0,0 +1,119 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.KeyJournalDiff;
+import com.basho.proserv.datamigrator.io.KeyJournalSorter;
+
+public class KeyJournalSortDiffTests {
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private static List<Key> readKeys(File path) {
+		List<Key> keys = new ArrayList<Key>();
+		KeyJournal journal = new KeyJournal(path, KeyJournal.Mode.READ);
+		for (Key key : journal) {
+			keys.add(key);
+		}
+		journal.close();
+		return keys;
+	}
+
+	@Test
+	public void testSortManyRuns() throws Exception {
+		int KEY_COUNT = 20000;
+		List<Key> keys = new ArrayList<Key>();
+		Random random = new Random(7);
+		for (int i = 0; i < KEY_COUNT; ++i) {
+			keys.add(new Key("bucket" + random.nextInt(5), Integer.toString(random.nextInt(KEY_COUNT))));
+		}
+		keys.add(Key.createErrorKey());
+
+		File workDir = tempFolder.newFolder();
+		File output = tempFolder.newFile();
+		// about 15 keys a run, so well over MERGE_WIDTH runs and two merge passes
+		KeyJournalSorter sorter = new KeyJournalSorter(workDir, 2000);
+		assertEquals(KEY_COUNT, sorter.sort(keys, output));
+
+		keys.remove(keys.size() - 1);
+		Collections.sort(keys);
+		List<Key> sorted = readKeys(output);
+		assertEquals(keys.size(), sorted.size());
+		for (int i = 0; i < keys.size(); ++i) {
+			assertEquals(keys.get(i), sorted.get(i));
+		}
+		assertEquals(0, workDir.list().length);
+
+		// an empty input still produces a journal
+		assertEquals(0, sorter.sort(new ArrayList<Key>(), output));
+		assertEquals(0, readKeys(output).size());
+	}
+
+	@Test
+	public void testDiff() throws Exception {
+		List<Key> listed = new ArrayList<Key>();
+		List<Key> dumped = new ArrayList<Key>();
+		for (Integer i = 0; i < 10000; ++i) {
+			listed.add(new Key("bucket", i.toString()));
+			if (i % 10 != 0) {
+				dumped.add(new Key("bucket", i.toString()));
+			}
+			if (i % 100 == 1) {
+				dumped.add(new Key("bucket", i.toString()));
+			}
+		}
+		listed.add(new Key("bucket", "1"));
+		dumped.add(new Key("bucket", "extra"));
+		Collections.shuffle(listed, new Random(1));
+		Collections.shuffle(dumped, new Random(2));
+
+		File workDir = tempFolder.newFolder();
+		final List<Key> missing = new ArrayList<Key>();
+		KeyJournalDiff diff = new KeyJournalDiff(new KeyJournalSorter(workDir, 10000));
+		KeyJournalDiff.Result result = diff.diff(listed, dumped, new KeyJournalDiff.Listener() {
+			@Override
+			public void difference(KeyJournalDiff.Difference difference, Key key) throws IOException {
+				if (difference == KeyJournalDiff.Difference.MISSING) {
+					missing.add(key);
+				}
+			}
+		});
+
+		assertEquals(1000, result.count(KeyJournalDiff.Difference.MISSING));
+		assertEquals(1, result.count(KeyJournalDiff.Difference.EXTRA));
+		assertEquals(1, result.count(KeyJournalDiff.Difference.DUPLICATE_REFERENCE));
+		assertEquals(100, result.count(KeyJournalDiff.Difference.DUPLICATE_COMPARE));
+		assertEquals(listed.size(), result.referenceCount());
+		assertEquals(dumped.size(), result.compareCount());
+		assertFalse(result.matched());
+		assertEquals(1000, missing.size());
+		for (Key key : missing) {
+			assertEquals(0, Integer.parseInt(key.key()) % 10);
+		}
+		assertEquals(0, workDir.list().length);
+
+		List<Key> unique = listed.subList(0, 100);
+		assertTrue(diff.diff(unique, unique, null).matched());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDiffSortedRejectsUnsorted() throws Exception {
+		List<Key> keys = new ArrayList<Key>();
+		keys.add(new Key("bucket", "b"));
+		keys.add(new Key("bucket", "a"));
+		KeyJournalDiff.diffSorted(keys.iterator(), new ArrayList<Key>().iterator(), null);
+	}
+}
@@ -3,7 +3,12 @@ package com.basho.proserv.riak.datamigrator.io;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
@@ -11,6 +16,24 @@ import com.basho.proserv.datamigrator.io.Key;
 import com.basho.proserv.datamigrator.io.KeyJournal;
 
 public class KeyJournalTests {
+	@Rule
+	public TemporaryFolder journalFolder = new TemporaryFolder();
+	
+	private static List<Key> readKeys(File path) {
+		List<Key> keys = new ArrayList<Key>();
+		KeyJournal journal = new KeyJournal(path, KeyJournal.Mode.READ);
+		for (Key key : journal) {
+			keys.add(key);
+		}
+		journal.close();
+		return keys;
+	}
+	
+	private static void writeKeys(KeyJournal journal, String bucket, int from, int to) throws Exception {
+		for (Integer i = from; i < to; ++i) {
+			journal.write(bucket, "key," + i + "\nline");
+		}
+	}
 
 	@Test
 	public void test() throws Exception {
@@ -54,5 +77,77 @@ public class KeyJournalTests {
 		assertTrue(newPath.getAbsolutePath().compareTo("/Users/dankerrigan/data.loadedkeys") == 0);
 	}
 	
-
+	@Test
+	public void testBinaryFormats() throws Exception {
+		for (KeyJournal.Compression compression : KeyJournal.Compression.values()) {
+			File path = journalFolder.newFile();
+			KeyJournal journal = new KeyJournal(path, KeyJournal.Mode.WRITE, 
+					KeyJournal.Format.BINARY, compression);
+			writeKeys(journal, "A", 0, 30000);
+			writeKeys(journal, "B, with a comma", 0, 10);
+			journal.close();
+			
+			assertEquals(30010, KeyJournal.countKeys(path));
+			List<Key> keys = readKeys(path);
+			assertEquals(30010, keys.size());
+			assertEquals(new Key("A", "key,0\nline"), keys.get(0));
+			assertEquals(new Key("B, with a comma", "key,9\nline"), keys.get(30009));
+			
+			// appending continues in the journal's own format and count
+			journal = new KeyJournal(path, KeyJournal.Mode.APPEND, KeyJournal.Format.TEXT, 
+					KeyJournal.Compression.NONE);
+			assertEquals(KeyJournal.Format.BINARY, journal.getFormat());
+			writeKeys(journal, "C", 0, 5);
+			journal.close();
+			assertEquals(30015, KeyJournal.countKeys(path));
+			assertEquals(30015, readKeys(path).size());
+		}
+	}
+	
+	@Test
+	public void testBinaryCutShort() throws Exception {
+		File path = journalFolder.newFile();
+		KeyJournal journal = new KeyJournal(path, KeyJournal.Mode.WRITE, 
+				KeyJournal.Format.BINARY, KeyJournal.Compression.DEFLATE);
+		writeKeys(journal, "A", 0, 30000);
+		journal.close();
+		
+		// lose the footer and the end of the last block, as a crash would
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		file.setLength(file.length() - 100);
+		file.close();
+		List<Key> keys = readKeys(path);
+		assertTrue(keys.size() > 0 && keys.size() < 30000);
+		assertEquals(keys.size(), KeyJournal.countKeys(path));
+		for (Integer i = 0; i < keys.size(); ++i) {
+			assertEquals(new Key("A", "key," + i + "\nline"), keys.get(i));
+		}
+		
+		journal = new KeyJournal(path, KeyJournal.Mode.APPEND);
+		writeKeys(journal, "A", keys.size(), 30000);
+		journal.close();
+		keys = readKeys(path);
+		assertEquals(30000, keys.size());
+		assertEquals(30000, KeyJournal.countKeys(path));
+		for (Integer i = 0; i < keys.size(); ++i) {
+			assertEquals(new Key("A", "key," + i + "\nline"), keys.get(i));
+		}
+	}
+	
+	@Test
+	public void testTextStillReadable() throws Exception {
+		File path = journalFolder.newFile();
+		FileWriter writer = new FileWriter(path);
+		writer.write("A,1\nA,2\nB,3\n");
+		writer.close();
+		
+		assertEquals(3, KeyJournal.countKeys(path));
+		KeyJournal journal = new KeyJournal(path, KeyJournal.Mode.APPEND);
+		assertEquals(KeyJournal.Format.TEXT, journal.getFormat());
+		journal.write("B", "4");
+		journal.close();
+		List<Key> keys = readKeys(path);
+		assertEquals(4, keys.size());
+		assertEquals(new Key("B", "4"), keys.get(3));
+	}
 }
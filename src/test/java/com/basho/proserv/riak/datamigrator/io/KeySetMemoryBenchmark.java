@@ -0,0 +1,77 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyHashSet;
+
+/**
+ * Measures the heap used per key by a HashSet<Key> and by KeyHashSet, and
+ * their lookup rates.  Not run as part of the unit tests; invoke main()
+ * directly, with a heap big enough for the HashSet:
+ *
+ *   KeySetMemoryBenchmark [keyCount] [keyLength]
+ */
+public class KeySetMemoryBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		int keyLength = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+		String bucket = "benchBucket";
+
+		long base = usedHeap();
+		Set<Key> hashSet = new HashSet<Key>();
+		for (int i = 0; i < keyCount; ++i) {
+			hashSet.add(new Key(bucket, key(i, keyLength)));
+		}
+		long hashSetBytes = usedHeap() - base;
+		long start = System.nanoTime();
+		int found = 0;
+		for (int i = 0; i < keyCount * 2; ++i) {
+			if (hashSet.contains(new Key(bucket, key(i, keyLength)))) {
+				++found;
+			}
+		}
+		long hashSetNanos = System.nanoTime() - start;
+		hashSet = null;
+
+		base = usedHeap();
+		KeyHashSet keyHashSet = new KeyHashSet();
+		for (int i = 0; i < keyCount; ++i) {
+			keyHashSet.add(bucket, key(i, keyLength));
+		}
+		long keyHashSetBytes = usedHeap() - base;
+		start = System.nanoTime();
+		for (int i = 0; i < keyCount * 2; ++i) {
+			if (keyHashSet.contains(bucket, key(i, keyLength))) {
+				--found;
+			}
+		}
+		long keyHashSetNanos = System.nanoTime() - start;
+
+		System.out.println(String.format("keys=%d keyLength=%d check=%d", keyCount, keyLength, found));
+		System.out.println(String.format("HashSet<Key>: %.1f bytes/key  %.0f lookups/sec",
+				(double)hashSetBytes / keyCount, keyCount * 2 / (hashSetNanos / 1e9)));
+		System.out.println(String.format("KeyHashSet:   %.1f bytes/key  %.0f lookups/sec (table %.1f bytes/key)",
+				(double)keyHashSetBytes / keyCount, keyCount * 2 / (keyHashSetNanos / 1e9),
+				(double)keyHashSet.memoryBytes() / keyCount));
+	}
+
+	private static String key(int i, int keyLength) {
+		StringBuilder key = new StringBuilder(Integer.toString(i));
+		while (key.length() < keyLength) {
+			key.insert(0, '0');
+		}
+		return key.toString();
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,112 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.MappedKeyJournal;
+
+public class MappedKeyJournalTests {
+	private static final int KEY_COUNT = 50000;
+
+	@Rule
+	public TemporaryFolder journalFolder = new TemporaryFolder();
+
+	private File writeJournal(KeyJournal.Format format, KeyJournal.Compression compression) throws Exception {
+		File path = this.journalFolder.newFile();
+		KeyJournal journal = new KeyJournal(path, KeyJournal.Mode.WRITE, format, compression);
+		for (Integer i = 0; i < KEY_COUNT; ++i) {
+			journal.write("bucket" + (i / 10000), "key" + i);
+		}
+		journal.close();
+		return path;
+	}
+
+	private static void checkSplits(File path, int count) throws Exception {
+		MappedKeyJournal journal = new MappedKeyJournal(path);
+		List<MappedKeyJournal> splits = journal.split(count);
+		journal.close();
+		assertTrue(splits.size() > 1 && splits.size() <= count);
+
+		// in order across the splits, no key read twice or missed
+		int next = 0;
+		for (MappedKeyJournal split : splits) {
+			int splitCount = 0;
+			for (Key key : split) {
+				assertEquals("bucket" + (next / 10000), key.bucket());
+				assertEquals("key" + next, key.key());
+				++next;
+				++splitCount;
+			}
+			assertTrue(splitCount > 0);
+			split.close();
+		}
+		assertEquals(KEY_COUNT, next);
+	}
+
+	@Test
+	public void testSplitBinary() throws Exception {
+		checkSplits(writeJournal(KeyJournal.Format.BINARY, KeyJournal.Compression.NONE), 4);
+		checkSplits(writeJournal(KeyJournal.Format.BINARY, KeyJournal.Compression.DEFLATE), 3);
+	}
+
+	@Test
+	public void testSplitText() throws Exception {
+		checkSplits(writeJournal(KeyJournal.Format.TEXT, KeyJournal.Compression.NONE), 7);
+	}
+
+	@Test
+	public void testKeysShareBucket() throws Exception {
+		for (KeyJournal.Format format : new KeyJournal.Format[] { KeyJournal.Format.TEXT, KeyJournal.Format.BINARY }) {
+			MappedKeyJournal journal = new MappedKeyJournal(writeJournal(format, KeyJournal.Compression.NONE));
+			assertEquals(format, journal.getFormat());
+			List<Key> keys = new ArrayList<Key>();
+			for (Key key : journal) {
+				keys.add(key);
+			}
+			journal.close();
+
+			// still readable once closed
+			assertEquals(KEY_COUNT, keys.size());
+			assertSame(keys.get(0).bucket(), keys.get(1).bucket());
+			assertEquals(new Key("bucket4", "key" + (KEY_COUNT - 1)), keys.get(KEY_COUNT - 1));
+			assertEquals(new Key("bucket0", "key0").hashCode(), keys.get(0).hashCode());
+			assertFalse(keys.get(0).errorKey());
+		}
+	}
+
+	@Test
+	public void testTextLines() throws Exception {
+		File path = this.journalFolder.newFile();
+		FileWriter writer = new FileWriter(path);
+		writer.write("a,1\r\nno comma\n\nb,2,with comma\na,3\nb,cut sh");
+		writer.close();
+
+		MappedKeyJournal journal = new MappedKeyJournal(path);
+		List<Key> keys = new ArrayList<Key>();
+		for (Key key : journal) {
+			keys.add(key);
+		}
+		journal.close();
+		assertEquals(4, keys.size());
+		assertEquals(new Key("a", "1"), keys.get(0));
+		assertEquals(new Key("b", "2,with comma"), keys.get(1));
+		assertEquals(new Key("a", "3"), keys.get(2));
+		assertEquals(new Key("b", "cut sh"), keys.get(3));
+
+		File empty = this.journalFolder.newFile();
+		journal = new MappedKeyJournal(empty);
+		assertNull(journal.read());
+		assertEquals(1, journal.split(4).size());
+		journal.close();
+	}
+}
@@ -0,0 +1,157 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.KeyJournalSorter;
+import com.basho.proserv.datamigrator.io.MappedKeyJournal;
+import com.basho.proserv.datamigrator.io.SortedKeyJournal;
+
+public class SortedKeyJournalTests {
+	private static final int KEYS_PER_BUCKET = 20000;
+
+	@Rule
+	public TemporaryFolder journalFolder = new TemporaryFolder();
+
+	private static List<Key> sortedKeys() {
+		List<Key> keys = new ArrayList<Key>();
+		for (String bucket : new String[] { "A", "B", "C" }) {
+			for (Integer i = 0; i < KEYS_PER_BUCKET; ++i) {
+				keys.add(new Key(bucket, "user:" + i + ":profile\u00e9"));
+			}
+		}
+		Collections.sort(keys);
+		return keys;
+	}
+
+	private File writeSorted(List<Key> keys, KeyJournal.Compression compression) throws Exception {
+		File path = this.journalFolder.newFile();
+		KeyJournal journal = new KeyJournal(path, KeyJournal.Mode.WRITE, KeyJournal.Format.SORTED, compression);
+		for (Key key : keys) {
+			journal.write(key.bucket(), key.key());
+		}
+		journal.close();
+		return path;
+	}
+
+	private static List<Key> readKeys(File path) {
+		List<Key> keys = new ArrayList<Key>();
+		KeyJournal journal = new KeyJournal(path, KeyJournal.Mode.READ);
+		assertEquals(KeyJournal.Format.SORTED, journal.getFormat());
+		for (Key key : journal) {
+			if (!key.errorKey()) {
+				keys.add(key);
+			}
+		}
+		journal.close();
+		return keys;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		List<Key> keys = sortedKeys();
+		for (KeyJournal.Compression compression : KeyJournal.Compression.values()) {
+			File path = this.writeSorted(keys, compression);
+			assertEquals(keys, readKeys(path));
+			assertEquals(keys.size(), KeyJournal.countKeys(path));
+		}
+	}
+
+	@Test
+	public void testSmallerThanBinary() throws Exception {
+		List<Key> keys = sortedKeys();
+		File binary = this.journalFolder.newFile();
+		KeyJournal journal = new KeyJournal(binary, KeyJournal.Mode.WRITE, KeyJournal.Format.BINARY,
+				KeyJournal.Compression.NONE);
+		for (Key key : keys) {
+			journal.write(key.bucket(), key.key());
+		}
+		journal.close();
+		File sorted = this.writeSorted(keys, KeyJournal.Compression.NONE);
+		assertTrue(sorted.length() < binary.length());
+	}
+
+	@Test
+	public void testContains() throws Exception {
+		List<Key> keys = sortedKeys();
+		SortedKeyJournal journal = new SortedKeyJournal(this.writeSorted(keys, KeyJournal.Compression.NONE));
+		try {
+			assertTrue(journal.blockCount() > 1);
+			assertEquals(keys.size(), journal.keyCount());
+			for (int i = 0; i < keys.size(); i += 7) {
+				assertTrue(journal.contains(keys.get(i)));
+			}
+			assertTrue(journal.contains(keys.get(keys.size() - 1)));
+			assertFalse(journal.contains("0", "user:1:profile\u00e9"));
+			assertFalse(journal.contains("A", "user:1:profile"));
+			assertFalse(journal.contains("B", "user:" + KEYS_PER_BUCKET + ":profile\u00e9"));
+			assertFalse(journal.contains("Z", "user:1:profile\u00e9"));
+		} finally {
+			journal.close();
+		}
+	}
+
+	@Test
+	public void testSplit() throws Exception {
+		List<Key> keys = sortedKeys();
+		MappedKeyJournal journal = new MappedKeyJournal(this.writeSorted(keys, KeyJournal.Compression.NONE));
+		List<Key> read = new ArrayList<Key>();
+		List<MappedKeyJournal> splits = journal.split(4);
+		assertTrue(splits.size() > 1);
+		for (MappedKeyJournal split : splits) {
+			for (Key key : split) {
+				read.add(key);
+			}
+			split.close();
+		}
+		journal.close();
+		assertEquals(keys, read);
+	}
+
+	@Test
+	public void testOutOfOrderWrite() throws Exception {
+		KeyJournal journal = new KeyJournal(this.journalFolder.newFile(), KeyJournal.Mode.WRITE,
+				KeyJournal.Format.SORTED, KeyJournal.Compression.NONE);
+		journal.write("A", "b");
+		journal.write("A", "b");
+		try {
+			journal.write("A", "a");
+			fail("Wrote a key out of order");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		journal.close();
+	}
+
+	@Test
+	public void testNotAppendable() throws Exception {
+		File path = this.writeSorted(sortedKeys(), KeyJournal.Compression.NONE);
+		try {
+			new KeyJournal(path, KeyJournal.Mode.APPEND);
+			fail("Opened a sorted journal for append");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testSorterWritesSorted() throws Exception {
+		List<Key> keys = sortedKeys();
+		List<Key> shuffled = new ArrayList<Key>(keys);
+		Collections.shuffle(shuffled);
+		File output = new File(this.journalFolder.getRoot(), "sorted.keys");
+		KeyJournalSorter sorter = new KeyJournalSorter(this.journalFolder.newFolder("work"), 1024 * 1024);
+		assertEquals(keys.size(), sorter.sort(shuffled, output, KeyJournal.Format.SORTED));
+		assertEquals(keys, readKeys(output));
+	}
+}
@@ -0,0 +1,71 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import java.io.File;
+
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.RiakObjectWriter;
+import com.basho.proserv.datamigrator.io.SyncPolicy;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.builders.RiakObjectBuilder;
+
+/**
+ * Measures what each SyncPolicy costs when writing a key journal and chunk
+ * files.  A CHUNK journal is synced once per chunkObjects keys, as the
+ * dumped keys journal is.  Not run as part of the unit tests; invoke main()
+ * directly, pointing it at the disk to measure:
+ *
+ *   SyncPolicyBenchmark directory [keyCount] [chunkCount] [chunkObjects] [valueBytes]
+ */
+public class SyncPolicyBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		File directory = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+		int keyCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		int chunkCount = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		int chunkObjects = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+		int valueBytes = args.length > 4 ? Integer.parseInt(args[4]) : 1024;
+
+		SyncPolicy[] policies = { SyncPolicy.NONE, SyncPolicy.group(100, 1000),
+				SyncPolicy.group(1000, 1000), SyncPolicy.group(10000, 1000), SyncPolicy.CHUNK };
+		File journalPath = new File(directory, "syncbench.keys");
+		for (SyncPolicy policy : policies) {
+			long start = System.nanoTime();
+			KeyJournal journal = new KeyJournal(journalPath, KeyJournal.Mode.WRITE,
+					KeyJournal.Format.BINARY, KeyJournal.Compression.NONE, policy);
+			for (int i = 0; i < keyCount; ++i) {
+				journal.write("benchBucket", "key" + i);
+				if (policy == SyncPolicy.CHUNK && (i + 1) % chunkObjects == 0) {
+					journal.sync();
+				}
+			}
+			journal.close();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("journal %-16s %10.0f keys/sec", policy, keyCount / seconds));
+		}
+		journalPath.delete();
+
+		byte[] value = new byte[valueBytes];
+		for (int i = 0; i < value.length; ++i) {
+			value[i] = (byte)('a' + i % 26);
+		}
+		for (SyncPolicy policy : new SyncPolicy[] { SyncPolicy.NONE, SyncPolicy.CHUNK }) {
+			long start = System.nanoTime();
+			for (int c = 0; c < chunkCount; ++c) {
+				File chunk = new File(directory, "syncbench" + c + ".data");
+				RiakObjectWriter writer = new RiakObjectWriter(chunk, policy);
+				for (int i = 0; i < chunkObjects; ++i) {
+					IRiakObject riakObject = RiakObjectBuilder.newBuilder("benchBucket", "key" + i)
+							.withValue(value).build();
+					writer.writeRiakObject(riakObject);
+				}
+				writer.close();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("chunks  %-16s %10.0f objects/sec", policy,
+					(double)chunkCount * chunkObjects / seconds));
+			for (int c = 0; c < chunkCount; ++c) {
+				new File(directory, "syncbench" + c + ".data").delete();
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package com.basho.proserv.riak.datamigrator.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.basho.proserv.datamigrator.io.ConcurrentKeyJournal;
+import com.basho.proserv.datamigrator.io.Key;
+import com.basho.proserv.datamigrator.io.KeyJournal;
+import com.basho.proserv.datamigrator.io.RiakObjectReader;
+import com.basho.proserv.datamigrator.io.RiakObjectWriter;
+import com.basho.proserv.datamigrator.io.SyncPolicy;
+import com.basho.proserv.datamigrator.io.ThreadedRiakObjectWriter;
+import com.basho.riak.client.IRiakObject;
+import com.basho.riak.client.builders.RiakObjectBuilder;
+
+public class SyncPolicyTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testParse() throws Exception {
+		assertSame(SyncPolicy.NONE, SyncPolicy.parse("none"));
+		assertSame(SyncPolicy.CHUNK, SyncPolicy.parse("CHUNK"));
+		SyncPolicy group = SyncPolicy.parse("group");
+		assertEquals(SyncPolicy.Mode.GROUP, group.getMode());
+		assertEquals(SyncPolicy.DEFAULT_GROUP_RECORDS, group.getGroupRecords());
+		assertEquals(SyncPolicy.DEFAULT_GROUP_MILLIS, group.getGroupMillis());
+		group = SyncPolicy.parse("group:500:20");
+		assertEquals(500, group.getGroupRecords());
+		assertEquals(20, group.getGroupMillis());
+		assertEquals("group:500:20", group.toString());
+		for (String invalid : new String[] { "", "always", "group:x", "group:0", "group:1:2:3", "chunk:1" }) {
+			try {
+				SyncPolicy.parse(invalid);
+				fail("Parsed " + invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testGroupSyncedKeysReadableBeforeClose() throws Exception {
+		File path = this.folder.newFile();
+		KeyJournal journal = new KeyJournal(path, KeyJournal.Mode.WRITE, KeyJournal.Format.BINARY,
+				KeyJournal.Compression.NONE, SyncPolicy.group(10, Long.MAX_VALUE));
+		for (Integer i = 0; i < 25; ++i) {
+			journal.write("bucket", i.toString());
+		}
+		// the last 5 keys are still in the unfinished block
+		assertEquals(20, readKeys(path));
+		journal.close();
+		assertEquals(25, readKeys(path));
+	}
+
+	@Test
+	public void testChunkCommittedOnClose() throws Exception {
+		File dataFile = new File(this.folder.getRoot(), "0.data");
+		RiakObjectWriter writer = new RiakObjectWriter(dataFile, SyncPolicy.CHUNK);
+		writer.writeRiakObject(createObject("key"));
+		assertFalse(dataFile.exists());
+		assertTrue(RiakObjectWriter.tempFile(dataFile).exists());
+		writer.close();
+		assertTrue(writer.isCommitted());
+		assertTrue(dataFile.exists());
+		assertFalse(RiakObjectWriter.tempFile(dataFile).exists());
+
+		RiakObjectReader reader = new RiakObjectReader(dataFile, false);
+		assertEquals("key", reader.readRiakObject().getKey());
+		assertNull(reader.readRiakObject());
+		reader.close();
+	}
+
+	@Test
+	public void testSyncDirectory() throws Exception {
+		File dataFile = new File(this.folder.getRoot(), "0.data");
+		RiakObjectWriter writer = new RiakObjectWriter(dataFile, SyncPolicy.CHUNK);
+		writer.writeRiakObject(createObject("key"));
+		writer.close();
+		assertTrue(writer.isCommitted());
+		SyncPolicy.syncDirectory(this.folder.getRoot());
+		try {
+			SyncPolicy.syncDirectory(new File(this.folder.getRoot(), "missing"));
+			fail("Synced a missing directory");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testChunkKeysJournalledOnceCommitted() throws Exception {
+		File dataFile = new File(this.folder.getRoot(), "0.data");
+		File journalPath = this.folder.newFile();
+		ConcurrentKeyJournal journal = new ConcurrentKeyJournal(new KeyJournal(journalPath,
+				KeyJournal.Mode.WRITE, KeyJournal.Format.BINARY, KeyJournal.Compression.NONE, SyncPolicy.CHUNK));
+		ThreadedRiakObjectWriter writer = new ThreadedRiakObjectWriter(dataFile, journal);
+		for (Integer i = 0; i < 100; ++i) {
+			writer.writeRiakObject(createObject(i.toString()));
+		}
+		writer.close();
+		writer.awaitClosed();
+		assertTrue(dataFile.exists());
+		// synced after the chunk's keys, so readable before the journal is closed
+		assertEquals(100, readKeys(journalPath));
+		journal.close();
+		assertEquals(100, readKeys(journalPath));
+	}
+
+	private static IRiakObject createObject(String key) {
+		return RiakObjectBuilder.newBuilder("bucket", key).withValue("value").build();
+	}
+
+	private static int readKeys(File path) {
+		int count = 0;
+		KeyJournal journal = new KeyJournal(path, KeyJournal.Mode.READ);
+		try {
+			for (Key key : journal) {
+				if (!key.errorKey()) {
+					++count;
+				}
+			}
+		} finally {
+			journal.close();
+		}
+		return count;
+	}
+}
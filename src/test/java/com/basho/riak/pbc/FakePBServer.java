@@ -0,0 +1,189 @@
+package com.basho.riak.pbc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.basho.riak.protobuf.RiakKvPB;
+import com.basho.riak.protobuf.RiakPB;
+import com.google.protobuf.ByteString;
+
+/**
+ * Local stand-in for a Riak PB listener handling get, put and delete.  Each
+ * response is held back until latencyMillis after its request arrived, like a
+ * network round trip, while later requests on the same socket keep being
+ * read, so pipelined clients see their requests overlap.  Keys named "error"
+ * get an error response.
+ */
+public class FakePBServer implements RiakMessageCodes {
+	private static final ByteString VCLOCK = ByteString.copyFromUtf8("FakeVClock");
+
+	private final ServerSocket serverSocket;
+	private final int latencyMillis;
+	private final Map<String, RiakKvPB.RpbContent> objects = new ConcurrentHashMap<String, RiakKvPB.RpbContent>();
+	private final AtomicInteger outstanding = new AtomicInteger(0);
+	public final AtomicInteger maxOutstanding = new AtomicInteger(0);
+	public final AtomicInteger requestCount = new AtomicInteger(0);
+	public final AtomicInteger connectionCount = new AtomicInteger(0);
+
+	public FakePBServer(int latencyMillis) throws IOException {
+		this.latencyMillis = latencyMillis;
+		this.serverSocket = new ServerSocket(0);
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						serve(serverSocket.accept());
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		}, "FakePBServer-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int port() {
+		return this.serverSocket.getLocalPort();
+	}
+
+	public int size() {
+		return this.objects.size();
+	}
+
+	public void close() throws IOException {
+		this.serverSocket.close();
+	}
+
+	private void serve(final Socket socket) throws IOException {
+		this.connectionCount.incrementAndGet();
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		final LinkedBlockingQueue<Reply> replies = new LinkedBlockingQueue<Reply>();
+
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						int len = in.readInt();
+						int code = in.read();
+						byte[] data = new byte[len - 1];
+						in.readFully(data);
+						requestCount.incrementAndGet();
+						int now = outstanding.incrementAndGet();
+						int max = maxOutstanding.get();
+						while (now > max && !maxOutstanding.compareAndSet(max, now)) {
+							max = maxOutstanding.get();
+						}
+						replies.put(new Reply(System.currentTimeMillis() + latencyMillis, handle(code, data)));
+					}
+				} catch (Exception e) {
+					// client went away
+				}
+			}
+		}, "FakePBServer-reader");
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Reply reply = replies.take();
+						long wait = reply.due - System.currentTimeMillis();
+						if (wait > 0) {
+							Thread.sleep(wait);
+						}
+						out.write(reply.frame);
+						outstanding.decrementAndGet();
+						if (replies.isEmpty()) {
+							out.flush();
+						}
+					}
+				} catch (Exception e) {
+					// client went away
+				}
+			}
+		}, "FakePBServer-writer");
+		reader.setDaemon(true);
+		writer.setDaemon(true);
+		reader.start();
+		writer.start();
+	}
+
+	private byte[] handle(int code, byte[] data) throws IOException {
+		switch (code) {
+		case MSG_GetReq: {
+			RiakKvPB.RpbGetReq req = RiakKvPB.RpbGetReq.parseFrom(data);
+			if (req.getKey().toStringUtf8().equals("error")) {
+				return error();
+			}
+			RiakKvPB.RpbContent content = this.objects.get(id(req.getBucket(), req.getKey()));
+			if (content == null) {
+				return frame(MSG_GetResp, null);
+			}
+			return frame(MSG_GetResp, RiakKvPB.RpbGetResp.newBuilder()
+					.addContent(content).setVclock(VCLOCK).build().toByteArray());
+		}
+		case MSG_PutReq: {
+			RiakKvPB.RpbPutReq req = RiakKvPB.RpbPutReq.parseFrom(data);
+			if (req.getKey().toStringUtf8().equals("error")) {
+				return error();
+			}
+			this.objects.put(id(req.getBucket(), req.getKey()), req.getContent());
+			return frame(MSG_PutResp, null);
+		}
+		case MSG_DelReq: {
+			RiakKvPB.RpbDelReq req = RiakKvPB.RpbDelReq.parseFrom(data);
+			this.objects.remove(id(req.getBucket(), req.getKey()));
+			return frame(MSG_DelResp, null);
+		}
+		default:
+			return error();
+		}
+	}
+
+	private static String id(ByteString bucket, ByteString key) {
+		return bucket.toStringUtf8() + "/" + key.toStringUtf8();
+	}
+
+	private static byte[] error() {
+		return frame(MSG_ErrorResp, RiakPB.RpbErrorResp.newBuilder()
+				.setErrmsg(ByteString.copyFromUtf8("simulated error"))
+				.setErrcode(1).build().toByteArray());
+	}
+
+	private static byte[] frame(int code, byte[] body) {
+		int bodyLength = body == null ? 0 : body.length;
+		byte[] frame = new byte[bodyLength + 5];
+		int len = bodyLength + 1;
+		frame[0] = (byte)(len >>> 24);
+		frame[1] = (byte)(len >>> 16);
+		frame[2] = (byte)(len >>> 8);
+		frame[3] = (byte)len;
+		frame[4] = (byte)code;
+		if (body != null) {
+			System.arraycopy(body, 0, frame, 5, bodyLength);
+		}
+		return frame;
+	}
+
+	private static class Reply {
+		final long due;
+		final byte[] frame;
+
+		Reply(long due, byte[] frame) {
+			this.due = due;
+			this.frame = frame;
+		}
+	}
+}
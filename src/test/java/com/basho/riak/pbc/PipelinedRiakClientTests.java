@@ -0,0 +1,131 @@
+package com.basho.riak.pbc;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class PipelinedRiakClientTests {
+
+	private FakePBServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		this.server = new FakePBServer(20);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.server.close();
+	}
+
+	private static RiakObject object(String key) {
+		return new RiakObject(ByteString.copyFromUtf8("VClock"), ByteString.copyFromUtf8("bucket"),
+				ByteString.copyFromUtf8(key), ByteString.copyFromUtf8("value" + key));
+	}
+
+	@Test
+	public void testStoreFetchDelete() throws Exception {
+		PipelinedRiakClient client = new PipelinedRiakClient(Collections.singleton("127.0.0.1"),
+				this.server.port(), 1, 8);
+
+		client.store(object("a"));
+		RiakObject[] objects = client.fetch("bucket", "a");
+		assertEquals(1, objects.length);
+		assertEquals("a", objects[0].getKey());
+		assertEquals("valuea", objects[0].getValue().toStringUtf8());
+
+		assertEquals(0, client.fetch("bucket", "missing").length);
+
+		client.delete("bucket", "a");
+		assertEquals(0, client.fetch("bucket", "a").length);
+
+		try {
+			client.fetch("bucket", "error");
+			fail("Expected error response");
+		} catch (IOException e) {
+			// the connection survives an error response
+		}
+		client.store(object("b"));
+		assertEquals(1, client.fetch("bucket", "b").length);
+		client.close();
+	}
+
+	@Test
+	public void testRequestsOverlapOnOneSocket() throws Exception {
+		final int THREADS = 32;
+		final int REQUESTS_PER_THREAD = 10;
+		final int MAX_IN_FLIGHT = 16;
+		final PipelinedRiakClient client = new PipelinedRiakClient(Collections.singleton("127.0.0.1"),
+				this.server.port(), 1, MAX_IN_FLIGHT);
+
+		final AtomicInteger errors = new AtomicInteger(0);
+		List<Thread> threads = new ArrayList<Thread>();
+		long start = System.currentTimeMillis();
+		for (int t = 0; t < THREADS; ++t) {
+			final int thread = t;
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < REQUESTS_PER_THREAD; ++i) {
+							client.store(object(thread + "-" + i));
+						}
+					} catch (IOException e) {
+						errors.incrementAndGet();
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		client.close();
+
+		assertEquals(0, errors.get());
+		assertEquals(THREADS * REQUESTS_PER_THREAD, this.server.size());
+		assertEquals(1, this.server.connectionCount.get());
+		assertTrue(this.server.maxOutstanding.get() > 1);
+		assertTrue(this.server.maxOutstanding.get() <= MAX_IN_FLIGHT);
+		// 320 requests at 20ms each would take 6.4s one at a time
+		assertTrue("took " + elapsed + "ms", elapsed < 3000);
+	}
+
+	@Test
+	public void testCloseFailsRequests() throws Exception {
+		PipelinedRiakClient client = new PipelinedRiakClient(Collections.singleton("127.0.0.1"),
+				this.server.port(), 1, 4);
+		client.store(object("a"));
+		client.close();
+		try {
+			client.store(object("b"));
+			fail("Expected closed client to fail");
+		} catch (IOException e) {
+			// expected
+		}
+
+		PipelinedRiakConnection connection = new PipelinedRiakConnection("127.0.0.1", this.server.port(), 4);
+		PipelinedRiakConnection.Response<RiakObject> response = connection.store(object("c"));
+		connection.close();
+		try {
+			response.get();
+		} catch (IOException e) {
+			// closing may fail the outstanding request
+		}
+		assertTrue(connection.isBroken());
+		assertEquals(0, connection.inFlightCount());
+	}
+}